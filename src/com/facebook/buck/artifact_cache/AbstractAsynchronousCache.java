@@ -45,9 +45,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 import org.immutables.value.Value;
 
@@ -72,6 +75,12 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
 
   private final BlockingQueue<FetchRequest> pendingCheckRequests = new LinkedBlockingQueue<>();
 
+  // Only used when the concurrency is adaptive, otherwise requests go straight to the executors.
+  private final Optional<AdaptiveConcurrencyLimit> fetchConcurrencyLimit;
+  private final Optional<AdaptiveConcurrencyLimit> storeConcurrencyLimit;
+  private final BlockingQueue<MultiContainsRequest> pendingMultiContainsRequests =
+      new LinkedBlockingQueue<>();
+
   // TODO(cjhopman): Remove this error-based disabling of multiFetch, it's only here to make rollout
   // less disruptive.
   private volatile boolean enableMultiFetch = true;
@@ -87,6 +96,35 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
       CacheEventListener eventListener,
       Optional<Long> maxStoreSize,
       ProjectFilesystem projectFilesystem) {
+    this(
+        name,
+        mode,
+        cacheReadMode,
+        storeExecutorService,
+        fetchExecutorService,
+        eventListener,
+        maxStoreSize,
+        projectFilesystem,
+        Optional.empty(),
+        Optional.empty());
+  }
+
+  /**
+   * @param fetchConcurrencyLimit if present, limits the fetches in flight, so that fetches waiting
+   *     for it are coalesced into larger multi-fetches, and coalesces multiContains calls.
+   * @param storeConcurrencyLimit if present, limits the stores in flight.
+   */
+  public AbstractAsynchronousCache(
+      String name,
+      ArtifactCacheMode mode,
+      CacheReadMode cacheReadMode,
+      ListeningExecutorService storeExecutorService,
+      ListeningExecutorService fetchExecutorService,
+      CacheEventListener eventListener,
+      Optional<Long> maxStoreSize,
+      ProjectFilesystem projectFilesystem,
+      Optional<AdaptiveConcurrencyLimit> fetchConcurrencyLimit,
+      Optional<AdaptiveConcurrencyLimit> storeConcurrencyLimit) {
     this.name = name;
     this.cacheReadMode = cacheReadMode;
     this.storeExecutorService = storeExecutorService;
@@ -95,6 +133,8 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     this.maxStoreSize = maxStoreSize;
     this.projectFilesystem = projectFilesystem;
     this.mode = mode;
+    this.fetchConcurrencyLimit = fetchConcurrencyLimit;
+    this.storeConcurrencyLimit = storeConcurrencyLimit;
   }
 
   protected final String getName() {
@@ -172,8 +212,10 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     }
   }
 
-  private void doMultiFetch(ImmutableList<ClaimedFetchRequest> requests) {
+  /** @return whether any of the keys could be fetched. */
+  private RequestOutcome doMultiFetch(ImmutableList<ClaimedFetchRequest> requests) {
     boolean gotNonError = false;
+    long payloadSizeBytes = 0;
     try (CacheEventListener.MultiFetchRequestEvents requestEvents =
         eventListener.multiFetchStarted(
             requests.stream()
@@ -205,6 +247,7 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
           } else {
             requestEvents.finished(i, thisResult);
             thisRequest.setResult(thisResult.getCacheResult());
+            payloadSizeBytes += getPayloadSizeBytes(thisResult.getCacheResult());
           }
         }
         gotNonError =
@@ -239,6 +282,7 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
         }
       }
     }
+    return new RequestOutcome(gotNonError, requests.size(), payloadSizeBytes);
   }
 
   @Override
@@ -253,7 +297,8 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     markAllFetchRequestsAsSkipped = true;
   }
 
-  private void doFetch(FetchRequest request) {
+  /** @return whether the key could be fetched. */
+  private RequestOutcome doFetch(FetchRequest request) {
     CacheResult result;
     CacheEventListener.FetchRequestEvents requestEvents =
         eventListener.fetchStarted(request.getBuildTarget(), request.getRuleKey());
@@ -269,7 +314,16 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
       result = CacheResult.error(name, mode, msg);
       requestEvents.failed(e, msg, result);
     }
+    if (!result.getType().isSuccess()) {
+      UnpackingLazyPath.rollbackIfSupported(request.getOutput());
+    }
     request.future.set(result);
+    return new RequestOutcome(
+        result.getType() != CacheResultType.ERROR, 1, getPayloadSizeBytes(result));
+  }
+
+  private static long getPayloadSizeBytes(CacheResult result) {
+    return result.getType() == CacheResultType.HIT ? result.getArtifactSizeBytes() : 0;
   }
 
   private static void skipPendingRequest(ClaimedFetchRequest request) {
@@ -350,11 +404,20 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
   }
 
   private void processFetch() {
+    processWithinLimit(
+        fetchConcurrencyLimit,
+        ArtifactCacheEvent.Operation.FETCH,
+        pendingFetchRequests,
+        this::scheduleFetch,
+        this::doProcessFetch);
+  }
+
+  private Optional<RequestOutcome> doProcessFetch() {
     try {
       if (markAllFetchRequestsAsSkipped) {
         // Build is finished/terminated, all pending fetch requests should be set to skipped state.
         skipAllPendingRequests();
-        return;
+        return Optional.empty();
       }
 
       int multiFetchLimit =
@@ -371,24 +434,104 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
           }
           ImmutableList<ClaimedFetchRequest> requests = requestsBuilder.build();
           if (requests.isEmpty()) {
-            return;
+            return Optional.empty();
           }
-          doMultiFetch(requests);
+          return Optional.of(doMultiFetch(requests));
         } finally {
           requestsBuilder.build().forEach(ClaimedFetchRequest::close);
         }
       } else {
         try (ClaimedFetchRequest request = getFetchRequest()) {
           if (request == null) {
-            return;
+            return Optional.empty();
           }
-          doFetch(request.getRequest());
+          return Optional.of(doFetch(request.getRequest()));
         }
       }
     } catch (Exception e) {
       // If any exception is thrown in trying to process requests, just fulfill everything with an
       // error.
       cancelAllPendingRequests(e);
+      return Optional.of(new RequestOutcome(false, 1, 0));
+    }
+  }
+
+  /**
+   * Checks the keys of all the pending multiContains calls at once. These are not limited, as they
+   * are much cheaper than fetches and would skew their latency, but they queue up behind fetches on
+   * the executor, which is when there are several of them to coalesce.
+   */
+  private void processMultiContains() {
+    List<MultiContainsRequest> requests = new ArrayList<>();
+    pendingMultiContainsRequests.drainTo(requests);
+    if (requests.isEmpty()) {
+      return;
+    }
+    ImmutableSet<RuleKey> ruleKeys =
+        requests.stream()
+            .flatMap(request -> request.ruleKeys.stream())
+            .collect(ImmutableSet.toImmutableSet());
+    try {
+      ImmutableMap<RuleKey, CacheResult> results = multiContainsImpl(ruleKeys).getCacheResults();
+      for (MultiContainsRequest request : requests) {
+        request.future.set(
+            results.entrySet().stream()
+                .filter(entry -> request.ruleKeys.contains(entry.getKey()))
+                .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, Map.Entry::getValue)));
+      }
+    } catch (IOException | RuntimeException e) {
+      requests.forEach(request -> request.future.setException(e));
+    }
+  }
+
+  /**
+   * Runs {@code process} if {@code concurrencyLimit} allows one more request, then adjusts the
+   * limit from how the request went and schedules as many more runs as the limit now allows.
+   *
+   * <p>Runs that don't get a permit leave their requests in {@code queue}, where they are picked up
+   * by one of the runs scheduled once a permit is released, together with the requests queued in
+   * the meantime.
+   *
+   * @param process processes some of the requests in {@code queue}, and returns whether they
+   *     succeeded, or empty if it made no request.
+   */
+  private void processWithinLimit(
+      Optional<AdaptiveConcurrencyLimit> concurrencyLimit,
+      ArtifactCacheEvent.Operation operation,
+      Queue<?> queue,
+      Runnable scheduleProcessing,
+      Supplier<Optional<RequestOutcome>> process) {
+    if (!concurrencyLimit.isPresent()) {
+      process.get();
+      return;
+    }
+    AdaptiveConcurrencyLimit limit = concurrencyLimit.get();
+    AdaptiveConcurrencyLimit.Permit permit = limit.tryAcquire();
+    if (permit == null) {
+      return;
+    }
+    Optional<RequestOutcome> outcome = Optional.empty();
+    try {
+      outcome = process.get();
+    } finally {
+      boolean limitChanged = false;
+      if (outcome.isPresent()) {
+        limitChanged =
+            permit.release(
+                outcome.get().succeeded,
+                outcome.get().requestCount,
+                outcome.get().payloadSizeBytes);
+      } else {
+        permit.releaseUnused();
+      }
+      if (limitChanged) {
+        eventListener.concurrencyLimitChanged(
+            operation, limit.getLimit(), limit.getInFlight(), queue.size());
+      }
+      int runsToSchedule = Math.min(limit.getAvailable(), queue.size());
+      for (int i = 0; i < runsToSchedule; i++) {
+        scheduleProcessing.run();
+      }
     }
   }
 
@@ -452,18 +595,55 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     return ImmutableList.copyOf(claimedCheckRequest);
   }
 
-  @SuppressWarnings("CheckReturnValue")
   private void addFetchRequest(FetchRequest fetchRequest) {
     pendingFetchRequests.add(fetchRequest);
-    fetchExecutorService.submit(this::processFetch);
+    scheduleFetch();
   }
 
-  @SuppressWarnings("CheckReturnValue")
   private void addCheckRequest(FetchRequest fetchRequest) {
     pendingCheckRequests.add(fetchRequest);
+    scheduleCheck();
+  }
+
+  @SuppressWarnings("CheckReturnValue")
+  private void scheduleFetch() {
+    fetchExecutorService.submit(this::processFetch);
+  }
+
+  @SuppressWarnings("CheckReturnValue")
+  private void scheduleCheck() {
     fetchExecutorService.submit(this::processCheck);
   }
 
+  private ListenableFuture<Unit> submitStore(
+      Callable<Unit> store, int artifactCount, long sizeBytes) {
+    if (!storeConcurrencyLimit.isPresent()) {
+      return storeExecutorService.submit(store);
+    }
+    // Unlike fetches, stores are all submitted right away and wait for a permit on the store
+    // executor: it is shut down at the end of the build, after which nothing could be submitted to
+    // run the stores still waiting for the limit.
+    AdaptiveConcurrencyLimit limit = storeConcurrencyLimit.get();
+    return storeExecutorService.submit(
+        () -> {
+          AdaptiveConcurrencyLimit.Permit permit = limit.acquire();
+          boolean succeeded = false;
+          try {
+            Unit result = store.call();
+            succeeded = true;
+            return result;
+          } finally {
+            if (permit.release(succeeded, artifactCount, sizeBytes)) {
+              eventListener.concurrencyLimitChanged(
+                  ArtifactCacheEvent.Operation.STORE,
+                  limit.getLimit(),
+                  limit.getInFlight(),
+                  limit.getWaiting());
+            }
+          }
+        });
+  }
+
   @Override
   public final ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
@@ -480,6 +660,12 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
   @Override
   public final ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
       ImmutableSet<RuleKey> ruleKeys) {
+    if (fetchConcurrencyLimit.isPresent()) {
+      MultiContainsRequest request = new MultiContainsRequest(ruleKeys);
+      pendingMultiContainsRequests.add(request);
+      fetchExecutorService.execute(this::processMultiContains);
+      return request.future;
+    }
     return fetchExecutorService.submit(
         () -> {
           MultiContainsResult results = multiContainsImpl(ruleKeys);
@@ -510,7 +696,7 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     }
 
     StoreEvents events = eventListener.storeScheduled(info, artifactSizeBytes);
-    return storeExecutorService.submit(
+    return submitStore(
         () -> {
           StoreEvents.StoreRequestEvents requestEvents = events.started();
           try {
@@ -525,7 +711,9 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
             requestEvents.failed(e, msg);
             throw new RuntimeException(e);
           }
-        });
+        },
+        1,
+        artifactSizeBytes);
   }
 
   @Override
@@ -581,7 +769,7 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
 
     ImmutableList<StoreEvents> events = eventsBuilder.build();
 
-    return storeExecutorService.submit(
+    return submitStore(
         () -> {
           for (int i = 0; i < matchedArtifacts.size(); i++) {
             StoreEvents.StoreRequestEvents requestEvents = events.get(i).started();
@@ -603,7 +791,9 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
           }
 
           return Unit.UNIT;
-        });
+        },
+        matchedArtifacts.size(),
+        artifactSizesInBytes.stream().mapToLong(Long::longValue).sum());
   }
 
   @Override
@@ -675,6 +865,10 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
 
       void failed(int keyIndex, IOException e, String msg, CacheResult result);
     }
+
+    /** Called when an adaptive limit of the requests in flight changes. */
+    void concurrencyLimitChanged(
+        ArtifactCacheEvent.Operation operation, int limit, int inFlight, int queued);
   }
 
   public interface StoreEvents {
@@ -687,6 +881,28 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     }
   }
 
+  private static class RequestOutcome {
+    private final boolean succeeded;
+    private final int requestCount;
+    private final long payloadSizeBytes;
+
+    private RequestOutcome(boolean succeeded, int requestCount, long payloadSizeBytes) {
+      this.succeeded = succeeded;
+      this.requestCount = requestCount;
+      this.payloadSizeBytes = payloadSizeBytes;
+    }
+  }
+
+  private static class MultiContainsRequest {
+    private final ImmutableSet<RuleKey> ruleKeys;
+    private final SettableFuture<ImmutableMap<RuleKey, CacheResult>> future =
+        SettableFuture.create();
+
+    private MultiContainsRequest(ImmutableSet<RuleKey> ruleKeys) {
+      this.ruleKeys = ruleKeys;
+    }
+  }
+
   protected static class FetchRequest {
     @Nullable private final BuildTarget target;
     private final RuleKey ruleKey;
@@ -60,7 +60,9 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
             args.getCacheName(),
             new ErrorReporter(args)),
         args.getMaxStoreSizeBytes(),
-        args.getProjectFilesystem());
+        args.getProjectFilesystem(),
+        args.getFetchConcurrencyLimit(),
+        args.getStoreConcurrencyLimit());
     this.repository = args.getRepository();
     this.scheduleType = args.getScheduleType();
     this.fetchClient = args.getFetchClient();
@@ -181,6 +183,17 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
       };
     }
 
+    @Override
+    public void concurrencyLimitChanged(
+        ArtifactCacheEvent.Operation operation, int limit, int inFlight, int queued) {
+      LOG.debug(
+          "%s limit of %s changed to %d, with %d in flight and %d queued.",
+          operation, name, limit, inFlight, queued);
+      dispatcher.post(
+          HttpArtifactCacheEvent.newConcurrencyLimitChangedEvent(
+              name, operation, limit, inFlight, queued));
+    }
+
     private void reportFetchFailure(RuleKey ruleKey, IOException e, String msg) {
       if (isNoHealthyServersException(e)) {
         errorReporter.reportFailureToEventBus(
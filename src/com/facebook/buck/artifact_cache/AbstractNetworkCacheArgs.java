@@ -63,4 +63,10 @@ interface AbstractNetworkCacheArgs {
   int getErrorTextLimit();
 
   Optional<Long> getMaxStoreSizeBytes();
+
+  /** Adapts the number of fetches in flight, instead of using all the fetch threads. */
+  Optional<AdaptiveConcurrencyLimit> getFetchConcurrencyLimit();
+
+  /** Adapts the number of stores in flight, instead of using all the store threads. */
+  Optional<AdaptiveConcurrencyLimit> getStoreConcurrencyLimit();
 }
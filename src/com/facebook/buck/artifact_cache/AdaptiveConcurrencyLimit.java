@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.util.timing.Clock;
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Limits the number of concurrent requests made to a cache, adjusting the limit from the latency
+ * and errors of the requests that complete (AIMD, as in TCP congestion control).
+ *
+ * <p>While requests complete without errors and without taking much longer than the fastest recent
+ * ones, the limit grows by one for each {@code limit} requests, so that high latency links end up
+ * with enough requests in flight. When a request fails or its latency goes above {@link
+ * #LATENCY_TOLERANCE} times the baseline, the limit is halved, at most once for all the requests
+ * that were already in flight.
+ *
+ * <p>Moving a large artifact takes longer than a miss or a small artifact on an idle link too, so
+ * requests are only compared with the ones that moved about as many bytes: there is a baseline for
+ * each power of two of the payload size.
+ */
+public class AdaptiveConcurrencyLimit {
+  /** How much slower than the baseline a request can be before the link is considered congested. */
+  private static final double LATENCY_TOLERANCE = 2.0;
+
+  private static final double BACKOFF_RATIO = 0.5;
+
+  /** The baseline is recomputed every so often, so that it follows changes of the network. */
+  private static final int BASELINE_SAMPLES = 500;
+
+  /** One for empty payloads, and one for each bit length of a payload size. */
+  private static final int SIZE_CLASSES = Long.SIZE + 1;
+
+  private final Clock clock;
+  private final int minLimit;
+  private final int maxLimit;
+
+  @GuardedBy("this")
+  private double limit;
+
+  @GuardedBy("this")
+  private int inFlight;
+
+  @GuardedBy("this")
+  private final long[] baselineLatencyNanos = new long[SIZE_CLASSES];
+
+  @GuardedBy("this")
+  private final long[] nextBaselineLatencyNanos = new long[SIZE_CLASSES];
+
+  @GuardedBy("this")
+  private final int[] baselineSamples = new int[SIZE_CLASSES];
+
+  @GuardedBy("this")
+  private int waiting;
+
+  /** How many times the limit was decreased, to tell which requests started after the last time. */
+  @GuardedBy("this")
+  private int decreases;
+
+  public AdaptiveConcurrencyLimit(Clock clock, int minLimit, int initialLimit, int maxLimit) {
+    Preconditions.checkArgument(minLimit > 0, "minLimit must be positive");
+    Preconditions.checkArgument(
+        minLimit <= initialLimit && initialLimit <= maxLimit,
+        "Expected %s <= %s <= %s",
+        minLimit,
+        initialLimit,
+        maxLimit);
+    this.clock = clock;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.limit = initialLimit;
+    Arrays.fill(baselineLatencyNanos, Long.MAX_VALUE);
+    Arrays.fill(nextBaselineLatencyNanos, Long.MAX_VALUE);
+  }
+
+  /** @return a permit to make a request, or null if the limit is reached. */
+  @Nullable
+  public synchronized Permit tryAcquire() {
+    if (inFlight >= getLimit()) {
+      return null;
+    }
+    inFlight++;
+    return new Permit(clock.nanoTime(), inFlight, decreases);
+  }
+
+  /** @return a permit to make a request, once the limit allows one more. */
+  public synchronized Permit acquire() throws InterruptedException {
+    waiting++;
+    try {
+      while (inFlight >= getLimit()) {
+        wait();
+      }
+    } finally {
+      waiting--;
+    }
+    inFlight++;
+    return new Permit(clock.nanoTime(), inFlight, decreases);
+  }
+
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /** @return how many callers of {@link #acquire()} are waiting for a permit. */
+  public synchronized int getWaiting() {
+    return waiting;
+  }
+
+  /** @return how many more requests can currently be made. */
+  public synchronized int getAvailable() {
+    return Math.max(0, getLimit() - inFlight);
+  }
+
+  /** @return whether the limit changed. */
+  private synchronized boolean onRelease(
+      Permit permit, boolean succeeded, int requestCount, long payloadSizeBytes, long nowNanos) {
+    inFlight--;
+    notifyAll();
+    int previousLimit = getLimit();
+    int keys = Math.max(1, requestCount);
+    long latencyNanos = (nowNanos - permit.startNanos) / keys;
+    int sizeClass = Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, payloadSizeBytes / keys));
+
+    if (succeeded) {
+      baselineLatencyNanos[sizeClass] = Math.min(baselineLatencyNanos[sizeClass], latencyNanos);
+      nextBaselineLatencyNanos[sizeClass] =
+          Math.min(nextBaselineLatencyNanos[sizeClass], latencyNanos);
+      if (++baselineSamples[sizeClass] >= BASELINE_SAMPLES) {
+        baselineLatencyNanos[sizeClass] = nextBaselineLatencyNanos[sizeClass];
+        nextBaselineLatencyNanos[sizeClass] = Long.MAX_VALUE;
+        baselineSamples[sizeClass] = 0;
+      }
+    }
+
+    boolean congested =
+        !succeeded || latencyNanos > LATENCY_TOLERANCE * baselineLatencyNanos[sizeClass];
+    if (congested) {
+      // Requests started before the last decrease saw the old limit, don't punish it twice.
+      if (permit.decreasesAtStart == decreases) {
+        limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        decreases++;
+      }
+    } else if (permit.inFlightAtStart * 2 >= previousLimit) {
+      // Don't grow the limit while it is far from being what keeps more requests from being made.
+      limit = Math.min(maxLimit, limit + 1.0 / limit);
+    }
+    return getLimit() != previousLimit;
+  }
+
+  /** The right to make one request, which must be released once it completes. */
+  public final class Permit {
+    private final long startNanos;
+    private final int inFlightAtStart;
+    private final int decreasesAtStart;
+    private boolean released;
+
+    private Permit(long startNanos, int inFlightAtStart, int decreasesAtStart) {
+      this.startNanos = startNanos;
+      this.inFlightAtStart = inFlightAtStart;
+      this.decreasesAtStart = decreasesAtStart;
+    }
+
+    /**
+     * @param succeeded whether the request got a response from the cache, be it a hit or a miss.
+     * @param requestCount how many keys were fetched or stored by the request, by which its latency
+     *     is divided.
+     * @param payloadSizeBytes how many bytes of artifacts the request fetched or stored.
+     * @return whether the limit changed.
+     */
+    public boolean release(boolean succeeded, int requestCount, long payloadSizeBytes) {
+      long nowNanos = clock.nanoTime();
+      synchronized (AdaptiveConcurrencyLimit.this) {
+        Preconditions.checkState(!released, "Permit released twice.");
+        released = true;
+        return onRelease(this, succeeded, requestCount, payloadSizeBytes, nowNanos);
+      }
+    }
+
+    /** Gives the permit back without making a request, which leaves the limit unchanged. */
+    public void releaseUnused() {
+      synchronized (AdaptiveConcurrencyLimit.this) {
+        Preconditions.checkState(!released, "Permit released twice.");
+        released = true;
+        inFlight--;
+        AdaptiveConcurrencyLimit.this.notifyAll();
+      }
+    }
+  }
+}
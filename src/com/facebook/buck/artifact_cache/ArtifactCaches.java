@@ -61,6 +61,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import javax.net.ssl.HostnameVerifier;
@@ -98,6 +99,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
   private final String producerId;
   private final String producerHostname;
   private final Optional<ClientCertificateHandler> clientCertificateHandler;
+  private final ConcurrentMap<String, AdaptiveConcurrencyLimit> concurrencyLimits;
 
   /** {@link TaskAction} implementation for {@link ArtifactCaches}. */
   static class ArtifactCachesCloseAction implements TaskAction<List<ArtifactCache>> {
@@ -145,6 +147,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
    * @param producerId free-form identifier of a user or machine uploading artifacts, can be used on
    *     cache server side for monitoring
    * @param clientCertificateHandler container for client certificate information
+   * @param concurrencyLimits the adaptive concurrency limits of the network caches by cache and
+   *     operation, which are kept across commands so that they don't have to be learned again
    */
   public ArtifactCaches(
       ArtifactCacheBuckConfig buckConfig,
@@ -159,7 +163,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       TaskManagerCommandScope managerScope,
       String producerId,
       String producerHostname,
-      Optional<ClientCertificateHandler> clientCertificateHandler) {
+      Optional<ClientCertificateHandler> clientCertificateHandler,
+      ConcurrentMap<String, AdaptiveConcurrencyLimit> concurrencyLimits) {
     this.buckConfig = buckConfig;
     this.buckEventBus = buckEventBus;
     this.unconfiguredBuildTargetFactory = unconfiguredBuildTargetFactory;
@@ -173,6 +178,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
     this.producerId = producerId;
     this.producerHostname = producerHostname;
     this.clientCertificateHandler = clientCertificateHandler;
+    this.concurrencyLimits = concurrencyLimits;
   }
 
   private static Request.Builder addHeadersToBuilder(
@@ -230,7 +236,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             distributedBuildModeEnabled,
             producerId,
             producerHostname,
-            clientCertificateHandler);
+            clientCertificateHandler,
+            concurrencyLimits);
 
     artifactCaches.add(artifactCache);
 
@@ -253,7 +260,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
         managerScope,
         producerId,
         producerHostname,
-        clientCertificateHandler);
+        clientCertificateHandler,
+        concurrencyLimits);
   }
 
   /**
@@ -295,18 +303,21 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       boolean distributedBuildModeEnabled,
       String producerId,
       String producerHostname,
-      Optional<ClientCertificateHandler> clientCertificateHandler) {
+      Optional<ClientCertificateHandler> clientCertificateHandler,
+      ConcurrentMap<String, AdaptiveConcurrencyLimit> concurrencyLimits) {
     ImmutableSet<ArtifactCacheMode> modes = buckConfig.getArtifactCacheModes();
     if (modes.isEmpty()) {
       return new NoopArtifactCache();
     }
     ArtifactCacheEntries cacheEntries = buckConfig.getCacheEntries();
     ImmutableList.Builder<ArtifactCache> builder = ImmutableList.builder();
+    ImmutableList.Builder<ArtifactCache> remoteCaches = ImmutableList.builder();
     for (ArtifactCacheMode mode : modes) {
       if (cacheTypeBlacklist.contains(mode.getCacheType())) {
         continue;
       }
 
+      ImmutableList.Builder<ArtifactCache> modeCaches = ImmutableList.builder();
       switch (mode) {
         case unknown:
           break;
@@ -317,7 +328,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               unconfiguredBuildTargetFactory,
               targetConfigurationSerializer,
               projectFilesystem,
-              builder,
+              modeCaches,
               dirWriteExecutorService);
           break;
         case http:
@@ -331,10 +342,11 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               wifiSsid,
               httpWriteExecutorService,
               httpFetchExecutorService,
-              builder,
+              modeCaches,
               HttpArtifactCache::new,
               mode,
-              clientCertificateHandler);
+              clientCertificateHandler,
+              concurrencyLimits);
           break;
         case sqlite:
           initializeSQLiteCaches(
@@ -343,7 +355,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               unconfiguredBuildTargetFactory,
               targetConfigurationSerializer,
               projectFilesystem,
-              builder);
+              modeCaches);
           break;
         case thrift_over_http:
           Preconditions.checkArgument(
@@ -359,7 +371,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               wifiSsid,
               httpWriteExecutorService,
               httpFetchExecutorService,
-              builder,
+              modeCaches,
               (args) ->
                   new ThriftArtifactCache(
                       args,
@@ -372,9 +384,15 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
                       producerId,
                       producerHostname),
               mode,
-              clientCertificateHandler);
+              clientCertificateHandler,
+              concurrencyLimits);
           break;
       }
+      ImmutableList<ArtifactCache> caches = modeCaches.build();
+      builder.addAll(caches);
+      if (mode.getCacheType() == remote) {
+        remoteCaches.addAll(caches);
+      }
     }
     ImmutableList<ArtifactCache> artifactCaches = builder.build();
     ArtifactCache result;
@@ -386,6 +404,25 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       result = new MultiArtifactCache(artifactCaches);
     }
 
+    // Chunks are only skipped when all the caches they would be stored in have them. The local
+    // caches are not shared, so they don't count when there are remote ones.
+    ImmutableList<ArtifactCache> chunkIndexes = getWritableCaches(remoteCaches.build());
+    if (chunkIndexes.isEmpty()) {
+      chunkIndexes = getWritableCaches(artifactCaches);
+    }
+
+    // Always support reading chunked stores, which two-level ones may point to.
+    result =
+        new ChunkedArtifactCacheDecorator(
+            result,
+            chunkIndexes,
+            projectFilesystem,
+            buckEventBus,
+            httpWriteExecutorService,
+            buckConfig.getChunkedArtifactsEnabled(),
+            buckConfig.getChunkedArtifactsMinimumSize(),
+            buckConfig.getChunkedArtifactsAverageChunkSize());
+
     // Always support reading two-level cache stores (in case we performed any in the past).
     result =
         new TwoLevelArtifactCacheDecorator(
@@ -399,6 +436,13 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
     return result;
   }
 
+  private static ImmutableList<ArtifactCache> getWritableCaches(
+      ImmutableList<ArtifactCache> caches) {
+    return caches.stream()
+        .filter(cache -> cache.getCacheReadMode().isWritable())
+        .collect(ImmutableList.toImmutableList());
+  }
+
   private static void initializeDirCaches(
       ArtifactCacheEntries artifactCacheEntries,
       BuckEventBus buckEventBus,
@@ -432,7 +476,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       ImmutableList.Builder<ArtifactCache> builder,
       NetworkCacheFactory factory,
       ArtifactCacheMode cacheMode,
-      Optional<ClientCertificateHandler> clientCertificateHandler) {
+      Optional<ClientCertificateHandler> clientCertificateHandler,
+      ConcurrentMap<String, AdaptiveConcurrencyLimit> concurrencyLimits) {
     for (HttpCacheEntry cacheEntry : artifactCacheEntries.getHttpCacheEntries()) {
       if (!cacheEntry.isWifiUsableForDistributedCache(wifiSsid)) {
         buckEventBus.post(
@@ -457,7 +502,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               buckConfig,
               factory,
               cacheMode,
-              clientCertificateHandler));
+              clientCertificateHandler,
+              concurrencyLimits));
     }
   }
 
@@ -497,7 +543,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               cacheDir,
               dirCacheConfig.getCacheReadMode(),
               dirCacheConfig.getMaxSizeBytes(),
-              storeExecutorService);
+              storeExecutorService,
+              dirCacheConfig.isIndexed());
 
       if (!buckEventBus.isPresent()) {
         return dirArtifactCache;
@@ -527,7 +574,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       ArtifactCacheBuckConfig config,
       NetworkCacheFactory factory,
       ArtifactCacheMode cacheMode,
-      Optional<ClientCertificateHandler> clientCertificateHandler) {
+      Optional<ClientCertificateHandler> clientCertificateHandler,
+      ConcurrentMap<String, AdaptiveConcurrencyLimit> concurrencyLimits) {
     ArtifactCache cache =
         createHttpArtifactCache(
             cacheDescription,
@@ -541,7 +589,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             config,
             factory,
             cacheMode,
-            clientCertificateHandler);
+            clientCertificateHandler,
+            concurrencyLimits);
     return new RetryingCacheDecorator(cacheMode, cache, config.getMaxFetchRetries(), buckEventBus);
   }
 
@@ -557,7 +606,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       ArtifactCacheBuckConfig config,
       NetworkCacheFactory factory,
       ArtifactCacheMode cacheMode,
-      Optional<ClientCertificateHandler> clientCertificateHandler) {
+      Optional<ClientCertificateHandler> clientCertificateHandler,
+      ConcurrentMap<String, AdaptiveConcurrencyLimit> concurrencyLimits) {
 
     // Setup the default client to use.
     OkHttpClient.Builder storeClientBuilder = new OkHttpClient.Builder();
@@ -701,9 +751,38 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             .setHttpFetchExecutorService(httpFetchExecutorService)
             .setErrorTextTemplate(cacheDescription.getErrorMessageFormat())
             .setErrorTextLimit(cacheDescription.getErrorMessageLimit())
+            .setFetchConcurrencyLimit(
+                getAdaptiveConcurrencyLimit(
+                    concurrencyLimits,
+                    String.format("%s %s fetch", cacheMode, cacheDescription.getUrl()),
+                    config,
+                    config.getHttpFetchConcurrency(),
+                    config.getHttpMaxAdaptiveFetchConcurrency()))
+            .setStoreConcurrencyLimit(
+                getAdaptiveConcurrencyLimit(
+                    concurrencyLimits,
+                    String.format("%s %s store", cacheMode, cacheDescription.getUrl()),
+                    config,
+                    config.getHttpMaxConcurrentWrites(),
+                    config.getHttpMaxAdaptiveConcurrentWrites()))
             .build());
   }
 
+  private static Optional<AdaptiveConcurrencyLimit> getAdaptiveConcurrencyLimit(
+      ConcurrentMap<String, AdaptiveConcurrencyLimit> concurrencyLimits,
+      String key,
+      ArtifactCacheBuckConfig config,
+      int initialLimit,
+      int maxLimit) {
+    if (!config.isHttpAdaptiveConcurrencyEnabled()) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        concurrencyLimits.computeIfAbsent(
+            key,
+            ignored -> new AdaptiveConcurrencyLimit(new DefaultClock(), 1, initialLimit, maxLimit)));
+  }
+
   private static ArtifactCache createSQLiteArtifactCache(
       BuckEventBus buckEventBus,
       SQLiteCacheEntry cacheConfig,
@@ -720,7 +799,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               buckEventBus,
               cacheConfig.getMaxSizeBytes(),
               cacheConfig.getMaxInlinedSizeBytes(),
-              cacheConfig.getCacheReadMode());
+              cacheConfig.getCacheReadMode(),
+              cacheConfig.getReaderConnections());
 
       return new LoggingArtifactCacheDecorator(
           buckEventBus,
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.ContentDefinedChunker.Chunk;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.stream.RichStream;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+
+/**
+ * Stores large artifacts as a list of chunks, so that rules whose outputs only differ by a few
+ * entries from a previously stored version don't upload or download the parts they share with it.
+ *
+ * <p>The zstd-compressed archive built by {@link ArtifactUploader} is decompressed and split with a
+ * {@link ContentDefinedChunker}. Each chunk is compressed on its own and stored under the hash of
+ * its uncompressed contents, unless all the {@code chunkIndexes} report that it is already stored.
+ * The rule keys are then stored with the list of chunks in their metadata and an empty artifact:
+ * rulekey -> (metadata, chunk hashes), chunk hash -> compressed chunk. As a zstd stream may consist
+ * of several frames, fetching the chunks and concatenating them rebuilds a valid archive.
+ *
+ * <p>Chunks are fetched through the delegate, so that the ones already in a local cache are not
+ * downloaded again.
+ */
+public class ChunkedArtifactCacheDecorator implements ArtifactCache, CacheDecorator {
+
+  @VisibleForTesting static final String METADATA_KEY = "CHUNKED_ARTIFACT_CHUNK_KEYS";
+  // Tells chunk keys apart from rule keys and the content hashes of two-level entries.
+  private static final String CHUNK_KEY_SUFFIX = "cdc0";
+  private static final String COUNTER_CATEGORY = "buck_chunked_artifact_stats";
+
+  private static final Logger LOG = Logger.get(ChunkedArtifactCacheDecorator.class);
+
+  private final ArtifactCache delegate;
+  private final ImmutableList<ArtifactCache> chunkIndexes;
+  private final ProjectFilesystem projectFilesystem;
+  private final ListeningExecutorService storeExecutorService;
+  private final Path tmpDir;
+  private final Path emptyFilePath;
+  private final boolean performChunkedStores;
+  private final long minimumChunkedStoredArtifactSize;
+  private final ContentDefinedChunker chunker;
+
+  private final IntegerCounter storedChunks;
+  private final IntegerCounter deduplicatedChunks;
+  private final IntegerCounter chunkMisses;
+
+  /**
+   * @param chunkIndexes the caches asked which chunks are already stored, which should be the ones
+   *     chunks are stored in. Chunks are only skipped if all of them have them, as a chunk in a
+   *     local or read-only cache may be missing from the others.
+   * @param storeExecutorService where chunks are compressed before being stored
+   */
+  public ChunkedArtifactCacheDecorator(
+      ArtifactCache delegate,
+      ImmutableList<ArtifactCache> chunkIndexes,
+      ProjectFilesystem projectFilesystem,
+      BuckEventBus buckEventBus,
+      ListeningExecutorService storeExecutorService,
+      boolean performChunkedStores,
+      long minimumChunkedStoredArtifactSize,
+      int averageChunkSize) {
+    this.delegate = delegate;
+    this.chunkIndexes = chunkIndexes;
+    this.projectFilesystem = projectFilesystem;
+    this.storeExecutorService = storeExecutorService;
+    this.performChunkedStores = performChunkedStores;
+    this.minimumChunkedStoredArtifactSize = minimumChunkedStoredArtifactSize;
+    this.chunker = new ContentDefinedChunker(averageChunkSize);
+
+    tmpDir = projectFilesystem.getBuckPaths().getTmpDir();
+    try {
+      projectFilesystem.mkdirs(tmpDir);
+      this.emptyFilePath =
+          projectFilesystem.resolve(
+              projectFilesystem.createTempFile(tmpDir, ".buckcache", ".empty"));
+    } catch (IOException e) {
+      throw new HumanReadableException(
+          "Could not create file in " + projectFilesystem.resolve(tmpDir));
+    }
+
+    storedChunks = new IntegerCounter(COUNTER_CATEGORY, "stored_chunks", ImmutableMap.of());
+    deduplicatedChunks =
+        new IntegerCounter(COUNTER_CATEGORY, "deduplicated_chunks", ImmutableMap.of());
+    chunkMisses = new IntegerCounter(COUNTER_CATEGORY, "chunk_misses", ImmutableMap.of());
+    buckEventBus.post(
+        new CounterRegistry.AsyncCounterRegistrationEvent(
+            ImmutableList.of(storedChunks, deduplicatedChunks, chunkMisses)));
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    return Futures.transformAsync(
+        delegate.fetchAsync(
+            target,
+            ruleKey,
+            UnpackingLazyPath.unpackingOnlyIf(
+                output, metadata -> !metadata.containsKey(METADATA_KEY))),
+        (CacheResult fetchResult) -> {
+          if (!fetchResult.getType().isSuccess()
+              || !fetchResult.getMetadata().containsKey(METADATA_KEY)) {
+            return Futures.immediateFuture(fetchResult);
+          }
+          LOG.verbose("Found a chunked artifact with metadata: %s", fetchResult.getMetadata());
+          return fetchChunks(target, fetchResult, output);
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private ListenableFuture<CacheResult> fetchChunks(
+      @Nullable BuildTarget target, CacheResult manifestResult, LazyPath output)
+      throws IOException {
+    ImmutableList<RuleKey> chunkKeys =
+        RichStream.from(Splitter.on(',').split(manifestResult.getMetadata().get(METADATA_KEY)))
+            .map(RuleKey::new)
+            .toImmutableList();
+
+    Map<RuleKey, Path> chunkPaths = new LinkedHashMap<>();
+    List<ListenableFuture<CacheResult>> chunkResults = new ArrayList<>();
+    try {
+      for (RuleKey chunkKey : ImmutableSet.copyOf(chunkKeys)) {
+        Path chunkPath =
+            projectFilesystem.resolve(projectFilesystem.createTempFile(tmpDir, "chunk", ".zst"));
+        chunkPaths.put(chunkKey, chunkPath);
+        chunkResults.add(delegate.fetchAsync(target, chunkKey, LazyPath.ofInstance(chunkPath)));
+      }
+    } catch (IOException e) {
+      deleteTemporaryFiles(chunkPaths.values());
+      throw e;
+    }
+
+    return Futures.whenAllComplete(chunkResults)
+        .call(
+            () -> {
+              try {
+                for (ListenableFuture<CacheResult> chunkResult : chunkResults) {
+                  CacheResult result = Futures.getDone(chunkResult);
+                  if (!result.getType().isSuccess()) {
+                    LOG.verbose("Missed chunk lookup.");
+                    chunkMisses.inc();
+                    // As with two-level entries, the miss is what matters to the client.
+                    return result;
+                  }
+                }
+                try (OutputStream outputStream =
+                    new BufferedOutputStream(Files.newOutputStream(output.get()))) {
+                  for (RuleKey chunkKey : chunkKeys) {
+                    Files.copy(chunkPaths.get(chunkKey), outputStream);
+                  }
+                }
+              } finally {
+                deleteTemporaryFiles(chunkPaths.values());
+              }
+              // The list of chunks was not part of the original metadata, don't include it.
+              return manifestResult
+                  .withMetadata(
+                      ImmutableMap.copyOf(
+                          RichStream.from(manifestResult.getMetadata().entrySet())
+                              .filter(e -> !Objects.equals(e.getKey(), METADATA_KEY))
+                              .toOnceIterable()))
+                  .withArtifactSizeBytes(Files.size(output.get()));
+            },
+            MoreExecutors.directExecutor());
+  }
+
+  @Override
+  public void skipPendingAndFutureAsyncFetches() {
+    delegate.skipPendingAndFutureAsyncFetches();
+  }
+
+  @Override
+  public ListenableFuture<Unit> store(ArtifactInfo info, BorrowablePath output) {
+    ImmutableList<Chunk> chunks;
+    try {
+      if (!shouldStoreInChunks(output.getPath())) {
+        return delegate.store(info, output);
+      }
+      try (InputStream contents = newDecompressingInputStream(output.getPath())) {
+        chunks = chunker.split(contents);
+      }
+      if (chunks.isEmpty()) {
+        return delegate.store(info, output);
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Cannot split %s into chunks, storing it as a whole.", output.getPath());
+      return delegate.store(info, output);
+    }
+
+    ImmutableSet<RuleKey> chunkKeys =
+        chunks.stream()
+            .map(ChunkedArtifactCacheDecorator::getChunkKey)
+            .collect(ImmutableSet.toImmutableSet());
+    List<ListenableFuture<ImmutableMap<RuleKey, CacheResult>>> containsResults =
+        new ArrayList<>(chunkIndexes.size());
+    for (ArtifactCache chunkIndex : chunkIndexes) {
+      containsResults.add(
+          Futures.catching(
+              chunkIndex.multiContainsAsync(chunkKeys),
+              Exception.class,
+              e -> {
+                // Not all caches can check which keys they contain, e.g. HTTP ones.
+                LOG.verbose(e, "Could not check which chunks are already stored.");
+                return ImmutableMap.of();
+              },
+              MoreExecutors.directExecutor()));
+    }
+    return Futures.transformAsync(
+        Futures.allAsList(containsResults),
+        (List<ImmutableMap<RuleKey, CacheResult>> results) ->
+            storeChunks(info, output, chunks, getChunksStoredEverywhere(chunkKeys, results)),
+        storeExecutorService);
+  }
+
+  private static ImmutableSet<RuleKey> getChunksStoredEverywhere(
+      ImmutableSet<RuleKey> chunkKeys, List<ImmutableMap<RuleKey, CacheResult>> containsResults) {
+    if (containsResults.isEmpty()) {
+      return ImmutableSet.of();
+    }
+    return RichStream.from(chunkKeys)
+        .filter(
+            chunkKey ->
+                containsResults.stream()
+                    .allMatch(
+                        results -> {
+                          CacheResult result = results.get(chunkKey);
+                          return result != null && result.getType().isSuccess();
+                        }))
+        .toImmutableSet();
+  }
+
+  private boolean shouldStoreInChunks(Path path) throws IOException {
+    if (!performChunkedStores
+        || projectFilesystem.getFileSize(path) < minimumChunkedStoredArtifactSize) {
+      return false;
+    }
+    // Only the compressed archives of rule outputs are worth splitting.
+    byte[] signature = new byte[4];
+    try (InputStream inputStream = Files.newInputStream(path)) {
+      int length = ByteStreams.read(inputStream, signature, 0, signature.length);
+      return ZstdUtils.matches(signature, length);
+    }
+  }
+
+  private ListenableFuture<Unit> storeChunks(
+      ArtifactInfo info,
+      BorrowablePath output,
+      ImmutableList<Chunk> chunks,
+      ImmutableSet<RuleKey> storedChunkKeys)
+      throws IOException {
+    List<Path> chunkPaths = new ArrayList<>();
+    List<ListenableFuture<Unit>> chunkStores = new ArrayList<>();
+    Set<RuleKey> handledChunkKeys = new HashSet<>();
+    try (InputStream contents = newDecompressingInputStream(output.getPath())) {
+      for (Chunk chunk : chunks) {
+        InputStream chunkContents = ByteStreams.limit(contents, chunk.getLength());
+        RuleKey chunkKey = getChunkKey(chunk);
+        if (!handledChunkKeys.add(chunkKey) || storedChunkKeys.contains(chunkKey)) {
+          deduplicatedChunks.inc();
+          ByteStreams.exhaust(chunkContents);
+          continue;
+        }
+        Path chunkPath =
+            projectFilesystem.resolve(projectFilesystem.createTempFile(tmpDir, "chunk", ".zst"));
+        chunkPaths.add(chunkPath);
+        try (OutputStream outputStream =
+            new ZstdCompressorOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(chunkPath)))) {
+          ByteStreams.copy(chunkContents, outputStream);
+        }
+        storedChunks.inc();
+        chunkStores.add(
+            delegate.store(
+                ArtifactInfo.builder()
+                    .addRuleKeys(chunkKey)
+                    .setBuildTarget(info.getBuildTarget())
+                    .setBuildTimeMs(info.getBuildTimeMs())
+                    .build(),
+                BorrowablePath.borrowablePath(chunkPath)));
+      }
+    } catch (IOException e) {
+      deleteTemporaryFiles(chunkPaths);
+      throw e;
+    }
+
+    ImmutableMap<String, String> metadataWithChunkKeys =
+        ImmutableMap.<String, String>builder()
+            .putAll(info.getMetadata())
+            .put(
+                METADATA_KEY,
+                Joiner.on(',')
+                    .join(
+                        chunks.stream()
+                            .map(ChunkedArtifactCacheDecorator::getChunkKey)
+                            .iterator()))
+            .build();
+    // Like two-level entries, the rule keys may only be stored once all the chunks they point to
+    // are, or other builders could find them but fail to fetch the artifact.
+    ListenableFuture<Unit> storeFuture =
+        Futures.transformAsync(
+            Futures.allAsList(chunkStores),
+            ignored ->
+                delegate.store(
+                    ArtifactInfo.builder()
+                        .setRuleKeys(info.getRuleKeys())
+                        .setMetadata(metadataWithChunkKeys)
+                        .setBuildTarget(info.getBuildTarget())
+                        .setBuildTimeMs(info.getBuildTimeMs())
+                        .build(),
+                    BorrowablePath.notBorrowablePath(emptyFilePath)),
+            MoreExecutors.directExecutor());
+    storeFuture.addListener(
+        () -> deleteTemporaryFiles(chunkPaths), MoreExecutors.directExecutor());
+    return storeFuture;
+  }
+
+  private static InputStream newDecompressingInputStream(Path path) throws IOException {
+    return new ZstdCompressorInputStream(new BufferedInputStream(Files.newInputStream(path)));
+  }
+
+  private static RuleKey getChunkKey(Chunk chunk) {
+    return new RuleKey(chunk.getHash() + CHUNK_KEY_SUFFIX);
+  }
+
+  private static void deleteTemporaryFiles(Iterable<Path> paths) {
+    for (Path path : paths) {
+      try {
+        // Stores may have borrowed the file already.
+        Files.deleteIfExists(path);
+      } catch (IOException e) {
+        LOG.debug(e, "Exception when deleting temp file %s.", path);
+      }
+    }
+  }
+
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContainsAsync(ruleKeys);
+  }
+
+  @Override
+  public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+    // Only the list of chunks is deleted, as the chunks may be shared with other artifacts.
+    return delegate.deleteAsync(ruleKeys);
+  }
+
+  @Override
+  public ArtifactCache getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public CacheReadMode getCacheReadMode() {
+    return delegate.getCacheReadMode();
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+    try {
+      projectFilesystem.deleteFileAtPath(emptyFilePath);
+    } catch (IOException e) {
+      LOG.debug("Exception when deleting temp file %s.", emptyFilePath, e);
+    }
+  }
+}
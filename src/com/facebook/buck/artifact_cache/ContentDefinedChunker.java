@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Splits a stream into chunks whose boundaries depend on the content around them rather than on
+ * their offset, so that inserting or removing bytes only changes the chunks around the edit.
+ *
+ * <p>Boundaries are found with a gear hash, which rolls over the last 64 bytes: a chunk ends where
+ * the top bits of the hash are all zero, once it has reached a minimum size, or at a maximum size.
+ */
+class ContentDefinedChunker {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Random values for each byte. They are part of the format of stored artifacts, as changing them
+   * moves every boundary, so they must come from a fixed seed.
+   */
+  private static final long[] GEAR = new long[256];
+
+  static {
+    Random random = new Random(0x6275636b63646331L);
+    for (int i = 0; i < GEAR.length; i++) {
+      GEAR[i] = random.nextLong();
+    }
+  }
+
+  private final int minimumChunkSize;
+  private final int maximumChunkSize;
+  private final long boundaryMask;
+
+  /** @param averageChunkSize the size chunks should have on average, in bytes */
+  ContentDefinedChunker(int averageChunkSize) {
+    Preconditions.checkArgument(
+        averageChunkSize >= 1024 && averageChunkSize <= 64 * 1024 * 1024,
+        "Average chunk size should be between 1KB and 64MB, got %s",
+        averageChunkSize);
+    this.minimumChunkSize = averageChunkSize / 4;
+    this.maximumChunkSize = averageChunkSize * 4;
+    // Past the minimum size, a boundary is found after 2^bits bytes on average.
+    int bits = 31 - Integer.numberOfLeadingZeros(averageChunkSize - minimumChunkSize);
+    this.boundaryMask = -1L << (64 - bits);
+  }
+
+  /** @return the chunks {@code contents} splits into, in order, which it reads to its end. */
+  ImmutableList<Chunk> split(InputStream contents) throws IOException {
+    ImmutableList.Builder<Chunk> chunks = ImmutableList.builder();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    Hasher hasher = Hashing.sha1().newHasher();
+    int length = 0;
+    long hash = 0;
+    int read;
+    while ((read = contents.read(buffer)) != -1) {
+      int chunkStart = 0;
+      for (int i = 0; i < read; i++) {
+        hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+        length++;
+        if ((length >= minimumChunkSize && (hash & boundaryMask) == 0)
+            || length == maximumChunkSize) {
+          hasher.putBytes(buffer, chunkStart, i + 1 - chunkStart);
+          chunks.add(new Chunk(length, hasher.hash()));
+          hasher = Hashing.sha1().newHasher();
+          chunkStart = i + 1;
+          length = 0;
+          hash = 0;
+        }
+      }
+      hasher.putBytes(buffer, chunkStart, read - chunkStart);
+    }
+    if (length > 0) {
+      chunks.add(new Chunk(length, hasher.hash()));
+    }
+    return chunks.build();
+  }
+
+  /** A range of the split stream, identified by the hash of its contents. */
+  static class Chunk {
+    private final int length;
+    private final HashCode hash;
+
+    Chunk(int length, HashCode hash) {
+      this.length = length;
+      this.hash = hash;
+    }
+
+    int getLength() {
+      return length;
+    }
+
+    /** @return the SHA-1 of the contents of the chunk. */
+    HashCode getHash() {
+      return hash;
+    }
+  }
+}
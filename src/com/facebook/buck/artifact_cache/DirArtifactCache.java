@@ -48,6 +48,7 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -65,6 +66,7 @@ public class DirArtifactCache implements ArtifactCache {
   // How much of the max size to leave if we decide to delete old files.
   private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
   private static final String TMP_EXTENSION = ".tmp";
+  private static final String INDEX_FILE_NAME = "entries.log";
 
   private final String name;
   private final ProjectFilesystem filesystem;
@@ -72,6 +74,8 @@ public class DirArtifactCache implements ArtifactCache {
   private final Optional<Long> maxCacheSizeBytes;
   private final CacheReadMode cacheReadMode;
   private final ListeningExecutorService storeExecutorService;
+  private final Path indexFile;
+  @Nullable private final DirArtifactCacheIndex index;
   private long bytesSinceLastDeleteOldFiles;
 
   public DirArtifactCache(
@@ -82,6 +86,30 @@ public class DirArtifactCache implements ArtifactCache {
       Optional<Long> maxCacheSizeBytes,
       ListeningExecutorService storeExecutorService)
       throws IOException {
+    this(
+        name,
+        filesystem,
+        cacheDir,
+        cacheReadMode,
+        maxCacheSizeBytes,
+        storeExecutorService,
+        /* indexed */ false);
+  }
+
+  /**
+   * @param indexed whether to keep track of the cache entries in a {@link DirArtifactCacheIndex},
+   *     instead of looking them up on disk for {@link #multiContainsAsync(ImmutableSet)} and
+   *     walking the cache directory to evict old entries.
+   */
+  public DirArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      CacheReadMode cacheReadMode,
+      Optional<Long> maxCacheSizeBytes,
+      ListeningExecutorService storeExecutorService,
+      boolean indexed)
+      throws IOException {
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
@@ -94,6 +122,28 @@ public class DirArtifactCache implements ArtifactCache {
     if (!filesystem.isDirectory(cacheDir)) {
       filesystem.mkdirs(cacheDir);
     }
+
+    this.indexFile = filesystem.resolve(getPathToIndexFolder().resolve(INDEX_FILE_NAME));
+    if (indexed) {
+      filesystem.mkdirs(getPathToIndexFolder());
+      this.index = DirArtifactCacheIndex.open(indexFile, this::scanCacheDir);
+    } else {
+      this.index = null;
+    }
+  }
+
+  /**
+   * @return the index of the cache entries, or null if the cache is not indexed or the index
+   *     can't be trusted anymore because another process changed the cache directory.
+   */
+  @Nullable
+  private DirArtifactCacheIndex getIndex() {
+    return index == null || index.isStale() ? null : index;
+  }
+
+  /** Makes sure the index is rebuilt, after entries were changed without going through it. */
+  private void markIndexStale() throws IOException {
+    DirArtifactCacheIndex.markStale(indexFile);
   }
 
   @Override
@@ -132,7 +182,12 @@ public class DirArtifactCache implements ArtifactCache {
 
       result =
           CacheResult.hit(name, CACHE_MODE, metadata.build(), filesystem.getFileSize(output.get()));
+      recordAccess(ruleKey);
     } catch (NoSuchFileException e) {
+      DirArtifactCacheIndex index = getIndex();
+      if (index != null) {
+        index.recordRemove(ruleKey);
+      }
       result = CacheResult.miss();
     } catch (IOException e) {
       LOG.warn(e, "Artifact fetch(%s, %s) error", ruleKey, output);
@@ -162,6 +217,7 @@ public class DirArtifactCache implements ArtifactCache {
   }
 
   private void storeSynchronously(ArtifactInfo info, BorrowablePath output) {
+    DirArtifactCacheIndex index = getIndex();
     try {
       Optional<Path> borrowedAndStoredArtifactPath = Optional.empty();
       for (RuleKey ruleKey : info.getRuleKeys()) {
@@ -169,6 +225,9 @@ public class DirArtifactCache implements ArtifactCache {
         Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
 
         if (filesystem.exists(artifactPath) && filesystem.exists(metadataPath)) {
+          if (index != null && !index.contains(ruleKey)) {
+            index.recordStore(ruleKey, getEntrySize(ruleKey));
+          }
           continue;
         }
 
@@ -206,13 +265,24 @@ public class DirArtifactCache implements ArtifactCache {
         } finally {
           filesystem.deleteFileAtPathIfExists(tmp);
         }
+
+        if (index != null) {
+          index.recordStore(ruleKey, getEntrySize(ruleKey));
+        } else {
+          markIndexStale();
+        }
       }
 
     } catch (IOException e) {
       LOG.warn(e, "Artifact store(%s, %s) error", info.getRuleKeys(), output);
     }
 
-    if (maxCacheSizeBytes.isPresent()
+    if (index != null) {
+      // Checking the size of an indexed cache is cheap, so there is no need to wait.
+      if (maxCacheSizeBytes.isPresent() && index.getTotalSizeBytes() > maxCacheSizeBytes.get()) {
+        deleteOldFiles();
+      }
+    } else if (maxCacheSizeBytes.isPresent()
         && bytesSinceLastDeleteOldFiles
             > (maxCacheSizeBytes.get() * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER)) {
       bytesSinceLastDeleteOldFiles = 0L;
@@ -229,11 +299,16 @@ public class DirArtifactCache implements ArtifactCache {
   private ImmutableMap<RuleKey, CacheResult> multiContains(Set<RuleKey> ruleKeys) {
     ImmutableMap.Builder<RuleKey, CacheResult> results = new ImmutableMap.Builder<>();
 
+    DirArtifactCacheIndex index = getIndex();
     for (RuleKey ruleKey : ruleKeys) {
-      Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
-      Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
-
-      boolean contains = filesystem.exists(artifactPath) && filesystem.exists(metadataPath);
+      boolean contains;
+      if (index != null) {
+        contains = index.contains(ruleKey);
+      } else {
+        Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
+        Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
+        contains = filesystem.exists(artifactPath) && filesystem.exists(metadataPath);
+      }
       results.put(ruleKey, contains ? CacheResult.contains(name, CACHE_MODE) : CacheResult.miss());
       LOG.verbose(
           "Artifact contains request for rulekey [%s] was a cache %s.",
@@ -244,12 +319,8 @@ public class DirArtifactCache implements ArtifactCache {
   }
 
   private void deleteSync(RuleKey ruleKey) {
-    Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
-    Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
-
     try {
-      filesystem.deleteFileAtPathIfExists(metadataPath);
-      filesystem.deleteFileAtPathIfExists(artifactPath);
+      deleteEntry(ruleKey);
     } catch (IOException e) {
       String message =
           String.format("Failed to delete artifact for rule key [%s] from local cache", ruleKey);
@@ -258,6 +329,38 @@ public class DirArtifactCache implements ArtifactCache {
     }
   }
 
+  private void deleteEntry(RuleKey ruleKey) throws IOException {
+    Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
+    Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
+
+    filesystem.deleteFileAtPathIfExists(metadataPath);
+    filesystem.deleteFileAtPathIfExists(artifactPath);
+    DirArtifactCacheIndex index = getIndex();
+    if (index != null) {
+      index.recordRemove(ruleKey);
+    } else {
+      markIndexStale();
+    }
+  }
+
+  private void recordAccess(RuleKey ruleKey) throws IOException {
+    DirArtifactCacheIndex index = getIndex();
+    if (index == null) {
+      return;
+    }
+    if (index.contains(ruleKey)) {
+      index.recordAccess(ruleKey);
+    } else {
+      // The entry was stored by another process.
+      index.recordStore(ruleKey, getEntrySize(ruleKey));
+    }
+  }
+
+  private long getEntrySize(RuleKey ruleKey) throws IOException {
+    return filesystem.getFileSize(getPathForRuleKey(ruleKey, Optional.empty()))
+        + filesystem.getFileSize(getPathForRuleKey(ruleKey, Optional.of(".metadata")));
+  }
+
   @Override
   public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
     ruleKeys.forEach(this::deleteSync);
@@ -270,6 +373,10 @@ public class DirArtifactCache implements ArtifactCache {
     return cacheDir.resolve("tmp");
   }
 
+  private Path getPathToIndexFolder() {
+    return cacheDir.resolve("index");
+  }
+
   private Path getPreparedTempFolder() throws IOException {
     Path tmp = getPathToTempFolder();
     if (!filesystem.exists(tmp)) {
@@ -327,6 +434,11 @@ public class DirArtifactCache implements ArtifactCache {
     if (bytesSinceLastDeleteOldFiles > 0) {
       deleteOldFiles();
     }
+
+    if (index != null) {
+      index.maybeCompact();
+      index.close();
+    }
   }
 
   /** Deletes files that haven't been accessed recently from the directory cache. */
@@ -339,17 +451,72 @@ public class DirArtifactCache implements ArtifactCache {
     Path cacheDirInFs = filesystem.resolve(cacheDir);
     try {
       synchronized (this) {
-        newDirectoryCleaner().clean(cacheDirInFs);
+        DirArtifactCacheIndex index = getIndex();
+        if (index != null) {
+          evictLeastRecentlyAccessed(index);
+        } else {
+          newDirectoryCleaner().clean(cacheDirInFs);
+          markIndexStale();
+        }
       }
     } catch (IOException e) {
       LOG.error(e, "Failed to clean path [%s].", cacheDirInFs);
     }
   }
 
+  /** Same as {@link DirectoryCleaner}, but picks the entries to delete from the index. */
+  private void evictLeastRecentlyAccessed(DirArtifactCacheIndex index) throws IOException {
+    long totalSizeBytes = index.getTotalSizeBytes();
+    if (totalSizeBytes <= maxCacheSizeBytes.get()) {
+      return;
+    }
+
+    ImmutableList<RuleKey> toEvict =
+        index.getLeastRecentlyAccessed(
+            totalSizeBytes - (long) (maxCacheSizeBytes.get() * MAX_BYTES_TRIM_RATIO));
+    for (RuleKey ruleKey : toEvict) {
+      deleteEntry(ruleKey);
+    }
+    LOG.debug("Evicted %d entries from dir cache [%s].", toEvict.size(), cacheDir);
+    index.maybeCompact();
+  }
+
+  /** Finds the entries stored in the cache directory, to rebuild the index. */
+  private ImmutableMap<RuleKey, DirArtifactCacheIndex.Entry> scanCacheDir() {
+    Map<RuleKey, Long> sizes = new HashMap<>();
+    Map<RuleKey, Long> accessTimes = new HashMap<>();
+    for (Path file : getAllFilesInCache()) {
+      String fileName = file.getFileName().toString();
+      RuleKey ruleKey;
+      try {
+        ruleKey = new RuleKey(fileName.replaceFirst("\\.metadata$", ""));
+      } catch (IllegalArgumentException e) {
+        continue;
+      }
+      try {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        sizes.merge(ruleKey, attributes.size(), Long::sum);
+        accessTimes.merge(ruleKey, attributes.lastAccessTime().toMillis(), Math::max);
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to read attributes of %s", file);
+      }
+    }
+
+    ImmutableMap.Builder<RuleKey, DirArtifactCacheIndex.Entry> entries =
+        ImmutableMap.builderWithExpectedSize(sizes.size());
+    for (Map.Entry<RuleKey, Long> size : sizes.entrySet()) {
+      entries.put(
+          size.getKey(),
+          new DirArtifactCacheIndex.Entry(size.getValue(), accessTimes.get(size.getKey())));
+    }
+    return entries.build();
+  }
+
   @VisibleForTesting
   List<Path> getAllFilesInCache() {
     List<Path> allFiles = new ArrayList<>();
     Path tempFolderPath = getPathToTempFolder();
+    Path indexFolderPath = getPathToIndexFolder();
     try {
       Files.walkFileTree(
           filesystem.resolve(cacheDir),
@@ -360,8 +527,9 @@ public class DirArtifactCache implements ArtifactCache {
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
                 throws IOException {
-              // do not work with files in temp folder as they will be moved later
-              if (dir.equals(tempFolderPath)) {
+              // do not work with files in temp folder as they will be moved later, nor with the
+              // index, which is not a cache entry
+              if (dir.equals(tempFolderPath) || dir.equals(indexFolderPath)) {
                 return FileVisitResult.SKIP_SUBTREE;
               }
               return super.preVisitDirectory(dir, attrs);
@@ -0,0 +1,493 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.io.CountingInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * In-memory index of the entries of a {@link DirArtifactCache}, tracking the size and last access
+ * time of every rule key, so that lookups and eviction don't need to touch the filesystem.
+ *
+ * <p>The index is persisted as an append-only log of store, access and remove records, which is
+ * replayed when the index is opened and rewritten once most of its records are stale. If the log
+ * is missing or unreadable, the index is rebuilt from the files in the cache directory.
+ *
+ * <p>The index only reflects changes made through it, so only one process at a time may use it: the
+ * one holding a lock on the lock file next to the log. Other processes, including ones which don't
+ * use an index at all, must call {@link #markStale(Path)} whenever they add or remove entries. The
+ * index is then considered stale and must not be used anymore, and is rebuilt from the cache
+ * directory the next time it is opened. Entries added by other processes before that are picked up
+ * when fetched.
+ */
+class DirArtifactCacheIndex implements Closeable {
+
+  private static final Logger LOG = Logger.get(DirArtifactCacheIndex.class);
+
+  private static final int MAGIC = 0x44434958;
+  private static final int VERSION = 1;
+
+  private static final byte STORE_RECORD = 1;
+  private static final byte ACCESS_RECORD = 2;
+  private static final byte REMOVE_RECORD = 3;
+
+  // Accesses more recent than this are not logged again, as they would not change the eviction
+  // order in a meaningful way.
+  private static final long ACCESS_LOG_GRANULARITY_MILLIS = 60 * 1000;
+  private static final long MIN_RECORDS_TO_COMPACT = 10000;
+
+  /**
+   * Channels to the lock files of the indexes opened by this process. They are never closed, as
+   * closing any channel to a file may release all the locks the process holds on it.
+   */
+  private static final ConcurrentHashMap<Path, FileChannel> LOCK_CHANNELS =
+      new ConcurrentHashMap<>();
+
+  /** Size and last access time of an entry in the cache. */
+  static class Entry {
+    private final long sizeBytes;
+    private volatile long lastAccessMillis;
+    private volatile long lastLoggedAccessMillis;
+
+    Entry(long sizeBytes, long lastAccessMillis) {
+      this.sizeBytes = sizeBytes;
+      this.lastAccessMillis = lastAccessMillis;
+      this.lastLoggedAccessMillis = lastAccessMillis;
+    }
+
+    long getSizeBytes() {
+      return sizeBytes;
+    }
+
+    long getLastAccessMillis() {
+      return lastAccessMillis;
+    }
+  }
+
+  private final Path indexFile;
+  private final ConcurrentHashMap<RuleKey, Entry> entries;
+  private final AtomicLong totalSizeBytes = new AtomicLong();
+  @Nullable private final FileLock lock;
+  private volatile boolean stale;
+
+  @GuardedBy("this")
+  @Nullable
+  private DataOutputStream log;
+
+  @GuardedBy("this")
+  private long records;
+
+  private DirArtifactCacheIndex(
+      Path indexFile, ConcurrentHashMap<RuleKey, Entry> entries, @Nullable FileLock lock) {
+    this.indexFile = indexFile;
+    this.entries = entries;
+    this.lock = lock;
+    this.stale = lock == null;
+    for (Entry entry : entries.values()) {
+      totalSizeBytes.addAndGet(entry.sizeBytes);
+    }
+  }
+
+  /**
+   * Opens the index stored in {@code indexFile}. If another process is using the index, the
+   * returned index is {@link #isStale() stale} from the start.
+   *
+   * @param scanCacheDir returns the entries currently in the cache directory, used when the index
+   *     has to be rebuilt.
+   */
+  static DirArtifactCacheIndex open(
+      Path indexFile, Supplier<ImmutableMap<RuleKey, Entry>> scanCacheDir) {
+    FileLock lock = tryLock(indexFile);
+    if (lock == null) {
+      LOG.info("Dir cache index %s is used by another process, not using it", indexFile);
+      return new DirArtifactCacheIndex(indexFile, new ConcurrentHashMap<>(), null);
+    }
+
+    // Remove the marker before looking at the cache directory, so that changes made by other
+    // processes while the index is being loaded mark it stale again.
+    boolean markedStale;
+    try {
+      markedStale = Files.deleteIfExists(getStaleMarker(indexFile));
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to delete dir cache index marker of %s, not using it", indexFile);
+      releaseLock(lock);
+      return new DirArtifactCacheIndex(indexFile, new ConcurrentHashMap<>(), null);
+    }
+    if (markedStale) {
+      LOG.debug("Dir cache index %s was changed by other processes, rebuilding it", indexFile);
+    } else if (Files.exists(indexFile)) {
+      try {
+        DirArtifactCacheIndex index = replay(indexFile, lock);
+        LOG.debug("Loaded dir cache index with %d entries", index.entries.size());
+        // Keep the log small, as it is replayed every time the cache is opened.
+        index.maybeCompact();
+        return index;
+      } catch (IOException | IllegalArgumentException e) {
+        LOG.warn(e, "Failed to read dir cache index %s, rebuilding it", indexFile);
+      }
+    }
+
+    DirArtifactCacheIndex index =
+        new DirArtifactCacheIndex(indexFile, new ConcurrentHashMap<>(scanCacheDir.get()), lock);
+    LOG.debug("Rebuilt dir cache index with %d entries", index.entries.size());
+    synchronized (index) {
+      index.compact();
+    }
+    return index;
+  }
+
+  /**
+   * Records that entries of the cache directory were added or removed without going through the
+   * index of {@code indexFile}, which makes it stale.
+   */
+  static void markStale(Path indexFile) throws IOException {
+    Path marker = getStaleMarker(indexFile);
+    // The directory is created before an index is opened, so there is nothing to mark if it is
+    // missing.
+    if (!Files.isDirectory(marker.getParent()) || Files.exists(marker)) {
+      return;
+    }
+    try {
+      Files.createFile(marker);
+    } catch (FileAlreadyExistsException e) {
+      // Another process marked it at the same time.
+    }
+  }
+
+  private static Path getStaleMarker(Path indexFile) {
+    return indexFile.resolveSibling(indexFile.getFileName() + ".stale");
+  }
+
+  /** @return the lock which gives exclusive use of the index, or null if it is already taken. */
+  @Nullable
+  private static FileLock tryLock(Path indexFile) {
+    Path lockFile = indexFile.resolveSibling(indexFile.getFileName() + ".lock");
+    try {
+      FileChannel channel =
+          LOCK_CHANNELS.computeIfAbsent(
+              lockFile,
+              path -> {
+                try {
+                  return FileChannel.open(
+                      path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              });
+      return channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // Another index of this process holds the lock.
+      return null;
+    } catch (IOException | UncheckedIOException e) {
+      LOG.warn(e, "Failed to lock dir cache index %s", indexFile);
+      return null;
+    }
+  }
+
+  private static void releaseLock(FileLock lock) {
+    try {
+      lock.release();
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to unlock dir cache index");
+    }
+  }
+
+  private static DirArtifactCacheIndex replay(Path indexFile, FileLock lock) throws IOException {
+    ConcurrentHashMap<RuleKey, Entry> entries = new ConcurrentHashMap<>();
+    long records = 0;
+    long validBytes;
+    try (CountingInputStream counting =
+            new CountingInputStream(new BufferedInputStream(Files.newInputStream(indexFile)));
+        DataInputStream in = new DataInputStream(counting)) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Unexpected dir cache index header");
+      }
+      validBytes = counting.getCount();
+      while (true) {
+        try {
+          byte type = in.readByte();
+          RuleKey ruleKey = readRuleKey(in);
+          long timeMillis = in.readLong();
+          switch (type) {
+            case STORE_RECORD:
+              entries.put(ruleKey, new Entry(in.readLong(), timeMillis));
+              break;
+            case ACCESS_RECORD:
+              Entry entry = entries.get(ruleKey);
+              if (entry != null) {
+                entry.lastAccessMillis = Math.max(entry.lastAccessMillis, timeMillis);
+                entry.lastLoggedAccessMillis = entry.lastAccessMillis;
+              }
+              break;
+            case REMOVE_RECORD:
+              entries.remove(ruleKey);
+              break;
+            default:
+              throw new IOException("Unexpected dir cache index record type " + type);
+          }
+        } catch (EOFException e) {
+          // Either the end of the log, or a record which was only partially written.
+          break;
+        }
+        validBytes = counting.getCount();
+        records++;
+      }
+    }
+
+    // Drop a partially written record, so that new records are appended after a complete one.
+    try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+      if (channel.size() > validBytes) {
+        channel.truncate(validBytes);
+      }
+    }
+
+    DirArtifactCacheIndex index = new DirArtifactCacheIndex(indexFile, entries, lock);
+    synchronized (index) {
+      index.records = records;
+      index.log = openLog(indexFile, StandardOpenOption.APPEND);
+    }
+    return index;
+  }
+
+  private static RuleKey readRuleKey(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readUnsignedShort()];
+    in.readFully(bytes);
+    return new RuleKey(HashCode.fromBytes(bytes));
+  }
+
+  private static DataOutputStream openLog(Path indexFile, StandardOpenOption mode)
+      throws IOException {
+    return new DataOutputStream(
+        new BufferedOutputStream(
+            Files.newOutputStream(indexFile, StandardOpenOption.CREATE, mode)));
+  }
+
+  /**
+   * @return whether the cache directory may have been changed without going through this index,
+   *     which then doesn't reflect its entries anymore and must not be used.
+   */
+  boolean isStale() {
+    if (!stale && Files.exists(getStaleMarker(indexFile))) {
+      LOG.info("Dir cache index %s was changed by another process, not using it", indexFile);
+      synchronized (this) {
+        stale = true;
+        // Leave the marker, so that the index is rebuilt the next time it is opened.
+        closeLog();
+      }
+    }
+    return stale;
+  }
+
+  boolean contains(RuleKey ruleKey) {
+    return entries.containsKey(ruleKey);
+  }
+
+  long getTotalSizeBytes() {
+    return totalSizeBytes.get();
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  /** Records that {@code ruleKey} was stored, replacing any existing entry. */
+  synchronized void recordStore(RuleKey ruleKey, long sizeBytes) {
+    long now = System.currentTimeMillis();
+    Entry previous = entries.put(ruleKey, new Entry(sizeBytes, now));
+    totalSizeBytes.addAndGet(sizeBytes - (previous == null ? 0 : previous.sizeBytes));
+    appendRecord(STORE_RECORD, ruleKey, now, sizeBytes);
+    // Stores are flushed eagerly, as the index would otherwise lose track of files on disk.
+    flushLog();
+  }
+
+  /** Records that {@code ruleKey} was fetched. */
+  void recordAccess(RuleKey ruleKey) {
+    Entry entry = entries.get(ruleKey);
+    if (entry == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    entry.lastAccessMillis = now;
+    if (now - entry.lastLoggedAccessMillis >= ACCESS_LOG_GRANULARITY_MILLIS) {
+      synchronized (this) {
+        entry.lastLoggedAccessMillis = now;
+        appendRecord(ACCESS_RECORD, ruleKey, now, 0);
+      }
+    }
+  }
+
+  /** Records that {@code ruleKey} was removed from the cache. */
+  synchronized void recordRemove(RuleKey ruleKey) {
+    Entry previous = entries.remove(ruleKey);
+    if (previous != null) {
+      totalSizeBytes.addAndGet(-previous.sizeBytes);
+      appendRecord(REMOVE_RECORD, ruleKey, System.currentTimeMillis(), 0);
+    }
+  }
+
+  /**
+   * @return the least recently accessed rule keys, whose entries add up to at least {@code
+   *     minBytes}, ordered from the least recently accessed.
+   */
+  ImmutableList<RuleKey> getLeastRecentlyAccessed(long minBytes) {
+    List<Map.Entry<RuleKey, Entry>> candidates = new ArrayList<>(entries.entrySet());
+    candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccessMillis));
+
+    ImmutableList.Builder<RuleKey> toEvict = ImmutableList.builder();
+    long bytes = 0;
+    for (Map.Entry<RuleKey, Entry> candidate : candidates) {
+      if (bytes >= minBytes) {
+        break;
+      }
+      toEvict.add(candidate.getKey());
+      bytes += candidate.getValue().sizeBytes;
+    }
+    return toEvict.build();
+  }
+
+  /** Rewrites the log if most of its records don't describe live entries anymore. */
+  synchronized void maybeCompact() {
+    if (!stale && records > MIN_RECORDS_TO_COMPACT && records > 2L * entries.size()) {
+      compact();
+    }
+  }
+
+  @GuardedBy("this")
+  private void compact() {
+    closeLog();
+    Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+    try {
+      try (DataOutputStream out = openLog(tmp, StandardOpenOption.TRUNCATE_EXISTING)) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        for (Map.Entry<RuleKey, Entry> entry : entries.entrySet()) {
+          writeRecord(
+              out,
+              STORE_RECORD,
+              entry.getKey(),
+              entry.getValue().lastAccessMillis,
+              entry.getValue().sizeBytes);
+        }
+      }
+      Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+      records = entries.size();
+      log = openLog(indexFile, StandardOpenOption.APPEND);
+    } catch (IOException e) {
+      disableLog(e);
+    }
+  }
+
+  @GuardedBy("this")
+  private void appendRecord(byte type, RuleKey ruleKey, long timeMillis, long sizeBytes) {
+    if (log == null) {
+      return;
+    }
+    try {
+      writeRecord(log, type, ruleKey, timeMillis, sizeBytes);
+      records++;
+    } catch (IOException e) {
+      disableLog(e);
+    }
+  }
+
+  private static void writeRecord(
+      DataOutputStream out, byte type, RuleKey ruleKey, long timeMillis, long sizeBytes)
+      throws IOException {
+    byte[] key = ruleKey.getHashCode().asBytes();
+    out.writeByte(type);
+    out.writeShort(key.length);
+    out.write(key);
+    out.writeLong(timeMillis);
+    if (type == STORE_RECORD) {
+      out.writeLong(sizeBytes);
+    }
+  }
+
+  @GuardedBy("this")
+  private void flushLog() {
+    if (log == null) {
+      return;
+    }
+    try {
+      log.flush();
+    } catch (IOException e) {
+      disableLog(e);
+    }
+  }
+
+  /** Stops persisting the index, which is then rebuilt from scratch the next time it's opened. */
+  @GuardedBy("this")
+  private void disableLog(IOException e) {
+    LOG.warn(e, "Failed to write dir cache index %s", indexFile);
+    closeLog();
+    try {
+      Files.deleteIfExists(indexFile);
+    } catch (IOException deleteException) {
+      LOG.warn(deleteException, "Failed to delete dir cache index %s", indexFile);
+    }
+  }
+
+  @GuardedBy("this")
+  private void closeLog() {
+    if (log == null) {
+      return;
+    }
+    try {
+      log.close();
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to close dir cache index %s", indexFile);
+    }
+    log = null;
+  }
+
+  @Override
+  public synchronized void close() {
+    closeLog();
+    if (lock != null && lock.isValid()) {
+      releaseLock(lock);
+    }
+  }
+}
@@ -105,7 +105,15 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
         FetchResponseReadResult fetchedData;
         try (OutputStream tempFileOutputStream = getProjectFilesystem().newFileOutputStream(temp)) {
           fetchedData =
-              HttpArtifactCacheBinaryProtocol.readFetchResponse(input, tempFileOutputStream);
+              HttpArtifactCacheBinaryProtocol.readFetchResponse(
+                  input,
+                  tempFileOutputStream,
+                  (ruleKeys, metadata, payload) -> {
+                    // The checks below which make the fetch fail roll this back.
+                    if (ruleKeys.contains(ruleKey)) {
+                      UnpackingLazyPath.unpackIfSupported(output, metadata, payload);
+                    }
+                  });
         }
 
         resultBuilder
@@ -69,6 +69,11 @@ public abstract class HttpArtifactCacheEvent extends ArtifactCacheEvent {
     return new Shutdown();
   }
 
+  public static ConcurrencyLimitChanged newConcurrencyLimitChangedEvent(
+      String cacheName, Operation operation, int limit, int inFlight, int queued) {
+    return new ConcurrencyLimitChanged(cacheName, operation, limit, inFlight, queued);
+  }
+
   public static Finished.Builder newFinishedEventBuilder(Started event) {
     return new Finished.Builder(event);
   }
@@ -149,6 +154,57 @@ public abstract class HttpArtifactCacheEvent extends ArtifactCacheEvent {
     }
   }
 
+  /** Posted when the adaptive limit of the requests in flight to a cache changes. */
+  public static class ConcurrencyLimitChanged extends AbstractBuckEvent {
+    private final String cacheName;
+    private final Operation operation;
+    private final int limit;
+    private final int inFlight;
+    private final int queued;
+
+    public ConcurrencyLimitChanged(
+        String cacheName, Operation operation, int limit, int inFlight, int queued) {
+      super(EventKey.unique());
+      this.cacheName = cacheName;
+      this.operation = operation;
+      this.limit = limit;
+      this.inFlight = inFlight;
+      this.queued = queued;
+    }
+
+    public String getCacheName() {
+      return cacheName;
+    }
+
+    public Operation getOperation() {
+      return operation;
+    }
+
+    public int getLimit() {
+      return limit;
+    }
+
+    public int getInFlight() {
+      return inFlight;
+    }
+
+    /** @return how many requests were waiting for the limit. */
+    public int getQueued() {
+      return queued;
+    }
+
+    @Override
+    public String getEventName() {
+      return "HttpArtifactCacheEvent.ConcurrencyLimitChanged";
+    }
+
+    @Override
+    protected String getValueString() {
+      return String.format(
+          "%s %s limit=%d in_flight=%d queued=%d", cacheName, operation, limit, inFlight, queued);
+    }
+  }
+
   public static class Finished extends ArtifactCacheEvent.Finished {
 
     @JsonIgnore private final Started startedEvent;
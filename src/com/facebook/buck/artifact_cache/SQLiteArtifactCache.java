@@ -44,6 +44,7 @@ import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
@@ -57,15 +58,26 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import org.sqlite.BusyHandler;
 import org.sqlite.SQLiteConfig;
@@ -76,6 +88,13 @@ import org.sqlite.SQLiteConfig;
  * <p>Cache entries are either metadata or content. All metadata contains a mapping to a content
  * entry. Content entries with sufficiently small content will have their artifacts inlined into the
  * database for improved performance.
+ *
+ * <p>By default, all queries are serialized on a single connection. When configured with reader
+ * connections, the cache instead runs in a concurrent mode: lookups are served by a pool of
+ * connections reading from the write-ahead log, while a single background writer batches inserts
+ * and access time updates into transactions and incrementally evicts the least recently accessed
+ * content whenever the cache grows over its maximum size. In this mode, stores become visible to
+ * lookups once the future returned by {@link #store(ArtifactInfo, BorrowablePath)} completes.
  */
 public class SQLiteArtifactCache implements ArtifactCache {
 
@@ -87,6 +106,10 @@ public class SQLiteArtifactCache implements ArtifactCache {
   private static final String TMP_EXTENSION = ".tmp";
   private static final long DEFAULT_MAX_INLINED_BYTES = 40;
   private static final Duration DEFAULT_EVICTION_TIME = Duration.ofDays(7);
+  // Upper bounds on the amount of work the background writer does in a single transaction.
+  private static final int MAX_WRITE_BATCH_SIZE = 512;
+  private static final int EVICTION_BATCH_SIZE = 256;
+  private static final long WRITER_FLUSH_INTERVAL_MS = 100;
 
   private final String name;
   private final ProjectFilesystem filesystem;
@@ -98,6 +121,8 @@ public class SQLiteArtifactCache implements ArtifactCache {
   private final CacheReadMode cacheMode;
 
   private final ConnectionInfo db;
+  @Nullable private final ReaderPool readers;
+  @Nullable private final BatchingWriter writer;
 
   static {
     SQLiteUtils.initialize();
@@ -110,7 +135,8 @@ public class SQLiteArtifactCache implements ArtifactCache {
       BuckEventBus eventBus,
       Optional<Long> maxCacheSizeBytes,
       Optional<Long> maxInlinedSizeBytes,
-      CacheReadMode cacheMode)
+      CacheReadMode cacheMode,
+      int readerConnections)
       throws IOException, SQLException {
     this.name = name;
     this.filesystem = filesystem;
@@ -137,6 +163,13 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
 
     this.db = new ConnectionInfo(cacheDir);
+    if (readerConnections > 0) {
+      this.readers = new ReaderPool(cacheDir, readerConnections);
+      this.writer = new BatchingWriter(db.totalSize());
+    } else {
+      this.readers = null;
+      this.writer = null;
+    }
   }
 
   @Override
@@ -172,7 +205,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
             CACHE_MODE,
             String.format("Artifact fetch(%s, %s) stopped unexpectedly", contentHash, output));
     try {
-      Optional<Content> content = db.selectContent(contentHash);
+      Optional<Content> content = selectContent(contentHash);
       if (content.isPresent()) {
         byte[] artifact = content.get().artifact;
         String filepath = content.get().filepath;
@@ -185,12 +218,12 @@ public class SQLiteArtifactCache implements ArtifactCache {
           filesystem.copyFile(filesystem.resolve(filepath), output.get());
         } else {
           // artifact stored on disk was removed by another cache, remove database entry
-          db.deleteContent(contentHash);
+          deleteContent(contentHash);
           return result = CacheResult.miss();
         }
 
         long size = content.get().size;
-        db.accessContent(contentHash);
+        accessContent(contentHash);
 
         return result = CacheResult.hit(name, CACHE_MODE, ImmutableMap.of(), size);
       }
@@ -215,9 +248,9 @@ public class SQLiteArtifactCache implements ArtifactCache {
             CACHE_MODE,
             String.format("Metadata fetch(%s, %s) stopped unexpectedly", ruleKey, output));
     try {
-      Optional<byte[]> metadata = db.selectMetadata(ruleKey);
+      Optional<byte[]> metadata = selectMetadata(ruleKey);
       if (metadata.isPresent()) {
-        db.accessMetadata(ruleKey);
+        accessMetadata(ruleKey);
         output.get(); // for MultiArtifactCache, force evaluation of the output path
 
         return result = CacheResult.hit(name, CACHE_MODE, unmarshalMetadata(metadata.get()), 0);
@@ -281,7 +314,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
 
     try {
-      db.storeMetadata(info.getRuleKeys(), marshalMetadata(metadata));
+      byte[] data = marshalMetadata(metadata);
+      if (writer != null) {
+        return writer.submit(0, () -> db.storeMetadata(info.getRuleKeys(), data));
+      }
+      db.storeMetadata(info.getRuleKeys(), data);
     } catch (IOException | SQLException e) {
       LOG.warn(e, "Metadata store(%s) error", info.getRuleKeys());
     }
@@ -300,7 +337,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
       long size = filesystem.getFileSize(content.getPath());
       if (size <= maxInlinedBytes) {
         // artifact is small enough to inline in the database
-        db.storeArtifact(toStore, Files.readAllBytes(content.getPath()), size);
+        byte[] artifact = Files.readAllBytes(content.getPath());
+        if (writer != null) {
+          return writer.submit(size, () -> db.storeArtifact(toStore, artifact, size));
+        }
+        db.storeArtifact(toStore, artifact, size);
       } else if (!toStore.isEmpty()) {
         // artifact is too large to inline, store on disk and put path in database
         Path artifactPath = getArtifactPath(toStore.iterator().next());
@@ -312,6 +353,10 @@ public class SQLiteArtifactCache implements ArtifactCache {
           storeArtifactOutput(content.getPath(), artifactPath);
         }
 
+        if (writer != null) {
+          return writer.submit(
+              size, () -> db.storeFilepath(toStore, artifactPath.toString(), size));
+        }
         db.storeFilepath(toStore, artifactPath.toString(), size);
       }
     } catch (IOException | SQLException e) {
@@ -326,13 +371,13 @@ public class SQLiteArtifactCache implements ArtifactCache {
     ImmutableSet.Builder<RuleKey> builder = ImmutableSet.builder();
     for (RuleKey contentHash : contentHashes) {
       // if the content already exists in the cache, skip it
-      Optional<Content> existingArtifact = db.selectContent(contentHash);
+      Optional<Content> existingArtifact = selectContent(contentHash);
       if (existingArtifact.isPresent()) {
         byte[] inlined = existingArtifact.get().artifact;
         String artifactPath = existingArtifact.get().filepath;
 
         if (Objects.nonNull(inlined) || filesystem.exists(filesystem.resolve(artifactPath))) {
-          db.accessContent(contentHash);
+          accessContent(contentHash);
           continue;
         }
       }
@@ -343,6 +388,38 @@ public class SQLiteArtifactCache implements ArtifactCache {
     return builder.build();
   }
 
+  private Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
+    return readers != null ? readers.selectMetadata(ruleKey) : db.selectMetadata(ruleKey);
+  }
+
+  private Optional<Content> selectContent(RuleKey contentHash) throws SQLException {
+    return readers != null ? readers.selectContent(contentHash) : db.selectContent(contentHash);
+  }
+
+  private void accessMetadata(RuleKey ruleKey) throws SQLException {
+    if (writer != null) {
+      writer.accessedMetadata.add(ruleKey);
+    } else {
+      db.accessMetadata(ruleKey);
+    }
+  }
+
+  private void accessContent(RuleKey contentHash) throws SQLException {
+    if (writer != null) {
+      writer.accessedContent.add(contentHash);
+    } else {
+      db.accessContent(contentHash);
+    }
+  }
+
+  private void deleteContent(RuleKey contentHash) throws SQLException {
+    if (writer != null) {
+      writer.submit(0, () -> db.deleteContent(contentHash));
+    } else {
+      db.deleteContent(contentHash);
+    }
+  }
+
   @VisibleForTesting
   static byte[] marshalMetadata(ImmutableMap<String, String> metadata) throws IOException {
     ByteArrayOutputStream metadataStream = new ByteArrayOutputStream();
@@ -456,6 +533,13 @@ public class SQLiteArtifactCache implements ArtifactCache {
 
   @Override
   public void close() {
+    if (writer != null) {
+      writer.close();
+    }
+    if (readers != null) {
+      readers.close();
+    }
+
     try (SimplePerfEvent.Scope ignored = SimplePerfEvent.scope(eventBus, "sqlite_cache_clean")) {
       Futures.allAsList(removeOldMetadata(), removeOldContent()).get();
     } catch (ExecutionException | InterruptedException e) {
@@ -500,47 +584,327 @@ public class SQLiteArtifactCache implements ArtifactCache {
     stmt.executeUpdate();
   }
 
+  /**
+   * @return a future which completes once all writes submitted so far have been applied, and the
+   *     eviction they triggered is done.
+   */
+  @VisibleForTesting
+  ListenableFuture<Unit> flushWrites() {
+    return writer != null ? writer.whenIdle() : Futures.immediateFuture(null);
+  }
+
   @VisibleForTesting
   ImmutableList<RuleKey> directoryFileContentHashes() throws SQLException {
-    ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
-    try (ResultSet rs =
-        db.connection
-            .createStatement()
-            .executeQuery("SELECT sha1 FROM content WHERE filepath NOTNULL")) {
-      while (rs.next()) {
-        keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
-      }
-    }
-    return keys.build();
+    return queryRuleKeys("SELECT sha1 FROM content WHERE filepath NOTNULL");
   }
 
   @VisibleForTesting
   ImmutableList<RuleKey> inlinedArtifactContentHashes() throws SQLException {
-    ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
-    try (ResultSet rs =
-        db.connection
-            .createStatement()
-            .executeQuery("SELECT sha1 FROM content WHERE artifact NOTNULL")) {
-      while (rs.next()) {
-        keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
-      }
-    }
-    return keys.build();
+    return queryRuleKeys("SELECT sha1 FROM content WHERE artifact NOTNULL");
   }
 
   @VisibleForTesting
   ImmutableList<RuleKey> metadataRuleKeys() throws SQLException {
+    return queryRuleKeys("SELECT rulekey FROM metadata");
+  }
+
+  private ImmutableList<RuleKey> queryRuleKeys(String query) throws SQLException {
     ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
-    try (ResultSet rs =
-        db.connection.createStatement().executeQuery("SELECT rulekey FROM metadata")) {
-      while (rs.next()) {
-        keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
+    // the background writer holds the lock on the connection for the duration of a transaction
+    synchronized (db) {
+      try (ResultSet rs = db.connection.createStatement().executeQuery(query)) {
+        while (rs.next()) {
+          keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
+        }
       }
     }
     return keys.build();
   }
 
+  /** Operation run by the {@link BatchingWriter} as part of a transaction. */
+  @FunctionalInterface
+  private interface WriteOperation {
+    void run() throws SQLException;
+  }
+
+  private static class PendingWrite {
+    private final WriteOperation operation;
+    private final long addedBytes;
+    private final SettableFuture<Unit> result = SettableFuture.create();
+
+    PendingWrite(WriteOperation operation, long addedBytes) {
+      this.operation = operation;
+      this.addedBytes = addedBytes;
+    }
+  }
+
+  /**
+   * Applies all writes of the concurrent mode on a background thread. Writes submitted while a
+   * transaction is being committed are grouped into the next one, so that the number of commits
+   * stays low under contention. Access time updates are deduplicated and flushed with each batch.
+   */
+  private class BatchingWriter {
+    private final BlockingQueue<PendingWrite> pendingWrites = new LinkedBlockingQueue<>();
+    private final Set<RuleKey> accessedMetadata = ConcurrentHashMap.newKeySet();
+    private final Set<RuleKey> accessedContent = ConcurrentHashMap.newKeySet();
+    private final Queue<SettableFuture<Unit>> idleListeners = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    // Only accessed from the writer thread.
+    private long contentSizeBytes;
+    private boolean evicting = false;
+
+    private BatchingWriter(long contentSizeBytes) {
+      this.contentSizeBytes = contentSizeBytes;
+      this.thread = new Thread(this::run, "SQLiteArtifactCache writer: " + name);
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+
+    private ListenableFuture<Unit> submit(long addedBytes, WriteOperation operation) {
+      if (closed) {
+        LOG.warn("Dropping write to closed SQLite cache %s", name);
+        return Futures.immediateFuture(null);
+      }
+      PendingWrite write = new PendingWrite(operation, addedBytes);
+      pendingWrites.add(write);
+      return write.result;
+    }
+
+    /**
+     * @return a future which completes once all writes submitted so far have been applied, and
+     *     the eviction they triggered is done.
+     */
+    private ListenableFuture<Unit> whenIdle() {
+      if (closed) {
+        return Futures.immediateFuture(null);
+      }
+      SettableFuture<Unit> idle = SettableFuture.create();
+      // The listener runs on the writer thread, which completes it once it is done evicting.
+      submit(0, () -> {})
+          .addListener(() -> idleListeners.add(idle), MoreExecutors.directExecutor());
+      return idle;
+    }
+
+    private void notifyIdle() {
+      SettableFuture<Unit> idle;
+      while ((idle = idleListeners.poll()) != null) {
+        idle.set(null);
+      }
+    }
+
+    private void run() {
+      List<PendingWrite> batch = new ArrayList<>(MAX_WRITE_BATCH_SIZE);
+      while (!closed || !pendingWrites.isEmpty()) {
+        try {
+          // Keep evicting without waiting for new writes until the cache is small enough.
+          PendingWrite first =
+              pendingWrites.poll(evicting ? 0 : WRITER_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+          if (first != null) {
+            batch.add(first);
+            pendingWrites.drainTo(batch, MAX_WRITE_BATCH_SIZE - 1);
+          }
+        } catch (InterruptedException e) {
+          LOG.warn("SQLite cache writer interrupted");
+          break;
+        }
+        writeBatch(batch);
+        batch.clear();
+        evictIfNeeded();
+        if (!evicting) {
+          notifyIdle();
+        }
+      }
+      writeBatch(batch);
+      notifyIdle();
+    }
+
+    private void writeBatch(List<PendingWrite> batch) {
+      if (batch.isEmpty() && accessedMetadata.isEmpty() && accessedContent.isEmpty()) {
+        return;
+      }
+
+      List<PendingWrite> applied = new ArrayList<>(batch.size());
+      List<Pair<PendingWrite, SQLException>> failed = new ArrayList<>();
+      try {
+        db.inTransaction(
+            () -> {
+              applied.clear();
+              failed.clear();
+              for (PendingWrite write : batch) {
+                // A failed write is rolled back on its own, so that it doesn't fail the others.
+                try {
+                  db.inSavepoint(write.operation);
+                  applied.add(write);
+                } catch (SQLException e) {
+                  LOG.warn(e, "Write to SQLite cache %s failed", name);
+                  failed.add(new Pair<>(write, e));
+                }
+              }
+              db.accessMetadata(drain(accessedMetadata));
+              db.accessContent(drain(accessedContent));
+            });
+      } catch (SQLException | RuntimeException e) {
+        LOG.error(e, "Failed to commit %d writes to SQLite cache %s", batch.size(), name);
+        for (PendingWrite write : batch) {
+          write.result.setException(e);
+        }
+        return;
+      }
+      for (PendingWrite write : applied) {
+        contentSizeBytes += write.addedBytes;
+        write.result.set(null);
+      }
+      for (Pair<PendingWrite, SQLException> write : failed) {
+        write.getFirst().result.setException(write.getSecond());
+      }
+    }
+
+    /** Evicts a bounded chunk of the least recently accessed content, if the cache is too big. */
+    private void evictIfNeeded() {
+      if (!maxCacheSizeBytes.isPresent()
+          || (!evicting && contentSizeBytes <= maxCacheSizeBytes.get())) {
+        return;
+      }
+
+      evicting = true;
+      try {
+        ImmutableList<Pair<RuleKey, Content>> oldest =
+            db.selectOldestContent(EVICTION_BATCH_SIZE);
+        long minToDelete = contentSizeBytes - maxBytesAfterDeletion.get();
+        List<RuleKey> contentHashes = new ArrayList<>(oldest.size());
+        List<String> filepaths = new ArrayList<>();
+        long deletedBytes = 0;
+        for (Pair<RuleKey, Content> entry : oldest) {
+          if (deletedBytes >= minToDelete) {
+            break;
+          }
+          contentHashes.add(entry.getFirst());
+          // from database constraint, exactly one of filepath/artifact is null
+          if (Objects.nonNull(entry.getSecond().filepath)) {
+            filepaths.add(entry.getSecond().filepath);
+          }
+          deletedBytes += entry.getSecond().size;
+        }
+
+        // Delete rows first, so that readers never find an entry whose file is already gone.
+        db.inTransaction(() -> db.deleteContent(contentHashes));
+        for (String filepath : filepaths) {
+          MostFiles.deleteRecursivelyIfExists(filesystem.resolve(filepath));
+        }
+        contentSizeBytes -= deletedBytes;
+        LOG.verbose(
+            "Evicted %d cached artifacts of size %d bytes", contentHashes.size(), deletedBytes);
+
+        if (contentHashes.size() == oldest.size() && oldest.size() < EVICTION_BATCH_SIZE) {
+          // The whole table was evicted, resynchronize the running total.
+          contentSizeBytes = db.totalSize();
+        }
+        evicting = contentSizeBytes > maxBytesAfterDeletion.get() && !oldest.isEmpty();
+      } catch (IOException | SQLException e) {
+        LOG.error(e, "Failed to evict content from SQLite cache %s", name);
+        evicting = false;
+      }
+    }
+
+    private List<RuleKey> drain(Set<RuleKey> keys) {
+      List<RuleKey> drained = new ArrayList<>();
+      Iterator<RuleKey> iterator = keys.iterator();
+      while (iterator.hasNext()) {
+        drained.add(iterator.next());
+        iterator.remove();
+      }
+      return drained;
+    }
+
+    private void close() {
+      closed = true;
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      PendingWrite write;
+      while ((write = pendingWrites.poll()) != null) {
+        LOG.warn("Dropping write to closed SQLite cache %s", name);
+        write.result.set(null);
+      }
+      notifyIdle();
+    }
+  }
+
+  /** Pool of connections used to serve lookups concurrently in the concurrent mode. */
+  private static class ReaderPool {
+    private final ImmutableList<ReaderConnection> connections;
+    private final BlockingQueue<ReaderConnection> available;
+
+    private ReaderPool(Path cacheDir, int size) throws SQLException {
+      ImmutableList.Builder<ReaderConnection> builder = ImmutableList.builder();
+      for (int i = 0; i < size; i++) {
+        builder.add(new ReaderConnection(cacheDir));
+      }
+      connections = builder.build();
+      available = new ArrayBlockingQueue<>(size, false, connections);
+    }
+
+    private ReaderConnection acquire() throws SQLException {
+      try {
+        return available.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted while waiting for a SQLite connection", e);
+      }
+    }
+
+    private Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
+      ReaderConnection reader = acquire();
+      try {
+        return ConnectionInfo.queryMetadata(reader.fetchMetadata, ruleKey);
+      } finally {
+        available.add(reader);
+      }
+    }
+
+    private Optional<Content> selectContent(RuleKey contentHash) throws SQLException {
+      ReaderConnection reader = acquire();
+      try {
+        return ConnectionInfo.queryContent(reader.fetchContent, contentHash);
+      } finally {
+        available.add(reader);
+      }
+    }
+
+    private void close() {
+      for (ReaderConnection reader : connections) {
+        try {
+          reader.connection.close();
+        } catch (SQLException e) {
+          LOG.warn(e, "Failed to close SQLite connection");
+        }
+      }
+    }
+  }
+
+  private static class ReaderConnection {
+    private final Connection connection;
+    private final PreparedStatement fetchMetadata;
+    private final PreparedStatement fetchContent;
+
+    private ReaderConnection(Path cacheDir) throws SQLException {
+      connection = ConnectionInfo.openConnection(cacheDir);
+      connection.createStatement().executeUpdate("PRAGMA QUERY_ONLY = ON");
+      fetchMetadata = connection.prepareStatement(ConnectionInfo.FETCH_METADATA_QUERY);
+      fetchContent = connection.prepareStatement(ConnectionInfo.FETCH_CONTENT_QUERY);
+    }
+  }
+
   private static class ConnectionInfo {
+    private static final String FETCH_METADATA_QUERY =
+        "SELECT data FROM metadata WHERE rulekey = ?";
+    private static final String FETCH_CONTENT_QUERY =
+        "SELECT artifact, filepath, size FROM content WHERE sha1 = ?";
+
     private final Connection connection;
 
     private final PreparedStatement fetchMetadata;
@@ -554,6 +918,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
     private final PreparedStatement storeFilepath;
 
     private final PreparedStatement selectContentByTime;
+    private final PreparedStatement selectOldestContent;
 
     private final PreparedStatement deleteMetadataBeforeCutoff;
     private final PreparedStatement deleteContentBeforeCutoff;
@@ -561,13 +926,19 @@ public class SQLiteArtifactCache implements ArtifactCache {
 
     private final PreparedStatement contentSize;
 
-    private ConnectionInfo(Path cacheDir) throws SQLException {
+    private static Connection openConnection(Path cacheDir) throws SQLException {
       // date format must be set to match CURRENT_TIMESTAMP
       Properties properties = new SQLiteConfig().toProperties();
       properties.setProperty(
           SQLiteConfig.Pragma.DATE_STRING_FORMAT.pragmaName, "yyyy-MM-dd HH:mm:ss");
-      connection =
+      Connection connection =
           DriverManager.getConnection("jdbc:sqlite:" + cacheDir.resolve("dircache.db"), properties);
+      BusyHandler.setHandler(connection, new RetryBusyHandler());
+      return connection;
+    }
+
+    private ConnectionInfo(Path cacheDir) throws SQLException {
+      connection = openConnection(cacheDir);
       connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
       connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
 
@@ -602,11 +973,14 @@ public class SQLiteArtifactCache implements ArtifactCache {
                   + "CONSTRAINT inline CHECK (artifact NOT NULL AND filepath ISNULL "
                   + "OR artifact ISNULL AND filepath NOT NULL)) "
                   + "WITHOUT ROWID");
+      // used to find the content to evict incrementally without scanning the whole table
+      connection
+          .createStatement()
+          .executeUpdate(
+              "CREATE INDEX IF NOT EXISTS content_accessed ON content (accessed, created)");
 
-      fetchMetadata = connection.prepareStatement("SELECT data FROM metadata WHERE rulekey = ?");
-      fetchContent =
-          connection.prepareStatement(
-              "SELECT artifact, filepath, size FROM content WHERE sha1 = ?");
+      fetchMetadata = connection.prepareStatement(FETCH_METADATA_QUERY);
+      fetchContent = connection.prepareStatement(FETCH_CONTENT_QUERY);
 
       updateMetadataTime =
           connection.prepareStatement(
@@ -627,6 +1001,10 @@ public class SQLiteArtifactCache implements ArtifactCache {
       selectContentByTime =
           connection.prepareStatement(
               "SELECT filepath, size, accessed FROM content ORDER BY accessed ASC, created ASC");
+      selectOldestContent =
+          connection.prepareStatement(
+              "SELECT sha1, filepath, size FROM content "
+                  + "ORDER BY accessed ASC, created ASC LIMIT ?");
 
       deleteMetadataBeforeCutoff =
           connection.prepareStatement("DELETE FROM metadata WHERE accessed < ?");
@@ -635,22 +1013,34 @@ public class SQLiteArtifactCache implements ArtifactCache {
       deleteContentForHash = connection.prepareStatement("DELETE FROM content WHERE sha1 = ?");
 
       contentSize = connection.prepareStatement("SELECT sum(size) FROM content");
+    }
 
-      BusyHandler.setHandler(connection, new RetryBusyHandler());
+    // Result sets are closed eagerly, as an open statement keeps a read transaction alive, which
+    // would pin a reader connection to a stale snapshot of the database.
+    private static Optional<byte[]> queryMetadata(PreparedStatement fetchMetadata, RuleKey ruleKey)
+        throws SQLException {
+      fetchMetadata.setBytes(1, getBytes(ruleKey));
+      try (ResultSet rs = fetchMetadata.executeQuery()) {
+        return rs.next() ? Optional.of(rs.getBytes(1)) : Optional.empty();
+      }
+    }
+
+    private static Optional<Content> queryContent(
+        PreparedStatement fetchContent, RuleKey contentHash) throws SQLException {
+      fetchContent.setBytes(1, getBytes(contentHash));
+      try (ResultSet rs = fetchContent.executeQuery()) {
+        return rs.next()
+            ? Optional.of(new Content(rs.getBytes(1), rs.getString(2), rs.getLong(3)))
+            : Optional.empty();
+      }
     }
 
     private synchronized Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
-      fetchMetadata.setBytes(1, getBytes(ruleKey));
-      ResultSet rs = fetchMetadata.executeQuery();
-      return rs.next() ? Optional.of(rs.getBytes(1)) : Optional.empty();
+      return queryMetadata(fetchMetadata, ruleKey);
     }
 
     private synchronized Optional<Content> selectContent(RuleKey contentHash) throws SQLException {
-      fetchContent.setBytes(1, getBytes(contentHash));
-      ResultSet rs = fetchContent.executeQuery();
-      return rs.next()
-          ? Optional.of(new Content(rs.getBytes(1), rs.getString(2), rs.getLong(3)))
-          : Optional.empty();
+      return queryContent(fetchContent, contentHash);
     }
 
     private synchronized void accessMetadata(RuleKey ruleKey) throws SQLException {
@@ -663,6 +1053,41 @@ public class SQLiteArtifactCache implements ArtifactCache {
       updateContentTime.executeUpdate();
     }
 
+    private synchronized void accessMetadata(List<RuleKey> ruleKeys) throws SQLException {
+      executeBatch(updateMetadataTime, ruleKeys);
+    }
+
+    private synchronized void accessContent(List<RuleKey> contentHashes) throws SQLException {
+      executeBatch(updateContentTime, contentHashes);
+    }
+
+    /** Runs {@code operation} as part of the current transaction, undoing it if it fails. */
+    private synchronized void inSavepoint(WriteOperation operation) throws SQLException {
+      Savepoint savepoint = connection.setSavepoint();
+      try {
+        operation.run();
+      } catch (SQLException | RuntimeException e) {
+        connection.rollback(savepoint);
+        throw e;
+      } finally {
+        connection.releaseSavepoint(savepoint);
+      }
+    }
+
+    /** Runs {@code operation} in a single transaction, which is rolled back if it fails. */
+    private synchronized void inTransaction(WriteOperation operation) throws SQLException {
+      connection.setAutoCommit(false);
+      try {
+        operation.run();
+        connection.commit();
+      } catch (SQLException | RuntimeException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    }
+
     private synchronized void storeMetadata(ImmutableSet<RuleKey> ruleKeys, byte[] metadata)
         throws SQLException {
       for (RuleKey ruleKey : ruleKeys) {
@@ -710,6 +1135,37 @@ public class SQLiteArtifactCache implements ArtifactCache {
       deleteContentForHash.executeUpdate();
     }
 
+    private synchronized void deleteContent(List<RuleKey> contentHashes) throws SQLException {
+      executeBatch(deleteContentForHash, contentHashes);
+    }
+
+    private synchronized ImmutableList<Pair<RuleKey, Content>> selectOldestContent(int limit)
+        throws SQLException {
+      ImmutableList.Builder<Pair<RuleKey, Content>> content = ImmutableList.builder();
+      selectOldestContent.setInt(1, limit);
+      try (ResultSet rs = selectOldestContent.executeQuery()) {
+        while (rs.next()) {
+          content.add(
+              new Pair<>(
+                  new RuleKey(HashCode.fromBytes(rs.getBytes(1))),
+                  new Content(null, rs.getString(2), rs.getLong(3))));
+        }
+      }
+      return content.build();
+    }
+
+    private static void executeBatch(PreparedStatement statement, List<RuleKey> keys)
+        throws SQLException {
+      if (keys.isEmpty()) {
+        return;
+      }
+      for (RuleKey key : keys) {
+        statement.setBytes(1, getBytes(key));
+        statement.addBatch();
+      }
+      statement.executeBatch();
+    }
+
     private synchronized long totalSize() throws SQLException {
       ResultSet rs = contentSize.executeQuery();
       if (!rs.next()) {
@@ -764,11 +1220,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
   }
 
   private static class Content {
-    private final byte[] artifact;
-    private final String filepath;
+    @Nullable private final byte[] artifact;
+    @Nullable private final String filepath;
     private final long size;
 
-    Content(byte[] artifact, String filepath, long size) {
+    Content(@Nullable byte[] artifact, @Nullable String filepath, long size) {
       this.artifact = artifact;
       this.filepath = filepath;
       this.size = size;
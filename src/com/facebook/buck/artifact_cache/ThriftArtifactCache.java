@@ -190,7 +190,19 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
         ThriftArtifactCacheProtocol.Response.ReadPayloadInfo readResult;
         try (OutputStream tmpFile = getProjectFilesystem().newFileOutputStream(tmp)) {
           try {
-            readResult = response.readPayload(tmpFile);
+            readResult =
+                response.readPayload(
+                    tmpFile,
+                    payload -> {
+                      // The checks below which make the fetch fail roll this back.
+                      if (fetchResponse.isSetMetadata()
+                          && fetchResponse.getMetadata().isSetMetadata()) {
+                        UnpackingLazyPath.unpackIfSupported(
+                            output,
+                            ImmutableMap.copyOf(fetchResponse.getMetadata().getMetadata()),
+                            payload);
+                      }
+                    });
           } catch (IOException e) {
             LOG.debug(e, "encountered an exception while receiving the payload for %s", ruleKey);
             throw e;
@@ -19,8 +19,10 @@ import com.facebook.buck.artifact_cache.thrift.BuckCacheRequest;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheResponse;
 import com.facebook.buck.artifact_cache.thrift.PayloadInfo;
 import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.TeeInputStream;
 import com.facebook.buck.slb.ThriftProtocol;
 import com.facebook.buck.slb.ThriftUtil;
+import com.facebook.buck.util.function.ThrowingConsumer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.hash.HashFunction;
@@ -28,6 +30,7 @@ import com.google.common.hash.Hashing;
 import com.google.common.hash.HashingOutputStream;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -181,6 +184,16 @@ public class ThriftArtifactCacheProtocol {
     }
 
     public ReadPayloadInfo readPayload(OutputStream outStream) throws IOException {
+      return readPayload(outStream, payload -> {});
+    }
+
+    /**
+     * Reads the next payload into {@code outStream}, letting {@code payloadReader} read it as it is
+     * written there. The reader doesn't need to read the payload to its end.
+     */
+    public ReadPayloadInfo readPayload(
+        OutputStream outStream, ThrowingConsumer<InputStream, IOException> payloadReader)
+        throws IOException {
       assertTrue(
           nextPayloadToBeRead < thriftData.getPayloadsSize(),
           "Trying to download payload index=[%s] but the thriftData only contains [%s] payloads.",
@@ -193,7 +206,10 @@ public class ThriftArtifactCacheProtocol {
               .getSizeBytes();
       try (HashingOutputStream wrappedOutputStream =
           new HashingOutputStream(MD5_HASH_FUNCTION, outStream)) {
-        copyExactly(responseStream, wrappedOutputStream, payloadSizeBytes);
+        CountingInputStream payload =
+            new CountingInputStream(ByteStreams.limit(responseStream, payloadSizeBytes));
+        payloadReader.accept(new TeeInputStream(payload, wrappedOutputStream));
+        copyExactly(payload, wrappedOutputStream, payloadSizeBytes - payload.getCount());
         ++nextPayloadToBeRead;
         return new ReadPayloadInfo(payloadSizeBytes, wrappedOutputStream.hash().toString());
       }
@@ -124,7 +124,13 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
   public ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
     return Futures.transformAsync(
-        delegate.fetchAsync(target, ruleKey, output),
+        delegate.fetchAsync(
+            target,
+            ruleKey,
+            // The first-level entry is either the artifact or a pointer to it, which only the
+            // latter's metadata tells apart.
+            UnpackingLazyPath.unpackingOnlyIf(
+                output, metadata -> !metadata.containsKey(METADATA_KEY))),
         (CacheResult fetchResult) -> {
           if (!fetchResult.getType().isSuccess()) {
             LOG.verbose("Missed first-level lookup.");
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.io.file.LazyPath;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.function.Predicate;
+
+/**
+ * A {@link LazyPath} to fetch an artifact to, which can also unpack the artifact while it is being
+ * downloaded, instead of reading it back from disk once the fetch is done.
+ *
+ * <p>Caches which read artifacts from the network pass the contents of a hit to {@link #unpack}
+ * as they arrive, before they have verified their checksum. They still write the contents to
+ * {@link #get()}, so that the artifact can be stored in other caches. If the fetch doesn't end in
+ * a hit, e.g. because the contents turned out to be corrupt, {@link #rollback()} is called.
+ * Caches which don't support this just write the artifact to {@link #get()}.
+ */
+public abstract class UnpackingLazyPath extends LazyPath {
+
+  /**
+   * Unpacks the contents of an artifact, or does nothing if it can't be unpacked as it is read.
+   * The contents are not verified yet, so nothing may consider the artifact fetched until the
+   * cache returns a hit.
+   *
+   * @param metadata the metadata the artifact was stored with
+   * @param contents the contents of the artifact, which don't need to be read to their end
+   */
+  protected abstract void unpack(ImmutableMap<String, String> metadata, InputStream contents)
+      throws IOException;
+
+  /** Undoes {@link #unpack}, as the fetch failed after it started. */
+  protected abstract void rollback();
+
+  /** Passes the contents of an artifact being fetched to {@code output}, if it can unpack them. */
+  public static void unpackIfSupported(
+      LazyPath output, ImmutableMap<String, String> metadata, InputStream contents)
+      throws IOException {
+    if (output instanceof UnpackingLazyPath) {
+      ((UnpackingLazyPath) output).unpack(metadata, contents);
+    }
+  }
+
+  /** Undoes anything {@link #unpackIfSupported} did to {@code output}, as the fetch failed. */
+  public static void rollbackIfSupported(LazyPath output) {
+    if (output instanceof UnpackingLazyPath) {
+      ((UnpackingLazyPath) output).rollback();
+    }
+  }
+
+  /**
+   * @return a path which only unpacks the entries whose metadata {@code isArtifact} accepts, for
+   *     decorators whose entries may be something else than the artifact, e.g. a pointer to it.
+   */
+  public static LazyPath unpackingOnlyIf(
+      LazyPath output, Predicate<ImmutableMap<String, String>> isArtifact) {
+    if (!(output instanceof UnpackingLazyPath)) {
+      return output;
+    }
+    return new UnpackingLazyPath() {
+      @Override
+      protected Path create() throws IOException {
+        return output.get();
+      }
+
+      @Override
+      protected void unpack(ImmutableMap<String, String> metadata, InputStream contents)
+          throws IOException {
+        if (isArtifact.test(metadata)) {
+          unpackIfSupported(output, metadata, contents);
+        }
+      }
+
+      @Override
+      protected void rollback() {
+        rollbackIfSupported(output);
+      }
+    };
+  }
+}
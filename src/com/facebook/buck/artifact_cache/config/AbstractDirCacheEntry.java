@@ -31,4 +31,10 @@ abstract class AbstractDirCacheEntry {
   public abstract Optional<Long> getMaxSizeBytes();
 
   public abstract CacheReadMode getCacheReadMode();
+
+  /** Whether to keep an index of the cache entries, instead of looking them up on disk. */
+  @Value.Default
+  public boolean isIndexed() {
+    return false;
+  }
 }
@@ -33,4 +33,13 @@ abstract class AbstractSQLiteCacheEntry {
   public abstract Optional<Long> getMaxInlinedSizeBytes();
 
   public abstract CacheReadMode getCacheReadMode();
+
+  /**
+   * Number of connections serving lookups concurrently. If zero, all queries are serialized on a
+   * single connection.
+   */
+  @Value.Default
+  public int getReaderConnections() {
+    return 0;
+  }
 }
@@ -81,13 +81,21 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String HTTP_MAX_FETCH_RETRIES = "http_max_fetch_retries";
   private static final String HTTP_MAX_STORE_ATTEMPTS = "http_max_store_attempts";
   private static final String HTTP_STORE_RETRY_INTERVAL_MILLIS = "http_store_retry_interval_millis";
+  private static final String HTTP_ADAPTIVE_CONCURRENCY = "http_adaptive_concurrency";
+  private static final String HTTP_ADAPTIVE_MAX_FETCH_CONCURRENCY =
+      "http_adaptive_max_fetch_concurrency";
+  private static final String HTTP_ADAPTIVE_MAX_CONCURRENT_WRITES =
+      "http_adaptive_max_concurrent_writes";
+  // How far above the static limits the adaptive ones may grow by default.
+  private static final int DEFAULT_HTTP_ADAPTIVE_CONCURRENCY_FACTOR = 4;
 
   private static final String DIR_FIELD = "dir";
   private static final String DIR_MODE_FIELD = "dir_mode";
   private static final String DIR_MAX_SIZE_FIELD = "dir_max_size";
+  private static final String DIR_INDEX_FIELD = "dir_index";
   private static final String DIR_CACHE_NAMES_FIELD_NAME = "dir_cache_names";
   private static final ImmutableSet<String> DIR_CACHE_DESCRIPTION_FIELDS =
-      ImmutableSet.of(DIR_FIELD, DIR_MODE_FIELD, DIR_MAX_SIZE_FIELD);
+      ImmutableSet.of(DIR_FIELD, DIR_MODE_FIELD, DIR_MAX_SIZE_FIELD, DIR_INDEX_FIELD);
 
   private static final URI DEFAULT_HTTP_URL = URI.create("http://localhost:8080/");
   private static final String DEFAULT_HTTP_CACHE_MODE = CacheReadMode.READWRITE.name();
@@ -105,6 +113,7 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String SQLITE_MODE_FIELD = "sqlite_mode";
   private static final String SQLITE_MAX_SIZE_FIELD = "sqlite_max_size";
   private static final String SQLITE_MAX_INLINED_SIZE_FIELD = "sqlite_inlined_size";
+  private static final String SQLITE_READER_CONNECTIONS_FIELD = "sqlite_reader_connections";
   private static final String SQLITE_CACHE_NAMES_FIELD_NAME = "sqlite_cache_names";
 
   private static final String SERVED_CACHE_ENABLED_FIELD_NAME = "serve_local_cache";
@@ -126,6 +135,14 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
       "two_level_cache_maximum_size";
   private static final long TWO_LEVEL_CACHING_MIN_SIZE_DEFAULT = 20 * 1024L;
 
+  private static final String CHUNKED_ARTIFACTS_ENABLED_FIELD_NAME = "chunked_artifacts_enabled";
+  private static final String CHUNKED_ARTIFACTS_MIN_SIZE_FIELD_NAME =
+      "chunked_artifacts_minimum_size";
+  private static final long CHUNKED_ARTIFACTS_MIN_SIZE_DEFAULT = 4 * 1024 * 1024L;
+  private static final String CHUNKED_ARTIFACTS_AVERAGE_CHUNK_SIZE_FIELD_NAME =
+      "chunked_artifacts_average_chunk_size";
+  private static final long CHUNKED_ARTIFACTS_AVERAGE_CHUNK_SIZE_DEFAULT = 1024 * 1024L;
+
   private static final String HYBRID_THRIFT_ENDPOINT = "hybrid_thrift_endpoint";
   private static final String REPOSITORY = "repository";
   private static final String DEFAULT_REPOSITORY = "";
@@ -210,6 +227,45 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
             .orElse(DEFAULT_HTTP_MAX_CONCURRENT_WRITES));
   }
 
+  /**
+   * Whether the number of HTTP fetches and stores in flight adapts to the latency and errors of
+   * the cache, between one and {@link #getHttpMaxAdaptiveFetchConcurrency()} and {@link
+   * #getHttpMaxAdaptiveConcurrentWrites()}, starting from the static limits.
+   */
+  public boolean isHttpAdaptiveConcurrencyEnabled() {
+    return buckConfig.getBooleanValue(CACHE_SECTION_NAME, HTTP_ADAPTIVE_CONCURRENCY, false);
+  }
+
+  public int getHttpMaxAdaptiveFetchConcurrency() {
+    return Math.max(
+        getHttpFetchConcurrency(),
+        buckConfig
+            .getInteger(CACHE_SECTION_NAME, HTTP_ADAPTIVE_MAX_FETCH_CONCURRENCY)
+            .orElse(DEFAULT_HTTP_ADAPTIVE_CONCURRENCY_FACTOR * getHttpFetchConcurrency()));
+  }
+
+  public int getHttpMaxAdaptiveConcurrentWrites() {
+    return Math.max(
+        getHttpMaxConcurrentWrites(),
+        buckConfig
+            .getInteger(CACHE_SECTION_NAME, HTTP_ADAPTIVE_MAX_CONCURRENT_WRITES)
+            .orElse(DEFAULT_HTTP_ADAPTIVE_CONCURRENCY_FACTOR * getHttpMaxConcurrentWrites()));
+  }
+
+  /** @return how many threads to fetch from HTTP caches with. */
+  public int getHttpFetchThreadCount() {
+    return isHttpAdaptiveConcurrencyEnabled()
+        ? getHttpMaxAdaptiveFetchConcurrency()
+        : getHttpFetchConcurrency();
+  }
+
+  /** @return how many threads to store to HTTP caches with. */
+  public int getHttpWriteThreadCount() {
+    return isHttpAdaptiveConcurrencyEnabled()
+        ? getHttpMaxAdaptiveConcurrentWrites()
+        : getHttpMaxConcurrentWrites();
+  }
+
   public int getHttpWriterShutdownTimeout() {
     return Integer.parseInt(
         buckConfig
@@ -379,6 +435,32 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .map(SizeUnit::parseBytes);
   }
 
+  public boolean getChunkedArtifactsEnabled() {
+    return buckConfig.getBooleanValue(
+        CACHE_SECTION_NAME, CHUNKED_ARTIFACTS_ENABLED_FIELD_NAME, false);
+  }
+
+  public long getChunkedArtifactsMinimumSize() {
+    return buckConfig
+        .getValue(CACHE_SECTION_NAME, CHUNKED_ARTIFACTS_MIN_SIZE_FIELD_NAME)
+        .map(SizeUnit::parseBytes)
+        .orElse(CHUNKED_ARTIFACTS_MIN_SIZE_DEFAULT);
+  }
+
+  public int getChunkedArtifactsAverageChunkSize() {
+    long averageChunkSize =
+        buckConfig
+            .getValue(CACHE_SECTION_NAME, CHUNKED_ARTIFACTS_AVERAGE_CHUNK_SIZE_FIELD_NAME)
+            .map(SizeUnit::parseBytes)
+            .orElse(CHUNKED_ARTIFACTS_AVERAGE_CHUNK_SIZE_DEFAULT);
+    if (averageChunkSize < 1024L || averageChunkSize > 64 * 1024 * 1024L) {
+      throw new HumanReadableException(
+          "cache.%s should be between 1KB and 64MB, got %s bytes",
+          CHUNKED_ARTIFACTS_AVERAGE_CHUNK_SIZE_FIELD_NAME, averageChunkSize);
+    }
+    return (int) averageChunkSize;
+  }
+
   /**
    * If true, fail if client TLS certificate or key paths are unspecified, don't exist, are not the
    * right format or have expired
@@ -516,6 +598,7 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .setCacheDir(pathToCacheDir)
         .setCacheReadMode(readMode)
         .setMaxSizeBytes(maxSizeBytes)
+        .setIndexed(buckConfig.getBooleanValue(section, DIR_INDEX_FIELD, false))
         .build();
   }
 
@@ -572,12 +655,16 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
     Optional<Long> maxInlinedSizeBytes =
         buckConfig.getValue(section, SQLITE_MAX_INLINED_SIZE_FIELD).map(SizeUnit::parseBytes);
 
+    int readerConnections =
+        buckConfig.getInteger(section, SQLITE_READER_CONNECTIONS_FIELD).orElse(0);
+
     return SQLiteCacheEntry.builder()
         .setName(cacheName)
         .setCacheDir(pathToCacheDir)
         .setCacheReadMode(readMode)
         .setMaxSizeBytes(maxSizeBytes)
         .setMaxInlinedSizeBytes(maxInlinedSizeBytes)
+        .setReaderConnections(readerConnections)
         .build();
   }
 
@@ -233,6 +233,7 @@ public abstract class AbstractCommandRunnerParams {
         .setArtifactCacheFactory(getArtifactCacheFactory())
         .setRuleKeyConfiguration(getRuleKeyConfiguration())
         .setManifestService(manifestService)
+        .setMerkleTreeNodeDataStores(getGlobalState().getMerkleTreeNodeDataStores())
         .build();
   }
 }
@@ -990,7 +990,7 @@ public final class MainRunner {
                       printConsole.getStdErr(),
                       printConsole.getStdErr().getRawStream(),
                       verbosity);
-          DefaultBuckEventBus buildEventBus = new DefaultBuckEventBus(clock, buildId);
+          DefaultBuckEventBus buildEventBus = createEventBus(logBuckConfig, clock, buildId);
           ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier =
               ThrowingCloseableMemoizedSupplier.of(
                   () -> {
@@ -1036,7 +1036,7 @@ public final class MainRunner {
                 httpFetchExecutorService =
                     getExecutorWrapper(
                         getHttpFetchExecutorService(
-                            "standard", cacheBuckConfig.getHttpFetchConcurrency()),
+                            "standard", cacheBuckConfig.getHttpFetchThreadCount()),
                         "HTTP Read",
                         cacheBuckConfig.getHttpWriterShutdownTimeout());
             ThrowingCloseableWrapper<ScheduledExecutorService, InterruptedException>
@@ -1170,7 +1170,8 @@ public final class MainRunner {
                     managerScope,
                     getArtifactProducerId(executionEnvironment),
                     executionEnvironment.getHostname(),
-                    ClientCertificateHandler.fromConfiguration(cacheBuckConfig));
+                    ClientCertificateHandler.fromConfiguration(cacheBuckConfig),
+                    buckGlobalState.getArtifactCacheConcurrencyLimits());
 
             // Once command completes it should be safe to not wait for executors and other stateful
             // objects to terminate and release semaphore right away. It will help to retry
@@ -1519,6 +1520,9 @@ public final class MainRunner {
             // complete; the cleaner will ensure subsequent cleans are
             // serialized with this one.)
             TRASH_CLEANER.startCleaningDirectory(filesystem.getBuckPaths().getTrashDir());
+            // Save the daemon state now rather than when the daemon shuts down, which it may not
+            // get to do if it is killed.
+            buckGlobalState.savePersistentStatesInBackground();
           }
 
           // Exit Nailgun earlier if command succeeded to now block the client while performing
@@ -2072,7 +2076,7 @@ public final class MainRunner {
       // Distributed builds need to upload from the local cache to the remote cache.
       ExecutorService executorService =
           MostExecutors.newMultiThreadExecutor(
-              "HTTP Write", buckConfig.getHttpMaxConcurrentWrites());
+              "HTTP Write", buckConfig.getHttpWriteThreadCount());
       return listeningDecorator(executorService);
     } else {
       return newDirectExecutorService();
@@ -2157,6 +2161,21 @@ public final class MainRunner {
         });
   }
 
+  private static DefaultBuckEventBus createEventBus(
+      LogBuckConfig logBuckConfig, Clock clock, BuildId buildId) {
+    if (!logBuckConfig.isPerListenerEventQueuesEnabled()) {
+      return new DefaultBuckEventBus(clock, buildId);
+    }
+    ImmutableSet<String> listenersDroppingEvents = logBuckConfig.getEventListenersDroppingEvents();
+    return DefaultBuckEventBus.withPerListenerQueues(
+        clock,
+        buildId,
+        logBuckConfig.getEventListenerQueueCapacity(),
+        listener ->
+            listenersDroppingEvents.contains(listener.getClass().getSimpleName())
+                ? DefaultBuckEventBus.OverflowPolicy.DROP
+                : DefaultBuckEventBus.OverflowPolicy.BLOCK);
+  }
 
   @SuppressWarnings("PMD.PrematureDeclaration")
   private ImmutableList<BuckEventListener> addEventListeners(
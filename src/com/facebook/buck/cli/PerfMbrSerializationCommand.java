@@ -30,6 +30,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.Hashing;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import org.kohsuke.args4j.Argument;
 
 /** Tests performance of serializing MBR rules. */
@@ -68,11 +69,17 @@ public class PerfMbrSerializationCommand
   @Override
   void runPerfTest(CommandRunnerParams params, PreparedState state) {
     Cell rootCell = params.getCell();
+    AtomicLong values = new AtomicLong();
+    AtomicLong bytes = new AtomicLong();
     Serializer serializer =
         new Serializer(
             state.graphBuilder,
             rootCell.getCellPathResolver(),
-            (instance, data, children) -> Hashing.md5().newHasher().putBytes(data).hash());
+            (instance, data, children) -> {
+              values.incrementAndGet();
+              bytes.addAndGet(data.length);
+              return Hashing.md5().newHasher().putBytes(data).hash();
+            });
     for (BuildRule buildRule : state.rulesInGraph) {
       if (buildRule instanceof ModernBuildRule) {
         try {
@@ -84,6 +91,7 @@ public class PerfMbrSerializationCommand
         }
       }
     }
+    printWarning(params, "Serialized %d values into %d bytes.", values.get(), bytes.get());
   }
 
   @Override
@@ -600,6 +600,7 @@ public class TestCommand extends BuildCommand {
                         localCachingBuildEngineDelegate.getFileHashCache(),
                         params.getBuckEventBus(),
                         params.getMetadataProvider(),
+                        params.getGlobalState().getMerkleTreeNodeDataStores(),
                         false,
                         false),
                     pool.getWeightedListeningExecutorService(),
@@ -39,6 +39,7 @@ import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
 import com.facebook.buck.manifestservice.ManifestService;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
 import com.facebook.buck.remoteexecution.interfaces.MetadataProvider;
+import com.facebook.buck.remoteexecution.util.MerkleTreeNodeDataStore;
 import com.facebook.buck.rules.keys.RuleKeyCacheScope;
 import com.facebook.buck.rules.keys.RuleKeyFactories;
 import com.facebook.buck.rules.keys.config.RuleKeyConfiguration;
@@ -55,6 +56,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import java.nio.file.Path;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
 import org.immutables.value.Value;
 
 /** Used to build a given set of targets. */
@@ -170,6 +172,7 @@ public class BuildExecutor {
             cachingBuildEngineDelegate.getFileHashCache(),
             args.getBuckEventBus(),
             metadataProvider,
+            args.getMerkleTreeNodeDataStores(),
             remoteExecutionAutoEnabled,
             forceDisableRemoteExecution),
         executorService,
@@ -224,6 +227,9 @@ abstract class AbstractBuildExecutorArgs {
 
   public abstract Optional<ManifestService> getManifestService();
 
+  /** The daemon's stores of encoded remote execution input directories. */
+  public abstract ConcurrentMap<Path, MerkleTreeNodeDataStore> getMerkleTreeNodeDataStores();
+
   public BuckConfig getBuckConfig() {
     return getRootCell().getBuckConfig();
   }
@@ -206,6 +206,36 @@ public abstract class AbstractBuildBuckConfig implements ConfigView<BuckConfig>
     return getDelegate().getBooleanValue(BUILD_SECTION, "rule_key_caching", false);
   }
 
+  /**
+   * @return whether to persist cached rule keys across daemon restarts. Only has an effect if
+   *     {@link #getRuleKeyCaching()} is enabled.
+   */
+  @Value.Lazy
+  public boolean getRuleKeyCachePersistence() {
+    return getDelegate().getBooleanValue(BUILD_SECTION, "rule_key_cache_persistence", false);
+  }
+
+  /**
+   * @return whether the daemon's rule key cache should track dependencies and inputs in compact
+   *     primitive indexes rather than per-rule collections. Can't be combined with {@link
+   *     #getRuleKeyCachePersistence()}, as compact caches can't be saved.
+   */
+  @Value.Lazy
+  public boolean getCompactRuleKeyCache() {
+    boolean compact = getDelegate().getBooleanValue(BUILD_SECTION, "compact_rule_key_cache", false);
+    if (compact && getRuleKeyCaching() && getRuleKeyCachePersistence()) {
+      throw new HumanReadableException(
+          "compact_rule_key_cache can't be used with rule_key_cache_persistence");
+    }
+    return compact;
+  }
+
+  /** @return whether to persist cached file hashes across daemon restarts. */
+  @Value.Lazy
+  public boolean getFileHashCachePersistence() {
+    return getDelegate().getBooleanValue(BUILD_SECTION, "file_hash_cache_persistence", false);
+  }
+
   /** Whether to create symlinks of build output in buck-out/last. */
   @Value.Lazy
   public boolean createBuildOutputSymLinksEnabled() {
@@ -17,27 +17,96 @@
 package com.facebook.buck.core.build.engine.buildinfo;
 
 import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.sqlite.RetryBusyHandler;
 import com.facebook.buck.util.sqlite.SQLiteUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Striped;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import org.sqlite.BusyHandler;
 
+/**
+ * {@link BuildInfoStore} backed by a SQLite database in the scratch directory.
+ *
+ * <p>The database is in WAL mode, so reads are served by a small pool of connections that can run
+ * concurrently with each other and with the writer. Updates and deletes return as soon as they are
+ * queued: a single background writer drains the queue and applies everything queued so far in one
+ * transaction. Until a write is committed, it is kept in an in-memory overlay that reads consult,
+ * so callers always read their own writes. The metadata of recently used targets is also cached in
+ * memory, as every rule reads several keys of its metadata during a build.
+ */
 public class SQLiteBuildInfoStore implements BuildInfoStore {
-  private final Connection connection;
-  private final PreparedStatement selectStmt;
-  private final PreparedStatement selectAllStmt;
+  private static final Logger LOG = Logger.get(SQLiteBuildInfoStore.class);
+
+  private static final int MAX_READERS = 4;
+  private static final int MAX_CACHED_TARGETS = 20_000;
+  private static final int TARGET_LOCK_STRIPES = 256;
+  private static final long CLOSE_TIMEOUT_MINUTES = 1;
+
+  private final String url;
+
+  /** Idle reader connections. More are opened on demand, up to {@link #MAX_READERS}. */
+  private final ConcurrentLinkedQueue<Reader> idleReaders = new ConcurrentLinkedQueue<>();
+
+  /** Permits to use a reader, so that reads wait for one once all readers are in use. */
+  private final Semaphore readerPermits = new Semaphore(MAX_READERS);
+
+  @GuardedBy("writerExecutor")
+  private final Connection writeConnection;
+
+  @GuardedBy("writerExecutor")
   private final PreparedStatement updateStmt;
+
+  @GuardedBy("writerExecutor")
   private final PreparedStatement deleteStmt;
 
+  private final ExecutorService writerExecutor;
+  private final BlockingQueue<Write> writes = new LinkedBlockingQueue<>();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private final AtomicReference<SQLException> writeFailure = new AtomicReference<>();
+
+  /**
+   * Lock per target, held while the overlay or the cached metadata of the target changes, and while
+   * its metadata is loaded, so that a load never caches metadata older than a concurrent write.
+   */
+  private final Striped<Lock> targetLocks = Striped.lock(TARGET_LOCK_STRIPES);
+
+  private final AtomicLong nextVersion = new AtomicLong();
+
+  /** Writes queued or being written, by target. */
+  private final ConcurrentHashMap<String, PendingMetadata> pending = new ConcurrentHashMap<>();
+
+  private final Cache<String, ImmutableMap<String, String>> cache =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_TARGETS).build();
+
   public SQLiteBuildInfoStore(ProjectFilesystem filesystem) throws IOException {
     SQLiteUtils.initialize();
     String dbPath =
@@ -46,102 +115,319 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
             .resolve(filesystem.getBuckPaths().getScratchDir().resolve("metadata.db"))
             .toString();
     filesystem.createParentDirs(dbPath);
+    url = "jdbc:sqlite:" + dbPath;
     try {
       Class.forName("org.sqlite.JDBC");
-      connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
-      connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
-      connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
-      connection
+      writeConnection = openConnection();
+      writeConnection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
+      writeConnection
           .createStatement()
           .executeUpdate(
               "CREATE TABLE IF NOT EXISTS metadata "
                   + "(target TEXT, key TEXT, value TEXT, "
                   + "PRIMARY KEY (target, key)) "
                   + "WITHOUT ROWID");
-      selectStmt =
-          connection.prepareStatement("SELECT value FROM metadata WHERE target = ? AND key = ?");
-      selectAllStmt =
-          connection.prepareStatement("SELECT key, value FROM metadata WHERE target = ?");
-
       updateStmt =
-          connection.prepareStatement(
+          writeConnection.prepareStatement(
               "INSERT OR REPLACE INTO metadata (target, key, value) VALUES (?, ?, ?)");
-      deleteStmt = connection.prepareStatement("DELETE FROM metadata WHERE target = ?");
-      BusyHandler.setHandler(connection, new RetryBusyHandler());
+      deleteStmt = writeConnection.prepareStatement("DELETE FROM metadata WHERE target = ?");
     } catch (ClassNotFoundException | SQLException e) {
       throw new IOException(e);
     }
+    writerExecutor = MostExecutors.newSingleThreadExecutor("SQLiteBuildInfoStore writer");
+  }
+
+  private Connection openConnection() throws SQLException {
+    Connection connection = DriverManager.getConnection(url);
+    connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
+    BusyHandler.setHandler(connection, new RetryBusyHandler());
+    return connection;
   }
 
+  /** Writes everything queued so far, and closes the database. */
   @Override
   public void close() {
     try {
-      connection.close();
+      if (!MostExecutors.shutdown(writerExecutor, CLOSE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+        throw new RuntimeException("Timed out writing build metadata.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    try {
+      // The writer is stopped, so whatever it did not get to is written here.
+      flush();
+      for (Reader reader : idleReaders) {
+        reader.connection.close();
+      }
+      idleReaders.clear();
+      writeConnection.close();
     } catch (SQLException e) {
       throw new RuntimeException(e);
     }
+    SQLException failure = writeFailure.get();
+    if (failure != null) {
+      throw new RuntimeException(new IOException(failure));
+    }
   }
 
   @Override
-  public synchronized Optional<String> readMetadata(BuildTarget buildTarget, String key) {
+  public Optional<String> readMetadata(BuildTarget buildTarget, String key) {
+    return Optional.ofNullable(getAllMetadata(buildTarget).get(key));
+  }
+
+  @Override
+  public ImmutableMap<String, String> getAllMetadata(BuildTarget buildTarget) {
+    String target = cellRelativeName(buildTarget);
+    ImmutableMap<String, String> metadata = cache.getIfPresent(target);
+    if (metadata != null) {
+      return metadata;
+    }
+    Lock lock = targetLocks.get(target);
+    lock.lock();
     try {
-      selectStmt.setString(1, cellRelativeName(buildTarget));
-      selectStmt.setString(2, key);
-      try (ResultSet rs = selectStmt.executeQuery()) {
-        if (!rs.next()) {
-          return Optional.empty();
+      metadata = cache.getIfPresent(target);
+      if (metadata == null) {
+        PendingMetadata overlay = pending.get(target);
+        if (overlay == null) {
+          metadata = readFromDatabase(target);
+        } else if (overlay.deleted) {
+          metadata = ImmutableMap.copyOf(overlay.values);
+        } else {
+          metadata = merge(readFromDatabase(target), overlay.values);
         }
-        String value = rs.getString(1);
-        return Optional.of(value);
+        cache.put(target, metadata);
       }
+      return metadata;
     } catch (SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      lock.unlock();
     }
   }
 
   @Override
-  public synchronized ImmutableMap<String, String> getAllMetadata(BuildTarget buildTarget) {
+  public void updateMetadata(BuildTarget buildTarget, Map<String, String> metadata)
+      throws IOException {
+    checkWriteFailure();
+    String target = cellRelativeName(buildTarget);
+    ImmutableMap<String, String> values = ImmutableMap.copyOf(metadata);
+    Lock lock = targetLocks.get(target);
+    lock.lock();
     try {
-      selectAllStmt.setString(1, cellRelativeName(buildTarget));
-      try (ResultSet rs = selectAllStmt.executeQuery()) {
-        ImmutableMap.Builder<String, String> result = ImmutableMap.builder();
-        while (rs.next()) {
-          result.put(rs.getString(1), rs.getString(2));
-        }
-        return result.build();
+      long version = nextVersion.incrementAndGet();
+      pending.computeIfAbsent(target, t -> new PendingMetadata()).update(values, version);
+      ImmutableMap<String, String> cached = cache.getIfPresent(target);
+      if (cached != null) {
+        cache.put(target, merge(cached, values));
       }
-    } catch (SQLException e) {
-      throw new RuntimeException(e);
+      writes.add(new Write(target, values, version));
+    } finally {
+      lock.unlock();
     }
+    scheduleFlush();
   }
 
   @Override
-  public synchronized void updateMetadata(BuildTarget buildTarget, Map<String, String> metadata)
-      throws IOException {
+  public void deleteMetadata(BuildTarget buildTarget) throws IOException {
+    checkWriteFailure();
+    String target = cellRelativeName(buildTarget);
+    Lock lock = targetLocks.get(target);
+    lock.lock();
+    try {
+      long version = nextVersion.incrementAndGet();
+      pending.computeIfAbsent(target, t -> new PendingMetadata()).delete(version);
+      cache.put(target, ImmutableMap.of());
+      writes.add(new Write(target, null, version));
+    } finally {
+      lock.unlock();
+    }
+    scheduleFlush();
+  }
+
+  private void checkWriteFailure() throws IOException {
+    SQLException failure = writeFailure.get();
+    if (failure != null) {
+      throw new IOException(failure);
+    }
+  }
+
+  private void scheduleFlush() {
+    // Writes queued while a flush is running are picked up by the next one, so a busy writer
+    // naturally groups them into larger transactions.
+    if (flushScheduled.compareAndSet(false, true)) {
+      writerExecutor.execute(this::flush);
+    }
+  }
+
+  private void flush() {
+    flushScheduled.set(false);
+    List<Write> batch = new ArrayList<>();
+    writes.drainTo(batch);
+    if (batch.isEmpty()) {
+      return;
+    }
+    synchronized (writerExecutor) {
+      try {
+        writeBatch(batch);
+      } catch (SQLException e) {
+        LOG.error(e, "Failed to write build metadata for %d targets.", batch.size());
+        // Keep the overlay of the failed writes, so that reads still see them, and report the
+        // failure to the next writer.
+        writeFailure.compareAndSet(null, e);
+        return;
+      }
+    }
+    Map<String, Long> writtenVersions = new HashMap<>();
+    for (Write write : batch) {
+      writtenVersions.put(write.target, write.version);
+    }
+    for (Map.Entry<String, Long> entry : writtenVersions.entrySet()) {
+      Lock lock = targetLocks.get(entry.getKey());
+      lock.lock();
+      try {
+        PendingMetadata overlay = pending.get(entry.getKey());
+        if (overlay != null && overlay.version <= entry.getValue()) {
+          pending.remove(entry.getKey());
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  @GuardedBy("writerExecutor")
+  private void writeBatch(List<Write> batch) throws SQLException {
+    writeConnection.setAutoCommit(false);
     try {
-      for (Map.Entry<String, String> e : metadata.entrySet()) {
-        updateStmt.setString(1, cellRelativeName(buildTarget));
-        updateStmt.setString(2, e.getKey());
-        updateStmt.setString(3, e.getValue());
-        updateStmt.addBatch();
+      boolean hasQueuedUpdates = false;
+      for (Write write : batch) {
+        if (write.metadata == null) {
+          // Deletes and updates of a target must be applied in the order they were made.
+          if (hasQueuedUpdates) {
+            updateStmt.executeBatch();
+            hasQueuedUpdates = false;
+          }
+          deleteStmt.setString(1, write.target);
+          deleteStmt.executeUpdate();
+          continue;
+        }
+        for (Map.Entry<String, String> entry : write.metadata.entrySet()) {
+          updateStmt.setString(1, write.target);
+          updateStmt.setString(2, entry.getKey());
+          updateStmt.setString(3, entry.getValue());
+          updateStmt.addBatch();
+          hasQueuedUpdates = true;
+        }
+      }
+      if (hasQueuedUpdates) {
+        updateStmt.executeBatch();
       }
-      updateStmt.executeBatch();
+      writeConnection.commit();
     } catch (SQLException e) {
-      throw new IOException(e);
+      updateStmt.clearBatch();
+      writeConnection.rollback();
+      throw e;
+    } finally {
+      writeConnection.setAutoCommit(true);
     }
   }
 
-  @Override
-  public synchronized void deleteMetadata(BuildTarget buildTarget) throws IOException {
+  private ImmutableMap<String, String> readFromDatabase(String target) throws SQLException {
+    Reader reader = acquireReader();
     try {
-      deleteStmt.setString(1, cellRelativeName(buildTarget));
-      deleteStmt.executeUpdate();
+      reader.selectAllStmt.setString(1, target);
+      try (ResultSet rs = reader.selectAllStmt.executeQuery()) {
+        ImmutableMap.Builder<String, String> result = ImmutableMap.builder();
+        while (rs.next()) {
+          result.put(rs.getString(1), rs.getString(2));
+        }
+        return result.build();
+      }
+    } finally {
+      releaseReader(reader);
+    }
+  }
+
+  private Reader acquireReader() throws SQLException {
+    readerPermits.acquireUninterruptibly();
+    Reader reader = idleReaders.poll();
+    if (reader != null) {
+      return reader;
+    }
+    // All other readers are held by the other permits, so this can't open more than MAX_READERS.
+    try {
+      return new Reader(openConnection());
     } catch (SQLException e) {
-      throw new IOException(e);
+      readerPermits.release();
+      throw e;
     }
   }
 
+  private void releaseReader(Reader reader) {
+    idleReaders.add(reader);
+    readerPermits.release();
+  }
+
+  private static ImmutableMap<String, String> merge(
+      Map<String, String> base, Map<String, String> updates) {
+    Map<String, String> merged = new LinkedHashMap<>(base);
+    merged.putAll(updates);
+    return ImmutableMap.copyOf(merged);
+  }
+
   private String cellRelativeName(BuildTarget buildTarget) {
     return buildTarget.getCellRelativeName();
   }
+
+  /** A connection used for reads, with its own prepared statement. */
+  private static class Reader {
+    private final Connection connection;
+    private final PreparedStatement selectAllStmt;
+
+    Reader(Connection connection) throws SQLException {
+      this.connection = connection;
+      this.selectAllStmt =
+          connection.prepareStatement("SELECT key, value FROM metadata WHERE target = ?");
+    }
+  }
+
+  /** An update or delete of the metadata of a target, waiting to be written. */
+  private static class Write {
+    private final String target;
+    /** The values to write, or null to delete the metadata of the target. */
+    @Nullable private final ImmutableMap<String, String> metadata;
+
+    private final long version;
+
+    Write(String target, @Nullable ImmutableMap<String, String> metadata, long version) {
+      this.target = target;
+      this.metadata = metadata;
+      this.version = version;
+    }
+  }
+
+  /**
+   * The combined effect of the writes of a target not committed yet. Only accessed while holding
+   * the lock of the target.
+   */
+  private static class PendingMetadata {
+    /** Whether the stored metadata was deleted before {@link #values} were written. */
+    private boolean deleted = false;
+
+    private final Map<String, String> values = new LinkedHashMap<>();
+    private long version;
+
+    void update(Map<String, String> updates, long version) {
+      values.putAll(updates);
+      this.version = version;
+    }
+
+    void delete(long version) {
+      deleted = true;
+      values.clear();
+      this.version = version;
+    }
+  }
 }
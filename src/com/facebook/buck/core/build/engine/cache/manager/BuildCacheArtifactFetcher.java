@@ -19,6 +19,7 @@ package com.facebook.buck.core.build.engine.cache.manager;
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.UnpackingLazyPath;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoStore;
@@ -36,16 +37,25 @@ import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
 import com.facebook.buck.util.stream.RichStream;
 import com.facebook.buck.util.unarchive.ArchiveFormat;
 import com.facebook.buck.util.unarchive.ExistingFileMode;
+import com.facebook.buck.util.unarchive.Untar;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
+import com.google.common.io.CountingInputStream;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 public class BuildCacheArtifactFetcher {
 
@@ -121,17 +131,7 @@ public class BuildCacheArtifactFetcher {
       return Futures.immediateFuture(CacheResult.ignored());
     }
 
-    // Create a temp file whose extension must be ".zip" for Filesystems.newFileSystem() to infer
-    // that we are creating a zip-based FileSystem.
-    LazyPath lazyZipPath =
-        new LazyPath() {
-          @Override
-          protected Path create() throws IOException {
-            return Files.createTempFile(
-                "buck_artifact_" + MostFiles.sanitize(rule.getBuildTarget().getShortName()),
-                ".zip");
-          }
-        };
+    ArtifactPath lazyZipPath = new ArtifactPath(ruleKey, filesystem);
 
     // TODO(mbolin): Change ArtifactCache.fetch() so that it returns a File instead of takes one.
     // Then we could download directly from the remote cache into the on-disk cache and unzip it
@@ -207,7 +207,10 @@ public class BuildCacheArtifactFetcher {
   }
 
   private CacheResult extractArtifactFromCacheResult(
-      RuleKey ruleKey, LazyPath lazyZipPath, ProjectFilesystem filesystem, CacheResult cacheResult)
+      RuleKey ruleKey,
+      ArtifactPath lazyZipPath,
+      ProjectFilesystem filesystem,
+      CacheResult cacheResult)
       throws IOException {
 
     // We only unpack artifacts from hits.
@@ -215,7 +218,11 @@ public class BuildCacheArtifactFetcher {
       LOG.debug("Cache miss for '%s' with rulekey '%s'", rule, ruleKey);
       return cacheResult;
     }
-    onOutputsWillChange.call();
+    Optional<ImmutableSet<Path>> unpackedFiles = lazyZipPath.getUnpackedFiles();
+    if (!unpackedFiles.isPresent()) {
+      // Otherwise this was done before unpacking it.
+      onOutputsWillChange.call();
+    }
 
     Preconditions.checkState(cacheResult.metadata().isPresent());
     Preconditions.checkArgument(cacheResult.getType() == CacheResultType.HIT);
@@ -224,6 +231,20 @@ public class BuildCacheArtifactFetcher {
     // It should be fine to get the path straight away, since cache already did it's job.
     Path zipPath = lazyZipPath.getUnchecked();
 
+    if (unpackedFiles.isPresent()) {
+      LOG.debug("Unpacked '%s' while fetching it with rulekey '%s'", rule, ruleKey);
+      try {
+        onDiskBuildInfo.validateArtifact(unpackedFiles.get());
+        Files.delete(zipPath);
+        buildInfoStoreManager
+            .get(rule.getProjectFilesystem())
+            .updateMetadata(rule.getBuildTarget(), cacheResult.getMetadata());
+      } catch (IOException e) {
+        throw extractionFailure(ruleKey, e);
+      }
+      return cacheResult;
+    }
+
     // We unzip the file in the root of the project directory.
     // Ideally, the following would work:
     //
@@ -272,11 +293,7 @@ public class BuildCacheArtifactFetcher {
       // Also write out the build metadata.
       buildInfoStore.updateMetadata(rule.getBuildTarget(), cacheResult.getMetadata());
     } catch (IOException e) {
-      throw new IOException(
-          String.format(
-              "%s extracting artifact for Rule Key: %s. Suggested fix: try `buck clean`",
-              e.getMessage(), ruleKey),
-          e.getCause());
+      throw extractionFailure(ruleKey, e);
     } finally {
       eventBus.post(ArtifactCompressionEvent.finished(started, fullSize, compressedSize));
     }
@@ -284,6 +301,108 @@ public class BuildCacheArtifactFetcher {
     return cacheResult;
   }
 
+  private static IOException extractionFailure(RuleKey ruleKey, IOException e) {
+    return new IOException(
+        String.format(
+            "%s extracting artifact for Rule Key: %s. Suggested fix: try `buck clean`",
+            e.getMessage(), ruleKey),
+        e.getCause());
+  }
+
+  /**
+   * The temp file an artifact is fetched to, which is unpacked into the project filesystem while
+   * it is downloaded by the caches which support it.
+   */
+  private class ArtifactPath extends UnpackingLazyPath {
+    private final RuleKey ruleKey;
+    private final ProjectFilesystem filesystem;
+
+    @GuardedBy("this")
+    private boolean unpacking = false;
+
+    @GuardedBy("this")
+    private final Set<Path> unpackedPaths = new HashSet<>();
+
+    @GuardedBy("this")
+    @Nullable
+    private ImmutableSet<Path> unpackedFiles;
+
+    ArtifactPath(RuleKey ruleKey, ProjectFilesystem filesystem) {
+      this.ruleKey = ruleKey;
+      this.filesystem = filesystem;
+    }
+
+    @Override
+    protected Path create() throws IOException {
+      // Create a temp file whose extension must be ".zip" for Filesystems.newFileSystem() to infer
+      // that we are creating a zip-based FileSystem.
+      return Files.createTempFile(
+          "buck_artifact_" + MostFiles.sanitize(rule.getBuildTarget().getShortName()), ".zip");
+    }
+
+    @Override
+    protected synchronized void unpack(ImmutableMap<String, String> metadata, InputStream contents)
+        throws IOException {
+      if (!metadata.containsKey(BuildInfo.MetadataKey.ORIGIN_BUILD_ID)) {
+        // Leave it to extractArtifactFromCacheResult() to reject the artifact once it's fetched.
+        return;
+      }
+      try (Scope ignored = buildRuleScope()) {
+        unpacking = true;
+        onOutputsWillChange.call();
+
+        ArtifactCompressionEvent.Started started =
+            ArtifactCompressionEvent.started(
+                ArtifactCompressionEvent.Operation.DECOMPRESS, ImmutableSet.of(ruleKey));
+        eventBus.post(started);
+        CountingInputStream countingContents = new CountingInputStream(contents);
+        long fullSize = 0L;
+        try {
+          unpackedFiles =
+              Untar.zstdUnarchiver()
+                  .extractArchive(
+                      countingContents,
+                      filesystem,
+                      ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES,
+                      unpackedPaths::add);
+          fullSize =
+              Long.parseLong(
+                  onDiskBuildInfo.getValue(BuildInfo.MetadataKey.OUTPUT_SIZE).orElse("0"));
+        } catch (RuntimeException e) {
+          // Make the cache report a failed fetch, so that it rolls this back.
+          throw new IOException(e);
+        } finally {
+          eventBus.post(
+              ArtifactCompressionEvent.finished(started, fullSize, countingContents.getCount()));
+        }
+      }
+    }
+
+    @Override
+    protected synchronized void rollback() {
+      if (!unpacking) {
+        return;
+      }
+      LOG.debug("Removing the outputs of '%s' unpacked from a failed fetch", rule);
+      try (Scope ignored = buildRuleScope()) {
+        onDiskBuildInfo.deleteExistingMetadata();
+        for (Path path : unpackedPaths) {
+          filesystem.deleteFileAtPathIfExists(path);
+        }
+      } catch (IOException e) {
+        LOG.warn(e, "Unable to remove the outputs of '%s' unpacked from a failed fetch", rule);
+      }
+      unpacking = false;
+      unpackedPaths.clear();
+      unpackedFiles = null;
+    }
+
+    /** @return the files written by {@link #unpack}, if the artifact was unpacked. */
+    synchronized Optional<ImmutableSet<Path>> getUnpackedFiles() {
+      return Optional.ofNullable(unpackedFiles);
+    }
+  }
+
   @FunctionalInterface
   public interface OnOutputsWillChange {
     void call() throws IOException;
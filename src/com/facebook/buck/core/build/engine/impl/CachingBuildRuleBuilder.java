@@ -1001,6 +1001,8 @@ class CachingBuildRuleBuilder {
                     (SupportsPipelining<?>) rule, Objects.requireNonNull(rulekeyCacheResult.get()));
               }
 
+              customBuildRuleStrategy.ifPresent(strategy -> strategy.prefetch(rule));
+
               return Futures.transformAsync(
                   buildRuleBuilderDelegate.getDepResults(rule, executionContext),
                   (depResults) -> handleDepsResults(depResults),
@@ -1078,6 +1080,13 @@ class CachingBuildRuleBuilder {
           MoreExecutors.directExecutor());
     }
 
+    // The rule may be done without the strategy building it, e.g. when it is fetched from a cache.
+    if (customBuildRuleStrategy.isPresent()) {
+      BuildRuleStrategy strategy = customBuildRuleStrategy.get();
+      buildResultFuture.addListener(
+          () -> strategy.cancelPrefetch(rule), MoreExecutors.directExecutor());
+    }
+
     // Unwrap the result.
     return Futures.transform(buildResultFuture, Optional::get, MoreExecutors.directExecutor());
   }
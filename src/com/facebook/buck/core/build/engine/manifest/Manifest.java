@@ -33,35 +33,78 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.UnsignedBytes;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
+/**
+ * Maps the hashes of the inputs a rule actually used (e.g. the headers listed in a dep file) to
+ * the rule keys of its outputs, which allows finding a cached output without knowing in advance
+ * which of the possible inputs are used.
+ *
+ * <p>Manifests are serialized in a binary format which {@link #lookup} can probe in place: inputs
+ * are stored in a sorted string table that is binary searched, and hashes and entries are stored in
+ * fixed width tables that are indexed directly. A deserialized manifest is only fully decoded when
+ * entries are added to it.
+ */
 public class Manifest {
 
   private static final Logger LOG = Logger.get(Manifest.class);
 
-  private static final int VERSION = 0;
+  /** The original format, which is fully decoded when read. */
+  private static final int LEGACY_VERSION = 0;
+
+  private static final int VERSION = 1;
+
+  private static final Comparator<byte[]> UTF8_ORDER = UnsignedBytes.lexicographicalComparator();
 
   private final RuleKey key;
 
-  @VisibleForTesting final List<String> inputs;
-  private final Map<String, Integer> inputIndices;
+  /** The serialized manifest, until it is decoded. */
+  @Nullable private ByteBuffer buffer;
+
+  /** The positions of the tables in {@link #buffer}. */
+  private int numInputs;
+
+  private int numHashes;
+  private int numEntries;
+  private int inputOffsetsStart;
+  private int inputDataStart;
+  private int hashInputsStart;
+  private int hashOffsetsStart;
+  private int hashDataStart;
+  private int entryOffsetsStart;
+  private int entryHashIndicesStart;
+  private int entryKeyOffsetsStart;
+  private int entryKeyDataStart;
 
-  @VisibleForTesting final List<Pair<Integer, HashCode>> hashes;
-  private final Map<HashCode, Integer> hashIndices;
+  /** The decoded manifest, which entries can be added to. */
+  @Nullable private List<String> inputs;
 
-  @VisibleForTesting final List<Pair<RuleKey, int[]>> entries;
+  @Nullable private Map<String, Integer> inputIndices;
+  @Nullable private List<Pair<Integer, HashCode>> hashes;
+  @Nullable private Map<HashCode, Integer> hashIndices;
+  @Nullable private List<Pair<RuleKey, int[]>> entries;
 
   /** Create an empty manifest. */
   public Manifest(RuleKey key) {
@@ -75,16 +118,72 @@ public class Manifest {
 
   /** Deserialize an existing manifest from the given {@link InputStream}. */
   public Manifest(InputStream rawInput) throws IOException {
-    DataInputStream input = new DataInputStream(rawInput);
+    this(ByteBuffer.wrap(ByteStreams.toByteArray(rawInput)));
+  }
 
-    // Verify the manifest version.
-    int version = input.readInt();
-    Preconditions.checkState(version == VERSION, "invalid version: %s != %s", version, VERSION);
+  /**
+   * Deserialize an existing manifest from the given {@link ByteBuffer}, which may be memory mapped.
+   * The buffer must not be modified while it is used by this manifest.
+   */
+  public Manifest(ByteBuffer rawBuffer) throws IOException {
+    ByteBuffer buffer = rawBuffer.slice().order(ByteOrder.BIG_ENDIAN);
+    try {
+      int version = buffer.getInt(0);
+      if (version == LEGACY_VERSION) {
+        key = readLegacy(buffer);
+        return;
+      }
+      Preconditions.checkState(version == VERSION, "invalid version: %s != %s", version, VERSION);
+
+      int position = Integer.BYTES;
+      byte[] keyBytes = new byte[buffer.getInt(position)];
+      position += Integer.BYTES;
+      ((ByteBuffer) buffer.duplicate().position(position)).get(keyBytes);
+      position += keyBytes.length;
+      key = new RuleKey(HashCode.fromBytes(keyBytes));
+
+      numInputs = buffer.getInt(position);
+      numHashes = buffer.getInt(position + Integer.BYTES);
+      numEntries = buffer.getInt(position + 2 * Integer.BYTES);
+      position += 3 * Integer.BYTES;
+      LOG.verbose(
+          "%s: mapped %d input entries, %d hash entries and %d dep file rule key entries",
+          key, numInputs, numHashes, numEntries);
+
+      inputOffsetsStart = position;
+      inputDataStart = inputOffsetsStart + (numInputs + 1) * Integer.BYTES;
+      hashInputsStart = inputDataStart + buffer.getInt(inputOffsetsStart + numInputs * Integer.BYTES);
+      hashOffsetsStart = hashInputsStart + numHashes * Integer.BYTES;
+      hashDataStart = hashOffsetsStart + (numHashes + 1) * Integer.BYTES;
+      entryOffsetsStart =
+          hashDataStart + buffer.getInt(hashOffsetsStart + numHashes * Integer.BYTES);
+      entryHashIndicesStart = entryOffsetsStart + (numEntries + 1) * Integer.BYTES;
+      entryKeyOffsetsStart =
+          entryHashIndicesStart
+              + buffer.getInt(entryOffsetsStart + numEntries * Integer.BYTES) * Integer.BYTES;
+      entryKeyDataStart = entryKeyOffsetsStart + (numEntries + 1) * Integer.BYTES;
+      int end = entryKeyDataStart + buffer.getInt(entryKeyOffsetsStart + numEntries * Integer.BYTES);
+      if (end != buffer.limit()) {
+        throw new IOException(
+            String.format("%s: manifest has %d bytes, expected %d", key, buffer.limit(), end));
+      }
+    } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+      throw new IOException("truncated or corrupted manifest", e);
+    }
+    this.buffer = buffer;
+  }
+
+  /** Reads and decodes a manifest in the {@link #LEGACY_VERSION} format. */
+  private RuleKey readLegacy(ByteBuffer buffer) throws IOException {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+    input.readInt();
 
-    key = new RuleKey(input.readUTF());
+    RuleKey key = new RuleKey(input.readUTF());
 
     int numberOfHeaders = input.readInt();
-    LOG.verbose("%s: loading %d input entries", this.key, numberOfHeaders);
+    LOG.verbose("%s: loading %d input entries", key, numberOfHeaders);
     inputs = new ArrayList<>(numberOfHeaders);
     inputIndices = new HashMap<>(numberOfHeaders);
     for (int index = 0; index < numberOfHeaders; index++) {
@@ -94,7 +193,7 @@ public class Manifest {
     }
 
     int numberOfHashes = input.readInt();
-    LOG.verbose("%s: loading %d hash entries", this.key, numberOfHashes);
+    LOG.verbose("%s: loading %d hash entries", key, numberOfHashes);
     hashes = new ArrayList<>(numberOfHashes);
     hashIndices = new HashMap<>(numberOfHashes);
     for (int index = 0; index < numberOfHashes; index++) {
@@ -105,7 +204,7 @@ public class Manifest {
     }
 
     int numberOfEntries = input.readInt();
-    LOG.verbose("%s: loading %d dep file rule key entries", this.key, numberOfEntries);
+    LOG.verbose("%s: loading %d dep file rule key entries", key, numberOfEntries);
     entries = new ArrayList<>(numberOfEntries);
     for (int entryIndex = 0; entryIndex < numberOfEntries; entryIndex++) {
       int numberOfEntryHashes = input.readInt();
@@ -113,18 +212,157 @@ public class Manifest {
       for (int hashIndex = 0; hashIndex < numberOfEntryHashes; hashIndex++) {
         entryHashes[hashIndex] = input.readInt();
       }
-      RuleKey key = new RuleKey(input.readUTF());
-      LOG.verbose("%s: loaded entry for dep file rule key %s", this.key, key);
-      entries.add(new Pair<>(key, entryHashes));
+      RuleKey entryKey = new RuleKey(input.readUTF());
+      LOG.verbose("%s: loaded entry for dep file rule key %s", key, entryKey);
+      entries.add(new Pair<>(entryKey, entryHashes));
     }
+    return key;
   }
 
   public RuleKey getKey() {
     return key;
   }
 
+  /** Decodes the serialized manifest, so that entries can be added to it. */
+  private void decode() {
+    ByteBuffer buffer = this.buffer;
+    if (buffer == null) {
+      return;
+    }
+    LOG.verbose("%s: decoding %d dep file rule key entries", key, numEntries);
+    List<String> inputs = new ArrayList<>(numInputs);
+    Map<String, Integer> inputIndices = new HashMap<>(numInputs);
+    for (int index = 0; index < numInputs; index++) {
+      String input = getInput(index);
+      inputs.add(input);
+      inputIndices.put(input, index);
+    }
+    List<Pair<Integer, HashCode>> hashes = new ArrayList<>(numHashes);
+    Map<HashCode, Integer> hashIndices = new HashMap<>(numHashes);
+    for (int index = 0; index < numHashes; index++) {
+      HashCode hash = getHash(index);
+      hashes.add(new Pair<>(getHashInput(index), hash));
+      hashIndices.put(hash, index);
+    }
+    List<Pair<RuleKey, int[]>> entries = new ArrayList<>(numEntries);
+    for (int index = 0; index < numEntries; index++) {
+      entries.add(new Pair<>(getEntryKey(index), getEntryHashIndices(index)));
+    }
+    this.inputs = inputs;
+    this.inputIndices = inputIndices;
+    this.hashes = hashes;
+    this.hashIndices = hashIndices;
+    this.entries = entries;
+    this.buffer = null;
+  }
+
+  private static byte[] getBytes(ByteBuffer buffer, int offsetsStart, int dataStart, int index) {
+    int start = buffer.getInt(offsetsStart + index * Integer.BYTES);
+    int end = buffer.getInt(offsetsStart + (index + 1) * Integer.BYTES);
+    byte[] bytes = new byte[end - start];
+    ((ByteBuffer) buffer.duplicate().position(dataStart + start)).get(bytes);
+    return bytes;
+  }
+
+  /** @return the index of the given input, or -1 if the manifest doesn't contain it. */
+  private int findInput(String input) {
+    ByteBuffer buffer = this.buffer;
+    if (buffer == null) {
+      return Objects.requireNonNull(inputIndices).getOrDefault(input, -1);
+    }
+    byte[] target = input.getBytes(StandardCharsets.UTF_8);
+    int low = 0;
+    int high = numInputs - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = compareInput(buffer, middle, target);
+      if (comparison < 0) {
+        low = middle + 1;
+      } else if (comparison > 0) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  /** Compares a serialized input with the given UTF-8 bytes, without decoding it. */
+  private int compareInput(ByteBuffer buffer, int index, byte[] target) {
+    int start = inputDataStart + buffer.getInt(inputOffsetsStart + index * Integer.BYTES);
+    int end = inputDataStart + buffer.getInt(inputOffsetsStart + (index + 1) * Integer.BYTES);
+    int length = Math.min(end - start, target.length);
+    for (int i = 0; i < length; i++) {
+      int comparison = UnsignedBytes.compare(buffer.get(start + i), target[i]);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return Integer.compare(end - start, target.length);
+  }
+
+  @VisibleForTesting
+  String getInput(int inputIndex) {
+    ByteBuffer buffer = this.buffer;
+    if (buffer == null) {
+      return Objects.requireNonNull(inputs).get(inputIndex);
+    }
+    return new String(
+        getBytes(buffer, inputOffsetsStart, inputDataStart, inputIndex), StandardCharsets.UTF_8);
+  }
+
+  @VisibleForTesting
+  int getHashInput(int hashIndex) {
+    ByteBuffer buffer = this.buffer;
+    if (buffer == null) {
+      return Objects.requireNonNull(hashes).get(hashIndex).getFirst();
+    }
+    return buffer.getInt(hashInputsStart + hashIndex * Integer.BYTES);
+  }
+
+  @VisibleForTesting
+  HashCode getHash(int hashIndex) {
+    ByteBuffer buffer = this.buffer;
+    if (buffer == null) {
+      return Objects.requireNonNull(hashes).get(hashIndex).getSecond();
+    }
+    return HashCode.fromBytes(getBytes(buffer, hashOffsetsStart, hashDataStart, hashIndex));
+  }
+
+  @VisibleForTesting
+  RuleKey getEntryKey(int entryIndex) {
+    ByteBuffer buffer = this.buffer;
+    if (buffer == null) {
+      return Objects.requireNonNull(entries).get(entryIndex).getFirst();
+    }
+    return new RuleKey(
+        HashCode.fromBytes(
+            getBytes(buffer, entryKeyOffsetsStart, entryKeyDataStart, entryIndex)));
+  }
+
+  @VisibleForTesting
+  int[] getEntryHashIndices(int entryIndex) {
+    ByteBuffer buffer = this.buffer;
+    if (buffer == null) {
+      return Objects.requireNonNull(entries).get(entryIndex).getSecond();
+    }
+    int start = buffer.getInt(entryOffsetsStart + entryIndex * Integer.BYTES);
+    int end = buffer.getInt(entryOffsetsStart + (entryIndex + 1) * Integer.BYTES);
+    int[] hashIndices = new int[end - start];
+    for (int i = 0; i < hashIndices.length; i++) {
+      hashIndices[i] = buffer.getInt(entryHashIndicesStart + (start + i) * Integer.BYTES);
+    }
+    return hashIndices;
+  }
+
   @VisibleForTesting
   Integer addHash(String input, HashCode hash) {
+    decode();
+    List<String> inputs = Objects.requireNonNull(this.inputs);
+    Map<String, Integer> inputIndices = Objects.requireNonNull(this.inputIndices);
+    List<Pair<Integer, HashCode>> hashes = Objects.requireNonNull(this.hashes);
+    Map<HashCode, Integer> hashIndices = Objects.requireNonNull(this.hashIndices);
+
     Integer inputIndex = inputIndices.get(input);
     if (inputIndex == null) {
       inputs.add(input);
@@ -142,6 +380,12 @@ public class Manifest {
     return hashIndex;
   }
 
+  @VisibleForTesting
+  void addEntry(RuleKey key, int[] hashIndices) {
+    decode();
+    Objects.requireNonNull(entries).add(new Pair<>(key, hashIndices));
+  }
+
   /** Hash the files pointed to by the source paths. */
   @VisibleForTesting
   static HashCode hashSourcePathGroup(
@@ -179,16 +423,34 @@ public class Manifest {
         resolver.getRelativePath(archivePath.getArchiveSourcePath()), archivePath.getMemberPath());
   }
 
+  /** @return whether the hash with the given index equals {@code hash}, without decoding it. */
+  private boolean hashEquals(int hashIndex, HashCode hash) {
+    ByteBuffer buffer = this.buffer;
+    if (buffer == null) {
+      return Objects.requireNonNull(hashes).get(hashIndex).getSecond().equals(hash);
+    }
+    int start = hashDataStart + buffer.getInt(hashOffsetsStart + hashIndex * Integer.BYTES);
+    int end = hashDataStart + buffer.getInt(hashOffsetsStart + (hashIndex + 1) * Integer.BYTES);
+    byte[] bytes = hash.asBytes();
+    if (bytes.length != end - start) {
+      return false;
+    }
+    for (int i = 0; i < bytes.length; i++) {
+      if (buffer.get(start + i) != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   private boolean hashesMatch(
       FileHashLoader fileHashLoader,
       SourcePathResolverAdapter resolver,
-      ImmutableListMultimap<String, SourcePath> universe,
+      ImmutableListMultimap<Integer, SourcePath> universe,
       int[] hashIndices)
       throws IOException {
     for (int hashIndex : hashIndices) {
-      Pair<Integer, HashCode> hashEntry = hashes.get(hashIndex);
-      String input = inputs.get(hashEntry.getFirst());
-      ImmutableList<SourcePath> candidates = universe.get(input);
+      ImmutableList<SourcePath> candidates = universe.get(getHashInput(hashIndex));
       if (candidates.isEmpty()) {
         return false;
       }
@@ -198,8 +460,7 @@ public class Manifest {
       } catch (NoSuchFileException e) {
         return false;
       }
-      HashCode inputHash = hashEntry.getSecond();
-      if (!inputHash.equals(onDiskHeaderHash)) {
+      if (!hashEquals(hashIndex, onDiskHeaderHash)) {
         return false;
       }
     }
@@ -215,26 +476,24 @@ public class Manifest {
       SourcePathResolverAdapter resolver,
       ImmutableSet<SourcePath> universe)
       throws IOException {
-    // Create a set of all paths we care about.
-    ImmutableSet.Builder<String> interestingPathsBuilder = new ImmutableSet.Builder<>();
-    for (Pair<?, int[]> entry : entries) {
-      for (int hashIndex : entry.getSecond()) {
-        interestingPathsBuilder.add(inputs.get(hashes.get(hashIndex).getFirst()));
+    // Create a multimap from the indices of inputs in the manifest to SourcePaths that maps to
+    // them. Entries only ever refer to inputs of the manifest.
+    ImmutableListMultimap.Builder<Integer, SourcePath> mappedUniverse =
+        ImmutableListMultimap.builder();
+    for (SourcePath path : universe) {
+      int inputIndex = findInput(sourcePathToManifestHeader(path, resolver));
+      if (inputIndex >= 0) {
+        mappedUniverse.put(inputIndex, path);
       }
     }
-    ImmutableSet<String> interestingPaths = interestingPathsBuilder.build();
-
-    // Create a multimap from paths we care about to SourcePaths that maps to them.
-    ImmutableListMultimap<String, SourcePath> mappedUniverse =
-        index(
-            universe,
-            path -> sourcePathToManifestHeader(path, resolver),
-            interestingPaths::contains);
+    ImmutableListMultimap<Integer, SourcePath> inputsUniverse = mappedUniverse.build();
 
     // Find a matching entry.
-    for (Pair<RuleKey, int[]> entry : entries) {
-      if (hashesMatch(fileHashLoader, resolver, mappedUniverse, entry.getSecond())) {
-        return Optional.of(entry.getFirst());
+    int size = size();
+    for (int entryIndex = 0; entryIndex < size; entryIndex++) {
+      if (hashesMatch(
+          fileHashLoader, resolver, inputsUniverse, getEntryHashIndices(entryIndex))) {
+        return Optional.of(getEntryKey(entryIndex));
       }
     }
     return Optional.empty();
@@ -286,40 +545,96 @@ public class Manifest {
       hashIndices[index++] =
           addHash(relativePath.toString(), hashSourcePathGroup(fileHashLoader, resolver, paths));
     }
-    entries.add(new Pair<>(key, hashIndices));
+    addEntry(key, hashIndices);
   }
 
   /** Serializes the manifest to the given {@link OutputStream}. */
   public void serialize(OutputStream rawOutput) throws IOException {
+    ByteBuffer buffer = this.buffer;
+    if (buffer != null) {
+      // Nothing was added since the manifest was read.
+      byte[] bytes = new byte[buffer.limit()];
+      ((ByteBuffer) buffer.duplicate().position(0)).get(bytes);
+      rawOutput.write(bytes);
+      return;
+    }
+    List<String> inputs = Objects.requireNonNull(this.inputs);
+    List<Pair<Integer, HashCode>> hashes = Objects.requireNonNull(this.hashes);
+    List<Pair<RuleKey, int[]>> entries = Objects.requireNonNull(this.entries);
+
+    // Inputs are written in sorted order, so that they can be binary searched.
+    byte[][] inputBytes = new byte[inputs.size()][];
+    Integer[] sortedInputs = new Integer[inputs.size()];
+    for (int index = 0; index < inputs.size(); index++) {
+      inputBytes[index] = inputs.get(index).getBytes(StandardCharsets.UTF_8);
+      sortedInputs[index] = index;
+    }
+    Arrays.sort(sortedInputs, (a, b) -> UTF8_ORDER.compare(inputBytes[a], inputBytes[b]));
+    int[] newInputIndices = new int[inputs.size()];
+    for (int index = 0; index < sortedInputs.length; index++) {
+      newInputIndices[sortedInputs[index]] = index;
+    }
+
     DataOutputStream output = new DataOutputStream(rawOutput);
 
     output.writeInt(VERSION);
 
-    output.writeUTF(key.toString());
+    byte[] keyBytes = key.getHashCode().asBytes();
+    output.writeInt(keyBytes.length);
+    output.write(keyBytes);
 
     output.writeInt(inputs.size());
-    for (String input : inputs) {
-      output.writeUTF(input);
+    output.writeInt(hashes.size());
+    output.writeInt(entries.size());
+
+    int offset = 0;
+    output.writeInt(offset);
+    for (Integer index : sortedInputs) {
+      offset += inputBytes[index].length;
+      output.writeInt(offset);
+    }
+    for (Integer index : sortedInputs) {
+      output.write(inputBytes[index]);
     }
 
-    output.writeInt(hashes.size());
     for (Pair<Integer, HashCode> hash : hashes) {
-      output.writeInt(hash.getFirst());
-      output.writeUTF(hash.getSecond().toString());
+      output.writeInt(newInputIndices[hash.getFirst()]);
+    }
+    offset = 0;
+    output.writeInt(offset);
+    for (Pair<Integer, HashCode> hash : hashes) {
+      offset += hash.getSecond().bits() / Byte.SIZE;
+      output.writeInt(offset);
+    }
+    for (Pair<Integer, HashCode> hash : hashes) {
+      output.write(hash.getSecond().asBytes());
     }
 
-    output.writeInt(entries.size());
+    offset = 0;
+    output.writeInt(offset);
+    for (Pair<RuleKey, int[]> entry : entries) {
+      offset += entry.getSecond().length;
+      output.writeInt(offset);
+    }
     for (Pair<RuleKey, int[]> entry : entries) {
-      output.writeInt(entry.getSecond().length);
       for (int hashIndex : entry.getSecond()) {
         output.writeInt(hashIndex);
       }
-      output.writeUTF(entry.getFirst().toString());
     }
+    offset = 0;
+    output.writeInt(offset);
+    for (Pair<RuleKey, int[]> entry : entries) {
+      offset += entry.getFirst().getHashCode().bits() / Byte.SIZE;
+      output.writeInt(offset);
+    }
+    for (Pair<RuleKey, int[]> entry : entries) {
+      output.write(entry.getFirst().getHashCode().asBytes());
+    }
+    output.flush();
   }
 
   public int size() {
-    return entries.size();
+    return buffer != null ? numEntries : Objects.requireNonNull(entries).size();
   }
 
   /**
@@ -342,10 +657,17 @@ public class Manifest {
   }
 
   public ManifestStats getStats() {
+    if (buffer != null) {
+      return ManifestStats.builder()
+          .setNumDepFiles(numEntries)
+          .setNumInputs(numInputs)
+          .setNumHashes(numHashes)
+          .build();
+    }
     return ManifestStats.builder()
-        .setNumDepFiles(entries.size())
-        .setNumInputs(inputs.size())
-        .setNumHashes(hashes.size())
+        .setNumDepFiles(Objects.requireNonNull(entries).size())
+        .setNumInputs(Objects.requireNonNull(inputs).size())
+        .setNumHashes(Objects.requireNonNull(hashes).size())
         .build();
   }
 }
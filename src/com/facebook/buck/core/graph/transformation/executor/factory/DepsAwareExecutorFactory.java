@@ -18,6 +18,7 @@ package com.facebook.buck.core.graph.transformation.executor.factory;
 import com.facebook.buck.core.graph.transformation.executor.DepsAwareExecutor;
 import com.facebook.buck.core.graph.transformation.executor.impl.DefaultDepsAwareExecutor;
 import com.facebook.buck.core.graph.transformation.executor.impl.DefaultDepsAwareExecutorWithLocalStack;
+import com.facebook.buck.core.graph.transformation.executor.impl.ForkJoinDepsAwareExecutor;
 import com.facebook.buck.core.graph.transformation.executor.impl.JavaExecutorBackedDefaultDepsAwareExecutor;
 import com.facebook.buck.core.graph.transformation.executor.impl.ToposortBasedDepsAwareExecutor;
 
@@ -49,6 +50,8 @@ public class DepsAwareExecutorFactory {
         return JavaExecutorBackedDefaultDepsAwareExecutor.of(parallelism);
       case TOPOSORT_BASED:
         return ToposortBasedDepsAwareExecutor.of(parallelism);
+      case FORK_JOIN:
+        return ForkJoinDepsAwareExecutor.of(parallelism);
       default:
         throw new IllegalArgumentException(
             String.format("Unknown DepsAwareExecutorType: %s", type));
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.executor.impl;
+
+import com.facebook.buck.core.graph.transformation.executor.DepsAwareExecutor;
+import com.facebook.buck.core.graph.transformation.executor.DepsAwareTask;
+import com.facebook.buck.core.graph.transformation.executor.DepsAwareTask.DepsSupplier;
+import com.facebook.buck.core.graph.transformation.executor.impl.AbstractDepsAwareTask.TaskStatus;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.function.ThrowingSupplier;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A specialized Executor that executes {@link DepsAwareTask}. This executor will attempt to
+ * maintain maximum concurrency, while completing dependencies of each supplied work first.
+ *
+ * <p>This implementation runs tasks in a {@link ForkJoinPool}. Dependencies discovered by a task
+ * are forked onto the local deque of the worker that discovered them, and idle workers steal from
+ * the other end of busy workers' deques, so there is no single queue that all workers contend on.
+ * A task whose dependencies aren't done yet is not requeued, but resubmitted once the last of them
+ * completes.
+ */
+public class ForkJoinDepsAwareExecutor<T>
+    implements DepsAwareExecutor<T, DefaultDepsAwareTask<T>> {
+
+  private static final Logger LOG = Logger.get(ForkJoinDepsAwareExecutor.class);
+
+  private final ForkJoinPool pool;
+
+  private volatile boolean isShutdown = false;
+
+  private ForkJoinDepsAwareExecutor(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /** Creates a {@link ForkJoinDepsAwareExecutor} with given {@code numberOfThreads}. */
+  public static <U> ForkJoinDepsAwareExecutor<U> of(int numberOfThreads) {
+    return new ForkJoinDepsAwareExecutor<>(new ForkJoinPool(numberOfThreads));
+  }
+
+  @Override
+  public void close() {
+    isShutdown = true;
+    pool.shutdownNow();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return isShutdown;
+  }
+
+  @Override
+  public DefaultDepsAwareTask<T> createThrowingTask(
+      Callable<T> callable,
+      ThrowingSupplier<ImmutableSet<DefaultDepsAwareTask<T>>, Exception> prereqSupplier,
+      ThrowingSupplier<ImmutableSet<DefaultDepsAwareTask<T>>, Exception> depsSupplier) {
+    return DefaultDepsAwareTask.of(callable, DepsSupplier.of(prereqSupplier, depsSupplier));
+  }
+
+  @Override
+  public DefaultDepsAwareTask<T> createTask(Callable<T> callable) {
+    return DefaultDepsAwareTask.of(callable);
+  }
+
+  @Override
+  public Future<T> submit(DefaultDepsAwareTask<T> task) {
+    if (isShutdown) {
+      throw new RejectedExecutionException("Executor has already been shutdown");
+    }
+    if (task.compareAndSetStatus(TaskStatus.NOT_SCHEDULED, TaskStatus.SCHEDULED)) {
+      schedule(task);
+    }
+    return task.getResultFuture();
+  }
+
+  @Override
+  public ImmutableList<Future<T>> submitAll(Collection<DefaultDepsAwareTask<T>> tasks) {
+    ImmutableList.Builder<Future<T>> futures = ImmutableList.builderWithExpectedSize(tasks.size());
+    for (DefaultDepsAwareTask<T> w : tasks) {
+      futures.add(submit(w));
+    }
+    return futures.build();
+  }
+
+  /**
+   * Queues a task that has a status of {@link TaskStatus#SCHEDULED}. From a worker of this pool,
+   * the task goes to the front of the worker's own deque, so that it's likely to run next on the
+   * same thread, otherwise it goes to the pool's shared submission queue.
+   */
+  private void schedule(DefaultDepsAwareTask<T> task) {
+    ForkJoinTask<?> forkJoinTask = ForkJoinTask.adapt(() -> runTask(task));
+    if (ForkJoinTask.getPool() == pool) {
+      forkJoinTask.fork();
+    } else {
+      pool.execute(forkJoinTask);
+    }
+  }
+
+  /**
+   * The {@link TaskStatus} is used to synchronize between tasks.
+   *
+   * <p>A task is {@link TaskStatus#SCHEDULED} from when it is first submitted until it is run with
+   * all of its dependencies done, including while it waits for those dependencies. This ensures
+   * that it is never scheduled twice. Completed tasks are {@link TaskStatus#DONE}.
+   */
+  private void runTask(DefaultDepsAwareTask<T> task) {
+    if (isShutdown) {
+      return;
+    }
+    Verify.verify(task.compareAndSetStatus(TaskStatus.SCHEDULED, TaskStatus.STARTED));
+
+    List<CompletableFuture<?>> pending;
+    try {
+      pending = checkTasksReadyOrSchedule(task.getPrereqs());
+      if (pending.isEmpty()) {
+        pending = checkTasksReadyOrSchedule(task.getDependencies());
+      }
+    } catch (Throwable e) {
+      completeWithException(task, e);
+      return;
+    }
+
+    if (!pending.isEmpty()) {
+      Verify.verify(task.compareAndSetStatus(TaskStatus.STARTED, TaskStatus.SCHEDULED));
+      CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+          .whenComplete((ignored, e) -> rescheduleAfterDeps(task));
+      return;
+    }
+    task.call();
+  }
+
+  private void rescheduleAfterDeps(DefaultDepsAwareTask<T> task) {
+    try {
+      schedule(task);
+    } catch (RejectedExecutionException e) {
+      LOG.debug(e, "Dropping task after the executor was shut down");
+    }
+  }
+
+  /**
+   * Schedules the given tasks if they aren't already, and returns the futures of those that are not
+   * yet done. Throws the exception of the first dependency that has failed.
+   */
+  private List<CompletableFuture<?>> checkTasksReadyOrSchedule(
+      ImmutableSet<DefaultDepsAwareTask<T>> tasksToCheck)
+      throws ExecutionException, InterruptedException {
+    List<CompletableFuture<?>> pending = new ArrayList<>();
+    for (DefaultDepsAwareTask<T> task : tasksToCheck) {
+      CompletableFuture<?> future = task.getFuture();
+      if (future.isDone()) {
+        if (future.isCompletedExceptionally()) {
+          future.get();
+        }
+        continue;
+      }
+      if (task.compareAndSetStatus(TaskStatus.NOT_SCHEDULED, TaskStatus.SCHEDULED)) {
+        schedule(task);
+      }
+      pending.add(future);
+    }
+    return pending;
+  }
+
+  private static void completeWithException(DefaultDepsAwareTask<?> task, Throwable e) {
+    if (e instanceof ExecutionException) {
+      e = e.getCause();
+    }
+    task.getFuture().completeExceptionally(e);
+    Verify.verify(task.compareAndSetStatus(TaskStatus.STARTED, TaskStatus.DONE));
+  }
+}
@@ -21,6 +21,7 @@ import com.facebook.buck.core.rules.ActionGraphBuilder;
 import com.facebook.buck.event.BuckEventBus;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import javax.annotation.Nullable;
 
 /** Contains cached action graphs. */
@@ -56,8 +57,11 @@ public class ActionGraphCache {
   }
 
   public void populateActionGraphBuilderWithCachedRules(
-      BuckEventBus eventBus, TargetGraph targetGraph, ActionGraphBuilder graphBuilder) {
+      BuckEventBus eventBus,
+      TargetGraph targetGraph,
+      ActionGraphBuilder graphBuilder,
+      ListeningExecutorService executorService) {
     incrementalActionGraphGenerator.populateActionGraphBuilderWithCachedRules(
-        eventBus, targetGraph, graphBuilder);
+        eventBus, targetGraph, graphBuilder, executorService);
   }
 }
@@ -105,7 +105,7 @@ public class ActionGraphFactory {
     if (incrementalActionGraphMode == IncrementalActionGraphMode.ENABLED) {
       listener = actionGraphCreationLifecycleListener;
     } else {
-      listener = graphBuilder -> {};
+      listener = (graphBuilder, executorService) -> {};
     }
 
     ActionGraphBuilderDecorator graphBuilderDecorator;
@@ -149,6 +149,10 @@ public class ActionGraphFactory {
   }
 
   interface ActionGraphCreationLifecycleListener {
-    void onCreate(ActionGraphBuilder graphBuilder);
+    /**
+     * @param executorService the executor used to create the action graph, which may also be used
+     *     to prepare the new action graph builder.
+     */
+    void onCreate(ActionGraphBuilder graphBuilder, ListeningExecutorService executorService);
   }
 }
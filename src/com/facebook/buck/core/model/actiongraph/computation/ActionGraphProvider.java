@@ -211,7 +211,7 @@ public class ActionGraphProvider {
         transformer,
         targetGraph,
         incrementalActionGraphMode,
-        graphBuilder -> {
+        (graphBuilder, executorService) -> {
           // Any previously cached action graphs are no longer valid, as we may use build rules
           // from those graphs to construct a new graph incrementally, and update those build
           // rules to use a new BuildRuleResolver.
@@ -220,7 +220,7 @@ public class ActionGraphProvider {
           // Populate the new build rule graphBuilder with all of the usable rules from the last
           // build rule graphBuilder for incremental action graph generation.
           actionGraphCache.populateActionGraphBuilderWithCachedRules(
-              eventBus, targetGraph, graphBuilder);
+              eventBus, targetGraph, graphBuilder, executorService);
         });
   }
 
@@ -25,17 +25,26 @@ import com.facebook.buck.core.model.targetgraph.TargetGraph;
 import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.core.rules.ActionGraphBuilder;
 import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.graph.AbstractBottomUpTraversal;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.ActionGraphEvent;
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.util.concurrent.MoreFutures;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableSet;
-import java.util.HashMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 
 /**
@@ -43,10 +52,17 @@ import javax.annotation.Nullable;
  *
  * <p>This works by grabbing all the build rules from the previous {@link ActionGraphBuilder} with
  * unflavored targets that were not invalidated when doing a target graph walk to check for changes.
+ *
+ * <p>Comparing each target node with its previous version is the expensive part of the walk and
+ * does not depend on other nodes, so it is done in parallel. Only the propagation of invalidations
+ * to the dependents of changed nodes is done in a serial bottom-up traversal.
  */
 public class IncrementalActionGraphGenerator {
   private static final Logger LOG = Logger.get(IncrementalActionGraphGenerator.class);
 
+  /** Number of target nodes checked by a single task of the parallel invalidation walk. */
+  private static final int NODES_PER_TASK = 1000;
+
   @Nullable private ActionGraphBuilder lastActionGraphBuilder;
   @Nullable private TargetGraph lastTargetGraph;
 
@@ -54,33 +70,69 @@ public class IncrementalActionGraphGenerator {
    * Populates the given {@link ActionGraphBuilder} with the rules from the previously used {@link
    * ActionGraphBuilder} that are deemed usable after checking for invalidations with a target graph
    * walk.
+   *
+   * @param executorService where to compare target nodes with their previous versions.
    */
   public void populateActionGraphBuilderWithCachedRules(
-      BuckEventBus eventBus, TargetGraph targetGraph, ActionGraphBuilder graphBuilder) {
+      BuckEventBus eventBus,
+      TargetGraph targetGraph,
+      ActionGraphBuilder graphBuilder,
+      ListeningExecutorService executorService) {
     int reusedRuleCount = 0;
+    int previousRuleCount = 0;
+    long walkTimeNanos = 0;
     if (lastActionGraphBuilder != null) {
       Objects.requireNonNull(lastTargetGraph);
 
-      // We first walk the new target graph to find new nodes. A new node will invalidate all nodes
+      long walkStartNanos = System.nanoTime();
+      ImmutableList<TargetNode<?>> nodes = targetGraph.getNodes().asList();
+
+      // We first look for new nodes in the new target graph. A new node will invalidate all nodes
       // with the same unflavored target.
-      Set<UnflavoredBuildTargetView> unflavoredTargetsForNewNodes =
-          findUnflavoredTargetsForNewNodes(targetGraph);
+      Set<UnflavoredBuildTargetView> unflavoredTargetsForNewNodes = ConcurrentHashMap.newKeySet();
+      forEachInParallel(
+          nodes,
+          node -> {
+            if (!lastTargetGraph.getExactOptional(node.getBuildTarget()).isPresent()) {
+              unflavoredTargetsForNewNodes.add(node.getBuildTarget().getUnflavoredBuildTarget());
+            }
+          },
+          executorService);
+
+      // Then we find the nodes which cause invalidation of their parent chain by themselves.
+      Set<BuildTarget> changedTargets = ConcurrentHashMap.newKeySet();
+      forEachInParallel(
+          nodes,
+          node -> {
+            if (shouldInvalidateParentChain(node, unflavoredTargetsForNewNodes)) {
+              changedTargets.add(node.getBuildTarget());
+            }
+          },
+          executorService);
 
-      // We figure out which build rules we can reuse from the last action graph by performing an
-      // invalidation walk over the new target graph.
+      // We figure out which build rules we can reuse from the last action graph by propagating
+      // the invalidations over the new target graph.
       Set<UnflavoredBuildTargetView> invalidUnflavoredTargets = new HashSet<>();
       Set<UnflavoredBuildTargetView> allUnflavoredTargetsInNewGraph = new HashSet<>();
       invalidateChangedTargets(
           targetGraph,
+          changedTargets,
           allUnflavoredTargetsInNewGraph,
           invalidUnflavoredTargets,
           unflavoredTargetsForNewNodes);
+      walkTimeNanos = System.nanoTime() - walkStartNanos;
 
       // Now we can load in all build rules whose unflavored targets weren't invalidated for
       // incremental action graph generation.
+      ImmutableList<BuildRule> previousRules =
+          ImmutableList.copyOf(lastActionGraphBuilder.getSuccessfullyConstructedBuildRules());
+      previousRuleCount = previousRules.size();
       reusedRuleCount =
           addValidRulesToActionGraphBuilder(
-              graphBuilder, allUnflavoredTargetsInNewGraph, invalidUnflavoredTargets);
+              graphBuilder,
+              previousRules,
+              allUnflavoredTargetsInNewGraph,
+              invalidUnflavoredTargets);
 
       // Invalidate the previous {@see ActionGraphBuilder}, which we no longer need, to make sure
       // nobody unexpectedly accesses it after this point.
@@ -89,46 +141,30 @@ public class IncrementalActionGraphGenerator {
 
     lastTargetGraph = targetGraph;
     lastActionGraphBuilder = graphBuilder;
-    eventBus.post(new ActionGraphEvent.IncrementalLoad(reusedRuleCount));
+    eventBus.post(
+        new ActionGraphEvent.IncrementalLoad(
+            reusedRuleCount, previousRuleCount, TimeUnit.NANOSECONDS.toMillis(walkTimeNanos)));
   }
 
-  private Set<UnflavoredBuildTargetView> findUnflavoredTargetsForNewNodes(TargetGraph targetGraph) {
-    ImmutableSet.Builder<UnflavoredBuildTargetView> unflavoredTargetsForNewNodes =
-        new ImmutableSet.Builder<>();
-    Set<BuildTarget> explored = new HashSet<>();
-    for (TargetNode<?> root : targetGraph.getNodesWithNoIncomingEdges()) {
-      findUnflavoredTargetsForNewNodes(root, targetGraph, explored, unflavoredTargetsForNewNodes);
-    }
-    return unflavoredTargetsForNewNodes.build();
-  }
-
-  private void findUnflavoredTargetsForNewNodes(
-      TargetNode<?> node,
-      TargetGraph targetGraph,
-      Set<BuildTarget> explored,
-      ImmutableSet.Builder<UnflavoredBuildTargetView> unflavoredTargetsForNewNodes) {
-    if (explored.contains(node.getBuildTarget())) {
-      return;
-    }
-    explored.add(node.getBuildTarget());
-
-    if (!lastTargetGraph.getExactOptional(node.getBuildTarget()).isPresent()) {
-      unflavoredTargetsForNewNodes.add(node.getBuildTarget().getUnflavoredBuildTarget());
-    }
-
-    for (TargetNode<?> child : targetGraph.getOutgoingNodesFor(node)) {
-      findUnflavoredTargetsForNewNodes(child, targetGraph, explored, unflavoredTargetsForNewNodes);
+  private static void forEachInParallel(
+      ImmutableList<TargetNode<?>> nodes,
+      Consumer<TargetNode<?>> action,
+      ListeningExecutorService executorService) {
+    List<ListenableFuture<?>> futures = new ArrayList<>();
+    for (List<TargetNode<?>> partition : Lists.partition(nodes, NODES_PER_TASK)) {
+      futures.add(executorService.submit(() -> partition.forEach(action)));
     }
+    MoreFutures.getUncheckedInterruptibly(Futures.allAsList(futures));
   }
 
   private int addValidRulesToActionGraphBuilder(
       ActionGraphBuilder graphBuilder,
+      ImmutableList<BuildRule> previousRules,
       Set<UnflavoredBuildTargetView> allUnflavoredTargetsInNewGraph,
       Set<UnflavoredBuildTargetView> invalidUnflavoredTargets) {
     int totalRuleCount = 0;
     int reusedRuleCount = 0;
-    for (BuildRule buildRule :
-        Objects.requireNonNull(lastActionGraphBuilder).getSuccessfullyConstructedBuildRules()) {
+    for (BuildRule buildRule : previousRules) {
       UnflavoredBuildTargetView unflavoredTarget =
           buildRule.getBuildTarget().getUnflavoredBuildTarget();
       if (!invalidUnflavoredTargets.contains(unflavoredTarget)
@@ -151,62 +187,59 @@ public class IncrementalActionGraphGenerator {
 
   private void invalidateChangedTargets(
       TargetGraph targetGraph,
+      Set<BuildTarget> changedTargets,
       Set<UnflavoredBuildTargetView> allUnflavoredTargetsInNewGraph,
       Set<UnflavoredBuildTargetView> invalidUnflavoredTargets,
       Set<UnflavoredBuildTargetView> unflavoredTargetsForNewNodes) {
-    Map<BuildTarget, Boolean> explored = new HashMap<>();
-    for (TargetNode<?> root : targetGraph.getNodesWithNoIncomingEdges()) {
-      invalidateChangedTargets(
-          root,
-          targetGraph,
-          explored,
-          allUnflavoredTargetsInNewGraph,
-          invalidUnflavoredTargets,
-          unflavoredTargetsForNewNodes);
-    }
-  }
+    Set<BuildTarget> invalidTargets = new HashSet<>();
+    new AbstractBottomUpTraversal<TargetNode<?>, RuntimeException>(targetGraph) {
+      @Override
+      public void visit(TargetNode<?> node) {
+        BuildTarget buildTarget = node.getBuildTarget();
+        allUnflavoredTargetsInNewGraph.add(buildTarget.getUnflavoredBuildTarget());
 
-  private boolean invalidateChangedTargets(
-      TargetNode<?> node,
-      TargetGraph targetGraph,
-      Map<BuildTarget, Boolean> explored,
-      Set<UnflavoredBuildTargetView> allUnflavoredTargetsInNewGraph,
-      Set<UnflavoredBuildTargetView> invalidUnflavoredTargets,
-      Set<UnflavoredBuildTargetView> unflavoredTargetsForNewNodes) {
-    if (explored.containsKey(node.getBuildTarget())) {
-      return explored.get(node.getBuildTarget());
-    }
-
-    allUnflavoredTargetsInNewGraph.add(node.getBuildTarget().getUnflavoredBuildTarget());
+        // Children are visited first, so we already know if any node in a child subgraph causes
+        // invalidation of its parent chain.
+        boolean ancestorInvalidated = false;
+        for (TargetNode<?> child : targetGraph.getOutgoingNodesFor(node)) {
+          if (invalidTargets.contains(child.getBuildTarget())) {
+            ancestorInvalidated = true;
+            break;
+          }
+        }
+        if (!ancestorInvalidated) {
+          checkPreviousRuleExists(node, unflavoredTargetsForNewNodes);
+        }
 
-    // Recursively check if any node in a child subgraph causes invalidation of its parent chain.
-    boolean ancestorInvalidated = false;
-    for (TargetNode<?> child : targetGraph.getOutgoingNodesFor(node)) {
-      // Note: We can't short circuit here since we need to also make sure things inside child
-      // subgraphs get properly invalidated in turn.
-      ancestorInvalidated |=
-          invalidateChangedTargets(
-              child,
-              targetGraph,
-              explored,
-              allUnflavoredTargetsInNewGraph,
-              invalidUnflavoredTargets,
-              unflavoredTargetsForNewNodes);
-    }
+        if (ancestorInvalidated || changedTargets.contains(buildTarget)) {
+          if (LOG.isVerboseEnabled()) {
+            LOG.verbose("invalidating target %s", buildTarget.toString());
+          }
+          invalidTargets.add(buildTarget);
 
-    boolean invalidateParent = false;
-    if (ancestorInvalidated || shouldInvalidateParentChain(node, unflavoredTargetsForNewNodes)) {
-      if (LOG.isVerboseEnabled()) {
-        LOG.verbose("invalidating target %s", node.getBuildTarget().toString());
+          // This node is invalid. We can't load any of its flavors from cache.
+          invalidUnflavoredTargets.add(buildTarget.getUnflavoredBuildTarget());
+        }
       }
-      invalidateParent = true;
+    }.traverse();
+  }
 
-      // This node is invalid. We can't load any of its flavors from cache.
-      invalidUnflavoredTargets.add(node.getBuildTarget().getUnflavoredBuildTarget());
+  /**
+   * Checks that a node present in both target graphs has a rule in the previous action graph. This
+   * is only checked for nodes whose children were not invalidated.
+   */
+  private void checkPreviousRuleExists(
+      TargetNode<?> targetNode, Set<UnflavoredBuildTargetView> unflavoredTargetsForNewNodes) {
+    BuildTarget buildTarget = targetNode.getBuildTarget();
+    if (unflavoredTargetsForNewNodes.contains(buildTarget.getUnflavoredBuildTarget())
+        || buildTarget.getTargetConfiguration() == ConfigurationForConfigurationTargets.INSTANCE) {
+      // Config nodes don't appear on action graphs
+      return;
     }
-
-    explored.put(node.getBuildTarget(), invalidateParent);
-    return invalidateParent;
+    Preconditions.checkState(
+        Objects.requireNonNull(lastActionGraphBuilder).getRuleOptional(buildTarget).isPresent(),
+        "Target not found in previous action graph: %s",
+        buildTarget);
   }
 
   private boolean shouldInvalidateParentChain(
@@ -231,14 +264,6 @@ public class IncrementalActionGraphGenerator {
       Optional<TargetNode<?>> previousTargetNode =
           lastTargetGraph.getExactOptional(targetNode.getBuildTarget());
       if (previousTargetNode.isPresent()) {
-        if (targetNode.getBuildTarget().getTargetConfiguration()
-            != ConfigurationForConfigurationTargets.INSTANCE) {
-          // Config nodes don't appear on action graphs
-          Preconditions.checkState(
-              lastActionGraphBuilder.getRuleOptional(targetNode.getBuildTarget()).isPresent(),
-              "Target not found in previous action graph: %s",
-              targetNode.getBuildTarget());
-        }
         // If the target node has changed, then invalidate parent chains, as ancestors might
         // generate their subgraphs differently given the change.
         if (!targetNode.equals(previousTargetNode.get())) {
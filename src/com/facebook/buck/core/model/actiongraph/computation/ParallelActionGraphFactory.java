@@ -74,7 +74,7 @@ public class ParallelActionGraphFactory implements ActionGraphFactoryDelegate {
 
     HashMap<BuildTarget, ListenableFuture<BuildRule>> futures = new HashMap<>();
 
-    actionGraphCreationLifecycleListener.onCreate(graphBuilder);
+    actionGraphCreationLifecycleListener.onCreate(graphBuilder, executorService);
 
     LOG.debug("start target graph walk");
     new AbstractBottomUpTraversal<TargetNode<?>, RuntimeException>(targetGraph) {
@@ -35,6 +35,20 @@ public interface BuildRuleStrategy extends Closeable {
   /** A rule will be built by the custom strategy only if canBuild() returns true. */
   boolean canBuild(BuildRule instance);
 
+  /**
+   * Called when the rule missed the cache and is about to wait for its deps to be built, before
+   * build() is called for it. The strategy may start any work that doesn't depend on the outputs of
+   * the deps, like uploading inputs. This work is speculative, as the rule may still be fetched
+   * from a cache, and must not block the caller.
+   */
+  default void prefetch(@SuppressWarnings("unused") BuildRule rule) {}
+
+  /**
+   * Called once the rule is done, whether it was built, fetched from a cache or failed. The strategy
+   * should forget any work prefetch() queued for it which build() didn't pick up.
+   */
+  default void cancelPrefetch(@SuppressWarnings("unused") BuildRule rule) {}
+
   /** A simple interface for build results exposing an explicit cancellation. */
   interface StrategyBuildResult {
     /**
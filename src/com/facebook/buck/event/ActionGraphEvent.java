@@ -81,10 +81,15 @@ public abstract class ActionGraphEvent extends AbstractBuckEvent
   /** Event for incremental action graph construction. * */
   public static class IncrementalLoad extends ActionGraphEvent {
     public int reusedNodeCount;
+    private final int previousNodeCount;
+    private final long invalidationWalkTimeMs;
 
-    public IncrementalLoad(int reusedNodeCount) {
+    public IncrementalLoad(
+        int reusedNodeCount, int previousNodeCount, long invalidationWalkTimeMs) {
       super(EventKey.unique());
       this.reusedNodeCount = reusedNodeCount;
+      this.previousNodeCount = previousNodeCount;
+      this.invalidationWalkTimeMs = invalidationWalkTimeMs;
     }
 
     @Override
@@ -95,6 +100,21 @@ public abstract class ActionGraphEvent extends AbstractBuckEvent
     public int getReusedNodeCount() {
       return reusedNodeCount;
     }
+
+    /** @return the number of build rules in the previous action graph. */
+    public int getPreviousNodeCount() {
+      return previousNodeCount;
+    }
+
+    /** @return the fraction of the previous action graph's rules that were reused. */
+    public double getReuseRatio() {
+      return previousNodeCount == 0 ? 0 : (double) reusedNodeCount / previousNodeCount;
+    }
+
+    /** @return the time spent walking the target graph to find invalidated targets. */
+    public long getInvalidationWalkTimeMs() {
+      return invalidationWalkTimeMs;
+    }
   }
 
   public static class Cache extends ActionGraphEvent implements BuckEvent {
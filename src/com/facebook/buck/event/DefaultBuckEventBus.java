@@ -27,13 +27,32 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
-/** Thin wrapper around guava event bus. */
+/**
+ * Thin wrapper around guava event bus.
+ *
+ * <p>By default all events are delivered to all listeners by a single thread, so a slow listener
+ * delays delivery to every other listener. Alternatively, each listener can be given its own
+ * bounded queue, see {@link #withPerListenerQueues}.
+ */
 public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus {
 
+  /** What posting an event does when the queue of a listener is full. */
+  public enum OverflowPolicy {
+    /** Wait for the listener to catch up. */
+    BLOCK,
+    /** Do not deliver the event to the listener. */
+    DROP,
+  }
+
   private static final Logger LOG = Logger.get(BuckEventBus.class);
 
   public static final int DEFAULT_SHUTDOWN_TIMEOUT_MS = 15000;
@@ -48,8 +67,14 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   private final BuildId buildId;
   private final int shutdownTimeoutMillis;
 
+  /** Set when each listener has its own queue. */
+  private final Optional<PerListenerQueuesConfig> perListenerQueuesConfig;
+
+  private final ConcurrentHashMap<Object, EventListenerQueue> listenerQueues =
+      new ConcurrentHashMap<>();
+
   // synchronization variables to ensure proper shutdown
-  private volatile int activeTasks = 0;
+  private final AtomicInteger activeTasks = new AtomicInteger();
   private final Object lock = new Object();
 
   public DefaultBuckEventBus(Clock clock, BuildId buildId) {
@@ -74,35 +99,83 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   @VisibleForTesting
   public DefaultBuckEventBus(
       Clock clock, BuildId buildId, int shutdownTimeoutMillis, ExecutorService executorService) {
+    this(clock, buildId, shutdownTimeoutMillis, executorService, Optional.empty());
+  }
+
+  private DefaultBuckEventBus(
+      Clock clock,
+      BuildId buildId,
+      int shutdownTimeoutMillis,
+      ExecutorService executorService,
+      Optional<PerListenerQueuesConfig> perListenerQueuesConfig) {
     this.clock = clock;
     this.executorService = executorService;
     this.eventBus = new EventBus("buck-build-events");
     this.threadIdSupplier = DEFAULT_THREAD_ID_SUPPLIER;
     this.buildId = buildId;
     this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    this.perListenerQueuesConfig = perListenerQueuesConfig;
+  }
+
+  /**
+   * Creates an event bus which gives each listener its own queue of at most {@code queueCapacity}
+   * events, and its own consumer, so that a slow listener does not delay the others.
+   *
+   * @param overflowPolicy what to do when the queue of a listener is full.
+   */
+  public static DefaultBuckEventBus withPerListenerQueues(
+      Clock clock,
+      BuildId buildId,
+      int queueCapacity,
+      Function<Object, OverflowPolicy> overflowPolicy) {
+    Preconditions.checkArgument(queueCapacity > 0, "Queue capacity must be positive.");
+    return new DefaultBuckEventBus(
+        clock,
+        buildId,
+        DEFAULT_SHUTDOWN_TIMEOUT_MS,
+        // Each consumer runs on its own thread while it has events to deliver.
+        Executors.newCachedThreadPool(
+            new CommandThreadFactory(
+                BuckEventBus.class.getSimpleName(),
+                GlobalStateManager.singleton().getThreadToCommandRegister())),
+        Optional.of(new PerListenerQueuesConfig(queueCapacity, overflowPolicy)));
   }
 
   private void dispatch(BuckEvent event) {
-    // keep track the number of active tasks so we can do proper shutdown
-    synchronized (lock) {
-      activeTasks++;
+    if (perListenerQueuesConfig.isPresent()) {
+      for (EventListenerQueue queue : listenerQueues.values()) {
+        queue.offer(event);
+      }
+      return;
     }
 
+    // keep track the number of active tasks so we can do proper shutdown
+    onTaskQueued();
+
     executorService.execute(
         () -> {
           try {
             eventBus.post(event);
           } finally {
             // event bus should not throw but just in case wrap with try-finally
-            synchronized (lock) {
-              activeTasks--;
-              // notify about task completion; shutdown may wait for it
-              lock.notifyAll();
-            }
+            onTaskDone();
           }
         });
   }
 
+  private void onTaskQueued() {
+    activeTasks.incrementAndGet();
+  }
+
+  private void onTaskDone() {
+    if (activeTasks.decrementAndGet() == 0) {
+      synchronized (lock) {
+        // notify about task completion; shutdown may wait for it
+        lock.notifyAll();
+      }
+    }
+  }
+
   @Override
   public void post(BuckEvent event) {
     timestamp(event);
@@ -123,14 +196,40 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
 
   @Override
   public void register(Object object) {
+    if (perListenerQueuesConfig.isPresent()) {
+      PerListenerQueuesConfig config = perListenerQueuesConfig.get();
+      listenerQueues.computeIfAbsent(
+          object,
+          listener ->
+              new EventListenerQueue(
+                  listener,
+                  config.queueCapacity,
+                  config.overflowPolicy.apply(listener),
+                  executorService,
+                  this::onTaskQueued,
+                  this::onTaskDone));
+      return;
+    }
     eventBus.register(object);
   }
 
   @Override
   public void unregister(Object object) {
+    if (perListenerQueuesConfig.isPresent()) {
+      EventListenerQueue queue = listenerQueues.remove(object);
+      if (queue != null) {
+        queue.close();
+      }
+      return;
+    }
     eventBus.unregister(object);
   }
 
+  @VisibleForTesting
+  Optional<EventListenerQueue> getListenerQueue(Object listener) {
+    return Optional.ofNullable(listenerQueues.get(listener));
+  }
+
   @Override
   public void postWithoutConfiguring(BuckEvent event) {
     Preconditions.checkState(event.isConfigured());
@@ -171,6 +270,14 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
     // which immediately stops accepting new tasks, that's why we have some wrapper on top of it
     waitEvents(shutdownTimeoutMillis);
 
+    for (EventListenerQueue queue : listenerQueues.values()) {
+      if (queue.getDroppedEventCount() > 0) {
+        LOG.warn(queue.getStatsSummary());
+      } else {
+        LOG.debug(queue.getStatsSummary());
+      }
+    }
+
     executorService.shutdown();
     try {
       long waitTime = timeoutTime - System.currentTimeMillis();
@@ -193,7 +300,7 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   public boolean waitEvents(long timeout) {
     long startWaitTime = System.nanoTime();
     synchronized (lock) {
-      while (activeTasks > 0) {
+      while (activeTasks.get() > 0) {
 
         long waitTime = 0;
         if (timeout > 0) {
@@ -207,7 +314,7 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
           lock.wait(waitTime);
         } catch (InterruptedException e) {
           Threads.interruptCurrentThread();
-          return activeTasks == 0;
+          return activeTasks.get() == 0;
         }
       }
     }
@@ -228,4 +335,14 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
         threadId,
         buildId);
   }
+
+  private static class PerListenerQueuesConfig {
+    private final int queueCapacity;
+    private final Function<Object, OverflowPolicy> overflowPolicy;
+
+    PerListenerQueuesConfig(int queueCapacity, Function<Object, OverflowPolicy> overflowPolicy) {
+      this.queueCapacity = queueCapacity;
+      this.overflowPolicy = overflowPolicy;
+    }
+  }
 }
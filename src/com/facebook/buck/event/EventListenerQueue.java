@@ -0,0 +1,218 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.event.DefaultBuckEventBus.OverflowPolicy;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The events waiting to be delivered to one listener of a {@link DefaultBuckEventBus} which gives
+ * each listener its own queue.
+ *
+ * <p>Posting an event appends it to a lock-free queue, and schedules a consumer on a shared
+ * executor if none is running. The consumer delivers events one at a time in the order they were
+ * posted, so a slow listener only delays its own events. Events of types the listener has no
+ * {@link Subscribe} method for are never queued.
+ */
+final class EventListenerQueue {
+  private static final long FULL_QUEUE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  /** Set on the threads delivering events, which must never wait for a full queue. */
+  private static final ThreadLocal<Boolean> IS_CONSUMER_THREAD =
+      ThreadLocal.withInitial(() -> false);
+
+  private final Object listener;
+  private final EventBus eventBus;
+  private final ImmutableSet<Class<?>> subscribedTypes;
+  private final ConcurrentHashMap<Class<?>, Boolean> isSubscribedTo = new ConcurrentHashMap<>();
+  private final int capacity;
+  private final OverflowPolicy overflowPolicy;
+  private final Executor consumerExecutor;
+  private final Runnable onEventQueued;
+  private final Runnable onEventDone;
+
+  private final ConcurrentLinkedQueue<QueuedEvent> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicBoolean consumerScheduled = new AtomicBoolean();
+  private volatile boolean closed = false;
+
+  private final LongAdder deliveredEvents = new LongAdder();
+  private final LongAdder droppedEvents = new LongAdder();
+  private final LongAdder blockedNanos = new LongAdder();
+  private final AtomicInteger maxDepth = new AtomicInteger();
+  private final AtomicLong maxLagNanos = new AtomicLong();
+
+  /**
+   * @param onEventQueued called before an event is queued.
+   * @param onEventDone called once a queued event was delivered or discarded.
+   */
+  EventListenerQueue(
+      Object listener,
+      int capacity,
+      OverflowPolicy overflowPolicy,
+      Executor consumerExecutor,
+      Runnable onEventQueued,
+      Runnable onEventDone) {
+    this.listener = listener;
+    this.eventBus = new EventBus(listener.getClass().getSimpleName() + "-events");
+    this.eventBus.register(listener);
+    this.subscribedTypes = getSubscribedTypes(listener.getClass());
+    this.capacity = capacity;
+    this.overflowPolicy = overflowPolicy;
+    this.consumerExecutor = consumerExecutor;
+    this.onEventQueued = onEventQueued;
+    this.onEventDone = onEventDone;
+  }
+
+  /** Mirrors how {@link EventBus} finds subscriber methods. */
+  private static ImmutableSet<Class<?>> getSubscribedTypes(Class<?> listenerClass) {
+    ImmutableSet.Builder<Class<?>> types = ImmutableSet.builder();
+    for (Class<?> type : TypeToken.of(listenerClass).getTypes().rawTypes()) {
+      for (Method method : type.getDeclaredMethods()) {
+        if (method.isAnnotationPresent(Subscribe.class) && method.getParameterCount() == 1) {
+          types.add(method.getParameterTypes()[0]);
+        }
+      }
+    }
+    return types.build();
+  }
+
+  Object getListener() {
+    return listener;
+  }
+
+  private boolean isSubscribedTo(Class<?> eventType) {
+    return isSubscribedTo.computeIfAbsent(
+        eventType,
+        type -> subscribedTypes.stream().anyMatch(subscribed -> subscribed.isAssignableFrom(type)));
+  }
+
+  /** Queues an event for delivery, if the listener subscribes to it. */
+  void offer(BuckEvent event) {
+    if (closed || !isSubscribedTo(event.getClass())) {
+      return;
+    }
+    int depth = size.incrementAndGet();
+    if (depth > capacity) {
+      if (overflowPolicy == OverflowPolicy.DROP) {
+        size.decrementAndGet();
+        droppedEvents.increment();
+        return;
+      }
+      // Consumers posting events never wait, as the queue they would wait for may be their own.
+      if (!IS_CONSUMER_THREAD.get()) {
+        long start = System.nanoTime();
+        while (depth > capacity && !closed) {
+          size.decrementAndGet();
+          LockSupport.parkNanos(FULL_QUEUE_PARK_NANOS);
+          depth = size.incrementAndGet();
+        }
+        blockedNanos.add(System.nanoTime() - start);
+      }
+    }
+    onEventQueued.run();
+    queue.add(new QueuedEvent(event, System.nanoTime()));
+    maxDepth.accumulateAndGet(depth, Math::max);
+    if (consumerScheduled.compareAndSet(false, true)) {
+      consumerExecutor.execute(this::deliverQueuedEvents);
+    }
+  }
+
+  private void deliverQueuedEvents() {
+    IS_CONSUMER_THREAD.set(true);
+    boolean finished = false;
+    try {
+      do {
+        QueuedEvent queuedEvent;
+        while ((queuedEvent = queue.poll()) != null) {
+          size.decrementAndGet();
+          try {
+            if (!closed) {
+              maxLagNanos.accumulateAndGet(
+                  System.nanoTime() - queuedEvent.queuedAtNanos, Math::max);
+              eventBus.post(queuedEvent.event);
+              deliveredEvents.increment();
+            }
+          } finally {
+            onEventDone.run();
+          }
+        }
+        consumerScheduled.set(false);
+        // Events queued after the queue was found empty, but before the consumer was marked as
+        // not running, were not handed to a new consumer.
+      } while (!queue.isEmpty() && consumerScheduled.compareAndSet(false, true));
+      finished = true;
+    } finally {
+      if (!finished) {
+        // A listener threw an Error. Let the remaining events be delivered by a new consumer.
+        consumerScheduled.set(false);
+        if (!queue.isEmpty() && consumerScheduled.compareAndSet(false, true)) {
+          consumerExecutor.execute(this::deliverQueuedEvents);
+        }
+      }
+    }
+  }
+
+  /** Stops delivering events. Events still queued are discarded. */
+  void close() {
+    closed = true;
+  }
+
+  /** @return a one line summary of how well the listener kept up with the events posted. */
+  String getStatsSummary() {
+    return String.format(
+        "%s: %d events delivered, %d dropped, max queue depth %d, max lag %d ms, "
+            + "posters blocked for %d ms",
+        listener.getClass().getName(),
+        deliveredEvents.sum(),
+        droppedEvents.sum(),
+        maxDepth.get(),
+        TimeUnit.NANOSECONDS.toMillis(maxLagNanos.get()),
+        TimeUnit.NANOSECONDS.toMillis(blockedNanos.sum()));
+  }
+
+  long getDroppedEventCount() {
+    return droppedEvents.sum();
+  }
+
+  int getMaxDepth() {
+    return maxDepth.get();
+  }
+
+  private static class QueuedEvent {
+    private final BuckEvent event;
+    private final long queuedAtNanos;
+
+    QueuedEvent(BuckEvent event, long queuedAtNanos) {
+      this.event = event;
+      this.queuedAtNanos = queuedAtNanos;
+    }
+  }
+}
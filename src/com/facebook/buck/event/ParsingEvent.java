@@ -35,6 +35,10 @@ public class ParsingEvent extends AbstractBuckEvent implements BuckEvent {
     return new EnvVariableChange(diff);
   }
 
+  public static GlobCacheStats globCacheStats(long hits, long misses, long invalidatedPackages) {
+    return new GlobCacheStats(hits, misses, invalidatedPackages);
+  }
+
   @Override
   protected String getValueString() {
     return eventName;
@@ -72,4 +76,36 @@ public class ParsingEvent extends AbstractBuckEvent implements BuckEvent {
       return diff;
     }
   }
+
+  /** How often globs were served from the results kept by the daemon, since the previous report. */
+  public static class GlobCacheStats extends ParsingEvent {
+    @JsonView(JsonViews.MachineReadableLog.class)
+    private final long hits;
+
+    @JsonView(JsonViews.MachineReadableLog.class)
+    private final long misses;
+
+    @JsonView(JsonViews.MachineReadableLog.class)
+    private final long invalidatedPackages;
+
+    public GlobCacheStats(long hits, long misses, long invalidatedPackages) {
+      super(EventKey.unique(), "GlobCacheStats");
+      this.hits = hits;
+      this.misses = misses;
+      this.invalidatedPackages = invalidatedPackages;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    /** @return how many packages had their glob results dropped since the previous report. */
+    public long getInvalidatedPackages() {
+      return invalidatedPackages;
+    }
+  }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Converts a trace written by {@link BinaryChromeTraceWriter} to the JSON format understood by
+ * chrome://tracing.
+ *
+ * <p>Usage: {@code converter <build.*.btrace[.gz]> <build.*.trace[.gz]>}. Files ending in {@code
+ * .gz} are read and written gzipped.
+ */
+public final class BinaryChromeTraceConverter {
+
+  private BinaryChromeTraceConverter() {}
+
+  /**
+   * Copies all the events of a binary trace to a JSON trace.
+   *
+   * @return false if the binary trace was cut short, in which case all its complete events are
+   *     still converted.
+   */
+  public static boolean convert(InputStream binaryTrace, OutputStream jsonTrace)
+      throws IOException {
+    boolean complete = true;
+    try (BinaryChromeTraceReader reader = new BinaryChromeTraceReader(binaryTrace);
+        ChromeTraceWriter writer = new ChromeTraceWriter(jsonTrace)) {
+      writer.writeStart();
+      try {
+        for (ChromeTraceEvent event = reader.readEvent();
+            event != null;
+            event = reader.readEvent()) {
+          writer.writeEvent(event);
+        }
+      } catch (EOFException e) {
+        complete = false;
+      }
+      writer.writeEnd();
+    }
+    return complete;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: converter <binary trace> <json trace>");
+      System.exit(1);
+    }
+    Path input = Paths.get(args[0]);
+    Path output = Paths.get(args[1]);
+    boolean complete;
+    try (InputStream in = maybeGunzip(input, Files.newInputStream(input));
+        OutputStream out = maybeGzip(output, Files.newOutputStream(output))) {
+      complete = convert(in, out);
+    }
+    if (!complete) {
+      System.err.println("Warning: " + input + " is truncated, only complete events were kept.");
+    }
+  }
+
+  private static InputStream maybeGunzip(Path path, InputStream stream) throws IOException {
+    return path.toString().endsWith(".gz") ? new GZIPInputStream(stream) : stream;
+  }
+
+  private static OutputStream maybeGzip(Path path, OutputStream stream) throws IOException {
+    return path.toString().endsWith(".gz") ? new GZIPOutputStream(stream) : stream;
+  }
+}
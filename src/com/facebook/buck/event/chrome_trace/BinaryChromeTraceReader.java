@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import com.facebook.buck.util.json.ObjectMappers;
+import com.google.common.collect.ImmutableMap;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/** Reads the events of a trace written by {@link BinaryChromeTraceWriter}. */
+public class BinaryChromeTraceReader implements Closeable {
+  private static final ChromeTraceEvent.Phase[] PHASES = ChromeTraceEvent.Phase.values();
+
+  private final DataInputStream in;
+  private final List<String> stringTable = new ArrayList<>();
+  private long previousMicroTime = 0;
+
+  public BinaryChromeTraceReader(InputStream traceStream) throws IOException {
+    this.in = new DataInputStream(new BufferedInputStream(traceStream));
+    byte[] magic = new byte[BinaryChromeTraceWriter.MAGIC.length];
+    in.readFully(magic);
+    if (!Arrays.equals(magic, BinaryChromeTraceWriter.MAGIC)) {
+      throw new IOException("Not a binary trace.");
+    }
+    long version = readVarint();
+    if (version != BinaryChromeTraceWriter.VERSION) {
+      throw new IOException("Unsupported binary trace version: " + version);
+    }
+  }
+
+  /**
+   * @return the next event, or null at the end of the trace.
+   * @throws java.io.EOFException if the trace ends in the middle of an event.
+   */
+  @Nullable
+  public ChromeTraceEvent readEvent() throws IOException {
+    int record = in.read();
+    if (record == -1) {
+      return null;
+    }
+    if (record != BinaryChromeTraceWriter.RECORD_EVENT) {
+      throw new IOException("Unknown record type: " + record);
+    }
+    String category = readString();
+    String name = readString();
+    int phase = in.readUnsignedByte();
+    if (phase >= PHASES.length) {
+      throw new IOException("Unknown phase: " + phase);
+    }
+    long processId = readSignedVarint();
+    long threadId = readSignedVarint();
+    long microTime = previousMicroTime + readSignedVarint();
+    previousMicroTime = microTime;
+    long microThreadUserTime = readSignedVarint();
+    long argCount = readVarint();
+    ImmutableMap.Builder<String, Object> args = ImmutableMap.builder();
+    for (long i = 0; i < argCount; i++) {
+      args.put(readString(), readValue());
+    }
+    return new ChromeTraceEvent(
+        category,
+        name,
+        PHASES[phase],
+        processId,
+        threadId,
+        microTime,
+        microThreadUserTime,
+        args.build());
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private Object readValue() throws IOException {
+    int type = in.readUnsignedByte();
+    switch (type) {
+      case BinaryChromeTraceWriter.VALUE_STRING:
+        return readString();
+      case BinaryChromeTraceWriter.VALUE_LONG:
+        return readSignedVarint();
+      case BinaryChromeTraceWriter.VALUE_DOUBLE:
+        return in.readDouble();
+      case BinaryChromeTraceWriter.VALUE_TRUE:
+        return true;
+      case BinaryChromeTraceWriter.VALUE_FALSE:
+        return false;
+      case BinaryChromeTraceWriter.VALUE_JSON:
+        return ObjectMappers.READER.readTree(readString());
+      default:
+        throw new IOException("Unknown value type: " + type);
+    }
+  }
+
+  private String readString() throws IOException {
+    long header = readVarint();
+    if ((header & BinaryChromeTraceWriter.STRING_INLINE) == 0) {
+      long index = header >>> 1;
+      if (index >= stringTable.size()) {
+        throw new IOException("Unknown string index: " + index);
+      }
+      return stringTable.get((int) index);
+    }
+    long length = readVarint();
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("Invalid string length: " + length);
+    }
+    byte[] bytes = new byte[(int) length];
+    in.readFully(bytes);
+    String value = new String(bytes, StandardCharsets.UTF_8);
+    if ((header & BinaryChromeTraceWriter.STRING_INTERNED) != 0) {
+      stringTable.add(value);
+    }
+    return value;
+  }
+
+  private long readSignedVarint() throws IOException {
+    long value = readVarint();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private long readVarint() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint.");
+  }
+}
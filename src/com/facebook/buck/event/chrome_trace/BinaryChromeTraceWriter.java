@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import com.facebook.buck.util.json.ObjectMappers;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes Chrome trace events in a compact binary format, which is much smaller and cheaper to
+ * produce than JSON. Use {@link BinaryChromeTraceConverter} to turn it into JSON for viewing.
+ *
+ * <p>The stream starts with {@link #MAGIC} and {@link #VERSION}, followed by one record per event:
+ *
+ * <pre>
+ *   byte    RECORD_EVENT
+ *   string  category
+ *   string  name
+ *   byte    phase (ordinal of {@link ChromeTraceEvent.Phase})
+ *   svarint process id
+ *   svarint thread id
+ *   svarint time, as a delta to the time of the previous event
+ *   svarint thread user time
+ *   varint  number of arguments, followed by a string key and a typed value for each
+ * </pre>
+ *
+ * <p>Integers are LEB128 varints, zigzag encoded when signed ("svarint"). A string is a varint
+ * header {@code h} followed by nothing if the low bit of {@code h} is 0, in which case {@code h >>
+ * 1} is the index of a string seen earlier in the string table. Otherwise the UTF-8 length and bytes
+ * follow, and if bit 1 is also set the string is added to the end of the table. Short strings, like
+ * categories, rule names and argument keys, are added to the table, so repeating them costs a byte
+ * or two. As records are self-contained, a trace cut short by a crash can be read up to its last
+ * complete event.
+ */
+public class BinaryChromeTraceWriter implements ChromeTraceEventWriter {
+  static final byte[] MAGIC = {'B', 'T', 'R', 'C'};
+  static final int VERSION = 1;
+
+  static final int RECORD_EVENT = 1;
+
+  static final int VALUE_STRING = 1;
+  static final int VALUE_LONG = 2;
+  static final int VALUE_DOUBLE = 3;
+  static final int VALUE_TRUE = 4;
+  static final int VALUE_FALSE = 5;
+  /** Any other value, as a JSON string. */
+  static final int VALUE_JSON = 6;
+
+  static final int STRING_INLINE = 1;
+  static final int STRING_INTERNED = 2;
+
+  private static final int MAX_INTERNED_STRING_LENGTH = 256;
+  private static final int MAX_STRING_TABLE_SIZE = 1 << 18;
+
+  private final DataOutputStream out;
+  private final Map<String, Integer> stringTable = new HashMap<>();
+  private long previousMicroTime = 0;
+
+  public BinaryChromeTraceWriter(OutputStream traceStream) {
+    this.out = new DataOutputStream(new BufferedOutputStream(traceStream));
+  }
+
+  @Override
+  public void writeStart() throws IOException {
+    out.write(MAGIC);
+    writeVarint(VERSION);
+  }
+
+  @Override
+  public void writeEvent(ChromeTraceEvent chromeTraceEvent) throws IOException {
+    out.writeByte(RECORD_EVENT);
+    writeString(chromeTraceEvent.getCategory(), true);
+    writeString(chromeTraceEvent.getName(), true);
+    out.writeByte(chromeTraceEvent.getPhase().ordinal());
+    writeSignedVarint(chromeTraceEvent.getProcessId());
+    writeSignedVarint(chromeTraceEvent.getThreadId());
+    writeSignedVarint(chromeTraceEvent.getMicroTime() - previousMicroTime);
+    previousMicroTime = chromeTraceEvent.getMicroTime();
+    writeSignedVarint(chromeTraceEvent.getMicroThreadUserTime());
+    writeVarint(chromeTraceEvent.getArgs().size());
+    for (Map.Entry<String, ? extends Object> arg : chromeTraceEvent.getArgs().entrySet()) {
+      writeString(arg.getKey(), true);
+      writeValue(arg.getValue());
+    }
+  }
+
+  @Override
+  public void writeEnd() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+
+  private void writeValue(Object value) throws IOException {
+    if (value instanceof String) {
+      out.writeByte(VALUE_STRING);
+      writeString((String) value, true);
+    } else if (value instanceof Long
+        || value instanceof Integer
+        || value instanceof Short
+        || value instanceof Byte) {
+      out.writeByte(VALUE_LONG);
+      writeSignedVarint(((Number) value).longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      out.writeByte(VALUE_DOUBLE);
+      out.writeDouble(((Number) value).doubleValue());
+    } else if (value instanceof Boolean) {
+      out.writeByte((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+    } else {
+      out.writeByte(VALUE_JSON);
+      writeString(ObjectMappers.WRITER.writeValueAsString(value), false);
+    }
+  }
+
+  private void writeString(String value, boolean intern) throws IOException {
+    Integer index = stringTable.get(value);
+    if (index != null) {
+      writeVarint((long) index << 1);
+      return;
+    }
+    int header = STRING_INLINE;
+    if (intern
+        && value.length() <= MAX_INTERNED_STRING_LENGTH
+        && stringTable.size() < MAX_STRING_TABLE_SIZE) {
+      stringTable.put(value, stringTable.size());
+      header |= STRING_INTERNED;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarint(header);
+    writeVarint(bytes.length);
+    out.write(bytes);
+  }
+
+  private void writeSignedVarint(long value) throws IOException {
+    writeVarint((value << 1) ^ (value >> 63));
+  }
+
+  private void writeVarint(long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+}
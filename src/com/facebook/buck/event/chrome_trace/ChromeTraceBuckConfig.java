@@ -27,6 +27,14 @@ import java.net.URI;
 import java.util.Optional;
 
 public class ChromeTraceBuckConfig implements ConfigView<BuckConfig> {
+  /** Formats in which build traces can be written. */
+  public enum TraceFormat {
+    /** JSON, as understood by chrome://tracing. */
+    JSON,
+    /** The compact format of {@link BinaryChromeTraceWriter}. */
+    BINARY,
+  }
+
   private static final String DEFAULT_MAX_TRACES = "25";
 
   private static final String LOG_SECTION = "log";
@@ -55,6 +63,13 @@ public class ChromeTraceBuckConfig implements ConfigView<BuckConfig> {
     return delegate.getBooleanValue(LOG_SECTION, "compress_traces", false);
   }
 
+  /** Returns the format in which build traces are written. */
+  public TraceFormat getTraceFormat() {
+    return delegate
+        .getEnum(LOG_SECTION, "trace_format", TraceFormat.class)
+        .orElse(TraceFormat.JSON);
+  }
+
   /** Get URL to upload trace if the config is enabled. */
   public Optional<URI> getTraceUploadUriIfEnabled() {
     if (!getShouldUploadBuildTraces()) {
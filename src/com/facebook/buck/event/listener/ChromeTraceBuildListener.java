@@ -41,9 +41,11 @@ import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.event.StartActivityEvent;
 import com.facebook.buck.event.UninstallEvent;
 import com.facebook.buck.event.WatchmanStatusEvent;
+import com.facebook.buck.event.chrome_trace.BinaryChromeTraceWriter;
 import com.facebook.buck.event.chrome_trace.ChromeTraceBuckConfig;
 import com.facebook.buck.event.chrome_trace.ChromeTraceEvent;
 import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
+import com.facebook.buck.event.chrome_trace.ChromeTraceEventWriter;
 import com.facebook.buck.event.chrome_trace.ChromeTraceWriter;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.jvm.java.AnnotationProcessingEvent;
@@ -92,15 +94,27 @@ import java.util.Locale;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
-/** Logs events to a json file formatted to be viewed in Chrome Trace View (chrome://tracing). */
+/**
+ * Logs events to a json file formatted to be viewed in Chrome Trace View (chrome://tracing), or to
+ * the more compact format of {@link BinaryChromeTraceWriter} if {@code log.trace_format} is {@code
+ * binary}.
+ */
 public class ChromeTraceBuildListener implements BuckEventListener {
 
+  /**
+   * Number of events which can wait to be written. Once it is full, posting an event waits for the
+   * writer to catch up, so the trace is never missing events.
+   */
+  private static final int PENDING_EVENTS_CAPACITY = 64 * 1024;
+
   private static final LoadingCache<String, String> CONVERTED_EVENT_ID_CACHE =
       CacheBuilder.newBuilder()
           .weakValues()
@@ -122,13 +136,16 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   private final ThreadLocal<SimpleDateFormat> dateFormat;
   private final Path tracePath;
   private final OutputStream traceStream;
-  private final ChromeTraceWriter chromeTraceWriter;
+  private final ChromeTraceEventWriter chromeTraceWriter;
   private final Path logDirectoryPath;
   private final ChromeTraceBuckConfig config;
   private final Set<Long> threadNamesRecorded = new HashSet<>();
   private final ThreadMXBean threadMXBean;
 
   private final ExecutorService outputExecutor;
+  private final BlockingQueue<ChromeTraceEvent> pendingEvents =
+      new ArrayBlockingQueue<>(PENDING_EVENTS_CAPACITY);
+  private final AtomicBoolean drainScheduled = new AtomicBoolean();
   private final TaskManagerCommandScope managerScope;
 
   private final BuildId buildId;
@@ -196,7 +213,10 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     TracePathAndStream tracePathAndStream = createPathAndStream(invocationInfo.getBuildId());
     this.tracePath = tracePathAndStream.getPath();
     this.traceStream = tracePathAndStream.getStream();
-    this.chromeTraceWriter = new ChromeTraceWriter(this.traceStream);
+    this.chromeTraceWriter =
+        config.getTraceFormat() == ChromeTraceBuckConfig.TraceFormat.BINARY
+            ? new BinaryChromeTraceWriter(this.traceStream)
+            : new ChromeTraceWriter(this.traceStream);
     this.chromeTraceWriter.writeStart();
     addProcessMetadataEvent(invocationInfo);
     addProjectFilesystemDelegateMetadataEvent(projectFilesystem);
@@ -233,7 +253,12 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   private TracePathAndStream createPathAndStream(BuildId buildId) {
     String filenameTime = dateFormat.get().format(new Date(clock.currentTimeMillis()));
-    String traceName = String.format("build.%s.%s.trace", filenameTime, buildId);
+    String traceName =
+        String.format(
+            "build.%s.%s.%s",
+            filenameTime,
+            buildId,
+            ChromeTraceBuildListenerCloseAction.getTraceExtension(config));
     if (config.getCompressTraces()) {
       traceName = traceName + ".gz";
     }
@@ -1031,19 +1056,44 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     submitTraceEvent(chromeTraceEvent);
   }
 
-  @SuppressWarnings("PMD.EmptyCatchBlock")
+  /**
+   * Queues an event to be written by {@link #outputExecutor}. Events are written in batches, so the
+   * cost on the thread posting the event is a single enqueue.
+   */
   private void submitTraceEvent(ChromeTraceEvent chromeTraceEvent) {
-    @SuppressWarnings("unused")
-    Future<?> unused =
-        outputExecutor.submit(
-            () -> {
-              try {
-                chromeTraceWriter.writeEvent(chromeTraceEvent);
-              } catch (IOException e) {
-                // Swallow any failures to write.
-              }
-              return null;
-            });
+    if (outputExecutor.isShutdown()) {
+      // The listener has been closed and nothing will write this event anymore.
+      return;
+    }
+    try {
+      pendingEvents.put(chromeTraceEvent);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    if (drainScheduled.compareAndSet(false, true)) {
+      outputExecutor.execute(this::writePendingEvents);
+      if (outputExecutor.isShutdown()) {
+        // The executor silently discards drains once it is shut down. Drop what is queued so the
+        // drain flag isn't left set and concurrent posters don't block on a full queue.
+        pendingEvents.clear();
+        drainScheduled.set(false);
+      }
+    }
+  }
+
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  private void writePendingEvents() {
+    // Events queued after this point schedule another drain.
+    drainScheduled.set(false);
+    ChromeTraceEvent event;
+    while ((event = pendingEvents.poll()) != null) {
+      try {
+        chromeTraceWriter.writeEvent(event);
+      } catch (IOException e) {
+        // Swallow any failures to write.
+      }
+    }
   }
 
   private static class TracePathAndStream {
@@ -20,7 +20,7 @@ import com.facebook.buck.core.model.BuildId;
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.chrome_trace.ChromeTraceBuckConfig;
-import com.facebook.buck.event.chrome_trace.ChromeTraceWriter;
+import com.facebook.buck.event.chrome_trace.ChromeTraceEventWriter;
 import com.facebook.buck.io.file.PathListing;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.support.bgtasks.TaskAction;
@@ -55,7 +55,7 @@ class ChromeTraceBuildListenerCloseAction implements TaskAction<ChromeTraceBuild
     public abstract Path getTracePath();
 
     @Value.Parameter
-    public abstract ChromeTraceWriter getChromeTraceWriter();
+    public abstract ChromeTraceEventWriter getChromeTraceWriter();
 
     @Value.Parameter
     public abstract OutputStream getTraceStream();
@@ -73,6 +73,13 @@ class ChromeTraceBuildListenerCloseAction implements TaskAction<ChromeTraceBuild
     public abstract ProjectFilesystem getProjectFilesystem();
   }
 
+  /** @return the extension of trace files written in the configured format. */
+  static String getTraceExtension(ChromeTraceBuckConfig config) {
+    return config.getTraceFormat() == ChromeTraceBuckConfig.TraceFormat.BINARY
+        ? "btrace"
+        : "trace";
+  }
+
   static void uploadTraceIfConfigured(
       BuildId buildId,
       ChromeTraceBuckConfig config,
@@ -83,6 +90,11 @@ class ChromeTraceBuildListenerCloseAction implements TaskAction<ChromeTraceBuild
     if (!traceUploadUri.isPresent()) {
       return;
     }
+    if (config.getTraceFormat() != ChromeTraceBuckConfig.TraceFormat.JSON) {
+      // The trace server only understands JSON traces.
+      LOG.debug("Not uploading %s, as it is not a JSON trace.", tracePath);
+      return;
+    }
 
     Path fullPath = projectFilesystem.resolve(tracePath);
     Path logFile = projectFilesystem.resolve(logDirectoryPath.resolve("upload-build-trace.log"));
@@ -104,7 +116,7 @@ class ChromeTraceBuildListenerCloseAction implements TaskAction<ChromeTraceBuild
       for (Path path :
           PathListing.listMatchingPathsWithFilters(
               traceDirectory,
-              "build.*.trace",
+              "build.*.{trace,btrace}",
               PathListing.GET_PATH_MODIFIED_TIME,
               PathListing.FilterMode.EXCLUDE,
               OptionalInt.of(config.getMaxTraces()),
@@ -139,7 +151,10 @@ class ChromeTraceBuildListenerCloseAction implements TaskAction<ChromeTraceBuild
         args.getTracePath(),
         args.getLogDirectoryPath());
 
-    String symlinkName = args.getConfig().getCompressTraces() ? "build.trace.gz" : "build.trace";
+    String symlinkName = "build." + getTraceExtension(args.getConfig());
+    if (args.getConfig().getCompressTraces()) {
+      symlinkName += ".gz";
+    }
     Path symlinkPath = args.getProjectFilesystem().getBuckPaths().getLogDir().resolve(symlinkName);
     args.getProjectFilesystem()
         .createSymLink(
@@ -231,6 +231,11 @@ public class MachineReadableLoggerListener implements BuckEventListener {
     writeToLog("RemoteExecutionScheduled", event);
   }
 
+  @Subscribe
+  public void buildRuleRemoteExecutionPrefetchedEvent(RemoteExecutionActionEvent.Prefetched event) {
+    writeToLog("RemoteExecutionPrefetched", event);
+  }
+
   @Subscribe
   public void buildRuleRemoteExecutionTerminalEvent(RemoteExecutionActionEvent.Terminal event) {
     writeToLog("RemoteExecutionTerminal", event);
@@ -318,6 +323,11 @@ public class MachineReadableLoggerListener implements BuckEventListener {
     writeToLog("EnvChange", event);
   }
 
+  @Subscribe
+  public void globCacheStats(ParsingEvent.GlobCacheStats event) {
+    writeToLog("GlobCacheStats", event);
+  }
+
   @Subscribe
   public synchronized void timePerfStatsEvent(PerfTimesEventListener.PerfTimesEvent event) {
     latestPerfTimesStats = event.getPerfTimesStats();
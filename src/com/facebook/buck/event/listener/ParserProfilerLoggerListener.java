@@ -19,16 +19,27 @@ package com.facebook.buck.event.listener;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.log.InvocationInfo;
+import com.facebook.buck.parser.events.ParseBuckFileEvent;
 import com.facebook.buck.parser.events.ParseBuckProfilerReportEvent;
 import com.google.common.eventbus.Subscribe;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import javax.annotation.concurrent.GuardedBy;
 
 public class ParserProfilerLoggerListener implements BuckEventListener {
 
+  /** Number of build files listed individually in the allocation report. */
+  private static final int REPORTED_BUILD_FILES = 20;
+
   private final InvocationInfo info;
   private final ProjectFilesystem filesystem;
 
+  @GuardedBy("this")
+  private final List<ParseBuckFileEvent.Finished> measuredBuildFiles = new ArrayList<>();
+
   public ParserProfilerLoggerListener(InvocationInfo info, ProjectFilesystem filesystem) {
     this.info = info;
     this.filesystem = filesystem;
@@ -41,4 +52,54 @@ public class ParserProfilerLoggerListener implements BuckEventListener {
     filesystem.createParentDirs(tracePath);
     filesystem.writeContentsToPath(event.getReport(), tracePath);
   }
+
+  @Subscribe
+  public synchronized void parseBuckFileFinished(ParseBuckFileEvent.Finished event) {
+    if (event.getAllocatedBytes() > 0) {
+      measuredBuildFiles.add(event);
+    }
+  }
+
+  /**
+   * Writes the memory allocated while parsing build files, in total and for the build files which
+   * allocated the most, to {@code parser-allocations.log}.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (measuredBuildFiles.isEmpty()) {
+      return;
+    }
+    long totalAllocatedBytes = 0;
+    long totalProcessedBytes = 0;
+    long totalRules = 0;
+    for (ParseBuckFileEvent.Finished event : measuredBuildFiles) {
+      totalAllocatedBytes += event.getAllocatedBytes();
+      totalProcessedBytes += event.getProcessedBytes();
+      totalRules += event.getNumRules();
+    }
+    measuredBuildFiles.sort(
+        Comparator.comparingLong(ParseBuckFileEvent.Finished::getAllocatedBytes).reversed());
+
+    StringBuilder report = new StringBuilder();
+    report.append(
+        String.format(
+            "Parsed %d build files: %d rules, %d bytes read, %d bytes allocated%n",
+            measuredBuildFiles.size(), totalRules, totalProcessedBytes, totalAllocatedBytes));
+    report.append(String.format("%nBuild files which allocated the most:%n"));
+    for (ParseBuckFileEvent.Finished event :
+        measuredBuildFiles.subList(0, Math.min(REPORTED_BUILD_FILES, measuredBuildFiles.size()))) {
+      report.append(
+          String.format(
+              "%d bytes allocated, %d bytes read, %d rules: %s%n",
+              event.getAllocatedBytes(),
+              event.getProcessedBytes(),
+              event.getNumRules(),
+              event.getBuckFilePath()));
+    }
+    measuredBuildFiles.clear();
+
+    Path reportPath = info.getLogDirectoryPath().resolve("parser-allocations.log");
+    filesystem.createParentDirs(reportPath);
+    filesystem.writeContentsToPath(report.toString(), reportPath);
+  }
 }
@@ -91,6 +91,12 @@ abstract class AbstractBuckPaths {
     return getBuckOut().resolve("cache");
   }
 
+  /** The relative path to the directory where daemon state is persisted across restarts. */
+  @Value.Derived
+  public Path getDaemonStateDir() {
+    return getBuckOut().resolve("daemon");
+  }
+
   @Value.Derived
   public Path getTmpDir() {
     return getBuckOut().resolve("tmp");
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io.watchman;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Daemon state which is kept up to date by watchman file change events, and which can be saved
+ * across daemon restarts along with the watchman clocks it is consistent with.
+ *
+ * <p>A restored snapshot is only valid once all file changes since those clocks have been replayed
+ * to it, so the daemon starts watching from the restored clocks and calls {@link
+ * #markSnapshotVerified()} once the changes have been delivered. If that isn't possible, the
+ * snapshot is dropped with {@link #dropSnapshot()}.
+ */
+public interface PersistentWatchedState {
+
+  /**
+   * @return the watchman clocks, per cell path, that file changes must be replayed from before the
+   *     restored snapshot can be used, or an empty map if no snapshot was restored.
+   */
+  ImmutableMap<Path, String> getRestoredWatchmanClocks();
+
+  /** @return whether a restored snapshot is waiting for {@link #markSnapshotVerified()}. */
+  boolean hasUnverifiedSnapshot();
+
+  /**
+   * Must be called once all file changes since {@link #getRestoredWatchmanClocks()} have been
+   * delivered, which allows the snapshot to be used.
+   */
+  void markSnapshotVerified();
+
+  /** Drops the restored snapshot, if any. */
+  void dropSnapshot();
+
+  /**
+   * Persists the current state.
+   *
+   * @param watchmanClocks the watchman clocks, per cell path, of the last file changes which have
+   *     been delivered.
+   */
+  void save(ImmutableMap<Path, String> watchmanClocks) throws IOException;
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.jvm.java.ClasspathJarIndexCache.IndexedJar;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.Nullable;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Lists the contents of classpath jars from a {@link ClasspathJarIndexCache}, instead of having
+ * the delegate open and scan every jar of the classpath for each compilation.
+ *
+ * <p>The classpath is only served from the cache if all its entries are jars the cache supports, so
+ * that the order in which javac sees the classes doesn't change. Otherwise, and for all other
+ * locations, this defers to the delegate.
+ */
+class CachingClasspathFileManager extends ForwardingStandardJavaFileManager {
+  private final ClasspathJarIndexCache cache;
+  private final List<IndexedJar> acquiredJars = new ArrayList<>();
+  @Nullable private Optional<List<IndexedJar>> classpathJars;
+
+  public CachingClasspathFileManager(
+      StandardJavaFileManager fileManager, ClasspathJarIndexCache cache) {
+    super(fileManager);
+    this.cache = cache;
+  }
+
+  @Override
+  public synchronized void setLocation(Location location, Iterable<? extends File> path)
+      throws IOException {
+    super.setLocation(location, path);
+    if (location == StandardLocation.CLASS_PATH) {
+      classpathJars = null;
+    }
+  }
+
+  @Override
+  public boolean handleOption(String current, Iterator<String> remaining) {
+    boolean handled = super.handleOption(current, remaining);
+    if (handled) {
+      synchronized (this) {
+        classpathJars = null;
+      }
+    }
+    return handled;
+  }
+
+  private synchronized Optional<List<IndexedJar>> getClasspathJars() throws IOException {
+    if (classpathJars == null) {
+      List<IndexedJar> jars = new ArrayList<>();
+      Iterable<? extends File> classpath = getLocation(StandardLocation.CLASS_PATH);
+      boolean allIndexed = classpath != null;
+      if (classpath != null) {
+        for (File entry : classpath) {
+          if (!entry.exists()) {
+            // javac ignores missing classpath entries.
+            continue;
+          }
+          Optional<IndexedJar> jar = cache.acquire(entry.toPath());
+          if (!jar.isPresent()) {
+            allIndexed = false;
+            break;
+          }
+          acquiredJars.add(jar.get());
+          jars.add(jar.get());
+        }
+      }
+      classpathJars = allIndexed ? Optional.of(jars) : Optional.empty();
+    }
+    return classpathJars;
+  }
+
+  @Override
+  public Iterable<JavaFileObject> list(
+      Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+      throws IOException {
+    Optional<List<IndexedJar>> jars =
+        location == StandardLocation.CLASS_PATH ? getClasspathJars() : Optional.empty();
+    if (!jars.isPresent()) {
+      return super.list(location, packageName, kinds, recurse);
+    }
+
+    String packagePath = packageName.replace('.', '/');
+    List<JavaFileObject> results = new ArrayList<>();
+    for (IndexedJar jar : jars.get()) {
+      for (String entryName :
+          recurse ? jar.getEntriesRecursively(packagePath) : jar.getEntries(packagePath)) {
+        JavaFileObject.Kind kind = ClasspathJarEntryFileObject.getKind(entryName);
+        if (kinds.contains(kind)) {
+          results.add(new ClasspathJarEntryFileObject(jar, entryName, kind));
+        }
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    if (file instanceof ClasspathJarEntryFileObject) {
+      return ((ClasspathJarEntryFileObject) file).getBinaryName();
+    }
+    return super.inferBinaryName(location, file);
+  }
+
+  @Override
+  public boolean isSameFile(FileObject a, FileObject b) {
+    if (a instanceof ClasspathJarEntryFileObject || b instanceof ClasspathJarEntryFileObject) {
+      return a.equals(b);
+    }
+    return super.isSameFile(a, b);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      acquiredJars.forEach(IndexedJar::release);
+      acquiredJars.clear();
+      classpathJars = null;
+    }
+  }
+}
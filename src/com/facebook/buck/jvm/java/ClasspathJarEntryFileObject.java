@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.jvm.java.ClasspathJarIndexCache.IndexedJar;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.Nullable;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.tools.JavaFileObject;
+
+/**
+ * An entry of a classpath jar indexed by {@link ClasspathJarIndexCache}. Its URI has the same
+ * {@code jar:file:/path/to.jar!/com/foo/Bar.class} form as the ones of javac's own file manager,
+ * which {@link javax.tools.SimpleJavaFileObject} doesn't support.
+ */
+class ClasspathJarEntryFileObject implements JavaFileObject {
+  private final IndexedJar jar;
+  private final String entryName;
+  private final Kind kind;
+  private final URI uri;
+  private final String binaryName;
+
+  ClasspathJarEntryFileObject(IndexedJar jar, String entryName, Kind kind) {
+    this.jar = jar;
+    this.entryName = entryName;
+    this.kind = kind;
+    this.uri = URI.create("jar:" + jar.getPath().toFile().toURI() + "!/" + entryName);
+    this.binaryName =
+        entryName.substring(0, entryName.length() - kind.extension.length()).replace('/', '.');
+  }
+
+  static Kind getKind(String entryName) {
+    for (Kind kind : new Kind[] {Kind.CLASS, Kind.SOURCE, Kind.HTML}) {
+      if (entryName.endsWith(kind.extension)) {
+        return kind;
+      }
+    }
+    return Kind.OTHER;
+  }
+
+  String getBinaryName() {
+    return binaryName;
+  }
+
+  @Override
+  public URI toUri() {
+    return uri;
+  }
+
+  @Override
+  public String getName() {
+    return jar.getPath() + "(" + entryName + ")";
+  }
+
+  @Override
+  public boolean isNameCompatible(String simpleName, Kind kind) {
+    if (this.kind != kind) {
+      return false;
+    }
+    String fileName = entryName.substring(entryName.lastIndexOf('/') + 1);
+    return fileName.equals(simpleName + kind.extension);
+  }
+
+  @Override
+  public InputStream openInputStream() throws IOException {
+    return jar.openEntry(entryName);
+  }
+
+  @Override
+  public OutputStream openOutputStream() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Reader openReader(boolean ignoreEncodingErrors) throws IOException {
+    return new InputStreamReader(openInputStream(), StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+    try (InputStream inputStream = openInputStream()) {
+      return new String(ByteStreams.toByteArray(inputStream), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Override
+  public Writer openWriter() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public long getLastModified() {
+    return jar.getLastModified(entryName);
+  }
+
+  @Override
+  public boolean delete() {
+    return false;
+  }
+
+  @Override
+  public Kind getKind() {
+    return kind;
+  }
+
+  @Override
+  @Nullable
+  public NestingKind getNestingKind() {
+    return null;
+  }
+
+  @Override
+  @Nullable
+  public Modifier getAccessLevel() {
+    return null;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof ClasspathJarEntryFileObject
+        && uri.equals(((ClasspathJarEntryFileObject) other).uri);
+  }
+
+  @Override
+  public int hashCode() {
+    return uri.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getName() + "[" + uri + "]";
+  }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the classpath jars read by in-process javac open, along with an index of their entries by
+ * package, so that compilations sharing a dependency don't each open and scan it again. In the
+ * daemon the cache is shared by all the compilations of all the builds, until the daemon state is
+ * torn down and {@link #invalidateAll()} closes the jars.
+ *
+ * <p>An entry is only reused while the size, modification time and file key of its jar are
+ * unchanged, so a rebuilt jar is indexed again. Entries are reference counted like the class
+ * loaders of {@link com.facebook.buck.util.ClassLoaderCache}: a jar that is evicted or replaced is
+ * closed once the last compilation using it is done.
+ */
+public final class ClasspathJarIndexCache {
+  private static final Logger LOG = Logger.get(ClasspathJarIndexCache.class);
+
+  /** Each cached jar holds a file descriptor, so keep the number of them reasonable. */
+  private static final int MAX_CACHED_JARS = 1024;
+
+  // Open files can't be replaced on Windows, so keeping jars open would break rebuilding them.
+  private static final ClasspathJarIndexCache INSTANCE =
+      new ClasspathJarIndexCache(Platform.detect() == Platform.WINDOWS ? 0 : MAX_CACHED_JARS);
+
+  private final Cache<Path, IndexedJar> cache;
+  /** The jars which can't be indexed, so that they aren't opened again to find that out. */
+  private final Cache<Path, JarStamp> unindexableJars;
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  @VisibleForTesting
+  ClasspathJarIndexCache(int maxCachedJars) {
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxCachedJars)
+            .removalListener(
+                (RemovalListener<Path, IndexedJar>)
+                    notification -> notification.getValue().release())
+            .build();
+    this.unindexableJars = CacheBuilder.newBuilder().maximumSize(maxCachedJars).build();
+  }
+
+  public static ClasspathJarIndexCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the index of a jar, which the caller must {@link IndexedJar#release()} once it is done
+   * reading from it.
+   *
+   * @return empty if the jar needs features of the javac file manager the index doesn't support,
+   *     like a {@code Class-Path} or multi-release manifest, or isn't a regular file.
+   */
+  Optional<IndexedJar> acquire(Path jarPath) throws IOException {
+    Path absolutePath = jarPath.toAbsolutePath().normalize();
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(absolutePath, BasicFileAttributes.class);
+    } catch (IOException e) {
+      return Optional.empty();
+    }
+    if (!attributes.isRegularFile()) {
+      return Optional.empty();
+    }
+    JarStamp stamp = new JarStamp(attributes);
+
+    IndexedJar cached = cache.getIfPresent(absolutePath);
+    if (cached != null && cached.stamp.equals(stamp) && cached.tryRetain()) {
+      hits.incrementAndGet();
+      return Optional.of(cached);
+    }
+    if (stamp.equals(unindexableJars.getIfPresent(absolutePath))) {
+      hits.incrementAndGet();
+      return Optional.empty();
+    }
+
+    misses.incrementAndGet();
+    Optional<IndexedJar> indexed = IndexedJar.open(absolutePath, stamp);
+    if (indexed.isPresent()) {
+      IndexedJar jar = indexed.get();
+      // One reference for the cache, and one for the caller.
+      jar.tryRetain();
+      cache.put(absolutePath, jar);
+      unindexableJars.invalidate(absolutePath);
+    } else {
+      unindexableJars.put(absolutePath, stamp);
+      if (cached != null) {
+        cache.invalidate(absolutePath);
+      }
+    }
+    return indexed;
+  }
+
+  @VisibleForTesting
+  int getHitCount() {
+    return hits.get();
+  }
+
+  @VisibleForTesting
+  int getMissCount() {
+    return misses.get();
+  }
+
+  /** Closes all the jars which are not in use, and the others once they are released. */
+  public void invalidateAll() {
+    LOG.debug(
+        "Invalidating %d indexed jars after %d hits and %d misses.",
+        cache.size(), hits.getAndSet(0), misses.getAndSet(0));
+    cache.invalidateAll();
+    unindexableJars.invalidateAll();
+  }
+
+  /** What identifies a version of a jar, without reading it. */
+  private static final class JarStamp {
+    private final long size;
+    private final long lastModifiedMillis;
+    @Nullable private final Object fileKey;
+
+    JarStamp(BasicFileAttributes attributes) {
+      this.size = attributes.size();
+      this.lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+      this.fileKey = attributes.fileKey();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof JarStamp)) {
+        return false;
+      }
+      JarStamp that = (JarStamp) other;
+      return size == that.size
+          && lastModifiedMillis == that.lastModifiedMillis
+          && Objects.equals(fileKey, that.fileKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(size, lastModifiedMillis, fileKey);
+    }
+  }
+
+  /** An open jar and the entries of each of its packages, in the order they appear in the jar. */
+  static final class IndexedJar {
+    private final Path path;
+    private final JarStamp stamp;
+    private final ZipFile zipFile;
+    private final ImmutableMap<String, ImmutableList<String>> entriesByPackage;
+    private final AtomicInteger referenceCount = new AtomicInteger(1);
+
+    private IndexedJar(
+        Path path,
+        JarStamp stamp,
+        ZipFile zipFile,
+        ImmutableMap<String, ImmutableList<String>> entriesByPackage) {
+      this.path = path;
+      this.stamp = stamp;
+      this.zipFile = zipFile;
+      this.entriesByPackage = entriesByPackage;
+    }
+
+    private static Optional<IndexedJar> open(Path path, JarStamp stamp) throws IOException {
+      ZipFile zipFile = new ZipFile(path.toFile());
+      try {
+        if (hasUnsupportedManifest(zipFile)) {
+          LOG.verbose("Not caching %s, as its manifest changes how javac reads it.", path);
+          zipFile.close();
+          return Optional.empty();
+        }
+        Map<String, List<String>> entries = new LinkedHashMap<>();
+        Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+        while (zipEntries.hasMoreElements()) {
+          ZipEntry entry = zipEntries.nextElement();
+          if (entry.isDirectory()) {
+            continue;
+          }
+          String name = entry.getName();
+          int lastSlash = name.lastIndexOf('/');
+          String packagePath = lastSlash < 0 ? "" : name.substring(0, lastSlash);
+          entries.computeIfAbsent(packagePath, ignored -> new ArrayList<>()).add(name);
+        }
+        ImmutableMap.Builder<String, ImmutableList<String>> entriesByPackage =
+            ImmutableMap.builderWithExpectedSize(entries.size());
+        entries.forEach((pkg, names) -> entriesByPackage.put(pkg, ImmutableList.copyOf(names)));
+        return Optional.of(new IndexedJar(path, stamp, zipFile, entriesByPackage.build()));
+      } catch (IOException | RuntimeException e) {
+        zipFile.close();
+        throw e;
+      }
+    }
+
+    private static boolean hasUnsupportedManifest(ZipFile zipFile) throws IOException {
+      ZipEntry manifestEntry = zipFile.getEntry(JarFile.MANIFEST_NAME);
+      if (manifestEntry == null) {
+        return false;
+      }
+      try (InputStream manifestStream = zipFile.getInputStream(manifestEntry)) {
+        Attributes attributes = new Manifest(manifestStream).getMainAttributes();
+        return attributes.containsKey(Attributes.Name.CLASS_PATH)
+            || Boolean.parseBoolean(attributes.getValue("Multi-Release"));
+      }
+    }
+
+    Path getPath() {
+      return path;
+    }
+
+    /** @return the names of the entries in the package at {@code packagePath}, like "com/foo". */
+    ImmutableList<String> getEntries(String packagePath) {
+      ImmutableList<String> entries = entriesByPackage.get(packagePath);
+      return entries == null ? ImmutableList.of() : entries;
+    }
+
+    /** @return the names of the entries in the package at {@code packagePath} and its children. */
+    ImmutableList<String> getEntriesRecursively(String packagePath) {
+      if (packagePath.isEmpty()) {
+        return entriesByPackage.values().stream()
+            .flatMap(List::stream)
+            .collect(ImmutableList.toImmutableList());
+      }
+      String prefix = packagePath + "/";
+      return entriesByPackage.entrySet().stream()
+          .filter(entry -> entry.getKey().equals(packagePath) || entry.getKey().startsWith(prefix))
+          .flatMap(entry -> entry.getValue().stream())
+          .collect(ImmutableList.toImmutableList());
+    }
+
+    InputStream openEntry(String entryName) throws IOException {
+      ZipEntry entry = zipFile.getEntry(entryName);
+      if (entry == null) {
+        throw new IOException(String.format("%s has no entry %s", path, entryName));
+      }
+      return zipFile.getInputStream(entry);
+    }
+
+    long getLastModified(String entryName) {
+      ZipEntry entry = zipFile.getEntry(entryName);
+      return entry == null ? 0 : entry.getTime();
+    }
+
+    private boolean tryRetain() {
+      while (true) {
+        int count = referenceCount.get();
+        if (count == 0) {
+          return false;
+        }
+        if (referenceCount.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    /** Gives up a reference to the jar, closing it when nothing uses it anymore. */
+    void release() {
+      if (referenceCount.decrementAndGet() == 0) {
+        try {
+          zipFile.close();
+        } catch (IOException e) {
+          LOG.warn(e, "Unable to close %s", path);
+        }
+      }
+    }
+  }
+}
@@ -504,7 +504,9 @@ class Jsr199JavacInvocation implements Javac.Invocation {
           JavaCompiler compiler = compilerConstructor.get();
 
           StandardJavaFileManager standardFileManager =
-              compiler.getStandardFileManager(null, null, null);
+              new CachingClasspathFileManager(
+                  compiler.getStandardFileManager(null, null, null),
+                  ClasspathJarIndexCache.getInstance());
           addCloseable(standardFileManager);
 
           // Ensure plugins are loaded from their own classloader.
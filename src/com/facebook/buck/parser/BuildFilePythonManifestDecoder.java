@@ -0,0 +1,331 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.ImmutableBuildFileManifest;
+import com.facebook.buck.parser.syntax.ImmutableListWithSelects;
+import com.facebook.buck.parser.syntax.ImmutableSelectorValue;
+import com.facebook.buck.parser.syntax.SelectorValue;
+import com.facebook.buck.util.ImmutableMapWithNullValues;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.devtools.build.lib.syntax.Runtime;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Decodes the response of {@code buck.py} for a build file directly into a {@link
+ * BuildFileManifest}.
+ *
+ * <p>Rules are read one at a time from the token stream, and each one is converted into its final
+ * attribute map and added to the manifest as soon as it is read, instead of collecting all rules
+ * into intermediate maps first. Attribute names are interned by the JSON parser, and string values
+ * are interned so that labels repeated across rules and build files share a single instance.
+ */
+final class BuildFilePythonManifestDecoder {
+  private static final Interner<String> STRING_INTERNER = Interners.newWeakInterner();
+
+  /** The decoded response of {@code buck.py}. */
+  static final class Result {
+    private final BuildFileManifest manifest;
+    private final int ruleCount;
+    private final ImmutableList<Map<String, Object>> diagnostics;
+    private final Optional<String> profile;
+
+    private Result(
+        BuildFileManifest manifest,
+        int ruleCount,
+        ImmutableList<Map<String, Object>> diagnostics,
+        Optional<String> profile) {
+      this.manifest = manifest;
+      this.ruleCount = ruleCount;
+      this.diagnostics = diagnostics;
+      this.profile = profile;
+    }
+
+    BuildFileManifest getManifest() {
+      return manifest;
+    }
+
+    /** @return the number of rules read, including meta rules. */
+    int getRuleCount() {
+      return ruleCount;
+    }
+
+    ImmutableList<Map<String, Object>> getDiagnostics() {
+      return diagnostics;
+    }
+
+    Optional<String> getProfile() {
+      return profile;
+    }
+  }
+
+  private final JsonParser jp;
+
+  private final ImmutableMap.Builder<String, ImmutableMap<String, Object>> targets =
+      ImmutableMap.builder();
+  private int ruleCount = 0;
+  private ImmutableSortedSet<String> includes = ImmutableSortedSet.of();
+  private ImmutableMap<String, Object> configs = ImmutableMap.of();
+  private Optional<ImmutableMap<String, Optional<String>>> env = Optional.empty();
+
+  private BuildFilePythonManifestDecoder(JsonParser jp) {
+    this.jp = jp;
+  }
+
+  /** Reads the next response from {@code jp}, which must be positioned before it. */
+  static Result decode(JsonParser jp) throws IOException {
+    return new BuildFilePythonManifestDecoder(jp).decode();
+  }
+
+  private Result decode() throws IOException {
+    if (jp.nextToken() != JsonToken.START_OBJECT) {
+      throw new JsonParseException(jp, "Missing expected START_OBJECT");
+    }
+    ImmutableList<Map<String, Object>> diagnostics = ImmutableList.of();
+    Optional<String> profile = Optional.empty();
+    String fieldName;
+    while ((fieldName = jp.nextFieldName()) != null) {
+      switch (fieldName) {
+        case "values":
+          readRules();
+          break;
+        case "diagnostics":
+          diagnostics = readObjectList();
+          break;
+        case "profile":
+          profile = Optional.of(jp.nextTextValue());
+          break;
+        default:
+          throw new JsonParseException(jp, "Unexpected field name: " + fieldName);
+      }
+    }
+    if (jp.getCurrentToken() != JsonToken.END_OBJECT) {
+      throw new JsonParseException(jp, "Missing expected END_OBJECT");
+    }
+    // Leave the parser in the state ObjectMapper leaves it in after reading a value.
+    jp.clearCurrentToken();
+    BuildFileManifest manifest =
+        ImmutableBuildFileManifest.of(
+            targets.build(), includes, configs, env, ImmutableList.of(), ImmutableList.of());
+    return new Result(manifest, ruleCount, diagnostics, profile);
+  }
+
+  private void readRules() throws IOException {
+    expect(jp.nextToken(), JsonToken.START_ARRAY);
+    JsonToken token;
+    while ((token = jp.nextToken()) == JsonToken.START_OBJECT) {
+      ruleCount++;
+      String fieldName = jp.nextFieldName();
+      if (MetaRules.INCLUDES.equals(fieldName)) {
+        includes = ImmutableSortedSet.copyOf(readStringList());
+        expect(jp.nextToken(), JsonToken.END_OBJECT);
+      } else if (MetaRules.CONFIGS.equals(fieldName)) {
+        configs = readMetaRuleMap(Function.identity());
+      } else if (MetaRules.ENV.equals(fieldName)) {
+        env = Optional.of(readMetaRuleMap(value -> Optional.ofNullable((String) value)));
+      } else {
+        readTarget(fieldName);
+      }
+    }
+    expect(token, JsonToken.END_ARRAY);
+  }
+
+  private void readTarget(@Nullable String firstFieldName) throws IOException {
+    ImmutableMap.Builder<String, Object> attributes = ImmutableMap.builder();
+    String name = null;
+    for (String fieldName = firstFieldName; fieldName != null; fieldName = jp.nextFieldName()) {
+      Object value = readValue(jp.nextToken());
+      if (value == null) {
+        // buck.py drops attributes set to None.
+        continue;
+      }
+      if (fieldName.equals("name")) {
+        name = (String) value;
+      }
+      attributes.put(fieldName, convertToSelectableAttributeIfNeeded(value));
+    }
+    expect(jp.getCurrentToken(), JsonToken.END_OBJECT);
+    if (name == null) {
+      throw new JsonParseException(jp, "Rule without a name");
+    }
+    targets.put(name, attributes.build());
+  }
+
+  private List<String> readStringList() throws IOException {
+    expect(jp.nextToken(), JsonToken.START_ARRAY);
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+    String value;
+    while ((value = jp.nextTextValue()) != null) {
+      builder.add(value);
+    }
+    expect(jp.getCurrentToken(), JsonToken.END_ARRAY);
+    return builder.build();
+  }
+
+  /** Reads the value of a meta rule holding an object, and the end of the meta rule. */
+  private <T> ImmutableMap<String, T> readMetaRuleMap(Function<Object, T> transform)
+      throws IOException {
+    expect(jp.nextToken(), JsonToken.START_OBJECT);
+    ImmutableMap.Builder<String, T> builder = ImmutableMap.builder();
+    String fieldName;
+    while ((fieldName = jp.nextFieldName()) != null) {
+      builder.put(fieldName, transform.apply(readValue(jp.nextToken())));
+    }
+    expect(jp.nextToken(), JsonToken.END_OBJECT);
+    return builder.build();
+  }
+
+  private ImmutableList<Map<String, Object>> readObjectList() throws IOException {
+    expect(jp.nextToken(), JsonToken.START_ARRAY);
+    ImmutableList.Builder<Map<String, Object>> result = ImmutableList.builder();
+    JsonToken token;
+    while ((token = jp.nextToken()) == JsonToken.START_OBJECT) {
+      result.add(readObject());
+    }
+    expect(token, JsonToken.END_ARRAY);
+    return result.build();
+  }
+
+  private Map<String, Object> readObject() throws IOException {
+    ImmutableMapWithNullValues.Builder<String, Object> builder =
+        ImmutableMapWithNullValues.Builder.insertionOrder();
+    String fieldName;
+    while ((fieldName = jp.nextFieldName()) != null) {
+      builder.put(fieldName, readValue(jp.nextToken()));
+    }
+    expect(jp.getCurrentToken(), JsonToken.END_OBJECT);
+    return builder.build();
+  }
+
+  private List<Object> readList() throws IOException {
+    // Elements may be null, which immutable lists don't allow.
+    List<Object> list = new ArrayList<>();
+    JsonToken token;
+    while ((token = jp.nextToken()) != JsonToken.END_ARRAY) {
+      list.add(readValue(token));
+    }
+    return list;
+  }
+
+  @Nullable
+  private Object readValue(JsonToken token) throws IOException {
+    switch (token) {
+      case START_OBJECT:
+        return readObject();
+      case START_ARRAY:
+        return readList();
+      case VALUE_TRUE:
+        return true;
+      case VALUE_FALSE:
+        return false;
+      case VALUE_NULL:
+        return null;
+      case VALUE_NUMBER_FLOAT:
+        return jp.getDoubleValue();
+      case VALUE_NUMBER_INT:
+        // The smallest of Integer, Long and BigInteger that holds the value, like ObjectMapper
+        // decodes untyped numbers to, as that's what attribute coercion expects.
+        return jp.getNumberValue();
+      case VALUE_STRING:
+        return STRING_INTERNER.intern(jp.getText());
+        // $CASES-OMITTED$
+      default:
+        throw new JsonParseException(jp, "Unexpected token: " + token);
+    }
+  }
+
+  private void expect(@Nullable JsonToken actual, JsonToken expected) throws JsonParseException {
+    if (actual != expected) {
+      throw new JsonParseException(jp, "Missing expected " + expected + ", got: " + actual);
+    }
+  }
+
+  /**
+   * When the given object if a map and it contains specific keys it's transformed in either a
+   * {@link com.facebook.buck.parser.syntax.ListWithSelects} or {@link
+   * com.facebook.buck.parser.syntax.SelectorValue}. This conversion is used to pass objects in JSON
+   * data.
+   *
+   * <p>The map may contain the following keys:
+   *
+   * <ul>
+   *   <li>{@code @type} - indicates the type of the object (either "SelectorList" or
+   *       "SelectorValue").
+   *   <li>{@code conditions} - contains a map of conditions for "SelectorList".
+   *   <li>{@code no_match_message} - contains a no match message for "SelectorList".
+   *   <li>{@code items} - contains a list of items for "SelectorValue".
+   * </ul>
+   */
+  @SuppressWarnings("unchecked")
+  private static Object convertToSelectableAttributeIfNeeded(Object value) {
+    if (!(value instanceof Map)) {
+      return value;
+    }
+    Map<String, Object> attributeValue = (Map<String, Object>) value;
+    String type = (String) attributeValue.get("@type");
+    if (type == null) {
+      return attributeValue;
+    }
+    if ("SelectorValue".equals(type)) {
+      Map<String, Object> conditions =
+          (Map<String, Object>) Objects.requireNonNull(attributeValue.get("conditions"));
+      Map<String, Object> convertedConditions =
+          Maps.transformValues(conditions, v -> v == null ? Runtime.NONE : v);
+      return ImmutableSelectorValue.of(
+          convertedConditions, Objects.toString(attributeValue.get("no_match_message"), ""));
+    } else {
+      Preconditions.checkState("SelectorList".equals(type));
+      List<Object> items = (List<Object>) Objects.requireNonNull(attributeValue.get("items"));
+      ImmutableList.Builder<Object> convertedElements =
+          ImmutableList.builderWithExpectedSize(items.size());
+      for (Object item : items) {
+        convertedElements.add(convertToSelectableAttributeIfNeeded(item));
+      }
+      ImmutableList<Object> elements = convertedElements.build();
+      return ImmutableListWithSelects.of(elements, getType(Iterables.getLast(elements)));
+    }
+  }
+
+  private static Class<?> getType(Object object) {
+    if (object instanceof SelectorValue) {
+      return getType(
+          Objects.requireNonNull(
+                  Iterables.getFirst(((SelectorValue) object).getDictionary().entrySet(), null))
+              .getValue());
+    } else {
+      return object.getClass();
+    }
+  }
+}
@@ -25,6 +25,7 @@ import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.core.model.targetgraph.raw.UnconfiguredTargetNode;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.cache.json.BuildFileManifestSerializer;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
 import com.facebook.buck.util.concurrent.AutoCloseableLock;
 import com.facebook.buck.util.concurrent.AutoCloseableReadWriteUpdateLock;
@@ -32,9 +33,11 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
 import com.google.common.collect.SetMultimap;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashMap;
@@ -146,6 +149,13 @@ class DaemonicCellState {
   @GuardedBy("rawAndComputedNodesLock")
   private final Set<UnflavoredBuildTargetView> allRawNodeTargets;
 
+  /**
+   * Serialized build file manifests restored from a snapshot of a previous daemon, by build file
+   * path. They are only decoded and moved to {@link #allBuildFileManifests} when first looked up.
+   */
+  @GuardedBy("rawAndComputedNodesLock")
+  private final Map<Path, byte[]> restoredBuildFileManifests;
+
   /** Type-safe accessor to one of state caches */
   static class CellCacheType<K, T> {
     private final Function<DaemonicCellState, Cache<K, T>> getCache;
@@ -199,6 +209,7 @@ class DaemonicCellState {
     this.buildFileEnv = new HashMap<>();
     this.allBuildFileManifests = new ConcurrentMapCache<>(parsingThreads);
     this.allRawNodeTargets = new HashSet<>();
+    this.restoredBuildFileManifests = new HashMap<>();
     this.rawAndComputedNodesLock = new AutoCloseableReadWriteUpdateLock();
     this.targetNodeCache = new Cache<>(TARGET_NODE_CACHE_TYPE);
     this.rawTargetNodeCache = new Cache<>(RAW_TARGET_NODE_CACHE_TYPE);
@@ -217,9 +228,50 @@ class DaemonicCellState {
     return type.getCache.apply(this);
   }
 
-  Optional<BuildFileManifest> lookupBuildFileManifest(Path buildFile) {
+  /**
+   * @param useRestored whether a manifest restored from a snapshot may be returned if the build
+   *     file hasn't been parsed by this daemon.
+   */
+  Optional<BuildFileManifest> lookupBuildFileManifest(Path buildFile, boolean useRestored) {
+    byte[] restored;
     try (AutoCloseableLock readLock = rawAndComputedNodesLock.readLock()) {
-      return Optional.ofNullable(allBuildFileManifests.getIfPresent(buildFile));
+      BuildFileManifest manifest = allBuildFileManifests.getIfPresent(buildFile);
+      if (manifest != null || !useRestored) {
+        return Optional.ofNullable(manifest);
+      }
+      restored = restoredBuildFileManifests.get(buildFile);
+      if (restored == null) {
+        return Optional.empty();
+      }
+    }
+
+    // Decode outside of the lock, so that packages can be decoded in parallel.
+    BuildFileManifest manifest;
+    try {
+      manifest = BuildFileManifestSerializer.deserialize(restored);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to decode restored manifest of %s, it will be parsed again.", buildFile);
+      invalidatePath(buildFile);
+      return Optional.empty();
+    }
+
+    try (AutoCloseableLock writeLock = rawAndComputedNodesLock.writeLock()) {
+      // The manifest may have been invalidated, or decoded by another thread, in the meantime.
+      if (restoredBuildFileManifests.get(buildFile) != restored) {
+        return Optional.ofNullable(allBuildFileManifests.getIfPresent(buildFile));
+      }
+      restoredBuildFileManifests.remove(buildFile);
+      BuildFileManifest updated = allBuildFileManifests.putIfAbsentAndGet(buildFile, manifest);
+      addRawNodeTargets(buildFile, updated);
+      return Optional.of(updated);
+    }
+  }
+
+  private void addRawNodeTargets(Path buildFile, BuildFileManifest manifest) {
+    for (Map<String, Object> node : manifest.getTargets().values()) {
+      allRawNodeTargets.add(
+          UnflavoredBuildTargetFactory.createFromRawNode(
+              cellRoot, cellCanonicalName, node, buildFile));
     }
   }
 
@@ -229,13 +281,11 @@ class DaemonicCellState {
       ImmutableSet<Path> dependentsOfEveryNode,
       ImmutableMap<String, Optional<String>> env) {
     try (AutoCloseableLock writeLock = rawAndComputedNodesLock.writeLock()) {
+      // A freshly parsed manifest supersedes the one restored from a snapshot.
+      restoredBuildFileManifests.remove(buildFile);
       BuildFileManifest updated =
           allBuildFileManifests.putIfAbsentAndGet(buildFile, buildFileManifest);
-      for (Map<String, Object> node : updated.getTargets().values()) {
-        allRawNodeTargets.add(
-            UnflavoredBuildTargetFactory.createFromRawNode(
-                cellRoot, cellCanonicalName, node, buildFile));
-      }
+      addRawNodeTargets(buildFile, updated);
       buildFileEnv.put(buildFile, env);
       if (updated == buildFileManifest) {
         // We now know all the nodes. They all implicitly depend on everything in
@@ -269,6 +319,7 @@ class DaemonicCellState {
         }
         allBuildFileManifests.invalidate(path);
       }
+      restoredBuildFileManifests.remove(path);
 
       // We may have been given a file that other build files depend on. Iteratively remove those.
       Iterable<Path> dependents = buildFileDependents.get(path);
@@ -314,8 +365,100 @@ class DaemonicCellState {
     return Optional.empty();
   }
 
+  /**
+   * Restores the parsing result of a build file from a snapshot.
+   *
+   * @param manifest the manifest serialized with {@link BuildFileManifestSerializer}.
+   * @param env the environment variables used while parsing the build file.
+   * @param dependencies the files, other than the build file itself, whose changes invalidate the
+   *     manifest.
+   */
+  void restoreBuildFileManifest(
+      Path buildFile,
+      byte[] manifest,
+      ImmutableMap<String, Optional<String>> env,
+      Iterable<Path> dependencies) {
+    try (AutoCloseableLock writeLock = rawAndComputedNodesLock.writeLock()) {
+      if (allBuildFileManifests.getIfPresent(buildFile) != null) {
+        return;
+      }
+      restoredBuildFileManifests.put(buildFile, manifest);
+      buildFileEnv.put(buildFile, env);
+      for (Path dependency : dependencies) {
+        buildFileDependents.put(dependency, buildFile);
+      }
+    }
+  }
+
+  /** Visitor of the parsing results of a cell, used to write snapshots. */
+  interface BuildFileManifestVisitor {
+    void visit(
+        Path buildFile,
+        byte[] manifest,
+        ImmutableMap<String, Optional<String>> env,
+        ImmutableSet<Path> dependencies)
+        throws IOException;
+  }
+
+  /**
+   * Calls {@code visitor} with the serialized manifest of every build file parsed or restored in
+   * this cell, along with what it depends on.
+   */
+  void exportBuildFileManifests(BuildFileManifestVisitor visitor) throws IOException {
+    Map<Path, byte[]> restored;
+    Map<Path, BuildFileManifest> parsed = new HashMap<>();
+    Map<Path, ImmutableMap<String, Optional<String>>> env;
+    ImmutableSetMultimap<Path, Path> dependencies;
+    try (AutoCloseableLock readLock = rawAndComputedNodesLock.readLock()) {
+      restored = new HashMap<>(restoredBuildFileManifests);
+      for (Path buildFile : allBuildFileManifests.keySet()) {
+        parsed.put(buildFile, allBuildFileManifests.getIfPresent(buildFile));
+      }
+      env = new HashMap<>(buildFileEnv);
+      ImmutableSetMultimap.Builder<Path, Path> builder = ImmutableSetMultimap.builder();
+      for (Map.Entry<Path, Path> entry : buildFileDependents.entries()) {
+        if (!entry.getKey().equals(entry.getValue())) {
+          builder.put(entry.getValue(), entry.getKey());
+        }
+      }
+      dependencies = builder.build();
+    }
+    for (Map.Entry<Path, byte[]> entry : restored.entrySet()) {
+      Path buildFile = entry.getKey();
+      visitor.visit(
+          buildFile,
+          entry.getValue(),
+          env.getOrDefault(buildFile, ImmutableMap.of()),
+          dependencies.get(buildFile));
+    }
+    for (Map.Entry<Path, BuildFileManifest> entry : parsed.entrySet()) {
+      Path buildFile = entry.getKey();
+      visitor.visit(
+          buildFile,
+          BuildFileManifestSerializer.serialize(entry.getValue()),
+          env.getOrDefault(buildFile, ImmutableMap.of()),
+          dependencies.get(buildFile));
+    }
+  }
+
   /** @return {@code true} if the given path has dependencies that are present in the given set. */
   boolean pathDependentPresentIn(Path path, Set<Path> buildFiles) {
     return !Collections.disjoint(buildFileDependents.get(cellRoot.resolve(path)), buildFiles);
   }
+
+  /** @return the names of the environment variables read by the cached build files. */
+  ImmutableSet<String> getUsedEnvironmentVariables() {
+    try (AutoCloseableLock readLock = rawAndComputedNodesLock.readLock()) {
+      return buildFileEnv.values().stream()
+          .flatMap(env -> env.keySet().stream())
+          .collect(ImmutableSet.toImmutableSet());
+    }
+  }
+
+  /** @return {@code true} if a cached build file is, or depends on, the given absolute path. */
+  boolean isBuildFileDependency(Path path) {
+    try (AutoCloseableLock readLock = rawAndComputedNodesLock.readLock()) {
+      return buildFileDependents.containsKey(path);
+    }
+  }
 }
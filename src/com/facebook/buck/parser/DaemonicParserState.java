@@ -38,6 +38,7 @@ import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
+import com.facebook.buck.skylark.io.impl.GlobResultCache;
 import com.facebook.buck.util.concurrent.AutoCloseableLock;
 import com.facebook.buck.util.concurrent.AutoCloseableReadWriteLock;
 import com.google.common.base.Preconditions;
@@ -48,6 +49,7 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.MapDifference;
 import com.google.common.eventbus.Subscribe;
@@ -182,7 +184,7 @@ public class DaemonicParserState {
       if (state == null) {
         return Optional.empty();
       }
-      return state.lookupBuildFileManifest(buildFile);
+      return state.lookupBuildFileManifest(buildFile, restoredStateVerified);
     }
 
     /**
@@ -289,6 +291,9 @@ public class DaemonicParserState {
 
   private final DaemonicRawCacheView rawNodeCache;
 
+  /** Results of the globs of Skylark build files, which outlive the manifests using them. */
+  private final GlobResultCache globResultCache = new GlobResultCache();
+
   private final int parsingThreads;
 
   private final LoadingCache<Cell, BuildFileTree> buildFileTrees;
@@ -303,6 +308,12 @@ public class DaemonicParserState {
   private final AutoCloseableReadWriteLock cachedStateLock;
   private final AutoCloseableReadWriteLock cellStateLock;
 
+  /**
+   * Whether build file manifests restored from a snapshot can be used, which is only the case once
+   * the file changes made since the snapshot was written have been applied to them.
+   */
+  private volatile boolean restoredStateVerified = false;
+
   public DaemonicParserState(int parsingThreads) {
     this.parsingThreads = parsingThreads;
     this.cacheInvalidatedByEnvironmentVariableChangeCounter =
@@ -352,6 +363,10 @@ public class DaemonicParserState {
     return buildFileTrees;
   }
 
+  GlobResultCache getGlobResultCache() {
+    return globResultCache;
+  }
+
   /** Type-safe accessor to one of state caches */
   static final class CacheType<K, T> {
     private final Function<DaemonicParserState, DaemonicCacheView<K, T>> getCacheView;
@@ -387,7 +402,7 @@ public class DaemonicParserState {
     }
   }
 
-  private DaemonicCellState getOrCreateCellState(Cell cell) {
+  DaemonicCellState getOrCreateCellState(Cell cell) {
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
       DaemonicCellState state = cellPathToDaemonicState.get(cell.getRoot());
       if (state == null) {
@@ -398,6 +413,40 @@ public class DaemonicParserState {
     }
   }
 
+  ImmutableList<DaemonicCellState> getCellStates() {
+    try (AutoCloseableLock readLock = cellStateLock.readLock()) {
+      return ImmutableList.copyOf(cellPathToDaemonicState.values());
+    }
+  }
+
+  /** @return the default includes the cached state of the cell was computed with, if any. */
+  Optional<Iterable<String>> getCachedIncludes(Path cellRoot) {
+    try (AutoCloseableLock readLock = cachedStateLock.readLock()) {
+      return Optional.ofNullable(cachedIncludes.get(cellRoot));
+    }
+  }
+
+  ImmutableSet<Path> getConfigurationBuildFiles() {
+    return ImmutableSet.copyOf(configurationBuildFiles);
+  }
+
+  /**
+   * Restores the default includes and configuration build files of a snapshot, so that the state
+   * restored along with them is only invalidated if they change.
+   */
+  void restoreCachedState(
+      ImmutableMap<Path, ImmutableList<String>> includes, Iterable<Path> configurationFiles) {
+    try (AutoCloseableLock writeLock = cachedStateLock.writeLock()) {
+      cachedIncludes.putAll(includes);
+    }
+    Iterables.addAll(configurationBuildFiles, configurationFiles);
+  }
+
+  /** Allows the use of build file manifests restored from a snapshot. */
+  void markRestoredStateVerified() {
+    restoredStateVerified = true;
+  }
+
   @Subscribe
   public void invalidateBasedOn(WatchmanOverflowEvent event) {
     // Non-path change event, likely an overflow due to many change events: invalidate everything.
@@ -421,6 +470,8 @@ public class DaemonicParserState {
     // We only care about creation and deletion events because modified should result in a
     // rule key change.  For parsing, these are the only events we need to care about.
     if (isPathCreateOrDeleteEvent(event)) {
+      // Globs can match ignored files too, so unlike build files their results are always dropped.
+      globResultCache.invalidateAncestorsOf(fullPath);
       try (AutoCloseableLock readLock = cellStateLock.readLock()) {
         for (DaemonicCellState state : cellPathToDaemonicState.values()) {
           try {
@@ -479,6 +530,32 @@ public class DaemonicParserState {
     return false;
   }
 
+  /** @return the names of the environment variables read by any cached build file. */
+  public ImmutableSortedSet<String> getUsedEnvironmentVariables() {
+    ImmutableSortedSet.Builder<String> names = ImmutableSortedSet.naturalOrder();
+    try (AutoCloseableLock readLock = cellStateLock.readLock()) {
+      for (DaemonicCellState state : cellPathToDaemonicState.values()) {
+        names.addAll(state.getUsedEnvironmentVariables());
+      }
+    }
+    return names.build();
+  }
+
+  /**
+   * @return {@code true} if any cached build file is, or depends on, the given absolute path, e.g.
+   *     because it includes it.
+   */
+  public boolean isBuildFileDependency(Path path) {
+    try (AutoCloseableLock readLock = cellStateLock.readLock()) {
+      for (DaemonicCellState state : cellPathToDaemonicState.values()) {
+        if (state.isBuildFileDependency(path)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   public void invalidatePath(Path path) {
 
     // The paths from watchman are not absolute. Because of this, we adopt a conservative approach
@@ -628,6 +705,7 @@ public class DaemonicParserState {
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
       boolean invalidated = cellPathToDaemonicState.containsKey(cell.getRoot());
       cellPathToDaemonicState.remove(cell.getRoot());
+      globResultCache.invalidateUnder(cell.getRoot());
       if (invalidated) {
         LOG.debug("Cell cache data invalidated.");
       } else {
@@ -644,6 +722,7 @@ public class DaemonicParserState {
       boolean invalidated = !cellPathToDaemonicState.isEmpty();
       cellPathToDaemonicState.clear();
       buildFileTrees.invalidateAll();
+      globResultCache.invalidateAll();
       configurationBuildFiles.clear();
       if (invalidated) {
         LOG.debug("Cache data invalidated.");
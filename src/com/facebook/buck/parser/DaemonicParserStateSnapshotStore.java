@@ -0,0 +1,270 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.core.cell.Cell;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.watchman.PersistentWatchedState;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Saves the build file manifests cached by a {@link DaemonicParserState} to disk, so that a new
+ * daemon doesn't have to evaluate every build file again.
+ *
+ * <p>Along with the manifests, the snapshot records the includes and environment variables each
+ * build file depends on, the default includes of each cell, the build files defining configuration
+ * rules, and the watchman clocks it is consistent with. Target nodes are not saved: their coerced
+ * attributes can't be serialized, and they are cheap to create compared to evaluating build files.
+ *
+ * <p>On startup, the manifests of all packages are read, but each one is only decoded when its
+ * package is first looked up. The daemon replays the file changes made since the saved clocks to
+ * the parser state, which invalidates the affected packages as usual, and restored manifests are
+ * only used once that is done. If the changes can't be replayed, the restored state is dropped.
+ */
+public class DaemonicParserStateSnapshotStore implements PersistentWatchedState {
+
+  private static final Logger LOG = Logger.get(DaemonicParserStateSnapshotStore.class);
+
+  private static final int MAGIC = 0x44505353;
+  private static final int VERSION = 1;
+
+  private final DaemonicParserState state;
+  private final Path snapshotFile;
+  private final String fingerprint;
+
+  private volatile ImmutableMap<Path, String> restoredWatchmanClocks;
+  private volatile boolean snapshotVerified = false;
+
+  private DaemonicParserStateSnapshotStore(
+      DaemonicParserState state,
+      Path snapshotFile,
+      String fingerprint,
+      ImmutableMap<Path, String> restoredWatchmanClocks) {
+    this.state = state;
+    this.snapshotFile = snapshotFile;
+    this.fingerprint = fingerprint;
+    this.restoredWatchmanClocks = restoredWatchmanClocks;
+  }
+
+  /**
+   * Restores the parser state stored in {@code snapshotFile} into {@code state}, if the file exists
+   * and was written with the same {@code fingerprint}. The state of cells which aren't in {@code
+   * cells} is ignored.
+   *
+   * @param fingerprint a fingerprint of all settings which may affect the result of parsing.
+   */
+  public static DaemonicParserStateSnapshotStore load(
+      DaemonicParserState state, ImmutableList<Cell> cells, Path snapshotFile, String fingerprint) {
+    ImmutableMap<Path, Cell> cellsByRoot =
+        cells.stream().collect(ImmutableMap.toImmutableMap(Cell::getRoot, Function.identity()));
+    ImmutableMap<Path, String> clocks = ImmutableMap.of();
+    int restored = 0;
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(fingerprint)) {
+        LOG.info("Ignoring parser state snapshot %s written with a different config.", snapshotFile);
+      } else {
+        clocks = readClocks(in);
+        ImmutableList<Path> configurationBuildFiles = readPaths(in);
+        ImmutableMap.Builder<Path, ImmutableList<String>> includes = ImmutableMap.builder();
+        int cellCount = in.readInt();
+        for (int i = 0; i < cellCount; i++) {
+          Path cellRoot = Paths.get(in.readUTF());
+          ImmutableList<String> cellIncludes = readStrings(in);
+          Cell cell = cellsByRoot.get(cellRoot);
+          DaemonicCellState cellState = cell == null ? null : state.getOrCreateCellState(cell);
+          while (in.readBoolean()) {
+            Path buildFile = Paths.get(in.readUTF());
+            ImmutableMap<String, Optional<String>> env = readEnv(in);
+            ImmutableList<Path> dependencies = readPaths(in);
+            byte[] manifest = new byte[in.readInt()];
+            in.readFully(manifest);
+            if (cellState != null) {
+              cellState.restoreBuildFileManifest(buildFile, manifest, env, dependencies);
+              restored++;
+            }
+          }
+          if (cellState != null) {
+            includes.put(cellRoot, cellIncludes);
+          }
+        }
+        state.restoreCachedState(includes.build(), configurationBuildFiles);
+      }
+    } catch (NoSuchFileException e) {
+      // Nothing has been saved yet.
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.warn(e, "Failed to load parser state snapshot %s.", snapshotFile);
+      clocks = ImmutableMap.of();
+    }
+    if (clocks.isEmpty()) {
+      // Without clocks nothing can be replayed, so anything restored is unusable.
+      if (restored > 0) {
+        state.invalidateAllCaches();
+      }
+    } else {
+      LOG.info("Restored %d build file manifests from %s.", restored, snapshotFile);
+    }
+    return new DaemonicParserStateSnapshotStore(state, snapshotFile, fingerprint, clocks);
+  }
+
+  private static ImmutableMap<Path, String> readClocks(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    ImmutableMap.Builder<Path, String> clocks = ImmutableMap.builderWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      clocks.put(Paths.get(in.readUTF()), in.readUTF());
+    }
+    return clocks.build();
+  }
+
+  private static ImmutableList<String> readStrings(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    ImmutableList.Builder<String> strings = ImmutableList.builderWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      strings.add(in.readUTF());
+    }
+    return strings.build();
+  }
+
+  private static ImmutableList<Path> readPaths(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    ImmutableList.Builder<Path> paths = ImmutableList.builderWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      paths.add(Paths.get(in.readUTF()));
+    }
+    return paths.build();
+  }
+
+  private static ImmutableMap<String, Optional<String>> readEnv(DataInputStream in)
+      throws IOException {
+    int count = in.readInt();
+    ImmutableMap.Builder<String, Optional<String>> env =
+        ImmutableMap.builderWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      String name = in.readUTF();
+      env.put(name, in.readBoolean() ? Optional.of(in.readUTF()) : Optional.empty());
+    }
+    return env.build();
+  }
+
+  @Override
+  public ImmutableMap<Path, String> getRestoredWatchmanClocks() {
+    return restoredWatchmanClocks;
+  }
+
+  @Override
+  public boolean hasUnverifiedSnapshot() {
+    return !restoredWatchmanClocks.isEmpty() && !snapshotVerified;
+  }
+
+  @Override
+  public void markSnapshotVerified() {
+    snapshotVerified = true;
+    state.markRestoredStateVerified();
+  }
+
+  @Override
+  public void dropSnapshot() {
+    if (hasUnverifiedSnapshot()) {
+      LOG.debug("Dropping restored parser state.");
+      state.invalidateAllCaches();
+      restoredWatchmanClocks = ImmutableMap.of();
+    }
+  }
+
+  @Override
+  public void save(ImmutableMap<Path, String> watchmanClocks) throws IOException {
+    ImmutableList<DaemonicCellState> cellStates = state.getCellStates();
+    ImmutableSet<Path> configurationBuildFiles = state.getConfigurationBuildFiles();
+    AtomicInteger total = new AtomicInteger();
+
+    Files.createDirectories(snapshotFile.getParent());
+    Path tmpFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(fingerprint);
+      out.writeInt(watchmanClocks.size());
+      for (Map.Entry<Path, String> clock : watchmanClocks.entrySet()) {
+        out.writeUTF(clock.getKey().toString());
+        out.writeUTF(clock.getValue());
+      }
+      writePaths(out, configurationBuildFiles);
+      out.writeInt(cellStates.size());
+      for (DaemonicCellState cellState : cellStates) {
+        out.writeUTF(cellState.getCellRoot().toString());
+        Iterable<String> includes =
+            state.getCachedIncludes(cellState.getCellRoot()).orElse(ImmutableList.of());
+        ImmutableList<String> includesList = ImmutableList.copyOf(includes);
+        out.writeInt(includesList.size());
+        for (String include : includesList) {
+          out.writeUTF(include);
+        }
+        cellState.exportBuildFileManifests(
+            (buildFile, manifest, env, dependencies) -> {
+              out.writeBoolean(true);
+              out.writeUTF(buildFile.toString());
+              writeEnv(out, env);
+              writePaths(out, dependencies);
+              out.writeInt(manifest.length);
+              out.write(manifest);
+              total.incrementAndGet();
+            });
+        out.writeBoolean(false);
+      }
+    }
+    Files.move(
+        tmpFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    LOG.info("Saved %d build file manifests to %s.", total.get(), snapshotFile);
+  }
+
+  private static void writePaths(DataOutputStream out, ImmutableSet<Path> paths)
+      throws IOException {
+    out.writeInt(paths.size());
+    for (Path path : paths) {
+      out.writeUTF(path.toString());
+    }
+  }
+
+  private static void writeEnv(DataOutputStream out, ImmutableMap<String, Optional<String>> env)
+      throws IOException {
+    out.writeInt(env.size());
+    for (Map.Entry<String, Optional<String>> entry : env.entrySet()) {
+      out.writeUTF(entry.getKey());
+      out.writeBoolean(entry.getValue().isPresent());
+      if (entry.getValue().isPresent()) {
+        out.writeUTF(entry.getValue().get());
+      }
+    }
+  }
+}
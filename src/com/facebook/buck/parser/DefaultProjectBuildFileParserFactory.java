@@ -47,6 +47,7 @@ import com.facebook.buck.parser.options.ProjectBuildFileParserOptions;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.skylark.function.SkylarkBuildModule;
 import com.facebook.buck.skylark.io.GlobberFactory;
+import com.facebook.buck.skylark.io.impl.GlobResultCache;
 import com.facebook.buck.skylark.io.impl.HybridGlobberFactory;
 import com.facebook.buck.skylark.io.impl.NativeGlobber;
 import com.facebook.buck.skylark.io.impl.SyncCookieState;
@@ -78,6 +79,7 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
   private final ThrowingCloseableMemoizedSupplier<ManifestService, IOException>
       manifestServiceSupplier;
   private final FileHashLoader fileHashLoader;
+  private final Optional<GlobResultCache> globResultCache;
 
   public DefaultProjectBuildFileParserFactory(
       TypeCoercerFactory typeCoercerFactory,
@@ -87,7 +89,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
       boolean enableProfiling,
       Optional<AtomicLong> processedBytes,
       ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier,
-      FileHashLoader fileHashLoader) {
+      FileHashLoader fileHashLoader,
+      Optional<GlobResultCache> globResultCache) {
     this.typeCoercerFactory = typeCoercerFactory;
     this.console = console;
     this.pythonInterpreterProvider = pythonInterpreterProvider;
@@ -96,6 +99,7 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
     this.processedBytes = processedBytes;
     this.manifestServiceSupplier = manifestServiceSupplier;
     this.fileHashLoader = fileHashLoader;
+    this.globResultCache = globResultCache;
   }
 
   public DefaultProjectBuildFileParserFactory(
@@ -105,7 +109,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
       Optional<AtomicLong> processedBytes,
       KnownRuleTypesProvider knownRuleTypesProvider,
       ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier,
-      FileHashLoader fileHashLoader) {
+      FileHashLoader fileHashLoader,
+      Optional<GlobResultCache> globResultCache) {
     this(
         typeCoercerFactory,
         Console.createNullConsole(),
@@ -114,7 +119,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
         enableProfiling,
         processedBytes,
         manifestServiceSupplier,
-        fileHashLoader);
+        fileHashLoader,
+        globResultCache);
   }
 
   public DefaultProjectBuildFileParserFactory(
@@ -132,7 +138,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
         false,
         Optional.empty(),
         manifestServiceSupplier,
-        fileHashLoader);
+        fileHashLoader,
+        Optional.empty());
   }
 
   /**
@@ -250,7 +257,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
                           knownRuleTypesProvider.getUserDefinedRuleTypes(cell),
                           eventBus,
                           buildFileParserOptions,
-                          parserConfig.getSkylarkGlobHandler()),
+                          parserConfig.getSkylarkGlobHandler(),
+                          getGlobResultCache(parserConfig)),
                       cell.getFilesystem(),
                       eventBus)),
               defaultBuildFileSyntax);
@@ -266,7 +274,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
                       knownRuleTypesProvider.getUserDefinedRuleTypes(cell),
                       eventBus,
                       buildFileParserOptions,
-                      parserConfig.getSkylarkGlobHandler()),
+                      parserConfig.getSkylarkGlobHandler(),
+                      getGlobResultCache(parserConfig)),
                   cell.getFilesystem(),
                   eventBus);
           break;
@@ -289,6 +298,10 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
     return parser;
   }
 
+  private Optional<GlobResultCache> getGlobResultCache(ParserConfig parserConfig) {
+    return parserConfig.isDaemonGlobCacheEnabled() ? globResultCache : Optional.empty();
+  }
+
   private ProjectBuildFileParser newPythonParser(
       Cell cell,
       TypeCoercerFactory typeCoercerFactory,
@@ -317,7 +330,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
       KnownUserDefinedRuleTypes knownUserDefinedRuleTypes,
       BuckEventBus eventBus,
       ProjectBuildFileParserOptions buildFileParserOptions,
-      SkylarkGlobHandler skylarkGlobHandler) {
+      SkylarkGlobHandler skylarkGlobHandler,
+      Optional<GlobResultCache> globResultCache) {
     GlobberFactory globberFactory;
     try {
       globberFactory = getSkylarkGlobberFactory(buildFileParserOptions, skylarkGlobHandler);
@@ -364,7 +378,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
               SkylarkFilesystem.using(cell.getFilesystem()),
               buckGlobals,
               eventHandler,
-              globberFactory);
+              globberFactory,
+              globResultCache);
 
       // All built-ins should have already been discovered. Freezing improves performance by
       // avoiding synchronization during query operations. This operation is idempotent, so it's
@@ -29,6 +29,7 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.io.Files;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.OptionalLong;
 import javax.annotation.Nullable;
 
 /**
@@ -69,6 +70,20 @@ public class HybridProjectBuildFileParser implements ProjectBuildFileParser {
     }
   }
 
+  @Override
+  public OptionalLong getProcessMemoryBytes() {
+    long total = 0;
+    boolean measured = false;
+    for (ProjectBuildFileParser parser : parsers.values()) {
+      OptionalLong memory = parser.getProcessMemoryBytes();
+      if (memory.isPresent()) {
+        total += memory.getAsLong();
+        measured = true;
+      }
+    }
+    return measured ? OptionalLong.of(total) : OptionalLong.empty();
+  }
+
   @Override
   public ImmutableSortedSet<String> getIncludedFiles(Path buildFile)
       throws BuildFileParseException, InterruptedException, IOException {
@@ -25,9 +25,12 @@ import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.core.rules.config.registry.ConfigurationRuleRegistry;
 import com.facebook.buck.core.select.SelectorListResolver;
 import com.facebook.buck.core.select.impl.SelectorListFactory;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.ParsingEvent;
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
+import com.facebook.buck.skylark.io.impl.GlobResultCache;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -43,6 +46,8 @@ public class PerBuildState implements AutoCloseable {
   private final SelectorListResolver selectorListResolver;
   private final SelectorListFactory selectorListFactory;
   private final ConfigurationRuleRegistry configurationRuleRegistry;
+  private final BuckEventBus eventBus;
+  private final GlobResultCache globResultCache;
 
   PerBuildState(
       CellManager cellManager,
@@ -51,7 +56,9 @@ public class PerBuildState implements AutoCloseable {
       ParsingContext parsingContext,
       SelectorListResolver selectorListResolver,
       SelectorListFactory selectorListFactory,
-      ConfigurationRuleRegistry configurationRuleRegistry) {
+      ConfigurationRuleRegistry configurationRuleRegistry,
+      BuckEventBus eventBus,
+      GlobResultCache globResultCache) {
     this.cellManager = cellManager;
     this.buildFileRawNodeParsePipeline = buildFileRawNodeParsePipeline;
     this.targetNodeParsePipeline = targetNodeParsePipeline;
@@ -59,6 +66,8 @@ public class PerBuildState implements AutoCloseable {
     this.selectorListResolver = selectorListResolver;
     this.selectorListFactory = selectorListFactory;
     this.configurationRuleRegistry = configurationRuleRegistry;
+    this.eventBus = eventBus;
+    this.globResultCache = globResultCache;
   }
 
   TargetNode<?> getTargetNode(BuildTarget target, DependencyStack dependencyStack)
@@ -133,5 +142,12 @@ public class PerBuildState implements AutoCloseable {
     targetNodeParsePipeline.close();
     buildFileRawNodeParsePipeline.close();
     cellManager.close();
+
+    GlobResultCache.Stats globStats = globResultCache.getStatsSinceLastReport();
+    if (globStats.getHits() + globStats.getMisses() > 0) {
+      eventBus.post(
+          ParsingEvent.globCacheStats(
+              globStats.getHits(), globStats.getMisses(), globStats.getInvalidatedPackages()));
+    }
   }
 }
@@ -50,6 +50,7 @@ import com.facebook.buck.util.ThrowingCloseableMemoizedSupplier;
 import com.facebook.buck.util.concurrent.CommandThreadFactory;
 import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.facebook.buck.util.concurrent.MostExecutors;
+import com.facebook.buck.util.environment.DefaultExecutionEnvironment;
 import com.facebook.buck.util.hashing.FileHashLoader;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -127,12 +128,24 @@ public class PerBuildStateFactory {
             parseProcessedBytes,
             knownRuleTypesProvider,
             manifestServiceSupplier,
-            fileHashLoader);
+            fileHashLoader,
+            Optional.of(daemonicParserState.getGlobResultCache()));
+    Optional<Long> maxParserMemoryBytes = parserConfig.getPythonParserMaxMemoryBytes();
+    int maxParsersPerCell =
+        maxParserMemoryBytes.isPresent()
+            ? ProjectBuildFileParserPool.getMaxParsersPerCellForMemory(
+                numParsingThreads,
+                maxParserMemoryBytes.get(),
+                new DefaultExecutionEnvironment(
+                        rootCell.getBuckConfig().getEnvironment(), System.getProperties())
+                    .getTotalMemory())
+            : numParsingThreads;
     ProjectBuildFileParserPool projectBuildFileParserPool =
         new ProjectBuildFileParserPool(
-            numParsingThreads, // Max parsers to create per cell.
+            maxParsersPerCell,
             projectBuildFileParserFactory,
-            parsingContext.isProfilingEnabled());
+            parsingContext.isProfilingEnabled(),
+            maxParserMemoryBytes);
 
     TargetNodeFactory targetNodeFactory = new TargetNodeFactory(typeCoercerFactory);
 
@@ -272,7 +285,9 @@ public class PerBuildStateFactory {
         parsingContext,
         selectorListResolver,
         selectorListFactory,
-        configurationRuleRegistry);
+        configurationRuleRegistry,
+        eventBus,
+        daemonicParserState.getGlobResultCache());
   }
 
   @SuppressWarnings("PMD.AvoidThreadGroup")
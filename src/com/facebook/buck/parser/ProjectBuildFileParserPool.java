@@ -33,10 +33,18 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.concurrent.GuardedBy;
 
-/** Parser pool for {@link BuildFileManifest}s. */
+/**
+ * Parser pool for {@link BuildFileManifest}s.
+ *
+ * <p>Parsers are created lazily, only when a build file has to be parsed and all existing parsers
+ * of the cell are busy. If a maximum parser memory is given, parsers whose process grows beyond it
+ * are closed after they finish parsing a build file and replaced on demand.
+ */
 class ProjectBuildFileParserPool implements FileParserPool<BuildFileManifest> {
   private static final Logger LOG = Logger.get(ProjectBuildFileParserPool.class);
 
@@ -51,12 +59,17 @@ class ProjectBuildFileParserPool implements FileParserPool<BuildFileManifest> {
   private final ProjectBuildFileParserFactory projectBuildFileParserFactory;
   private final AtomicBoolean closing;
   private final boolean enableProfiler;
+  private final Optional<Long> maxParserMemoryBytes;
 
-  /** @param maxParsersPerCell maximum number of parsers to create for a single cell. */
+  /**
+   * @param maxParsersPerCell maximum number of parsers to create for a single cell.
+   * @param maxParserMemoryBytes resident memory of a parser process above which it is recycled.
+   */
   public ProjectBuildFileParserPool(
       int maxParsersPerCell,
       ProjectBuildFileParserFactory projectBuildFileParserFactory,
-      boolean enableProfiler) {
+      boolean enableProfiler,
+      Optional<Long> maxParserMemoryBytes) {
     Preconditions.checkArgument(maxParsersPerCell > 0);
 
     this.maxParsersPerCell = maxParsersPerCell;
@@ -65,6 +78,19 @@ class ProjectBuildFileParserPool implements FileParserPool<BuildFileManifest> {
     this.projectBuildFileParserFactory = projectBuildFileParserFactory;
     this.closing = new AtomicBoolean(false);
     this.enableProfiler = enableProfiler;
+    this.maxParserMemoryBytes = maxParserMemoryBytes;
+  }
+
+  /**
+   * @return the number of parsers per cell to use so that parsers which each grow up to {@code
+   *     maxParserMemoryBytes} use at most half of {@code totalMemoryBytes}, but never more than
+   *     {@code maxParsersPerCell} or fewer than one.
+   */
+  static int getMaxParsersPerCellForMemory(
+      int maxParsersPerCell, long maxParserMemoryBytes, long totalMemoryBytes) {
+    Preconditions.checkArgument(maxParserMemoryBytes > 0);
+    long parsersFittingInMemory = totalMemoryBytes / 2 / maxParserMemoryBytes;
+    return (int) Math.max(1, Math.min(maxParsersPerCell, parsersFittingInMemory));
   }
 
   /**
@@ -104,7 +130,22 @@ class ProjectBuildFileParserPool implements FileParserPool<BuildFileManifest> {
                 ResourcePool.ResourceUsageErrorPolicy.RETIRE,
                 () ->
                     projectBuildFileParserFactory.createFileParser(
-                        buckEventBus, c, watchman, false)));
+                        buckEventBus, c, watchman, false),
+                this::usesTooMuchMemory));
+  }
+
+  private boolean usesTooMuchMemory(ProjectBuildFileParser parser) {
+    if (!maxParserMemoryBytes.isPresent()) {
+      return false;
+    }
+    OptionalLong memoryBytes = parser.getProcessMemoryBytes();
+    if (!memoryBytes.isPresent() || memoryBytes.getAsLong() <= maxParserMemoryBytes.get()) {
+      return false;
+    }
+    LOG.info(
+        "Recycling parser using %d bytes, more than the limit of %d bytes",
+        memoryBytes.getAsLong(), maxParserMemoryBytes.get());
+    return true;
   }
 
   private synchronized ProjectBuildFileParser getParserForCell(
@@ -29,19 +29,14 @@ import com.facebook.buck.io.watchman.WatchmanDiagnostic;
 import com.facebook.buck.io.watchman.WatchmanDiagnosticEvent;
 import com.facebook.buck.json.BuildFileParseExceptionData;
 import com.facebook.buck.json.BuildFileParseExceptionStackTraceEntry;
-import com.facebook.buck.json.BuildFilePythonResult;
 import com.facebook.buck.json.BuildFileSyntaxError;
 import com.facebook.buck.parser.api.BuildFileManifest;
-import com.facebook.buck.parser.api.ImmutableBuildFileManifest;
 import com.facebook.buck.parser.api.ProjectBuildFileParser;
 import com.facebook.buck.parser.events.ParseBuckFileEvent;
 import com.facebook.buck.parser.events.ParseBuckProfilerReportEvent;
 import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.parser.implicit.PackageImplicitIncludesFinder;
 import com.facebook.buck.parser.options.ProjectBuildFileParserOptions;
-import com.facebook.buck.parser.syntax.ImmutableListWithSelects;
-import com.facebook.buck.parser.syntax.ImmutableSelectorValue;
-import com.facebook.buck.parser.syntax.SelectorValue;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.skylark.io.GlobSpecWithResult;
 import com.facebook.buck.util.InputStreamConsumer;
@@ -49,6 +44,8 @@ import com.facebook.buck.util.MoreSuppliers;
 import com.facebook.buck.util.MoreThrowables;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.util.ProcessHelper;
+import com.facebook.buck.util.ProcessResourceConsumption;
 import com.facebook.buck.util.Threads;
 import com.facebook.buck.util.concurrent.AssertScopeExclusiveAccess;
 import com.facebook.buck.util.json.ObjectMappers;
@@ -63,15 +60,15 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.io.CountingInputStream;
-import com.google.devtools.build.lib.syntax.Runtime;
+import com.sun.management.ThreadMXBean;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -79,6 +76,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -430,7 +428,8 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
             buildFile, ParseBuckFileEvent.ParserKind.PYTHON_DSL, this.getClass());
     buckEventBus.post(parseBuckFileStarted);
 
-    ImmutableList<Map<String, Object>> values = ImmutableList.of();
+    long allocatedBytesBefore = getCurrentThreadAllocatedBytes();
+    int rulesCount = 0;
     Optional<String> profile = Optional.empty();
     try (AssertScopeExclusiveAccess.Scope scope = assertSingleThreadedParsing.scope()) {
       Path cellPath = options.getProjectRoot().toAbsolutePath();
@@ -444,48 +443,53 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
         }
       }
       currentBuildFile.set(buildFile);
-      BuildFilePythonResult resultObject =
-          performJsonRequest(
-              ImmutableMap.of(
-                  "buildFile",
-                  buildFile.toString(),
-                  "watchRoot",
-                  watchRoot,
-                  "projectPrefix",
-                  projectPrefix,
-                  "packageImplicitLoad",
-                  packageImplicitIncludeFinder.findIncludeForBuildFile(getBasePath(buildFile))));
+      sendJsonRequest(
+          ImmutableMap.of(
+              "buildFile",
+              buildFile.toString(),
+              "watchRoot",
+              watchRoot,
+              "projectPrefix",
+              projectPrefix,
+              "packageImplicitLoad",
+              packageImplicitIncludeFinder.findIncludeForBuildFile(getBasePath(buildFile))));
+      BuildFilePythonManifestDecoder.Result result =
+          BuildFilePythonManifestDecoder.decode(Objects.requireNonNull(buckPyProcessJsonParser));
       Path buckPyPath = getPathToBuckPy(options.getDescriptions());
-      handleDiagnostics(
-          buildFile, buckPyPath.getParent(), resultObject.getDiagnostics(), buckEventBus);
-      values = resultObject.getValues();
+      handleDiagnostics(buildFile, buckPyPath.getParent(), result.getDiagnostics(), buckEventBus);
+      rulesCount = result.getRuleCount();
 
-      LOG.verbose("Got rules: %s", values);
-      LOG.verbose("Parsed %d rules from %s", values.size(), buildFile);
-      profile = resultObject.getProfile();
+      LOG.verbose("Got rules: %s", result.getManifest().getTargets());
+      LOG.verbose("Parsed %d rules from %s", rulesCount, buildFile);
+      profile = result.getProfile();
       if (profile.isPresent()) {
         LOG.debug("Profile result:\n%s", profile.get());
       }
-      if (values.isEmpty()) {
-        // in case Python process cannot send values due to serialization issues, it will send an
-        // empty list
-        return ImmutableBuildFileManifest.of(
-            ImmutableMap.of(),
-            ImmutableSortedSet.of(),
-            ImmutableMap.of(),
-            Optional.empty(),
-            ImmutableList.of(),
-            ImmutableList.of());
-      }
-      return toBuildFileManifest(values);
+      return result.getManifest();
     } finally {
       long parsedBytes = buckPyProcessInput.getCount() - alreadyReadBytes;
       processedBytes.ifPresent(processedBytes -> processedBytes.addAndGet(parsedBytes));
+      long allocatedBytes =
+          allocatedBytesBefore < 0 ? 0 : getCurrentThreadAllocatedBytes() - allocatedBytesBefore;
       buckEventBus.post(
-          ParseBuckFileEvent.finished(parseBuckFileStarted, values.size(), parsedBytes, profile));
+          ParseBuckFileEvent.finished(
+              parseBuckFileStarted, rulesCount, parsedBytes, allocatedBytes, profile));
     }
   }
 
+  /**
+   * @return the number of bytes allocated by the current thread so far, or -1 if the JVM doesn't
+   *     track it.
+   */
+  private static long getCurrentThreadAllocatedBytes() {
+    Object bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof ThreadMXBean)
+        || !((ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+      return -1;
+    }
+    return ((ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
   /**
    * @return The path of the provided {@code buildFile}. For example, for {@code
    *     /Users/foo/repo/src/bar/BUCK}, where {@code /Users/foo/repo} is the path to the repo, it
@@ -495,111 +499,7 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
     return MorePaths.getParentOrEmpty(MorePaths.relativize(options.getProjectRoot(), buildFile));
   }
 
-  @SuppressWarnings("unchecked")
-  private BuildFileManifest toBuildFileManifest(ImmutableList<Map<String, Object>> values) {
-    return ImmutableBuildFileManifest.of(
-        indexTargetsByName(values.subList(0, values.size() - 3).asList()),
-        ImmutableSortedSet.copyOf(
-            Objects.requireNonNull(
-                (List<String>) values.get(values.size() - 3).get(MetaRules.INCLUDES))),
-        Objects.requireNonNull(
-            (Map<String, Object>) values.get(values.size() - 2).get(MetaRules.CONFIGS)),
-        Optional.of(
-            ImmutableMap.copyOf(
-                Maps.transformValues(
-                    Objects.requireNonNull(
-                        (Map<String, String>) values.get(values.size() - 1).get(MetaRules.ENV)),
-                    Optional::ofNullable))),
-        ImmutableList.of(),
-        ImmutableList.of());
-  }
-
-  private static ImmutableMap<String, ImmutableMap<String, Object>> indexTargetsByName(
-      ImmutableList<Map<String, Object>> targets) {
-    ImmutableMap.Builder<String, ImmutableMap<String, Object>> builder =
-        ImmutableMap.builderWithExpectedSize(targets.size());
-    targets.forEach(
-        target -> builder.put((String) target.get("name"), convertSelectableAttributes(target)));
-    return builder.build();
-  }
-
-  private static ImmutableMap<String, Object> convertSelectableAttributes(
-      Map<String, Object> values) {
-    return values.entrySet().stream()
-        .collect(
-            ImmutableMap.toImmutableMap(
-                Map.Entry::getKey,
-                e ->
-                    PythonDslProjectBuildFileParser.convertToSelectableAttributeIfNeeded(
-                        e.getValue())));
-  }
-
-  /**
-   * When the given object if a map and it contains specific keys it's transformed in either a
-   * {@link com.facebook.buck.parser.syntax.ListWithSelects} or {@link
-   * com.facebook.buck.parser.syntax.SelectorValue}. This conversion is used to pass objects in JSON
-   * data.
-   *
-   * <p>The map may contain the following keys:
-   *
-   * <ul>
-   *   <li>{@code @type} - indicates the type of the object (either "SelectorList" or
-   *       "SelectorValue").
-   *   <li>{@code conditions} - contains a map of conditions for "SelectorList".
-   *   <li>{@code no_match_message} - contains a no match message for "SelectorList".
-   *   <li>{@code items} - contains a list of items for "SelectorValue".
-   * </ul>
-   */
-  @SuppressWarnings("unchecked")
-  private static Object convertToSelectableAttributeIfNeeded(Object value) {
-    if (!(value instanceof Map)) {
-      return value;
-    }
-    Map<String, Object> attributeValue = (Map<String, Object>) value;
-    String type = (String) attributeValue.get("@type");
-    if (type == null) {
-      return attributeValue;
-    }
-    if ("SelectorValue".equals(type)) {
-      Map<String, Object> conditions =
-          (Map<String, Object>) Objects.requireNonNull(attributeValue.get("conditions"));
-      Map<String, Object> convertedConditions =
-          Maps.transformValues(conditions, v -> v == null ? Runtime.NONE : v);
-      return ImmutableSelectorValue.of(
-          convertedConditions, Objects.toString(attributeValue.get("no_match_message"), ""));
-    } else {
-      Preconditions.checkState("SelectorList".equals(type));
-      List<Object> items = (List<Object>) Objects.requireNonNull(attributeValue.get("items"));
-      ImmutableList<Object> convertedElements = convertToSelectableAttributesIfNeeded(items);
-      return ImmutableListWithSelects.of(
-          convertedElements, getType(Iterables.getLast(convertedElements)));
-    }
-  }
-
-  private static ImmutableList<Object> convertToSelectableAttributesIfNeeded(
-      List<Object> attributes) {
-    ImmutableList.Builder<Object> convertedAttributes =
-        ImmutableList.builderWithExpectedSize(attributes.size());
-    for (Object attribute : attributes) {
-      convertedAttributes.add(
-          PythonDslProjectBuildFileParser.convertToSelectableAttributeIfNeeded(attribute));
-    }
-    return convertedAttributes.build();
-  }
-
-  private static Class<?> getType(Object object) {
-    if (object instanceof SelectorValue) {
-      return getType(
-          Objects.requireNonNull(
-                  Iterables.getFirst(((SelectorValue) object).getDictionary().entrySet(), null))
-              .getValue());
-    } else {
-      return object.getClass();
-    }
-  }
-
-  private BuildFilePythonResult performJsonRequest(ImmutableMap<String, Object> request)
-      throws IOException {
+  private void sendJsonRequest(ImmutableMap<String, Object> request) throws IOException {
     Objects.requireNonNull(request);
     Objects.requireNonNull(buckPyProcessJsonGenerator);
     buckPyProcessJsonGenerator.writeObject(request);
@@ -626,7 +526,6 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
       LOG.verbose(
           "Parsing output of buck.py for %s...", request.getOrDefault("buildFile", "[unknown]"));
     }
-    return buckPyProcessJsonParser.readValueAs(BuildFilePythonResult.class);
   }
 
   private static void handleDiagnostics(
@@ -830,15 +729,34 @@ public class PythonDslProjectBuildFileParser implements ProjectBuildFileParser {
 
   @Override
   public void reportProfile() throws IOException {
-    BuildFilePythonResult resultObject =
-        performJsonRequest(ImmutableMap.of("command", "report_profile"));
-    Optional<String> profile = resultObject.getProfile();
+    sendJsonRequest(ImmutableMap.of("command", "report_profile"));
+    Optional<String> profile =
+        BuildFilePythonManifestDecoder.decode(Objects.requireNonNull(buckPyProcessJsonParser))
+            .getProfile();
     if (profile.isPresent()) {
       LOG.debug("buck parser profiler trace available");
       buckEventBus.post(ParseBuckProfilerReportEvent.profilerReport(profile.get()));
     }
   }
 
+  @Override
+  public OptionalLong getProcessMemoryBytes() {
+    ProcessExecutor.LaunchedProcess process = buckPyProcess;
+    if (!(process instanceof ProcessExecutor.LaunchedProcessImpl)) {
+      return OptionalLong.empty();
+    }
+    ProcessHelper processHelper = ProcessHelper.getInstance();
+    Long pid = processHelper.getPid(((ProcessExecutor.LaunchedProcessImpl) process).process);
+    if (pid == null) {
+      return OptionalLong.empty();
+    }
+    ProcessResourceConsumption resourceConsumption =
+        processHelper.getProcessResourceConsumption(pid);
+    return resourceConsumption == null
+        ? OptionalLong.empty()
+        : OptionalLong.of(resourceConsumption.getMemResident());
+  }
+
   @Override
   public ImmutableSortedSet<String> getIncludedFiles(Path buildFile)
       throws BuildFileParseException, InterruptedException {
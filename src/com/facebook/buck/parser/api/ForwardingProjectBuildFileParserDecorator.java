@@ -22,6 +22,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedSet;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.OptionalLong;
 
 /**
  * A convenience decorator for {@link ProjectBuildFileParser} that forwards all method invocation to
@@ -49,6 +50,11 @@ public abstract class ForwardingProjectBuildFileParserDecorator implements Proje
     delegate.reportProfile();
   }
 
+  @Override
+  public OptionalLong getProcessMemoryBytes() {
+    return delegate.getProcessMemoryBytes();
+  }
+
   @Override
   public ImmutableSortedSet<String> getIncludedFiles(Path buildFile)
       throws BuildFileParseException, InterruptedException, IOException {
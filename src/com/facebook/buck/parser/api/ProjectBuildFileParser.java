@@ -20,6 +20,7 @@ import com.facebook.buck.skylark.io.GlobSpecWithResult;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.OptionalLong;
 
 /** Parses buck build files (usually BUCK files) and retrieve rule information from them. */
 public interface ProjectBuildFileParser extends FileParser<BuildFileManifest> {
@@ -27,6 +28,14 @@ public interface ProjectBuildFileParser extends FileParser<BuildFileManifest> {
   /** Reports profile information captured while parsing build files. */
   void reportProfile() throws IOException;
 
+  /**
+   * @return the resident memory of the interpreter process backing this parser, or empty if the
+   *     parser does not run in a separate process or its memory cannot be measured.
+   */
+  default OptionalLong getProcessMemoryBytes() {
+    return OptionalLong.empty();
+  }
+
   /**
    * Checks if existing {@code GlobSpec}s with results are the same as current state in the file
    * system.
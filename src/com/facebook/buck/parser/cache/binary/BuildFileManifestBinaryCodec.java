@@ -0,0 +1,609 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser.cache.binary;
+
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.ImmutableBuildFileManifest;
+import com.facebook.buck.parser.exceptions.ImmutableParsingError;
+import com.facebook.buck.parser.exceptions.ParsingError;
+import com.facebook.buck.parser.syntax.ImmutableListWithSelects;
+import com.facebook.buck.parser.syntax.ImmutableSelectorValue;
+import com.facebook.buck.parser.syntax.ListWithSelects;
+import com.facebook.buck.parser.syntax.SelectorValue;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * Compact binary encoding of {@link BuildFileManifest}.
+ *
+ * <p>Every string is written once: the first occurrence is written in full and added to a string
+ * table, later occurrences are written as an index into that table. Attribute names, rule types,
+ * visibility patterns and dependencies repeat across the targets of a package, so this keeps the
+ * encoding small, and decoded manifests share a single instance of each string. Numbers are
+ * variable-length encoded, and attribute values carry a one-byte tag instead of class names.
+ *
+ * <p>Attribute values of types without a tag are written as JSON with type information, the way
+ * whole manifests used to be written.
+ */
+public final class BuildFileManifestBinaryCodec {
+
+  private static final byte[] MAGIC = {(byte) 0xB0, 'B', 'F', 'M'};
+
+  /** Version of the encoding, to be bumped whenever the encoding changes. */
+  public static final byte VERSION = 1;
+
+  private static final byte NULL = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+  private static final byte INT = 3;
+  private static final byte LONG = 4;
+  private static final byte DOUBLE = 5;
+  private static final byte STRING = 6;
+  private static final byte LIST = 7;
+  private static final byte SET = 8;
+  private static final byte SORTED_SET = 9;
+  private static final byte MAP = 10;
+  private static final byte SORTED_MAP = 11;
+  private static final byte OPTIONAL_EMPTY = 12;
+  private static final byte OPTIONAL = 13;
+  private static final byte SELECTOR_VALUE = 14;
+  private static final byte LIST_WITH_SELECTS = 15;
+  private static final byte JSON = 16;
+
+  private BuildFileManifestBinaryCodec() {}
+
+  /** @return whether {@code bytes} hold a manifest written by {@link #encode}. */
+  public static boolean isEncoded(byte[] bytes) {
+    if (bytes.length < MAGIC.length) {
+      return false;
+    }
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (bytes[i] != MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Encodes {@code manifest}. */
+  public static byte[] encode(BuildFileManifest manifest) throws IOException {
+    Writer writer = new Writer();
+    writer.writeBytes(MAGIC);
+    writer.writeByte(VERSION);
+
+    writer.writeVarInt(manifest.getTargets().size());
+    for (Map.Entry<String, ImmutableMap<String, Object>> target :
+        manifest.getTargets().entrySet()) {
+      writer.writeString(target.getKey());
+      writer.writeVarInt(target.getValue().size());
+      for (Map.Entry<String, Object> attribute : target.getValue().entrySet()) {
+        writer.writeString(attribute.getKey());
+        writer.writeValue(attribute.getValue());
+      }
+    }
+
+    writer.writeStrings(manifest.getIncludes());
+
+    writer.writeVarInt(manifest.getConfigs().size());
+    for (Map.Entry<String, Object> config : manifest.getConfigs().entrySet()) {
+      writer.writeString(config.getKey());
+      writer.writeValue(config.getValue());
+    }
+
+    Optional<ImmutableMap<String, Optional<String>>> env = manifest.getEnv();
+    writer.writeBoolean(env.isPresent());
+    if (env.isPresent()) {
+      writer.writeVarInt(env.get().size());
+      for (Map.Entry<String, Optional<String>> variable : env.get().entrySet()) {
+        writer.writeString(variable.getKey());
+        writer.writeBoolean(variable.getValue().isPresent());
+        if (variable.getValue().isPresent()) {
+          writer.writeString(variable.getValue().get());
+        }
+      }
+    }
+
+    writer.writeVarInt(manifest.getGlobManifest().size());
+    for (GlobSpecWithResult glob : manifest.getGlobManifest()) {
+      writer.writeStrings(glob.getGlobSpec().getInclude());
+      writer.writeStrings(glob.getGlobSpec().getExclude());
+      writer.writeBoolean(glob.getGlobSpec().getExcludeDirectories());
+      writer.writeStrings(glob.getFilePaths());
+    }
+
+    writer.writeVarInt(manifest.getErrors().size());
+    for (ParsingError error : manifest.getErrors()) {
+      writer.writeString(error.getMessage());
+      writer.writeStrings(error.getStackTrace());
+    }
+
+    return writer.toByteArray();
+  }
+
+  /** Decodes a manifest written by {@link #encode}, of the current {@link #VERSION}. */
+  public static BuildFileManifest decode(byte[] bytes) throws IOException {
+    Reader reader = new Reader(bytes, MAGIC.length);
+    byte version = reader.readByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported build file manifest version " + version);
+    }
+
+    int targetCount = reader.readVarInt();
+    ImmutableMap.Builder<String, ImmutableMap<String, Object>> targets =
+        ImmutableMap.builderWithExpectedSize(targetCount);
+    for (int i = 0; i < targetCount; i++) {
+      String name = reader.readString();
+      int attributeCount = reader.readVarInt();
+      ImmutableMap.Builder<String, Object> attributes =
+          ImmutableMap.builderWithExpectedSize(attributeCount);
+      for (int j = 0; j < attributeCount; j++) {
+        attributes.put(reader.readString(), reader.readValue());
+      }
+      targets.put(name, attributes.build());
+    }
+
+    ImmutableSortedSet<String> includes = ImmutableSortedSet.copyOf(reader.readStrings());
+
+    int configCount = reader.readVarInt();
+    ImmutableMap.Builder<String, Object> configs = ImmutableMap.builderWithExpectedSize(configCount);
+    for (int i = 0; i < configCount; i++) {
+      configs.put(reader.readString(), reader.readValue());
+    }
+
+    Optional<ImmutableMap<String, Optional<String>>> env = Optional.empty();
+    if (reader.readBoolean()) {
+      int variableCount = reader.readVarInt();
+      ImmutableMap.Builder<String, Optional<String>> variables =
+          ImmutableMap.builderWithExpectedSize(variableCount);
+      for (int i = 0; i < variableCount; i++) {
+        String name = reader.readString();
+        variables.put(
+            name, reader.readBoolean() ? Optional.of(reader.readString()) : Optional.empty());
+      }
+      env = Optional.of(variables.build());
+    }
+
+    int globCount = reader.readVarInt();
+    ImmutableList.Builder<GlobSpecWithResult> globs = ImmutableList.builderWithExpectedSize(globCount);
+    for (int i = 0; i < globCount; i++) {
+      GlobSpec globSpec =
+          GlobSpec.builder()
+              .setInclude(reader.readStrings())
+              .setExclude(reader.readStrings())
+              .setExcludeDirectories(reader.readBoolean())
+              .build();
+      globs.add(GlobSpecWithResult.of(globSpec, ImmutableSet.copyOf(reader.readStrings())));
+    }
+
+    int errorCount = reader.readVarInt();
+    ImmutableList.Builder<ParsingError> errors = ImmutableList.builderWithExpectedSize(errorCount);
+    for (int i = 0; i < errorCount; i++) {
+      errors.add(ImmutableParsingError.of(reader.readString(), reader.readStrings()));
+    }
+
+    return ImmutableBuildFileManifest.of(
+        targets.build(), includes, configs.build(), env, globs.build(), errors.build());
+  }
+
+  private static boolean isNaturalOrder(Comparator<?> comparator) {
+    return comparator == null
+        || comparator.equals(Ordering.natural())
+        || comparator.equals(Comparator.naturalOrder());
+  }
+
+  /** Appends the encoding to a growing buffer. */
+  private static class Writer {
+    private final Map<String, Integer> stringTable = new HashMap<>();
+    private byte[] buffer = new byte[4096];
+    private int size = 0;
+
+    private void ensureCapacity(int extra) {
+      if (size + extra > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+      }
+    }
+
+    void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[size++] = (byte) value;
+    }
+
+    void writeBytes(byte[] bytes) {
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, size, bytes.length);
+      size += bytes.length;
+    }
+
+    void writeBoolean(boolean value) {
+      writeByte(value ? 1 : 0);
+    }
+
+    void writeVarInt(int value) {
+      writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    void writeVarLong(long value) {
+      ensureCapacity(10);
+      while ((value & ~0x7FL) != 0) {
+        buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[size++] = (byte) value;
+    }
+
+    /** Writes a reference to the string table, adding {@code value} to it on first use. */
+    void writeString(String value) {
+      Integer index = stringTable.get(value);
+      if (index != null) {
+        writeVarInt(index + 1);
+        return;
+      }
+      stringTable.put(value, stringTable.size());
+      writeVarInt(0);
+      int length = value.length();
+      if (isAscii(value)) {
+        // Most strings in build files are ASCII, which can be copied without encoding.
+        writeVarInt(length);
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+          buffer[size++] = (byte) value.charAt(i);
+        }
+      } else {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        writeBytes(bytes);
+      }
+    }
+
+    private static boolean isAscii(String value) {
+      for (int i = 0; i < value.length(); i++) {
+        if (value.charAt(i) >= 0x80) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void writeStrings(Collection<String> values) {
+      writeVarInt(values.size());
+      for (String value : values) {
+        writeString(value);
+      }
+    }
+
+    void writeValue(Object value) throws IOException {
+      if (value == null) {
+        writeByte(NULL);
+      } else if (value instanceof String) {
+        writeByte(STRING);
+        writeString((String) value);
+      } else if (value instanceof Boolean) {
+        writeByte((Boolean) value ? TRUE : FALSE);
+      } else if (value instanceof Integer) {
+        writeByte(INT);
+        int number = (Integer) value;
+        writeVarInt((number << 1) ^ (number >> 31));
+      } else if (value instanceof Long) {
+        writeByte(LONG);
+        long number = (Long) value;
+        writeVarLong((number << 1) ^ (number >> 63));
+      } else if (value instanceof Double) {
+        writeByte(DOUBLE);
+        long bits = Double.doubleToRawLongBits((Double) value);
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+          buffer[size++] = (byte) (bits >>> shift);
+        }
+      } else if (value instanceof List) {
+        writeByte(LIST);
+        writeValues((List<?>) value);
+      } else if (value instanceof SortedSet
+          && isNaturalOrder(((SortedSet<?>) value).comparator())) {
+        writeByte(SORTED_SET);
+        writeValues((Set<?>) value);
+      } else if (value instanceof Set) {
+        writeByte(SET);
+        writeValues((Set<?>) value);
+      } else if (value instanceof SortedMap
+          && isNaturalOrder(((SortedMap<?, ?>) value).comparator())) {
+        writeByte(SORTED_MAP);
+        writeMap((Map<?, ?>) value);
+      } else if (value instanceof Map) {
+        writeByte(MAP);
+        writeMap((Map<?, ?>) value);
+      } else if (value instanceof Optional) {
+        Optional<?> optional = (Optional<?>) value;
+        if (optional.isPresent()) {
+          writeByte(OPTIONAL);
+          writeValue(optional.get());
+        } else {
+          writeByte(OPTIONAL_EMPTY);
+        }
+      } else if (value instanceof SelectorValue) {
+        SelectorValue selectorValue = (SelectorValue) value;
+        writeByte(SELECTOR_VALUE);
+        writeMap(selectorValue.getDictionary());
+        writeString(selectorValue.getNoMatchError());
+      } else if (value instanceof ListWithSelects) {
+        ListWithSelects listWithSelects = (ListWithSelects) value;
+        writeByte(LIST_WITH_SELECTS);
+        writeValues(listWithSelects.getElements());
+        writeString(listWithSelects.getType().getName());
+      } else {
+        writeByte(JSON);
+        byte[] json = ObjectMappers.WRITER_WITH_TYPE.forType(Object.class).writeValueAsBytes(value);
+        writeVarInt(json.length);
+        writeBytes(json);
+      }
+    }
+
+    private void writeValues(Collection<?> values) throws IOException {
+      writeVarInt(values.size());
+      for (Object value : values) {
+        writeValue(value);
+      }
+    }
+
+    private void writeMap(Map<?, ?> map) throws IOException {
+      writeVarInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeValue(entry.getKey());
+        writeValue(entry.getValue());
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, size);
+    }
+  }
+
+  /** Reads the encoding from a byte array. */
+  private static class Reader {
+    private final List<String> stringTable = new ArrayList<>();
+    private final byte[] buffer;
+    private int position;
+
+    Reader(byte[] buffer, int position) {
+      this.buffer = buffer;
+      this.position = position;
+    }
+
+    byte readByte() throws IOException {
+      if (position >= buffer.length) {
+        throw new IOException("Unexpected end of build file manifest");
+      }
+      return buffer[position++];
+    }
+
+    boolean readBoolean() throws IOException {
+      return readByte() != 0;
+    }
+
+    int readVarInt() throws IOException {
+      return (int) readVarLong();
+    }
+
+    long readVarLong() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Malformed variable-length number in build file manifest");
+    }
+
+    private int readLength() throws IOException {
+      int length = readVarInt();
+      if (length < 0 || length > buffer.length - position) {
+        throw new IOException("Invalid length in build file manifest: " + length);
+      }
+      return length;
+    }
+
+    String readString() throws IOException {
+      int reference = readVarInt();
+      if (reference != 0) {
+        if (reference < 0 || reference > stringTable.size()) {
+          throw new IOException("Invalid string reference in build file manifest: " + reference);
+        }
+        return stringTable.get(reference - 1);
+      }
+      int length = readLength();
+      String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+      position += length;
+      stringTable.add(value);
+      return value;
+    }
+
+    ImmutableList<String> readStrings() throws IOException {
+      int count = readVarInt();
+      ImmutableList.Builder<String> values = ImmutableList.builderWithExpectedSize(count);
+      for (int i = 0; i < count; i++) {
+        values.add(readString());
+      }
+      return values.build();
+    }
+
+    Object readValue() throws IOException {
+      byte tag = readByte();
+      switch (tag) {
+        case NULL:
+          return null;
+        case FALSE:
+          return false;
+        case TRUE:
+          return true;
+        case INT:
+          {
+            int number = readVarInt();
+            return (number >>> 1) ^ -(number & 1);
+          }
+        case LONG:
+          {
+            long number = readVarLong();
+            return (number >>> 1) ^ -(number & 1);
+          }
+        case DOUBLE:
+          {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+              bits = (bits << 8) | (readByte() & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+          }
+        case STRING:
+          return readString();
+        case LIST:
+          return readList();
+        case SET:
+          {
+            Object[] elements = readValues();
+            return containsNull(elements)
+                ? Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(elements)))
+                : ImmutableSet.copyOf(elements);
+          }
+        case SORTED_SET:
+          return readSortedSet();
+        case MAP:
+          return readMap();
+        case SORTED_MAP:
+          return readSortedMap();
+        case OPTIONAL_EMPTY:
+          return Optional.empty();
+        case OPTIONAL:
+          return Optional.of(readValue());
+        case SELECTOR_VALUE:
+          {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> dictionary = (Map<String, Object>) (Map<?, ?>) readMap();
+            return ImmutableSelectorValue.of(dictionary, readString());
+          }
+        case LIST_WITH_SELECTS:
+          {
+            ImmutableList<Object> elements = ImmutableList.copyOf(readValues());
+            String typeName = readString();
+            try {
+              return ImmutableListWithSelects.of(elements, Class.forName(typeName));
+            } catch (ClassNotFoundException e) {
+              throw new IOException("Unknown type of list with selects: " + typeName, e);
+            }
+          }
+        case JSON:
+          {
+            int length = readLength();
+            Object value =
+                ObjectMappers.READER_WITH_TYPE
+                    .forType(Object.class)
+                    .readValue(buffer, position, length);
+            position += length;
+            return value;
+          }
+        default:
+          throw new IOException("Unknown value tag in build file manifest: " + tag);
+      }
+    }
+
+    private Object[] readValues() throws IOException {
+      int count = readLength();
+      Object[] values = new Object[count];
+      for (int i = 0; i < count; i++) {
+        values[i] = readValue();
+      }
+      return values;
+    }
+
+    private static boolean containsNull(Object[] values) {
+      for (Object value : values) {
+        if (value == null) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private List<Object> readList() throws IOException {
+      Object[] elements = readValues();
+      return containsNull(elements)
+          ? Collections.unmodifiableList(Arrays.asList(elements))
+          : ImmutableList.copyOf(elements);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Set<Object> readSortedSet() throws IOException {
+      return ImmutableSortedSet.copyOf((Comparator) Ordering.natural(), Arrays.asList(readValues()));
+    }
+
+    private Map<Object, Object> readMap() throws IOException {
+      int count = readLength();
+      Object[] keys = new Object[count];
+      Object[] values = new Object[count];
+      for (int i = 0; i < count; i++) {
+        keys[i] = readValue();
+        values[i] = readValue();
+      }
+      if (containsNull(keys) || containsNull(values)) {
+        Map<Object, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+          map.put(keys[i], values[i]);
+        }
+        return Collections.unmodifiableMap(map);
+      }
+      ImmutableMap.Builder<Object, Object> map = ImmutableMap.builderWithExpectedSize(count);
+      for (int i = 0; i < count; i++) {
+        map.put(keys[i], values[i]);
+      }
+      return map.build();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Map<Object, Object> readSortedMap() throws IOException {
+      ImmutableSortedMap.Builder<Object, Object> map =
+          new ImmutableSortedMap.Builder<>((Comparator) Ordering.natural());
+      int count = readLength();
+      for (int i = 0; i < count; i++) {
+        map.put(readValue(), readValue());
+      }
+      return map.build();
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.facebook.buck.parser.cache.impl;
 
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.parser.cache.json.BuildFileManifestSerializer;
 import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.config.Config;
 import com.facebook.buck.util.environment.Architecture;
@@ -41,7 +42,8 @@ import java.nio.file.Path;
  * that is associated with the cell currently being built. The weak fingerprint maps to a set of
  * strong fingerprints that are relevant. Examples of entries that are currently included into a
  * weak fingerprint are the buck configuration environment, the name of the build file associated
- * with the cell object being built, platform and architecture for which the build is performed.
+ * with the cell object being built, platform and architecture for which the build is performed,
+ * and the version of the format cached manifests are serialized in.
  *
  * <p>The strong fingerprint is used to narrow a specific version of the pre-parsed serialized
  * objects - it adds another level of lookup rules that point to a specific match of the current
@@ -73,6 +75,8 @@ public final class Fingerprinter {
         .putBytes(config.getOrderIndependentHashCode().asBytes())
         .putString(Platform.detect().name(), StandardCharsets.UTF_8)
         .putString(Architecture.detect().name(), StandardCharsets.UTF_8)
+        // Manifests are shared with other versions of buck through remote caches.
+        .putInt(BuildFileManifestSerializer.FORMAT_VERSION)
         .hash();
   }
 
@@ -18,16 +18,25 @@ package com.facebook.buck.parser.cache.json;
 
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.api.ImmutableBuildFileManifest;
+import com.facebook.buck.parser.cache.binary.BuildFileManifestBinaryCodec;
 import com.facebook.buck.util.json.ObjectMappers;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import java.io.IOException;
 
 /**
  * This class serializes the {@link BuildFileManifest} to a form that can be stored and read from
  * disk.
+ *
+ * <p>Manifests are written in the binary format of {@link BuildFileManifestBinaryCodec}. Manifests
+ * written as JSON by earlier versions can still be read.
  */
 public class BuildFileManifestSerializer {
 
+  /**
+   * Version of the format manifests are serialized in. Caches shared with other versions of buck
+   * must key their entries by it, as those may not be able to read manifests in this format.
+   */
+  public static final int FORMAT_VERSION = BuildFileManifestBinaryCodec.VERSION;
+
   private BuildFileManifestSerializer() {}
 
   /**
@@ -35,10 +44,10 @@ public class BuildFileManifestSerializer {
    *
    * @param buildFileManifest the instance of {@link BuildFileManifest} to be serialized.
    * @return a byte array with the serialized manifest.
-   * @throws JsonProcessingException
+   * @throws IOException
    */
   public static byte[] serialize(BuildFileManifest buildFileManifest) throws IOException {
-    return ObjectMappers.WRITER_WITH_TYPE.writeValueAsBytes(buildFileManifest);
+    return BuildFileManifestBinaryCodec.encode(buildFileManifest);
   }
 
   /**
@@ -50,6 +59,9 @@ public class BuildFileManifestSerializer {
    * @throws IOException
    */
   public static BuildFileManifest deserialize(byte[] buildFileManifestBytes) throws IOException {
+    if (BuildFileManifestBinaryCodec.isEncoded(buildFileManifestBytes)) {
+      return BuildFileManifestBinaryCodec.decode(buildFileManifestBytes);
+    }
     return ObjectMappers.READER_WITH_TYPE
         .forType(ImmutableBuildFileManifest.class)
         .readValue(buildFileManifestBytes);
@@ -244,6 +244,19 @@ public abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
     return getDelegate().getValue("parser", "python_path");
   }
 
+  /**
+   * Returns the resident memory above which a Python DSL parser process is replaced by a new one,
+   * as specified in megabytes by the 'python_parser_max_memory_mb' key of the 'parser' section.
+   * When set, it also limits the number of parser processes to what fits in half of the physical
+   * memory.
+   */
+  @Value.Lazy
+  public Optional<Long> getPythonParserMaxMemoryBytes() {
+    return getDelegate()
+        .getLong("parser", "python_parser_max_memory_mb")
+        .map(megabytes -> megabytes * 1024 * 1024);
+  }
+
   /**
    * @return boolean flag indicating whether support for parsing build files using non default
    *     syntax (currently Python DSL).
@@ -280,6 +293,23 @@ public abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
     return getDelegate().getBooleanValue("parser", "warn_about_deprecated_syntax", true);
   }
 
+  /**
+   * @return whether the daemon should persist the build file manifests it caches across restarts.
+   */
+  @Value.Lazy
+  public boolean getParserStatePersistence() {
+    return getDelegate().getBooleanValue("parser", "state_persistence", false);
+  }
+
+  /**
+   * @return whether the daemon should keep the results of the globs of Skylark build files, so that
+   *     reparsing a package whose files were not added or removed doesn't evaluate them again.
+   */
+  @Value.Lazy
+  public boolean isDaemonGlobCacheEnabled() {
+    return getDelegate().getBooleanValue("parser", "daemon_glob_cache", true);
+  }
+
   /** @return the type of the glob handler used by the Skylark parser. */
   @Value.Lazy
   public SkylarkGlobHandler getSkylarkGlobHandler() {
@@ -74,7 +74,26 @@ public abstract class ParseBuckFileEvent extends AbstractBuckEvent implements Wo
    */
   public static Finished finished(
       Started started, int rulesCount, long processedBytes, Optional<String> profile) {
-    return new Finished(started, rulesCount, processedBytes, profile);
+    return new Finished(started, rulesCount, processedBytes, 0, profile);
+  }
+
+  /**
+   * Create an event when parsing of build file finishes
+   *
+   * @param started Event created when corresponding build file parsing was started
+   * @param rulesCount Total number of rules parsed from this build file
+   * @param processedBytes Total number of bytes read while parsing this build file, if applicable
+   * @param allocatedBytes Number of bytes allocated on the parsing thread while parsing this build
+   *     file, or 0 if not measured
+   * @param profile This is the value of getProfile() from PythonDSL parser result.
+   */
+  public static Finished finished(
+      Started started,
+      int rulesCount,
+      long processedBytes,
+      long allocatedBytes,
+      Optional<String> profile) {
+    return new Finished(started, rulesCount, processedBytes, allocatedBytes, profile);
   }
 
   /** The event raised when build file parsing is started */
@@ -102,14 +121,20 @@ public abstract class ParseBuckFileEvent extends AbstractBuckEvent implements Wo
   public static class Finished extends ParseBuckFileEvent {
     private final int rulesCount;
     private final long processedBytes;
+    private final long allocatedBytes;
     private final Optional<String> profile;
     private final ParserKind parserKind;
 
     protected Finished(
-        Started started, int rulesCount, long processedBytes, Optional<String> profile) {
+        Started started,
+        int rulesCount,
+        long processedBytes,
+        long allocatedBytes,
+        Optional<String> profile) {
       super(started.getEventKey(), started.getBuckFilePath(), started.getParserClass());
       this.rulesCount = rulesCount;
       this.processedBytes = processedBytes;
+      this.allocatedBytes = allocatedBytes;
       this.profile = profile;
       this.parserKind = started.getParserKind();
     }
@@ -129,6 +154,14 @@ public abstract class ParseBuckFileEvent extends AbstractBuckEvent implements Wo
       return processedBytes;
     }
 
+    /**
+     * @return Number of bytes allocated on the parsing thread while parsing this build file, or 0
+     *     if not measured
+     */
+    public long getAllocatedBytes() {
+      return allocatedBytes;
+    }
+
     public Optional<String> getProfile() {
       return profile;
     }
@@ -102,6 +102,12 @@ abstract class AbstractRemoteExecutionConfig implements ConfigView<BuckConfig> {
    * action computations until uploads finish.
    */
   public static final String CONCURRENT_PENDING_UPLOADS_KEY = "concurrent_pending_uploads";
+  /**
+   * Number of rules waiting for their deps whose inputs may be uploaded ahead of time. Each holds
+   * the serialized form of its rule until its inputs are uploaded, which bounds the memory used by
+   * prefetching. If unset or 0, inputs are only uploaded once a rule is ready to run.
+   */
+  public static final String CONCURRENT_PREFETCHES_KEY = "concurrent_prefetches";
   /** URL format string for debug UI on the super console */
   public static final String DEBUG_FORMAT_STRING_URL_KEY = "debug_format_string_url";
   /**
@@ -135,6 +141,12 @@ abstract class AbstractRemoteExecutionConfig implements ConfigView<BuckConfig> {
   /** Input paths to ignore for actions */
   public static final String INPUT_IGNORE_KEY = "inputs_ignore";
 
+  /**
+   * Maximum number of encoded input directories to persist across builds. If unset or 0, the input
+   * merkle trees are recomputed from scratch for every build.
+   */
+  public static final String MERKLE_TREE_CACHE_MAX_ENTRIES_KEY = "merkle_tree_cache_max_entries";
+
   /**
    * Strategy used to determine whether to enable Remote Execution automatically for the current
    * build
@@ -315,6 +327,9 @@ abstract class AbstractRemoteExecutionConfig implements ConfigView<BuckConfig> {
             .getInteger(SECTION, CONCURRENT_PENDING_UPLOADS_KEY)
             .orElse(DEFAULT_REMOTE_CONCURRENT_PENDING_UPLOADS);
 
+    int concurrentPrefetches =
+        getDelegate().getInteger(SECTION, CONCURRENT_PREFETCHES_KEY).orElse(0);
+
     int concurrentExecutions =
         getDelegate()
             .getInteger(SECTION, CONCURRENT_EXECUTIONS_KEY)
@@ -367,6 +382,9 @@ abstract class AbstractRemoteExecutionConfig implements ConfigView<BuckConfig> {
     boolean tryLargerWorkerOnOom =
         getDelegate().getBoolean(SECTION, TRY_LARGER_WORKER_ON_OOM).orElse(false);
 
+    int merkleTreeCacheMaxEntries =
+        getDelegate().getInteger(SECTION, MERKLE_TREE_CACHE_MAX_ENTRIES_KEY).orElse(0);
+
     // Some of these values are also limited by other ones (e.g. synchronous work is limited by the
     // number of threads). We detect some of these cases and log an error to the user to help them
     // understand the behavior.
@@ -408,6 +426,11 @@ abstract class AbstractRemoteExecutionConfig implements ConfigView<BuckConfig> {
         return concurrentPendingUploads;
       }
 
+      @Override
+      public int getMaxConcurrentPrefetches() {
+        return concurrentPrefetches;
+      }
+
       @Override
       public int getMaxConcurrentExecutions() {
         return concurrentExecutions;
@@ -452,6 +475,11 @@ abstract class AbstractRemoteExecutionConfig implements ConfigView<BuckConfig> {
       public ImmutableSet<PathMatcher> getIgnorePaths() {
         return ignorePaths;
       }
+
+      @Override
+      public int getMerkleTreeCacheMaxEntries() {
+        return merkleTreeCacheMaxEntries;
+      }
     };
   }
 
@@ -33,6 +33,12 @@ public interface RemoteExecutionStrategyConfig {
 
   int getMaxConcurrentPendingUploads();
 
+  /**
+   * Maximum number of rules whose inputs are uploaded ahead of their deps being built, or 0 if
+   * inputs shouldn't be uploaded ahead of time.
+   */
+  int getMaxConcurrentPrefetches();
+
   boolean isLocalFallbackEnabled();
 
   boolean isLocalFallbackDisabledOnCorruptedArtifacts();
@@ -44,4 +50,10 @@ public interface RemoteExecutionStrategyConfig {
   boolean tryLargerWorkerOnOom();
 
   ImmutableSet<PathMatcher> getIgnorePaths();
+
+  /**
+   * Maximum number of encoded input directories that are persisted across builds, or 0 if they
+   * shouldn't be persisted.
+   */
+  int getMerkleTreeCacheMaxEntries();
 }
@@ -71,6 +71,16 @@ public abstract class RemoteExecutionActionEvent extends AbstractBuckEvent
     }
   }
 
+  /** How far uploading the inputs of an action ahead of time got by the time it needed them. */
+  public enum PrefetchState {
+    /** The inputs weren't uploaded ahead of time. */
+    NOT_PREFETCHED,
+    /** The inputs were still being uploaded. */
+    PREFETCHING,
+    /** The inputs were already uploaded. */
+    PREFETCHED
+  }
+
   /** Takes care of sending both Started and Finished events within a Scope. */
   public static Scope sendEvent(
       BuckEventBus eventBus, State state, BuildRule buildRule, Optional<Digest> actionDigest) {
@@ -115,6 +125,12 @@ public abstract class RemoteExecutionActionEvent extends AbstractBuckEvent
     eventBus.post(new Scheduled(buildRule));
   }
 
+  /** Sends how far prefetching got for an action which is starting to upload its inputs. */
+  public static void sendPrefetchedEvent(
+      BuckEventBus eventBus, BuildRule buildRule, PrefetchState prefetchState) {
+    eventBus.post(new Prefetched(buildRule, prefetchState));
+  }
+
   public static boolean isTerminalState(State state) {
     return state == State.ACTION_FAILED
         || state == State.ACTION_SUCCEEDED
@@ -296,6 +312,42 @@ public abstract class RemoteExecutionActionEvent extends AbstractBuckEvent
     }
   }
 
+  /**
+   * Indicates whether the inputs of an action had been uploaded before its deps were built. This is
+   * sent once for every action which starts uploading its inputs.
+   */
+  public static class Prefetched extends RemoteExecutionActionEvent {
+    private final BuildRule buildRule;
+    private final PrefetchState prefetchState;
+
+    @VisibleForTesting
+    Prefetched(BuildRule buildRule, PrefetchState prefetchState) {
+      super(EventKey.unique());
+      this.buildRule = buildRule;
+      this.prefetchState = prefetchState;
+    }
+
+    @JsonView(JsonViews.MachineReadableLog.class)
+    public PrefetchState getPrefetchState() {
+      return prefetchState;
+    }
+
+    @JsonIgnore
+    public BuildTarget getBuildTarget() {
+      return buildRule.getBuildTarget();
+    }
+
+    @JsonView(JsonViews.MachineReadableLog.class)
+    public BuildRule getBuildRule() {
+      return buildRule;
+    }
+
+    @Override
+    protected String getValueString() {
+      return prefetchState.toString();
+    }
+  }
+
   /** An action just exited from this state. */
   public static class Finished extends RemoteExecutionActionEvent {
 
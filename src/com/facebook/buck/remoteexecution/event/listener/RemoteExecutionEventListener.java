@@ -24,6 +24,7 @@ import com.facebook.buck.remoteexecution.event.LocalFallbackEvent;
 import com.facebook.buck.remoteexecution.event.LocalFallbackEvent.Result;
 import com.facebook.buck.remoteexecution.event.LocalFallbackStats;
 import com.facebook.buck.remoteexecution.event.RemoteExecutionActionEvent;
+import com.facebook.buck.remoteexecution.event.RemoteExecutionActionEvent.PrefetchState;
 import com.facebook.buck.remoteexecution.event.RemoteExecutionActionEvent.State;
 import com.facebook.buck.remoteexecution.event.RemoteExecutionStatsProvider;
 import com.facebook.buck.remoteexecution.proto.ExecutedActionInfo;
@@ -32,6 +33,7 @@ import com.google.common.collect.Maps;
 import com.google.common.eventbus.Subscribe;
 import com.google.protobuf.Duration;
 import com.google.protobuf.util.Timestamps;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
@@ -44,6 +46,7 @@ import java.util.stream.Collectors;
 public class RemoteExecutionEventListener
     implements BuckEventListener, RemoteExecutionStatsProvider {
   private final Map<State, LongAdder> actionStateCount;
+  private final Map<PrefetchState, LongAdder> prefetchStateCount;
   private final LongAdder totalBuildRules;
 
   private final LongAdder downloads;
@@ -80,6 +83,10 @@ public class RemoteExecutionEventListener
     for (State state : RemoteExecutionActionEvent.State.values()) {
       actionStateCount.put(state, new LongAdder());
     }
+    this.prefetchStateCount = new EnumMap<>(PrefetchState.class);
+    for (PrefetchState state : PrefetchState.values()) {
+      prefetchStateCount.put(state, new LongAdder());
+    }
   }
 
   /** Event specific subscriber method. */
@@ -112,6 +119,12 @@ public class RemoteExecutionEventListener
     getStateCount(State.WAITING).increment();
   }
 
+  /** Event specific subscriber method. */
+  @Subscribe
+  public void onActionPrefetched(RemoteExecutionActionEvent.Prefetched event) {
+    Objects.requireNonNull(prefetchStateCount.get(event.getPrefetchState())).increment();
+  }
+
   /** Event specific subscriber method. */
   @Subscribe
   public void onActionEventTerminal(RemoteExecutionActionEvent.Terminal event) {
@@ -257,6 +270,12 @@ public class RemoteExecutionEventListener
           Integer.toString(entry.getValue()));
     }
 
+    for (Map.Entry<PrefetchState, LongAdder> entry : prefetchStateCount.entrySet()) {
+      retval.put(
+          String.format("remote_%s_count", entry.getKey().toString().toLowerCase()),
+          entry.getValue().toString());
+    }
+
     return retval.build();
   }
 }
@@ -24,10 +24,15 @@ import com.facebook.buck.remoteexecution.interfaces.Protocol.SymlinkNode;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.TreeNode;
 import com.facebook.buck.util.types.Either;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Suppliers;
 import com.google.common.base.Verify;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Interner;
 import com.google.common.collect.Interners;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -38,6 +43,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
 /**
@@ -45,14 +51,22 @@ import javax.annotation.Nullable;
  * interned.
  *
  * <p>It also provides methods to get the {@link Protocol} encoded merkle tree data structures
- * (these values are cached once computed for a node).
+ * (these values are cached once computed for a node). If a {@link MerkleTreeNodeDataStore} is
+ * provided, the encoded data is also looked up in and added to it, so that it can be reused for
+ * identical directories after the nodes themselves have been collected.
  */
 public class MerkleTreeNodeCache {
   private final Interner<MerkleTreeNode> nodeInterner = Interners.newWeakInterner();
   private final Protocol protocol;
+  @Nullable private final MerkleTreeNodeDataStore dataStore;
 
   public MerkleTreeNodeCache(Protocol protocol) {
+    this(protocol, null);
+  }
+
+  public MerkleTreeNodeCache(Protocol protocol, @Nullable MerkleTreeNodeDataStore dataStore) {
     this.protocol = protocol;
+    this.dataStore = dataStore;
   }
 
   /**
@@ -114,11 +128,13 @@ public class MerkleTreeNodeCache {
 
   /** Gets the {@link Protocol} encoded data for the provided tree. */
   public NodeData getData(MerkleTreeNode node) {
-    return node.getData(protocol);
+    return node.getData(protocol, dataStore);
   }
 
   /** Represents a node in the merkle tree of files and symlinks. */
   public static class MerkleTreeNode {
+    private static final HashFunction STORE_KEY_HASH_FUNCTION = Hashing.murmur3_128();
+
     @Nullable private volatile NodeData data;
     private final int hashCode;
     @Nullable private final Path path;
@@ -180,7 +196,7 @@ public class MerkleTreeNodeCache {
           && Objects.equals(emptyDirectories, other.emptyDirectories);
     }
 
-    private NodeData getData(Protocol protocol) {
+    private NodeData getData(Protocol protocol, @Nullable MerkleTreeNodeDataStore dataStore) {
       if (data != null) {
         return data;
       }
@@ -191,7 +207,7 @@ public class MerkleTreeNodeCache {
       long totalInputsSize = 0;
       for (Map.Entry<Path, MerkleTreeNode> entry : children.entrySet()) {
         MerkleTreeNode child = entry.getValue();
-        NodeData childData = child.getData(protocol);
+        NodeData childData = child.getData(protocol, dataStore);
         totalInputsSize += childData.totalInputsSize;
         childNodes.add(
             protocol.newDirectoryNode(entry.getKey().getFileName().toString(), childData.digest));
@@ -200,12 +216,63 @@ public class MerkleTreeNodeCache {
         totalInputsSize += value.getDigest().getSize();
       }
       childNodes.addAll(emptyDirectories.values());
-      Directory directory = protocol.newDirectory(childNodes, files.values(), symlinks.values());
-      NodeData nodeData =
-          new NodeData(directory, protocol.computeDigest(directory), totalInputsSize);
+
+      NodeData nodeData;
+      if (dataStore == null) {
+        Directory directory = protocol.newDirectory(childNodes, files.values(), symlinks.values());
+        nodeData = new NodeData(directory, protocol.computeDigest(directory), totalInputsSize);
+      } else {
+        HashCode key = computeStoreKey(childNodes);
+        NodeData storedData = dataStore.get(key);
+        if (storedData != null) {
+          nodeData = storedData;
+        } else {
+          Directory directory =
+              protocol.newDirectory(childNodes, files.values(), symlinks.values());
+          byte[] encodedDirectory = protocol.toByteArray(directory);
+          nodeData =
+              new NodeData(directory, protocol.computeDigest(encodedDirectory), totalInputsSize);
+          dataStore.put(key, nodeData, encodedDirectory);
+        }
+      }
       this.data = nodeData;
       return nodeData;
     }
+
+    /**
+     * Computes the key of this node in a {@link MerkleTreeNodeDataStore}. This covers everything
+     * that goes into the encoded {@link Directory}, so nodes with equal keys have equal data.
+     */
+    private HashCode computeStoreKey(List<DirectoryNode> childNodes) {
+      Hasher hasher = STORE_KEY_HASH_FUNCTION.newHasher();
+      hasher.putInt(childNodes.size());
+      for (DirectoryNode childNode : childNodes) {
+        putString(hasher, childNode.getName());
+        putDigest(hasher, childNode.getDigest());
+      }
+      hasher.putInt(files.size());
+      for (FileNode fileNode : files.values()) {
+        putString(hasher, fileNode.getName());
+        putDigest(hasher, fileNode.getDigest());
+        hasher.putBoolean(fileNode.getIsExecutable());
+      }
+      hasher.putInt(symlinks.size());
+      for (SymlinkNode symlinkNode : symlinks.values()) {
+        putString(hasher, symlinkNode.getName());
+        putString(hasher, symlinkNode.getTarget());
+      }
+      return hasher.hash();
+    }
+
+    private static void putDigest(Hasher hasher, Digest digest) {
+      putString(hasher, digest.getHash());
+      hasher.putInt(digest.getSize());
+    }
+
+    private static void putString(Hasher hasher, String value) {
+      hasher.putInt(value.length());
+      hasher.putUnencodedChars(value);
+    }
   }
 
   private static class TreeNodeBuilder {
@@ -374,12 +441,19 @@ public class MerkleTreeNodeCache {
 
   /** NodeData is the {@link Protocol} encoded data for a node. */
   public static class NodeData {
-    private final Directory directory;
+    private final Supplier<Directory> directory;
     private final Digest digest;
     private final long totalInputsSize;
 
     NodeData(Directory directory, Digest digest, long totalInputsSize) {
-      this.directory = directory;
+      this.directory = Suppliers.ofInstance(directory);
+      this.digest = digest;
+      this.totalInputsSize = totalInputsSize;
+    }
+
+    /** Creates a NodeData whose {@link Directory} is only decoded when it is first requested. */
+    NodeData(Supplier<Directory> directory, Digest digest, long totalInputsSize) {
+      this.directory = Suppliers.memoize(directory::get);
       this.digest = digest;
       this.totalInputsSize = totalInputsSize;
     }
@@ -389,7 +463,7 @@ public class MerkleTreeNodeCache {
     }
 
     public Directory getDirectory() {
-      return directory;
+      return directory.get();
     }
 
     public long getTotalSize() {
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.remoteexecution.util;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.remoteexecution.interfaces.Protocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Directory;
+import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache.NodeData;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A content-addressed store of {@link Protocol} encoded {@link Directory} nodes that can be saved
+ * to and loaded from disk.
+ *
+ * <p>Entries are keyed by a hash of the contents of a directory (the names and digests of its
+ * files, symlinks and subdirectories), which is much cheaper to compute than building and hashing
+ * the encoded {@link Directory}. This allows {@link MerkleTreeNodeCache} to reuse the encoded data
+ * for unchanged subtrees across builds and daemon restarts.
+ *
+ * <p>The store holds at most a fixed number of entries, dropping the least recently used ones when
+ * it is full. It is meant to live as long as the daemon, and only be saved when that goes away.
+ */
+public class MerkleTreeNodeDataStore {
+  private static final Logger LOG = Logger.get(MerkleTreeNodeDataStore.class);
+
+  private static final int MAGIC = 0x4d544e44;
+  private static final int VERSION = 1;
+
+  private final Path storeFile;
+  private final Protocol protocol;
+
+  /** Entries in access order, from the least recently used. */
+  @GuardedBy("this")
+  private final LinkedHashMap<HashCode, Entry> entries;
+
+  @GuardedBy("this")
+  private boolean changed;
+
+  private MerkleTreeNodeDataStore(Path storeFile, Protocol protocol, int maxEntries) {
+    this.storeFile = storeFile;
+    this.protocol = protocol;
+    this.entries =
+        new LinkedHashMap<HashCode, Entry>(16, 0.75f, /* accessOrder */ true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<HashCode, Entry> eldest) {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  /**
+   * Loads the store from {@code storeFile}. A missing or unreadable file, or one written for a
+   * different hash function, results in an empty store.
+   */
+  public static MerkleTreeNodeDataStore load(Path storeFile, Protocol protocol, int maxEntries) {
+    Preconditions.checkArgument(maxEntries > 0, "maxEntries must be positive");
+    MerkleTreeNodeDataStore store = new MerkleTreeNodeDataStore(storeFile, protocol, maxEntries);
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(storeFile)))) {
+      if (in.readInt() != MAGIC
+          || in.readInt() != VERSION
+          || !in.readUTF().equals(getHashFunctionName(protocol))) {
+        LOG.info(
+            "Ignoring merkle tree node store %s written by an incompatible version.", storeFile);
+      } else {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          byte[] key = new byte[in.readUnsignedByte()];
+          in.readFully(key);
+          Digest digest = protocol.newDigest(in.readUTF(), in.readInt());
+          long totalInputsSize = in.readLong();
+          byte[] encodedDirectory = new byte[in.readInt()];
+          in.readFully(encodedDirectory);
+          // Entries are saved from the least recently used, so this keeps their order.
+          store.load(HashCode.fromBytes(key), new Entry(digest, totalInputsSize, encodedDirectory));
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // Nothing has been saved yet.
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.warn(e, "Failed to load merkle tree node store %s, starting from scratch.", storeFile);
+      store.clear();
+    }
+    LOG.debug("Loaded %d merkle tree nodes from %s.", store.size(), storeFile);
+    return store;
+  }
+
+  private synchronized void load(HashCode key, Entry entry) {
+    entries.put(key, entry);
+  }
+
+  private synchronized void clear() {
+    entries.clear();
+  }
+
+  private static String getHashFunctionName(Protocol protocol) {
+    return protocol.getHashFunction().toString();
+  }
+
+  /** Returns the data stored for the directory with the given key, if there is any. */
+  @Nullable
+  NodeData get(HashCode key) {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+    }
+    return entry == null ? null : entry.toNodeData(protocol);
+  }
+
+  /**
+   * Stores the data, and the encoded directory it was computed from, under the given key. Drops
+   * the least recently used entry if the store is full.
+   */
+  void put(HashCode key, NodeData data, byte[] encodedDirectory) {
+    Entry entry = new Entry(data.getDigest(), data.getTotalSize(), encodedDirectory);
+    synchronized (this) {
+      if (entries.putIfAbsent(key, entry) == null) {
+        changed = true;
+      }
+    }
+  }
+
+  /** Returns the number of entries in the store. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Writes the store to disk, unless no entries were added since it was last loaded or saved. */
+  public void save() throws IOException {
+    List<Map.Entry<HashCode, Entry>> toSave;
+    synchronized (this) {
+      if (!changed) {
+        return;
+      }
+      toSave = new ArrayList<>(entries.entrySet());
+      changed = false;
+    }
+
+    Files.createDirectories(storeFile.getParent());
+    Path tmpFile = storeFile.resolveSibling(storeFile.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(getHashFunctionName(protocol));
+      out.writeInt(toSave.size());
+      for (Map.Entry<HashCode, Entry> entry : toSave) {
+        byte[] key = entry.getKey().asBytes();
+        out.writeByte(key.length);
+        out.write(key);
+        Entry value = entry.getValue();
+        out.writeUTF(value.digest.getHash());
+        out.writeInt(value.digest.getSize());
+        out.writeLong(value.totalInputsSize);
+        out.writeInt(value.encodedDirectory.length);
+        out.write(value.encodedDirectory);
+      }
+    }
+    try {
+      Files.move(
+          tmpFile, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      synchronized (this) {
+        changed = true;
+      }
+      throw e;
+    }
+    LOG.debug("Saved %d merkle tree nodes to %s.", toSave.size(), storeFile);
+  }
+
+  private static class Entry {
+    private final Digest digest;
+    private final long totalInputsSize;
+    private final byte[] encodedDirectory;
+
+    private Entry(Digest digest, long totalInputsSize, byte[] encodedDirectory) {
+      this.digest = digest;
+      this.totalInputsSize = totalInputsSize;
+      this.encodedDirectory = encodedDirectory;
+    }
+
+    private NodeData toNodeData(Protocol protocol) {
+      return new NodeData(
+          () -> {
+            try {
+              return protocol.parseDirectory(ByteBuffer.wrap(encodedDirectory));
+            } catch (IOException e) {
+              throw new IllegalStateException("Failed to decode stored merkle tree node.", e);
+            }
+          },
+          digest,
+          totalInputsSize);
+    }
+  }
+}
@@ -0,0 +1,555 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.build.action.BuildEngineAction;
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.cache.CacheStatsTracker;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link TrackableRuleKeyCache} with the same behavior as {@link DefaultRuleKeyCache}, which
+ * keeps the dependency and input indexes in primitive arrays instead of per-node collections.
+ *
+ * <p>Every cached node and every input is given an integer id, and the edges from a node to its
+ * dependents and from an input to the nodes using it are stored as linked lists of ids in shared
+ * {@code int[]}s. Compared to {@link DefaultRuleKeyCache}, this avoids several objects per node
+ * and per edge, which matters for the heap size and GC pauses of a daemon caching millions of rule
+ * keys.
+ *
+ * <p>Ids are reused once their node is invalidated. An edge to a node which was invalidated through
+ * another path may then refer to a new node, which can only lead to that node being invalidated
+ * needlessly.
+ *
+ * <p>All state is guarded by a single lock, which is never held while computing values.
+ *
+ * @param <V> The rule key type.
+ */
+public class CompactRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
+
+  private static final Logger LOG = Logger.get(CompactRuleKeyCache.class);
+
+  private static final int NONE = -1;
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /** Edge lists are compacted once more than half of their space is unused. */
+  private static final int MIN_EDGES_TO_COMPACT = 4096;
+
+  private final Object lock = new Object();
+
+  private ObjectIntMap nodeIds;
+  private Object[] nodes;
+
+  /** The value of a node: {@code null} if not computed, a {@link PendingValue} or a {@code V}. */
+  private Object[] values;
+
+  private int[] dependentsHeads;
+  private IntStack freeNodeIds;
+  private int nodeIdLimit;
+
+  private ObjectIntMap inputIds;
+  private RuleKeyInput[] inputsById;
+  private int[] inputNodesHeads;
+  private IntStack freeInputIds;
+  private int inputIdLimit;
+
+  private IntLinkedLists edges;
+
+  public CompactRuleKeyCache() {
+    synchronized (lock) {
+      reset();
+    }
+  }
+
+  private void reset() {
+    nodeIds = new ObjectIntMap(true);
+    nodes = new Object[INITIAL_CAPACITY];
+    values = new Object[INITIAL_CAPACITY];
+    dependentsHeads = new int[INITIAL_CAPACITY];
+    freeNodeIds = new IntStack();
+    nodeIdLimit = 0;
+    inputIds = new ObjectIntMap(false);
+    inputsById = new RuleKeyInput[INITIAL_CAPACITY];
+    inputNodesHeads = new int[INITIAL_CAPACITY];
+    freeInputIds = new IntStack();
+    inputIdLimit = 0;
+    edges = new IntLinkedLists();
+  }
+
+  @Nullable
+  @Override
+  public V get(BuildEngineAction action, CacheStatsTracker statsTracker) {
+    CacheStatsTracker.CacheRequest request = statsTracker.startRequest();
+    Object value;
+    synchronized (lock) {
+      int id = nodeIds.get(action);
+      value = id == NONE ? null : values[id];
+    }
+    if (value == null) {
+      request.recordMiss();
+      return null;
+    }
+    request.recordHit();
+    return resolve(value);
+  }
+
+  @Override
+  public V get(
+      BuildEngineAction action,
+      Function<? super BuildEngineAction, RuleKeyResult<V>> create,
+      CacheStatsTracker statsTracker) {
+    return getNode(action, create, statsTracker);
+  }
+
+  @Override
+  public V get(
+      AddsToRuleKey appendable,
+      Function<? super AddsToRuleKey, RuleKeyResult<V>> create,
+      CacheStatsTracker statsTracker) {
+    return getNode(appendable, create, statsTracker);
+  }
+
+  private <K> V getNode(
+      K node, Function<? super K, RuleKeyResult<V>> create, CacheStatsTracker statsTracker) {
+    Preconditions.checkArgument(
+        node instanceof BuildEngineAction || node instanceof AddsToRuleKey,
+        "%s must be one of either a `BuildEngineAction` or `AddsToRuleKey`",
+        node.getClass());
+    CacheStatsTracker.CacheRequest request = statsTracker.startRequest();
+    Object value;
+    synchronized (lock) {
+      int id = getOrCreateNodeId(node);
+      value = values[id];
+      if (value == null) {
+        request.recordMiss();
+        value = new PendingValue<K>(node, create);
+        values[id] = value;
+        request.recordLoadSuccess();
+      } else {
+        request.recordHit();
+      }
+    }
+    return resolve(value);
+  }
+
+  @SuppressWarnings("unchecked")
+  private V resolve(Object value) {
+    if (value instanceof PendingValue) {
+      return ((PendingValue<?>) value).get();
+    }
+    return (V) value;
+  }
+
+  /** Records the computed value of a node along with its dependencies and inputs. */
+  private void recordResult(PendingValue<?> pending, RuleKeyResult<V> result) {
+    synchronized (lock) {
+      int id = nodeIds.get(pending.node);
+      if (id == NONE || values[id] != pending) {
+        // The node was invalidated while its value was computed.
+        return;
+      }
+      values[id] = result.result;
+      for (Object dependency : result.deps) {
+        int dependencyId = getOrCreateNodeId(dependency);
+        dependentsHeads[dependencyId] = edges.prepend(dependentsHeads[dependencyId], id);
+      }
+      for (RuleKeyInput input : result.inputs) {
+        int inputId = getOrCreateInputId(input);
+        inputNodesHeads[inputId] = edges.prepend(inputNodesHeads[inputId], id);
+      }
+    }
+  }
+
+  private int getOrCreateNodeId(Object node) {
+    int id = nodeIds.get(node);
+    if (id != NONE) {
+      return id;
+    }
+    if (!freeNodeIds.isEmpty()) {
+      id = freeNodeIds.pop();
+    } else {
+      id = nodeIdLimit++;
+      if (id == nodes.length) {
+        int capacity = nodes.length * 2;
+        nodes = Arrays.copyOf(nodes, capacity);
+        values = Arrays.copyOf(values, capacity);
+        dependentsHeads = Arrays.copyOf(dependentsHeads, capacity);
+      }
+    }
+    nodeIds.put(node, id);
+    nodes[id] = node;
+    dependentsHeads[id] = NONE;
+    return id;
+  }
+
+  private int getOrCreateInputId(RuleKeyInput input) {
+    int id = inputIds.get(input);
+    if (id != NONE) {
+      return id;
+    }
+    if (!freeInputIds.isEmpty()) {
+      id = freeInputIds.pop();
+    } else {
+      id = inputIdLimit++;
+      if (id == inputsById.length) {
+        int capacity = inputsById.length * 2;
+        inputsById = Arrays.copyOf(inputsById, capacity);
+        inputNodesHeads = Arrays.copyOf(inputNodesHeads, capacity);
+      }
+    }
+    inputIds.put(input, id);
+    inputsById[id] = input;
+    inputNodesHeads[id] = NONE;
+    return id;
+  }
+
+  @VisibleForTesting
+  boolean isCached(Object node) {
+    synchronized (lock) {
+      return nodeIds.get(node) != NONE;
+    }
+  }
+
+  /** Invalidate the given inputs and all their transitive dependents. */
+  @Override
+  public void invalidateInputs(Iterable<RuleKeyInput> inputs, CacheStatsTracker statsTracker) {
+    CacheStatsTracker.CacheInvalidation invalidation = statsTracker.startInvalidation();
+    synchronized (lock) {
+      IntStack work = new IntStack();
+      for (RuleKeyInput input : inputs) {
+        LOG.verbose("invalidating input %s", input);
+        int inputId = inputIds.remove(input);
+        if (inputId != NONE) {
+          edges.release(inputNodesHeads[inputId], work);
+          inputsById[inputId] = null;
+          freeInputIds.push(inputId);
+        }
+      }
+      invalidateNodes(work, statsTracker);
+      compactEdgesIfNeeded();
+    }
+    invalidation.recordDone();
+  }
+
+  /** Invalidates the nodes with the given ids, and all their transitive dependents. */
+  private void invalidateNodes(IntStack work, CacheStatsTracker statsTracker) {
+    int evictions = 0;
+    while (!work.isEmpty()) {
+      int id = work.pop();
+      Object node = nodes[id];
+      // This node may have already been removed due to being someone else's reverse dependency.
+      if (node == null) {
+        continue;
+      }
+      LOG.verbose("invalidating node %s", node);
+      nodeIds.remove(node);
+      nodes[id] = null;
+      values[id] = null;
+      edges.release(dependentsHeads[id], work);
+      dependentsHeads[id] = NONE;
+      freeNodeIds.push(id);
+      evictions++;
+    }
+    if (evictions > 0) {
+      statsTracker.recordEviction(evictions);
+    }
+  }
+
+  private void compactEdgesIfNeeded() {
+    if (edges.size() < MIN_EDGES_TO_COMPACT || edges.getReleased() * 2 < edges.size()) {
+      return;
+    }
+    IntLinkedLists compacted = new IntLinkedLists();
+    for (int id = 0; id < nodeIdLimit; id++) {
+      if (nodes[id] != null) {
+        dependentsHeads[id] = compacted.copyOf(edges, dependentsHeads[id]);
+      }
+    }
+    for (int id = 0; id < inputIdLimit; id++) {
+      if (inputsById[id] != null) {
+        inputNodesHeads[id] = compacted.copyOf(edges, inputNodesHeads[id]);
+      }
+    }
+    LOG.verbose("compacted edges from %d to %d", edges.size(), compacted.size());
+    edges = compacted;
+  }
+
+  /**
+   * Invalidate all inputs *not* from the given {@link ProjectFilesystem}s and their transitive
+   * dependents.
+   */
+  @Override
+  public void invalidateAllExceptFilesystems(
+      ImmutableSet<ProjectFilesystem> filesystems, CacheStatsTracker statsTracker) {
+    if (filesystems.isEmpty()) {
+      invalidateAll(statsTracker);
+    } else {
+      invalidateInputs(
+          getInputs(input -> !filesystems.contains(input.getFilesystem())), statsTracker);
+    }
+  }
+
+  /**
+   * Invalidate all inputs from a given {@link ProjectFilesystem} and their transitive dependents.
+   */
+  @Override
+  public void invalidateFilesystem(ProjectFilesystem filesystem, CacheStatsTracker statsTracker) {
+    invalidateInputs(getInputs(input -> filesystem.equals(input.getFilesystem())), statsTracker);
+  }
+
+  private List<RuleKeyInput> getInputs(Predicate<RuleKeyInput> predicate) {
+    List<RuleKeyInput> matching = new ArrayList<>();
+    synchronized (lock) {
+      for (int id = 0; id < inputIdLimit; id++) {
+        RuleKeyInput input = inputsById[id];
+        if (input != null && predicate.test(input)) {
+          matching.add(input);
+        }
+      }
+    }
+    return matching;
+  }
+
+  /** Invalidate everything in the cache. */
+  @Override
+  public void invalidateAll(CacheStatsTracker statsTracker) {
+    CacheStatsTracker.CacheInvalidation invalidation = statsTracker.startInvalidation();
+    synchronized (lock) {
+      statsTracker.recordEviction(nodeIds.size());
+      reset();
+    }
+    invalidation.recordDone();
+  }
+
+  @Override
+  public ImmutableList<Map.Entry<BuildRule, V>> getCachedBuildRules() {
+    List<Map.Entry<BuildRule, Object>> rules = new ArrayList<>();
+    synchronized (lock) {
+      for (int id = 0; id < nodeIdLimit; id++) {
+        if (nodes[id] instanceof BuildRule && values[id] != null) {
+          rules.add(new AbstractMap.SimpleEntry<>((BuildRule) nodes[id], values[id]));
+        }
+      }
+    }
+    ImmutableList.Builder<Map.Entry<BuildRule, V>> builder =
+        ImmutableList.builderWithExpectedSize(rules.size());
+    for (Map.Entry<BuildRule, Object> rule : rules) {
+      builder.add(new AbstractMap.SimpleEntry<>(rule.getKey(), resolve(rule.getValue())));
+    }
+    return builder.build();
+  }
+
+  /**
+   * A value which is being computed. Computing happens outside of the cache lock, and the result
+   * replaces this in the cache once its dependencies and inputs have been recorded.
+   */
+  private final class PendingValue<K> {
+    private final K node;
+    @Nullable private Function<? super K, RuleKeyResult<V>> create;
+    @Nullable private V result;
+
+    private PendingValue(K node, Function<? super K, RuleKeyResult<V>> create) {
+      this.node = node;
+      this.create = create;
+    }
+
+    private synchronized V get() {
+      if (create != null) {
+        RuleKeyResult<V> computed = create.apply(node);
+        recordResult(this, computed);
+        result = computed.result;
+        create = null;
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Singly linked lists of ints, stored in parallel arrays. A list is referred to by the index of
+   * its head, or {@link #NONE} when empty. Released space is only reclaimed by copying the live
+   * lists to a new instance.
+   */
+  private static final class IntLinkedLists {
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int[] next = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    private int released = 0;
+
+    /** @return the head of the list made of {@code value} followed by the list at {@code head}. */
+    private int prepend(int head, int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+        next = Arrays.copyOf(next, size * 2);
+      }
+      values[size] = value;
+      next[size] = head;
+      return size++;
+    }
+
+    /** Releases the list at {@code head}, adding its values to {@code out}. */
+    private void release(int head, IntStack out) {
+      for (int i = head; i != NONE; i = next[i]) {
+        out.push(values[i]);
+        released++;
+      }
+    }
+
+    /** Copies the list at {@code head} from {@code other} to this, returning its new head. */
+    private int copyOf(IntLinkedLists other, int head) {
+      int newHead = NONE;
+      for (int i = head; i != NONE; i = other.next[i]) {
+        newHead = prepend(newHead, other.values[i]);
+      }
+      return newHead;
+    }
+
+    private int size() {
+      return size;
+    }
+
+    private int getReleased() {
+      return released;
+    }
+  }
+
+  /** A growable stack of ints. */
+  private static final class IntStack {
+    private int[] values = new int[16];
+    private int size = 0;
+
+    private void push(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    private int pop() {
+      return values[--size];
+    }
+
+    private boolean isEmpty() {
+      return size == 0;
+    }
+  }
+
+  /**
+   * An open addressing hash map from objects to non-negative ints, using either identity or {@link
+   * Object#equals(Object)} to compare keys.
+   */
+  private static final class ObjectIntMap {
+    private final boolean identity;
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private int shift = Integer.numberOfLeadingZeros(INITIAL_CAPACITY) + 1;
+    private int size = 0;
+
+    private ObjectIntMap(boolean identity) {
+      this.identity = identity;
+    }
+
+    private int size() {
+      return size;
+    }
+
+    private int slot(Object key) {
+      int hash = identity ? System.identityHashCode(key) : key.hashCode();
+      // Fibonacci hashing, which takes the slot from the well mixed high bits of the product.
+      return (hash * 0x9E3779B9) >>> shift;
+    }
+
+    private boolean matches(Object key, Object other) {
+      return identity ? key == other : key.equals(other);
+    }
+
+    private int get(Object key) {
+      for (int i = slot(key); keys[i] != null; i = (i + 1) & (keys.length - 1)) {
+        if (matches(key, keys[i])) {
+          return ids[i];
+        }
+      }
+      return NONE;
+    }
+
+    /** Adds a key which isn't in the map yet. */
+    private void put(Object key, int id) {
+      if ((size + 1) * 2 > keys.length) {
+        Object[] oldKeys = keys;
+        int[] oldIds = ids;
+        keys = new Object[oldKeys.length * 2];
+        ids = new int[oldKeys.length * 2];
+        shift--;
+        for (int i = 0; i < oldKeys.length; i++) {
+          if (oldKeys[i] != null) {
+            insert(oldKeys[i], oldIds[i]);
+          }
+        }
+      }
+      insert(key, id);
+      size++;
+    }
+
+    private void insert(Object key, int id) {
+      int i = slot(key);
+      while (keys[i] != null) {
+        i = (i + 1) & (keys.length - 1);
+      }
+      keys[i] = key;
+      ids[i] = id;
+    }
+
+    /** @return the id the key was mapped to, or {@link #NONE} if it wasn't in the map. */
+    private int remove(Object key) {
+      int mask = keys.length - 1;
+      int i = slot(key);
+      while (keys[i] != null && !matches(key, keys[i])) {
+        i = (i + 1) & mask;
+      }
+      if (keys[i] == null) {
+        return NONE;
+      }
+      int id = ids[i];
+      // Shift back the following entries of the probe sequence to fill the gap.
+      int gap = i;
+      for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+        int home = slot(keys[j]);
+        if (((j - home) & mask) >= ((j - gap) & mask)) {
+          keys[gap] = keys[j];
+          ids[gap] = ids[j];
+          gap = j;
+        }
+      }
+      keys[gap] = null;
+      size--;
+      return id;
+    }
+  }
+}
@@ -28,12 +28,22 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -45,12 +55,24 @@ import javax.annotation.Nullable;
  * keys are tracked to allow for invalidations based on changed inputs. As such, this cache is
  * usable between multiple build runs.
  *
+ * <p>Invalidating an input invalidates its transitive dependents one frontier at a time, and large
+ * frontiers are processed in parallel. The walk runs on the executor given at construction, so
+ * that it can overlap with whatever the invalidating thread does next: lookups wait for pending
+ * invalidations to finish before reading the cache.
+ *
  * @param <V> The rule key type.
  */
 public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
 
   private static final Logger LOG = Logger.get(DefaultRuleKeyCache.class);
 
+  /**
+   * Frontiers smaller than this are not worth splitting between threads. Splitting is only a cost
+   * on a single processor.
+   */
+  private static final int MIN_PARALLEL_FRONTIER_SIZE =
+      Runtime.getRuntime().availableProcessors() > 1 ? 1024 : Integer.MAX_VALUE;
+
   /**
    * The underlying rule key cache. We use object identity for indexing.
    *
@@ -60,10 +82,48 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
   private final ConcurrentHashMap<IdentityWrapper<Object>, Node<Object, V>> cache =
       new ConcurrentHashMap<>();
 
-  /** A map for rule key inputs to nodes that use them. */
-  private final ConcurrentHashMap<RuleKeyInput, Stream.Builder<Object>> inputsIndex =
+  /**
+   * A map for rule key inputs to nodes that use them.
+   *
+   * <p>All modifications to the lists are synchronized by using the compute* functions on
+   * ConcurrentHashMap.
+   */
+  private final ConcurrentHashMap<RuleKeyInput, List<Object>> inputsIndex =
       new ConcurrentHashMap<>();
 
+  private final Executor invalidationExecutor;
+
+  /**
+   * Completes once all invalidations requested so far are done. Invalidations are chained, so that
+   * they are applied in order.
+   *
+   * <p>Modifications are synchronized on this instance.
+   */
+  private volatile CompletableFuture<Void> pendingInvalidations =
+      CompletableFuture.completedFuture(null);
+
+  /** Creates a cache which invalidates dependents on the invalidating thread. */
+  public DefaultRuleKeyCache() {
+    this(MoreExecutors.directExecutor());
+  }
+
+  /**
+   * @param invalidationExecutor the executor invalidations of transitive dependents run on. Large
+   *     frontiers are further split between the threads of a {@link
+   *     java.util.concurrent.ForkJoinPool}.
+   */
+  public DefaultRuleKeyCache(Executor invalidationExecutor) {
+    this.invalidationExecutor = invalidationExecutor;
+  }
+
+  /** Waits for all pending invalidations, so that the cache doesn't return stale values. */
+  private void awaitPendingInvalidations() {
+    CompletableFuture<Void> pending = pendingInvalidations;
+    if (!pending.isDone()) {
+      pending.join();
+    }
+  }
+
   private <K> V calculateNode(K node, Function<K, RuleKeyResult<V>> create) {
     Preconditions.checkArgument(
         node instanceof BuildEngineAction || node instanceof AddsToRuleKey,
@@ -85,12 +145,12 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
     for (RuleKeyInput input : result.inputs) {
       inputsIndex.compute(
           input,
-          (key, builder) -> {
-            if (builder == null) {
-              builder = Stream.builder();
+          (key, nodes) -> {
+            if (nodes == null) {
+              nodes = new ArrayList<>(1);
             }
-            builder.add(node);
-            return builder;
+            nodes.add(node);
+            return nodes;
           });
     }
 
@@ -99,6 +159,7 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
 
   private <K> V getNode(
       K node, Function<K, RuleKeyResult<V>> create, CacheStatsTracker statsTracker) {
+    awaitPendingInvalidations();
     CacheStatsTracker.CacheRequest request = statsTracker.startRequest();
     Supplier<V> supplier =
         cache.compute(
@@ -123,6 +184,7 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
   @Nullable
   @Override
   public V get(BuildEngineAction action, CacheStatsTracker statsTracker) {
+    awaitPendingInvalidations();
     CacheStatsTracker.CacheRequest request = statsTracker.startRequest();
     Node<Object, V> node = cache.get(new IdentityWrapper<Object>(action));
     if (node != null && node.value != null) {
@@ -150,6 +212,7 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
   }
 
   private boolean isCachedNode(Object object) {
+    awaitPendingInvalidations();
     return cache.containsKey(new IdentityWrapper<>(object));
   }
 
@@ -163,37 +226,80 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
     return isCachedNode(appendable);
   }
 
-  /** Recursively invalidate nodes up the dependency tree. */
-  private void invalidateNodes(Stream<Object> nodes, CacheStatsTracker statsTracker) {
-    List<Stream<Object>> dependents = new ArrayList<>();
-    nodes.forEach(
-        key -> {
-          Node<Object, V> node = cache.remove(new IdentityWrapper<>(key));
-          // This node may have already been removed due to being someone else's reverse dependency.
-          if (node != null) {
-            LOG.verbose("invalidating node %s", key);
-            dependents.add(node.dependents.build());
-            statsTracker.recordEviction();
-          }
-        });
-    if (!dependents.isEmpty()) {
-      invalidateNodes(dependents.stream().flatMap(x -> x), statsTracker);
+  /**
+   * Invalidates the given nodes and their transitive dependents once all previously requested
+   * invalidations are done. If that fails, everything is invalidated instead, as the cache may
+   * otherwise be left with stale dependents.
+   */
+  private synchronized void invalidateNodes(
+      List<Object> nodes,
+      CacheStatsTracker statsTracker,
+      CacheStatsTracker.CacheInvalidation invalidation) {
+    // Invalidations don't fail, but run regardless of how the previous one completed, so that a
+    // failure can't keep the cache from being invalidated anymore.
+    pendingInvalidations =
+        pendingInvalidations.handleAsync(
+            (ignored, previousError) -> {
+              try {
+                invalidateTransitively(nodes, statsTracker);
+              } catch (RuntimeException e) {
+                LOG.error(e, "Failed to invalidate rule keys, invalidating the whole cache.");
+                cache.clear();
+                inputsIndex.clear();
+              } finally {
+                invalidation.recordDone();
+              }
+              return null;
+            },
+            invalidationExecutor);
+  }
+
+  /** Invalidates nodes up the dependency tree, one frontier of reverse dependencies at a time. */
+  private void invalidateTransitively(List<Object> nodes, CacheStatsTracker statsTracker) {
+    LongAdder evictions = new LongAdder();
+    List<Object> frontier = nodes;
+    while (!frontier.isEmpty()) {
+      Stream<Object> stream =
+          frontier.size() < MIN_PARALLEL_FRONTIER_SIZE
+              ? frontier.stream()
+              : frontier.parallelStream();
+      frontier =
+          stream
+              .flatMap(
+                  key -> {
+                    Node<Object, V> node = cache.remove(new IdentityWrapper<>(key));
+                    // This node may have already been removed due to being someone else's reverse
+                    // dependency.
+                    if (node == null) {
+                      return Stream.empty();
+                    }
+                    LOG.verbose("invalidating node %s", key);
+                    evictions.increment();
+                    // Removing the node from the cache made it unreachable, so its dependents
+                    // aren't modified anymore.
+                    return node.dependents.stream();
+                  })
+              .collect(Collectors.toList());
     }
+    statsTracker.recordEviction(evictions.sum());
   }
 
   /** Invalidate the given inputs and all their transitive dependents. */
   @Override
   public void invalidateInputs(Iterable<RuleKeyInput> inputs, CacheStatsTracker statsTracker) {
-    List<Stream<Object>> nodes = new ArrayList<>();
+    CacheStatsTracker.CacheInvalidation invalidation = statsTracker.startInvalidation();
+    List<Object> nodes = new ArrayList<>();
     for (RuleKeyInput input : inputs) {
       LOG.verbose("invalidating input %s", input);
-      Stream.Builder<Object> inputNodes = inputsIndex.remove(input);
+      List<Object> inputNodes = inputsIndex.remove(input);
       if (inputNodes != null) {
-        nodes.add(inputNodes.build());
+        nodes.addAll(inputNodes);
       }
     }
-    if (!nodes.isEmpty()) {
-      invalidateNodes(nodes.stream().flatMap(x -> x), statsTracker);
+    if (nodes.isEmpty()) {
+      invalidation.recordDone();
+    } else {
+      invalidateNodes(nodes, statsTracker, invalidation);
     }
   }
 
@@ -230,13 +336,17 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
   /** Invalidate everything in the cache. */
   @Override
   public void invalidateAll(CacheStatsTracker statsTracker) {
+    CacheStatsTracker.CacheInvalidation invalidation = statsTracker.startInvalidation();
+    awaitPendingInvalidations();
     statsTracker.recordEviction(cache.size());
     cache.clear();
     inputsIndex.clear();
+    invalidation.recordDone();
   }
 
   @Override
   public ImmutableList<Map.Entry<BuildRule, V>> getCachedBuildRules() {
+    awaitPendingInvalidations();
     ImmutableList.Builder<Map.Entry<BuildRule, V>> builder = ImmutableList.builder();
     cache.forEach(
         (key, value) -> {
@@ -250,12 +360,98 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
     return builder.build();
   }
 
+  /**
+   * Exports all cached {@link BuildRule}s along with the information needed to re-validate their
+   * values without object identity: the {@link RuleKeyInput}s the value was computed from and the
+   * other {@link BuildRule}s it depends on. Inputs and rule dependencies reached through
+   * non-{@link BuildRule} nodes (e.g. {@link AddsToRuleKey}s) are attributed to the rule itself.
+   *
+   * <p>Rules which depend on other kinds of {@link BuildEngineAction}s are skipped, as those
+   * cannot be identified by build target. This must not be called concurrently with cache
+   * modifications.
+   */
+  ImmutableList<CachedBuildRule<V>> exportBuildRules() {
+    awaitPendingInvalidations();
+    Map<IdentityWrapper<Object>, List<Object>> deps = new HashMap<>();
+    cache.forEach(
+        (key, value) -> {
+          for (Object dependent : value.dependents) {
+            deps.computeIfAbsent(new IdentityWrapper<>(dependent), k -> new ArrayList<>())
+                .add(key.delegate);
+          }
+        });
+    Map<IdentityWrapper<Object>, List<RuleKeyInput>> inputs = new HashMap<>();
+    inputsIndex.forEach(
+        (input, nodes) -> {
+          for (Object node : nodes) {
+            inputs.computeIfAbsent(new IdentityWrapper<>(node), k -> new ArrayList<>()).add(input);
+          }
+        });
+
+    ImmutableList.Builder<CachedBuildRule<V>> builder = ImmutableList.builder();
+    cache.forEach(
+        (key, value) -> {
+          Supplier<V> supplier = value.value;
+          if (!(key.delegate instanceof BuildRule) || supplier == null) {
+            return;
+          }
+          Set<RuleKeyInput> ruleInputs = new LinkedHashSet<>();
+          Set<BuildRule> ruleDeps = new LinkedHashSet<>();
+          Set<IdentityWrapper<Object>> visited = new HashSet<>();
+          Deque<IdentityWrapper<Object>> work = new ArrayDeque<>();
+          work.add(key);
+          while (!work.isEmpty()) {
+            IdentityWrapper<Object> current = work.pop();
+            if (!visited.add(current)) {
+              continue;
+            }
+            ruleInputs.addAll(inputs.getOrDefault(current, ImmutableList.of()));
+            for (Object dep : deps.getOrDefault(current, ImmutableList.of())) {
+              if (dep instanceof BuildRule) {
+                ruleDeps.add((BuildRule) dep);
+              } else if (dep instanceof BuildEngineAction) {
+                LOG.verbose("not exporting %s: depends on action %s", key.delegate, dep);
+                return;
+              } else {
+                work.add(new IdentityWrapper<>(dep));
+              }
+            }
+          }
+          builder.add(
+              new CachedBuildRule<>(
+                  (BuildRule) key.delegate,
+                  supplier.get(),
+                  ImmutableSet.copyOf(ruleInputs),
+                  ImmutableSet.copyOf(ruleDeps)));
+        });
+    return builder.build();
+  }
+
+  /** A cached {@link BuildRule} value, as exported by {@link #exportBuildRules()}. */
+  static final class CachedBuildRule<V> {
+    final BuildRule rule;
+    final V value;
+    final ImmutableSet<RuleKeyInput> inputs;
+    final ImmutableSet<BuildRule> ruleDeps;
+
+    CachedBuildRule(
+        BuildRule rule,
+        V value,
+        ImmutableSet<RuleKeyInput> inputs,
+        ImmutableSet<BuildRule> ruleDeps) {
+      this.rule = rule;
+      this.value = value;
+      this.inputs = inputs;
+      this.ruleDeps = ruleDeps;
+    }
+  }
+
   private static final class Node<T, V> {
     /**
      * Accumulator of nodes that depends on this one. Used to invalidate those nodes when this node
      * is invalidated.
      */
-    private final Stream.Builder<T> dependents;
+    private final List<T> dependents;
 
     /**
      * The cached value, stored in a memoized supplier. A memoized supplier is used to allow the
@@ -268,7 +464,7 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
     @Nullable private volatile Supplier<V> value;
 
     public Node() {
-      this.dependents = Stream.builder();
+      this.dependents = new ArrayList<>(1);
       this.value = null;
     }
   }
@@ -64,6 +64,7 @@ public class EventPostingRuleKeyCacheScope<V> implements RuleKeyCacheScope<V> {
       scope.update("misses", stats.getMissCount());
       scope.update("requests", stats.getRequestCount());
       scope.update("load_time_ms", stats.getTotalLoadTime());
+      scope.update("invalidation_time_ms", stats.getTotalInvalidationTime());
 
       // Run additional cleanup.
       cleanup(scope);
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.build.action.BuildEngineAction;
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.watchman.PersistentWatchedState;
+import com.facebook.buck.io.watchman.WatchmanEvent;
+import com.facebook.buck.io.watchman.WatchmanOverflowEvent;
+import com.facebook.buck.io.watchman.WatchmanPathEvent;
+import com.facebook.buck.util.cache.CacheStatsTracker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.Subscribe;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link TrackableRuleKeyCache} which can be persisted across daemon restarts.
+ *
+ * <p>Rule keys are cached in memory by a {@link DefaultRuleKeyCache}. When a daemon shuts down, the
+ * cached {@link BuildRule} entries are written to a {@link RuleKeyCacheSnapshot}, along with the
+ * watchman clocks they are consistent with. A new daemon loads the snapshot and replays the
+ * watchman changes since those clocks before using it: changes to files which are inputs of cached
+ * rule keys invalidate the affected entries, while changes to build definitions (build files,
+ * their includes or configuration files) and files being added or removed, which may change glob
+ * results, drop the whole snapshot. Modifications of any other file can't affect cached rule keys.
+ *
+ * <p>Saving may happen while the cache is in use, e.g. in between commands, so cache operations
+ * share a lock which saving takes exclusively. Saving never waits for that lock, as rule key
+ * computations holding it may wait on each other, and is just skipped when the cache is busy.
+ */
+public class PersistentRuleKeyCache
+    implements TrackableRuleKeyCache<RuleKey>, PersistentWatchedState {
+
+  private static final Logger LOG = Logger.get(PersistentRuleKeyCache.class);
+
+  private final DefaultRuleKeyCache<RuleKey> delegate;
+  private final ImmutableMap<String, ProjectFilesystem> filesystems;
+  private final Path snapshotFile;
+  private final Supplier<String> fingerprint;
+  private final Predicate<Path> isBuildDefinition;
+  private final ReadWriteLock exportLock = new ReentrantReadWriteLock();
+
+  @Nullable private volatile RuleKeyCacheSnapshot snapshot;
+
+  /**
+   * Whether the snapshot has been brought up to date with the file changes which happened since it
+   * was written. The snapshot is never used before that.
+   */
+  private volatile boolean snapshotVerified = false;
+
+  private PersistentRuleKeyCache(
+      DefaultRuleKeyCache<RuleKey> delegate,
+      ImmutableSet<ProjectFilesystem> filesystems,
+      Path snapshotFile,
+      Supplier<String> fingerprint,
+      Predicate<Path> isBuildDefinition,
+      @Nullable RuleKeyCacheSnapshot snapshot) {
+    this.delegate = delegate;
+    this.filesystems =
+        filesystems.stream()
+            .collect(
+                ImmutableMap.toImmutableMap(
+                    filesystem -> filesystem.getRootPath().toString(), Function.identity()));
+    this.snapshotFile = snapshotFile;
+    this.fingerprint = fingerprint;
+    this.isBuildDefinition = isBuildDefinition;
+    this.snapshot = snapshot;
+  }
+
+  /**
+   * Creates a new cache, restoring the snapshot stored in {@code snapshotFile} if it exists and was
+   * written with the same fingerprint.
+   *
+   * @param filesystems all watched filesystems inputs of cached rule keys may come from.
+   * @param fingerprint computes a fingerprint of all settings which affect rule keys. It is
+   *     computed again whenever the cache is saved, so it may depend on what the daemon learned.
+   * @param invalidationExecutor the executor invalidations of transitive dependents run on.
+   * @param isBuildDefinition whether an absolute path may be a build file, an include of one or a
+   *     configuration file, modifying which drops the snapshot.
+   */
+  public static PersistentRuleKeyCache load(
+      ImmutableSet<ProjectFilesystem> filesystems,
+      Path snapshotFile,
+      Supplier<String> fingerprint,
+      Executor invalidationExecutor,
+      Predicate<Path> isBuildDefinition) {
+    Optional<RuleKeyCacheSnapshot> snapshot =
+        RuleKeyCacheSnapshot.load(snapshotFile, fingerprint.get());
+    snapshot.ifPresent(
+        s -> LOG.info("restored rule key cache snapshot with %d entries", s.size()));
+    return new PersistentRuleKeyCache(
+        new DefaultRuleKeyCache<>(invalidationExecutor),
+        filesystems,
+        snapshotFile,
+        fingerprint,
+        isBuildDefinition,
+        snapshot.orElse(null));
+  }
+
+  @Override
+  public ImmutableMap<Path, String> getRestoredWatchmanClocks() {
+    RuleKeyCacheSnapshot current = snapshot;
+    return current == null ? ImmutableMap.of() : current.getWatchmanClocks();
+  }
+
+  @Override
+  public boolean hasUnverifiedSnapshot() {
+    return snapshot != null && !snapshotVerified;
+  }
+
+  @Override
+  public void markSnapshotVerified() {
+    snapshotVerified = true;
+  }
+
+  @Override
+  public void dropSnapshot() {
+    if (snapshot != null) {
+      LOG.debug("dropping rule key cache snapshot");
+      snapshot = null;
+    }
+  }
+
+  /** Persists the cached rule keys of all {@link BuildRule}s. */
+  @Override
+  public void save(ImmutableMap<Path, String> watchmanClocks) throws IOException {
+    Lock lock = exportLock.writeLock();
+    if (!lock.tryLock()) {
+      LOG.debug("not saving rule key cache snapshot, as the cache is in use");
+      return;
+    }
+    ImmutableList<DefaultRuleKeyCache.CachedBuildRule<RuleKey>> rules;
+    try {
+      rules = delegate.exportBuildRules();
+    } finally {
+      lock.unlock();
+    }
+    LOG.info("saving rule key cache snapshot with %d entries", rules.size());
+    RuleKeyCacheSnapshot.write(snapshotFile, fingerprint.get(), watchmanClocks, rules);
+  }
+
+  @Subscribe
+  public void onFilesystemChange(WatchmanPathEvent event) {
+    if (snapshot == null) {
+      return;
+    }
+    // Modifications of inputs are handled by invalidating the affected entries, and other files
+    // don't affect rule keys unless they define the rules.
+    if (event.getKind() != WatchmanEvent.Kind.MODIFY
+        || isBuildDefinition.test(event.getCellPath().resolve(event.getPath()).normalize())) {
+      LOG.debug("dropping rule key cache snapshot due to event (%s)", event);
+      dropSnapshot();
+    }
+  }
+
+  @Subscribe
+  public void onFilesystemChange(WatchmanOverflowEvent event) {
+    LOG.debug("dropping rule key cache snapshot due to event (%s)", event);
+    dropSnapshot();
+  }
+
+  @Nullable
+  private RuleKeyResult<RuleKey> getFromSnapshot(BuildEngineAction action) {
+    RuleKeyCacheSnapshot current = snapshot;
+    if (current == null || !snapshotVerified || !(action instanceof BuildRule)) {
+      return null;
+    }
+    return current.get((BuildRule) action, filesystems);
+  }
+
+  /** Runs a cache operation, which must not overlap with exporting the cache. */
+  private <T> T withCache(Supplier<T> operation) {
+    Lock lock = exportLock.readLock();
+    lock.lock();
+    try {
+      return operation.get();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void withCache(Runnable operation) {
+    withCache(
+        () -> {
+          operation.run();
+          return null;
+        });
+  }
+
+  @Nullable
+  @Override
+  public RuleKey get(BuildEngineAction action, CacheStatsTracker statsTracker) {
+    return withCache(() -> delegate.get(action, statsTracker));
+  }
+
+  @Override
+  public RuleKey get(
+      BuildEngineAction action,
+      Function<? super BuildEngineAction, RuleKeyResult<RuleKey>> create,
+      CacheStatsTracker statsTracker) {
+    return withCache(
+        () ->
+            delegate.get(
+                action,
+                a -> {
+                  RuleKeyResult<RuleKey> result = getFromSnapshot(a);
+                  return result != null ? result : create.apply(a);
+                },
+                statsTracker));
+  }
+
+  @Override
+  public RuleKey get(
+      AddsToRuleKey appendable,
+      Function<? super AddsToRuleKey, RuleKeyResult<RuleKey>> create,
+      CacheStatsTracker statsTracker) {
+    return withCache(() -> delegate.get(appendable, create, statsTracker));
+  }
+
+  @Override
+  public void invalidateInputs(Iterable<RuleKeyInput> inputs, CacheStatsTracker statsTracker) {
+    RuleKeyCacheSnapshot current = snapshot;
+    if (current != null) {
+      current.invalidateInputs(inputs);
+    }
+    withCache(() -> delegate.invalidateInputs(inputs, statsTracker));
+  }
+
+  @Override
+  public void invalidateAllExceptFilesystems(
+      ImmutableSet<ProjectFilesystem> filesystems, CacheStatsTracker statsTracker) {
+    RuleKeyCacheSnapshot current = snapshot;
+    if (current != null) {
+      current.invalidateAllExceptFilesystems(filesystems);
+    }
+    withCache(() -> delegate.invalidateAllExceptFilesystems(filesystems, statsTracker));
+  }
+
+  @Override
+  public void invalidateFilesystem(ProjectFilesystem filesystem, CacheStatsTracker statsTracker) {
+    dropSnapshot();
+    withCache(() -> delegate.invalidateFilesystem(filesystem, statsTracker));
+  }
+
+  @Override
+  public void invalidateAll(CacheStatsTracker statsTracker) {
+    dropSnapshot();
+    withCache(() -> delegate.invalidateAll(statsTracker));
+  }
+
+  @Override
+  public ImmutableList<Map.Entry<BuildRule, RuleKey>> getCachedBuildRules() {
+    return withCache(delegate::getCachedBuildRules);
+  }
+}
@@ -24,8 +24,8 @@ import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.watchman.WatchmanOverflowEvent;
 import com.facebook.buck.io.watchman.WatchmanPathEvent;
+import com.facebook.buck.util.cache.CacheStatsTracker;
 import com.facebook.buck.util.cache.InstrumentingCacheStatsTracker;
-import com.facebook.buck.util.cache.NoOpCacheStatsTracker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.EventBus;
@@ -44,6 +44,14 @@ public class RuleKeyCacheRecycler<V> {
   private final TrackableRuleKeyCache<V> cache;
   private final ImmutableSet<ProjectFilesystem> watchedFilesystems;
 
+  /**
+   * Tracks invalidations from watchman events separately from builds, as they happen in between.
+   */
+  private final CacheStatsTracker watchmanStatsTracker = new InstrumentingCacheStatsTracker();
+
+  private long reportedWatchmanInvalidationTime = 0;
+  private long reportedWatchmanEvictionCount = 0;
+
   @Nullable private SettingsAffectingCache previousSettings = null;
 
   private RuleKeyCacheRecycler(
@@ -96,7 +104,7 @@ public class RuleKeyCacheRecycler<V> {
         IntStream.range(1, path.getNameCount() + 1)
             .mapToObj(end -> new ImmutableRuleKeyInput(filesystem, path.subpath(0, end)))
             .collect(ImmutableList.toImmutableList()),
-        new NoOpCacheStatsTracker());
+        watchmanStatsTracker);
   }
 
   @Subscribe
@@ -104,8 +112,7 @@ public class RuleKeyCacheRecycler<V> {
     for (ProjectFilesystem filesystem : watchedFilesystems) {
       LOG.verbose(
           "invalidating filesystem at \"%s\" due to event (%s)", filesystem.getRootPath(), event);
-      // Do not track stats from Daemon watchman events.
-      cache.invalidateFilesystem(filesystem, new NoOpCacheStatsTracker());
+      cache.invalidateFilesystem(filesystem, watchmanStatsTracker);
     }
   }
 
@@ -127,10 +134,14 @@ public class RuleKeyCacheRecycler<V> {
       protected void setup(SimplePerfEvent.Scope scope) {
         super.setup(scope);
 
-        // We invalidate everything if any of the settings we care about change.
+        // We invalidate everything if any of the settings we care about change. Nothing can have
+        // been cached for a previous build on first use, except for a restored snapshot (see
+        // `PersistentRuleKeyCache`), which doesn't depend on the action graph instance.
         if (!SettingsAffectingCache.areIdentical(previousSettings, currentSettings)) {
-          LOG.debug("invalidating entire cache due to settings change");
-          getCache().invalidateAll();
+          if (previousSettings != null) {
+            LOG.debug("invalidating entire cache due to settings change");
+            getCache().invalidateAll();
+          }
           scope.update("settings_change", true);
         } else {
           scope.update("settings_change", false);
@@ -138,6 +149,16 @@ public class RuleKeyCacheRecycler<V> {
 
         // Record the current settings for next time.
         previousSettings = currentSettings;
+
+        // Report the invalidations caused by files changed since the last build.
+        long watchmanInvalidationTime = watchmanStatsTracker.getTotalInvalidationTime();
+        long watchmanEvictionCount = watchmanStatsTracker.getTotalEvictionCount();
+        scope.update(
+            "watchman_invalidation_time_ms",
+            watchmanInvalidationTime - reportedWatchmanInvalidationTime);
+        scope.update("watchman_evictions", watchmanEvictionCount - reportedWatchmanEvictionCount);
+        reportedWatchmanInvalidationTime = watchmanInvalidationTime;
+        reportedWatchmanEvictionCount = watchmanEvictionCount;
       }
 
       // Cache cleanup which is run after the caller is finished using the cache, at the conclusion
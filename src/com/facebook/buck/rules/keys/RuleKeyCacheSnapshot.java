@@ -0,0 +1,431 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * A persisted, memory-mapped snapshot of the {@link BuildRule} entries of a {@link
+ * DefaultRuleKeyCache}. Unlike the in-memory cache, entries are keyed by the fully qualified build
+ * target name rather than object identity, so that they can be re-used by a new daemon which has
+ * constructed a fresh action graph.
+ *
+ * <p>Each entry records the rule key, the {@link RuleKeyInput}s it was computed from, and the
+ * entries of the rules it depends on. Invalidating an input invalidates all entries transitively
+ * depending on it, mirroring the behavior of {@link DefaultRuleKeyCache}.
+ *
+ * <p>File layout (big endian):
+ *
+ * <pre>
+ *   int magic, int version, string fingerprint
+ *   int clockCount, (string cellPath, string clock)*
+ *   int stringCount, string*
+ *   int inputCount, (int rootString, int pathString)*
+ *   int entryCount, (int targetString, int keyLength, byte[] key,
+ *                    int inputCount, int* inputs, int depCount, int* deps)*
+ * </pre>
+ *
+ * where {@code string} is an int length followed by UTF-8 bytes. Only the lookup indices are
+ * decoded when loading; rule keys, inputs and dependencies of individual entries are read from the
+ * mapped buffer on demand.
+ */
+public class RuleKeyCacheSnapshot {
+
+  private static final Logger LOG = Logger.get(RuleKeyCacheSnapshot.class);
+
+  private static final int MAGIC = 0x524b4353;
+  private static final int VERSION = 1;
+
+  private final ByteBuffer buffer;
+  private final ImmutableMap<Path, String> watchmanClocks;
+  private final String[] strings;
+  private final int[] inputRoots;
+  private final int[] inputPaths;
+  private final int[] entryOffsets;
+  private final Map<String, Integer> entriesByTarget;
+  private final Map<String, Integer> inputsByKey;
+  private final int[][] entriesByInput;
+  private final int[][] dependents;
+
+  /** Entries which have been invalidated since the snapshot was loaded. */
+  private final BitSet invalidated;
+
+  private RuleKeyCacheSnapshot(
+      ByteBuffer buffer,
+      ImmutableMap<Path, String> watchmanClocks,
+      String[] strings,
+      int[] inputRoots,
+      int[] inputPaths,
+      int[] entryOffsets,
+      Map<String, Integer> entriesByTarget,
+      Map<String, Integer> inputsByKey,
+      int[][] entriesByInput,
+      int[][] dependents) {
+    this.buffer = buffer;
+    this.watchmanClocks = watchmanClocks;
+    this.strings = strings;
+    this.inputRoots = inputRoots;
+    this.inputPaths = inputPaths;
+    this.entryOffsets = entryOffsets;
+    this.entriesByTarget = entriesByTarget;
+    this.inputsByKey = inputsByKey;
+    this.entriesByInput = entriesByInput;
+    this.dependents = dependents;
+    this.invalidated = new BitSet(entryOffsets.length);
+  }
+
+  /**
+   * Writes the given cached rules to {@code file}, replacing any existing snapshot atomically.
+   *
+   * @param fingerprint a fingerprint of all settings which affect rule keys (e.g. configuration and
+   *     buck version). A snapshot is only loaded by {@link #load} if the fingerprints match.
+   * @param watchmanClocks the watchman clock, per cell path, the cached rules are consistent with.
+   */
+  static void write(
+      Path file,
+      String fingerprint,
+      ImmutableMap<Path, String> watchmanClocks,
+      ImmutableList<DefaultRuleKeyCache.CachedBuildRule<RuleKey>> rules)
+      throws IOException {
+    Map<String, Integer> stringIds = new LinkedHashMap<>();
+    Function<String, Integer> intern = s -> stringIds.computeIfAbsent(s, k -> stringIds.size());
+    Map<RuleKeyInput, Integer> inputIds = new LinkedHashMap<>();
+    List<int[]> inputs = new ArrayList<>();
+    Map<BuildRule, Integer> entryIds = new HashMap<>();
+    for (DefaultRuleKeyCache.CachedBuildRule<RuleKey> rule : rules) {
+      entryIds.put(rule.rule, entryIds.size());
+      intern.apply(rule.rule.getFullyQualifiedName());
+      for (RuleKeyInput input : rule.inputs) {
+        inputIds.computeIfAbsent(
+            input,
+            k -> {
+              inputs.add(
+                  new int[] {
+                    intern.apply(input.getFilesystem().getRootPath().toString()),
+                    intern.apply(input.getPath().toString())
+                  });
+              return inputs.size() - 1;
+            });
+      }
+    }
+
+    Files.createDirectories(file.getParent());
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeString(out, fingerprint);
+      out.writeInt(watchmanClocks.size());
+      for (Map.Entry<Path, String> clock : watchmanClocks.entrySet()) {
+        writeString(out, clock.getKey().toString());
+        writeString(out, clock.getValue());
+      }
+      out.writeInt(stringIds.size());
+      for (String string : stringIds.keySet()) {
+        writeString(out, string);
+      }
+      out.writeInt(inputs.size());
+      for (int[] input : inputs) {
+        out.writeInt(input[0]);
+        out.writeInt(input[1]);
+      }
+      out.writeInt(rules.size());
+      for (DefaultRuleKeyCache.CachedBuildRule<RuleKey> rule : rules) {
+        out.writeInt(stringIds.get(rule.rule.getFullyQualifiedName()));
+        byte[] key = rule.value.getHashCode().asBytes();
+        out.writeInt(key.length);
+        out.write(key);
+        out.writeInt(rule.inputs.size());
+        for (RuleKeyInput input : rule.inputs) {
+          out.writeInt(inputIds.get(input));
+        }
+        // Dependencies which didn't make it into the snapshot are recorded as missing (-1), which
+        // prevents the entry from ever being used.
+        out.writeInt(rule.ruleDeps.size());
+        for (BuildRule dep : rule.ruleDeps) {
+          out.writeInt(entryIds.getOrDefault(dep, -1));
+        }
+      }
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Loads and memory-maps a snapshot previously written by {@link #write}.
+   *
+   * @return the snapshot, or {@link Optional#empty()} if the file doesn't exist, is corrupt, or was
+   *     written with a different fingerprint.
+   */
+  static Optional<RuleKeyCacheSnapshot> load(Path file, String fingerprint) {
+    if (!Files.isRegularFile(file)) {
+      return Optional.empty();
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        LOG.debug("ignoring rule key cache snapshot with unknown format: %s", file);
+        return Optional.empty();
+      }
+      if (!readString(buffer).equals(fingerprint)) {
+        LOG.debug("ignoring rule key cache snapshot with stale fingerprint: %s", file);
+        return Optional.empty();
+      }
+
+      ImmutableMap.Builder<Path, String> clocks = ImmutableMap.builder();
+      int clockCount = buffer.getInt();
+      for (int i = 0; i < clockCount; i++) {
+        clocks.put(file.getFileSystem().getPath(readString(buffer)), readString(buffer));
+      }
+
+      String[] strings = new String[buffer.getInt()];
+      for (int i = 0; i < strings.length; i++) {
+        strings[i] = readString(buffer);
+      }
+
+      int inputCount = buffer.getInt();
+      int[] inputRoots = new int[inputCount];
+      int[] inputPaths = new int[inputCount];
+      Map<String, Integer> inputsByKey = new HashMap<>();
+      for (int i = 0; i < inputCount; i++) {
+        inputRoots[i] = buffer.getInt();
+        inputPaths[i] = buffer.getInt();
+        inputsByKey.put(inputKey(strings[inputRoots[i]], strings[inputPaths[i]]), i);
+      }
+
+      int entryCount = buffer.getInt();
+      int[] entryOffsets = new int[entryCount];
+      Map<String, Integer> entriesByTarget = new HashMap<>();
+      List<List<Integer>> entriesByInput = newAdjacency(inputCount);
+      List<List<Integer>> dependents = newAdjacency(entryCount);
+      for (int i = 0; i < entryCount; i++) {
+        entryOffsets[i] = buffer.position();
+        entriesByTarget.put(strings[buffer.getInt()], i);
+        int keyLength = buffer.getInt();
+        buffer.position(buffer.position() + keyLength);
+        int entryInputs = buffer.getInt();
+        for (int j = 0; j < entryInputs; j++) {
+          entriesByInput.get(buffer.getInt()).add(i);
+        }
+        int entryDeps = buffer.getInt();
+        for (int j = 0; j < entryDeps; j++) {
+          int dep = buffer.getInt();
+          if (dep >= 0) {
+            dependents.get(dep).add(i);
+          }
+        }
+      }
+
+      return Optional.of(
+          new RuleKeyCacheSnapshot(
+              buffer,
+              clocks.build(),
+              strings,
+              inputRoots,
+              inputPaths,
+              entryOffsets,
+              entriesByTarget,
+              inputsByKey,
+              toArrays(entriesByInput),
+              toArrays(dependents)));
+    } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+      LOG.warn(e, "failed to load rule key cache snapshot from %s", file);
+      return Optional.empty();
+    }
+  }
+
+  /** @return the watchman clocks, per cell path, this snapshot is consistent with. */
+  public ImmutableMap<Path, String> getWatchmanClocks() {
+    return watchmanClocks;
+  }
+
+  /** @return the number of entries in this snapshot, including invalidated ones. */
+  public int size() {
+    return entryOffsets.length;
+  }
+
+  /**
+   * Looks up the cached rule key for the given rule, in the form the in-memory cache expects.
+   *
+   * @param filesystems the filesystems which inputs may come from, indexed by their root path.
+   * @return the cached result, or null if the rule isn't in the snapshot, has been invalidated, or
+   *     its recorded inputs or dependencies can no longer be resolved.
+   */
+  @Nullable
+  synchronized RuleKeyResult<RuleKey> get(
+      BuildRule rule, ImmutableMap<String, ProjectFilesystem> filesystems) {
+    Integer entry = entriesByTarget.get(rule.getFullyQualifiedName());
+    if (entry == null || invalidated.get(entry)) {
+      return null;
+    }
+
+    ByteBuffer view = buffer.duplicate();
+    view.position(entryOffsets[entry] + Integer.BYTES);
+    byte[] key = new byte[view.getInt()];
+    view.get(key);
+
+    ImmutableList.Builder<RuleKeyInput> inputs = ImmutableList.builder();
+    int inputCount = view.getInt();
+    for (int i = 0; i < inputCount; i++) {
+      int input = view.getInt();
+      ProjectFilesystem filesystem = filesystems.get(strings[inputRoots[input]]);
+      if (filesystem == null) {
+        return null;
+      }
+      inputs.add(
+          new ImmutableRuleKeyInput(filesystem, filesystem.getPath(strings[inputPaths[input]])));
+    }
+
+    // The snapshot can only refer to dependencies by name, so map them back to the rule instances
+    // of the current action graph.
+    Map<String, BuildRule> buildDeps = new HashMap<>();
+    for (BuildRule dep : rule.getBuildDeps()) {
+      buildDeps.put(dep.getFullyQualifiedName(), dep);
+    }
+    ImmutableList.Builder<BuildRule> deps = ImmutableList.builder();
+    int depCount = view.getInt();
+    for (int i = 0; i < depCount; i++) {
+      int depEntry = view.getInt();
+      BuildRule dep =
+          depEntry < 0
+              ? null
+              : buildDeps.get(strings[view.duplicate().getInt(entryOffsets[depEntry])]);
+      if (dep == null) {
+        return null;
+      }
+      deps.add(dep);
+    }
+
+    return new RuleKeyResult<>(new RuleKey(HashCode.fromBytes(key)), deps.build(), inputs.build());
+  }
+
+  /**
+   * Invalidates all entries using any of the given inputs, and their transitive dependents.
+   *
+   * @return the number of newly invalidated entries.
+   */
+  synchronized int invalidateInputs(Iterable<RuleKeyInput> inputs) {
+    List<Integer> entries = new ArrayList<>();
+    for (RuleKeyInput input : inputs) {
+      Integer id =
+          inputsByKey.get(
+              inputKey(input.getFilesystem().getRootPath().toString(), input.getPath().toString()));
+      if (id != null) {
+        for (int entry : entriesByInput[id]) {
+          entries.add(entry);
+        }
+      }
+    }
+    return invalidateEntries(entries);
+  }
+
+  /**
+   * Invalidates all entries using inputs from filesystems other than the given ones, and their
+   * transitive dependents.
+   *
+   * @return the number of newly invalidated entries.
+   */
+  synchronized int invalidateAllExceptFilesystems(ImmutableSet<ProjectFilesystem> filesystems) {
+    ImmutableSet<String> roots =
+        filesystems.stream()
+            .map(filesystem -> filesystem.getRootPath().toString())
+            .collect(ImmutableSet.toImmutableSet());
+    List<Integer> entries = new ArrayList<>();
+    for (int input = 0; input < inputRoots.length; input++) {
+      if (!roots.contains(strings[inputRoots[input]])) {
+        for (int entry : entriesByInput[input]) {
+          entries.add(entry);
+        }
+      }
+    }
+    return invalidateEntries(entries);
+  }
+
+  private int invalidateEntries(List<Integer> entries) {
+    int count = 0;
+    while (!entries.isEmpty()) {
+      int entry = entries.remove(entries.size() - 1);
+      if (!invalidated.get(entry)) {
+        invalidated.set(entry);
+        count++;
+        for (int dependent : dependents[entry]) {
+          entries.add(dependent);
+        }
+      }
+    }
+    return count;
+  }
+
+  private static String inputKey(String root, String path) {
+    return root + '\0' + path;
+  }
+
+  private static List<List<Integer>> newAdjacency(int size) {
+    List<List<Integer>> adjacency = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      adjacency.add(new ArrayList<>(1));
+    }
+    return adjacency;
+  }
+
+  private static int[][] toArrays(List<List<Integer>> adjacency) {
+    int[][] arrays = new int[adjacency.size()][];
+    for (int i = 0; i < arrays.length; i++) {
+      arrays[i] = adjacency.get(i).stream().mapToInt(Integer::intValue).toArray();
+    }
+    return arrays;
+  }
+
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
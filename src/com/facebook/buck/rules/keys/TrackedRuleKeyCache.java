@@ -101,7 +101,8 @@ public class TrackedRuleKeyCache<V> implements RuleKeyCache<V> {
             .setEvictionCount(statsTracker.getTotalEvictionCount())
             .setRetrievalTime(statsTracker.getAverageRetrievalTime())
             .setTotalMissTime(statsTracker.getAverageMissTime())
-            .setTotalLoadTime(statsTracker.getAverageLoadTime());
+            .setTotalLoadTime(statsTracker.getAverageLoadTime())
+            .setTotalInvalidationTime(statsTracker.getTotalInvalidationTime());
 
     return statsBuilder.build();
   }
@@ -25,10 +25,13 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /** Utilities for dealing with CustomFieldBehavior and CustomClassBehavior. */
 public class CustomBehaviorUtils {
+  private static final ConcurrentHashMap<Class<?>, Object> INSTANCES = new ConcurrentHashMap<>();
+
   /** Returns the class behavior of the requested type (if there is one). */
   public static <C extends CustomClassBehaviorTag> Optional<CustomClassBehaviorTag> getBehavior(
       Class<?> clazz, Class<C> behaviorClass) {
@@ -45,18 +48,7 @@ public class CustomBehaviorUtils {
       return Optional.empty();
     }
     Preconditions.checkState(matches.size() == 1);
-    Class<? extends CustomClassBehaviorTag> tag = matches.get(0);
-
-    try {
-      Constructor<? extends CustomClassBehaviorTag> constructor = tag.getDeclaredConstructor();
-      constructor.setAccessible(true);
-      return Optional.of(constructor.newInstance());
-    } catch (NoSuchMethodException
-        | IllegalAccessException
-        | InstantiationException
-        | InvocationTargetException e) {
-      throw new RuntimeException(e);
-    }
+    return Optional.of(getInstance(matches.get(0)));
   }
 
   /** Returns the field behavior behavior of the requested type (if there is one). */
@@ -69,17 +61,29 @@ public class CustomBehaviorUtils {
     }
     Preconditions.checkState(matches.size() == 1);
     @SuppressWarnings("unchecked")
-    Class<? extends U> tag = (Class<? extends U>) matches.get(0);
+    U tag = (U) getInstance(matches.get(0));
+    return Optional.of(tag);
+  }
 
-    try {
-      Constructor<? extends U> constructor = tag.getDeclaredConstructor();
-      constructor.setAccessible(true);
-      return Optional.of(constructor.newInstance());
-    } catch (NoSuchMethodException
-        | IllegalAccessException
-        | InstantiationException
-        | InvocationTargetException e) {
-      throw new RuntimeException(e);
-    }
+  /**
+   * Behaviors are stateless, so each one is only instantiated once rather than for every value
+   * that is serialized, which matters as this is on the path of every serialized field.
+   */
+  private static <T> T getInstance(Class<T> tag) {
+    return tag.cast(
+        INSTANCES.computeIfAbsent(
+            tag,
+            ignored -> {
+              try {
+                Constructor<T> constructor = tag.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                return constructor.newInstance();
+              } catch (NoSuchMethodException
+                  | IllegalAccessException
+                  | InstantiationException
+                  | InvocationTargetException e) {
+                throw new RuntimeException(e);
+              }
+            }));
   }
 }
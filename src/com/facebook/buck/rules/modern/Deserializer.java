@@ -54,6 +54,8 @@ import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
@@ -70,9 +72,13 @@ import org.objenesis.instantiator.ObjectInstantiator;
  * Objenesis to create objects and then injects the field values via reflection.
  */
 public class Deserializer {
+  private static final ValueTypeInfo<Optional<String>> CELL_NAME_TYPE_INFO =
+      ValueTypeInfoFactory.forTypeToken(new TypeToken<Optional<String>>() {});
+
   private ObjenesisStd objenesis = new ObjenesisStd();
   private Map<Class<?>, ObjectInstantiator> instantiators = new ConcurrentHashMap<>();
   private Map<HashCode, AddsToRuleKey> childCache = new ConcurrentHashMap<>();
+  private Map<String, Class<?>> classes = new ConcurrentHashMap<>();
 
   /**
    * DataProviders are used for deserializing "dynamic" objects. These are serialized as hashcodes
@@ -116,9 +122,23 @@ public class Deserializer {
     }
   }
 
+  private Class<?> findClass(String name) {
+    Class<?> clazz = classes.get(name);
+    if (clazz == null) {
+      try {
+        clazz = classFinder.find(name);
+      } catch (ClassNotFoundException e) {
+        throw new RuntimeException(e);
+      }
+      classes.put(name, clazz);
+    }
+    return clazz;
+  }
+
   private class Creator implements ValueCreator<IOException> {
     private final DataInputStream stream;
     private final DataProvider provider;
+    private final List<String> strings = new ArrayList<>();
 
     private Creator(DataProvider provider, DataInputStream stream) {
       this.stream = stream;
@@ -171,7 +191,7 @@ public class Deserializer {
 
     @Override
     public <T> ImmutableList<T> createList(ValueTypeInfo<T> innerType) throws IOException {
-      int size = stream.readInt();
+      int size = readVarInt();
       ImmutableList.Builder<T> builder = ImmutableList.builderWithExpectedSize(size);
       for (int i = 0; i < size; i++) {
         builder.add(innerType.createNotNull(this));
@@ -181,7 +201,7 @@ public class Deserializer {
 
     @Override
     public <T> ImmutableSet<T> createSet(ValueTypeInfo<T> innerType) throws IOException {
-      int size = stream.readInt();
+      int size = readVarInt();
       ImmutableSet.Builder<T> builder = ImmutableSet.builderWithExpectedSize(size);
       for (int i = 0; i < size; i++) {
         builder.add(innerType.createNotNull(this));
@@ -192,7 +212,7 @@ public class Deserializer {
     @Override
     public <T> ImmutableSortedSet<T> createSortedSet(ValueTypeInfo<T> innerType)
         throws IOException {
-      int size = stream.readInt();
+      int size = readVarInt();
       @SuppressWarnings("unchecked")
       ImmutableSortedSet.Builder<T> builder =
           (ImmutableSortedSet.Builder<T>) ImmutableSortedSet.naturalOrder();
@@ -229,11 +249,11 @@ public class Deserializer {
     @Override
     public SourcePath createSourcePath() throws IOException {
       if (stream.readBoolean()) {
-        BuildTarget target = readValue(new TypeToken<BuildTarget>() {});
+        BuildTarget target = BuildTargetTypeInfo.INSTANCE.createNotNull(this);
         Path path = createRelativePath();
         return ExplicitBuildTargetSourcePath.of(target, path);
       } else {
-        Optional<String> cellName = readValue(new TypeToken<Optional<String>>() {});
+        Optional<String> cellName = CELL_NAME_TYPE_INFO.createNotNull(this);
         Path path = createRelativePath();
         return PathSourcePath.of(cellMap.apply(cellName), path);
       }
@@ -242,7 +262,7 @@ public class Deserializer {
     @Override
     public Path createPath() throws IOException {
       if (stream.readBoolean()) {
-        Optional<String> cellName = readValue(new TypeToken<Optional<String>>() {});
+        Optional<String> cellName = CELL_NAME_TYPE_INFO.createNotNull(this);
         Path relativePath = createRelativePath();
         return cellMap.apply(cellName).resolve(relativePath);
       } else {
@@ -251,22 +271,45 @@ public class Deserializer {
     }
 
     private Path createRelativePath() throws IOException {
-      int nameCount = stream.readInt();
+      int nameCount = readVarInt();
       if (nameCount < 1) {
-        return Paths.get(stream.readUTF());
+        return Paths.get(readString());
       }
 
-      String first = stream.readUTF();
+      String first = readString();
       String[] rest = new String[nameCount - 1];
       for (int i = 0; i < nameCount - 1; i++) {
-        rest[i] = stream.readUTF();
+        rest[i] = readString();
       }
       return Paths.get(first, rest);
     }
 
     @Override
     public String createString() throws IOException {
-      return stream.readUTF();
+      return readString();
+    }
+
+    private String readString() throws IOException {
+      int index = readVarInt();
+      if (index < strings.size()) {
+        return strings.get(index);
+      }
+      Verify.verify(index == strings.size(), "Unexpected string index %s.", index);
+      String value = stream.readUTF();
+      strings.add(value);
+      return value;
+    }
+
+    private int readVarInt() throws IOException {
+      int value = 0;
+      for (int shift = 0; ; shift += 7) {
+        Verify.verify(shift < 32, "Malformed varint.");
+        byte b = stream.readByte();
+        value |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
     }
 
     @Override
@@ -310,24 +353,14 @@ public class Deserializer {
     }
 
     private byte[] readBytes() throws IOException {
-      int size = stream.readInt();
+      int size = readVarInt();
       byte[] data = new byte[size];
       ByteStreams.readFully(stream, data);
       return data;
     }
 
-    private <T> T readValue(TypeToken<T> typeToken) throws IOException {
-      return ValueTypeInfoFactory.forTypeToken(typeToken).createNotNull(this);
-    }
-
     public <T extends AddsToRuleKey> T create(Class<T> requestedClass) throws IOException {
-      String className = stream.readUTF();
-      Class<?> instanceClass;
-      try {
-        instanceClass = classFinder.find(className);
-      } catch (ClassNotFoundException e) {
-        throw new RuntimeException(e);
-      }
+      Class<?> instanceClass = findClass(readString());
       Preconditions.checkState(requestedClass.isAssignableFrom(instanceClass));
 
       Optional<CustomClassBehaviorTag> serializerTag =
@@ -403,14 +436,14 @@ public class Deserializer {
 
     private void setField(Field field, Object instance, @Nullable Object value)
         throws IllegalAccessException {
-      field.setAccessible(true);
+      // ClassInfo has already made the field accessible.
       field.set(instance, value);
     }
 
     @Override
     public <K, V> ImmutableMap<K, V> createMap(ValueTypeInfo<K> keyType, ValueTypeInfo<V> valueType)
         throws IOException {
-      int size = stream.readInt();
+      int size = readVarInt();
       ImmutableMap.Builder<K, V> builder = ImmutableMap.builderWithExpectedSize(size);
       for (int i = 0; i < size; i++) {
         builder.put(keyType.createNotNull(this), valueType.createNotNull(this));
@@ -421,7 +454,7 @@ public class Deserializer {
     @Override
     public <K, V> ImmutableSortedMap<K, V> createSortedMap(
         ValueTypeInfo<K> keyType, ValueTypeInfo<V> valueType) throws IOException {
-      int size = stream.readInt();
+      int size = readVarInt();
       @SuppressWarnings("unchecked")
       ImmutableSortedMap.Builder<K, V> builder =
           (ImmutableSortedMap.Builder<K, V>) ImmutableSortedMap.naturalOrder();
@@ -433,7 +466,7 @@ public class Deserializer {
 
     @Override
     public TargetConfiguration createTargetConfiguration() throws IOException {
-      int type = stream.readInt();
+      int type = readVarInt();
       switch (type) {
         case Serializer.TARGET_CONFIGURATION_TYPE_EMPTY:
           return UnconfiguredTargetConfiguration.INSTANCE;
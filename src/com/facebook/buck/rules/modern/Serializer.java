@@ -18,7 +18,6 @@ package com.facebook.buck.rules.modern;
 
 import com.facebook.buck.core.cell.CellPathResolver;
 import com.facebook.buck.core.exceptions.BuckUncheckedExecutionException;
-import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.ConfigurationForConfigurationTargets;
 import com.facebook.buck.core.model.TargetConfiguration;
 import com.facebook.buck.core.model.UnconfiguredTargetConfiguration;
@@ -57,6 +56,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -75,6 +75,12 @@ import javax.annotation.Nullable;
  * effectively a merkle tree. This allows us to share the serialized representation of shared
  * objects (for c++ particularly, there are many shared references to the PreprocessorDelegate and
  * other such fields).
+ *
+ * <p>Each serialized object has its own table of strings: the first occurrence of a string is
+ * written in full and later ones only as an index into the table. Names of classes and path
+ * components make up most of the data and repeat heavily within an object. The table isn't shared
+ * across objects, as an object's serialized representation (and so its hash) must not depend on
+ * what was serialized before it. Sizes and other structural integers are written as varints.
  */
 public class Serializer {
 
@@ -83,6 +89,9 @@ public class Serializer {
   public static final int TARGET_CONFIGURATION_TYPE_CONFIGURATION = 3;
 
   private static final int MAX_INLINE_LENGTH = 100;
+  private static final ValueTypeInfo<Optional<String>> CELL_NAME_TYPE_INFO =
+      ValueTypeInfoFactory.forTypeToken(new TypeToken<Optional<String>>() {});
+
   private final ConcurrentHashMap<AddsToRuleKey, Either<HashCode, byte[]>> cache =
       new ConcurrentHashMap<>();
   private final SourcePathRuleFinder ruleFinder;
@@ -176,6 +185,7 @@ public class Serializer {
     ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
     DataOutputStream stream = new DataOutputStream(byteStream);
     Stream.Builder<HashCode> children = Stream.builder();
+    Map<String, Integer> strings = new HashMap<>();
 
     public Visitor(Class<? extends AddsToRuleKey> clazz) throws IOException {
       writeString(clazz.getName());
@@ -184,7 +194,7 @@ public class Serializer {
     @Override
     public <T> void visitList(ImmutableList<T> value, ValueTypeInfo<T> innerType)
         throws IOException {
-      stream.writeInt(value.size());
+      writeVarInt(value.size());
       for (T e : value) {
         innerType.visit(e, this);
       }
@@ -192,7 +202,7 @@ public class Serializer {
 
     @Override
     public <T> void visitSet(ImmutableSet<T> value, ValueTypeInfo<T> innerType) throws IOException {
-      stream.writeInt(value.size());
+      writeVarInt(value.size());
       for (T e : value) {
         innerType.visit(e, this);
       }
@@ -222,7 +232,26 @@ public class Serializer {
     private void writeString(String value) throws IOException {
       // TODO(cjhopman): This doesn't correctly handle large strings.
       Preconditions.checkState(value.length() < 10000);
-      stream.writeUTF(value);
+      Integer index = strings.get(value);
+      if (index != null) {
+        writeVarInt(index);
+      } else {
+        // A new string is written as the next index, followed by its contents.
+        index = strings.size();
+        strings.put(value, index);
+        writeVarInt(index);
+        stream.writeUTF(value);
+      }
+    }
+
+    /** Writes a non-negative int in as few bytes as it needs, 7 bits at a time. */
+    private void writeVarInt(int value) throws IOException {
+      Preconditions.checkArgument(value >= 0);
+      while ((value & ~0x7F) != 0) {
+        stream.writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      stream.writeByte(value);
     }
 
     @Override
@@ -235,15 +264,14 @@ public class Serializer {
       if (value instanceof ExplicitBuildTargetSourcePath) {
         stream.writeBoolean(true);
         ExplicitBuildTargetSourcePath buildTargetSourcePath = (ExplicitBuildTargetSourcePath) value;
-        writeValue(buildTargetSourcePath.getTarget(), new TypeToken<BuildTarget>() {});
+        BuildTargetTypeInfo.INSTANCE.visit(buildTargetSourcePath.getTarget(), this);
         writeRelativePath(buildTargetSourcePath.getResolvedPath());
       } else if (value instanceof ForwardingBuildTargetSourcePath) {
         visitSourcePath(((ForwardingBuildTargetSourcePath) value).getDelegate());
       } else if (value instanceof PathSourcePath) {
         PathSourcePath pathSourcePath = (PathSourcePath) value;
         stream.writeBoolean(false);
-        writeValue(
-            getCellName(pathSourcePath.getFilesystem()), new TypeToken<Optional<String>>() {});
+        CELL_NAME_TYPE_INFO.visit(getCellName(pathSourcePath.getFilesystem()), this);
         writeRelativePath(pathSourcePath.getRelativePath());
       } else {
         throw new IllegalStateException(
@@ -251,10 +279,6 @@ public class Serializer {
       }
     }
 
-    private <T> void writeValue(T value, TypeToken<T> type) throws IOException {
-      ValueTypeInfoFactory.forTypeToken(type).visit(value, this);
-    }
-
     @Override
     public <T> void visitField(
         Field field,
@@ -326,8 +350,7 @@ public class Serializer {
             cellName = candidate.getValue();
           }
         }
-        ValueTypeInfoFactory.forTypeToken(new TypeToken<Optional<String>>() {})
-            .visit(cellName, this);
+        CELL_NAME_TYPE_INFO.visit(cellName, this);
         writeRelativePath(cellPath.relativize(path));
       } else {
         stream.writeBoolean(false);
@@ -338,7 +361,7 @@ public class Serializer {
     private void writeRelativePath(Path path) throws IOException {
       Verify.verify(!path.isAbsolute());
       int nameCount = path.getNameCount();
-      stream.writeInt(nameCount);
+      writeVarInt(nameCount);
       if (nameCount == 0) {
         writeString(path.toString());
       }
@@ -393,7 +416,7 @@ public class Serializer {
     }
 
     private void writeBytes(byte[] bytes) throws IOException {
-      this.stream.writeInt(bytes.length);
+      writeVarInt(bytes.length);
       this.stream.write(bytes);
     }
 
@@ -401,7 +424,7 @@ public class Serializer {
     public <K, V> void visitMap(
         ImmutableMap<K, V> value, ValueTypeInfo<K> keyType, ValueTypeInfo<V> valueType)
         throws IOException {
-      this.stream.writeInt(value.size());
+      writeVarInt(value.size());
       RichStream.from(value.entrySet())
           .forEachThrowing(
               entry -> {
@@ -429,13 +452,13 @@ public class Serializer {
     @Override
     public void visitTargetConfiguration(TargetConfiguration value) throws IOException {
       if (value instanceof UnconfiguredTargetConfiguration) {
-        stream.writeInt(TARGET_CONFIGURATION_TYPE_EMPTY);
+        writeVarInt(TARGET_CONFIGURATION_TYPE_EMPTY);
       } else if (value instanceof RuleBasedTargetConfiguration) {
-        stream.writeInt(TARGET_CONFIGURATION_TYPE_DEFAULT);
+        writeVarInt(TARGET_CONFIGURATION_TYPE_DEFAULT);
         BuildTargetTypeInfo.INSTANCE.visit(
             ((RuleBasedTargetConfiguration) value).getTargetPlatform(), this);
       } else if (value instanceof ConfigurationForConfigurationTargets) {
-        stream.writeInt(TARGET_CONFIGURATION_TYPE_CONFIGURATION);
+        writeVarInt(TARGET_CONFIGURATION_TYPE_CONFIGURATION);
       } else {
         throw new IllegalArgumentException("Cannot serialize target configuration: " + value);
       }
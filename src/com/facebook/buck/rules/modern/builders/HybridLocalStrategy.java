@@ -459,6 +459,17 @@ public class HybridLocalStrategy implements BuildRuleStrategy {
     return true;
   }
 
+  @Override
+  public void prefetch(BuildRule rule) {
+    // The rule may end up being built locally, but there's no way to tell yet.
+    delegate.prefetch(rule);
+  }
+
+  @Override
+  public void cancelPrefetch(BuildRule rule) {
+    delegate.cancelPrefetch(rule);
+  }
+
   @Override
   public void close() throws IOException {
     delegate.close();
@@ -84,6 +84,16 @@ public class LocalFallbackStrategy implements BuildRuleStrategy {
     return mainBuildRuleStrategy.canBuild(instance);
   }
 
+  @Override
+  public void prefetch(BuildRule rule) {
+    mainBuildRuleStrategy.prefetch(rule);
+  }
+
+  @Override
+  public void cancelPrefetch(BuildRule rule) {
+    mainBuildRuleStrategy.cancelPrefetch(rule);
+  }
+
   /** Thrown when execution needs to be halted because of cancellation */
   public static class RemoteActionCancelledException extends Exception {
     RemoteActionCancelledException(String message) {
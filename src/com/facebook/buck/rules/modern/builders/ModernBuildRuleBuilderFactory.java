@@ -31,13 +31,16 @@ import com.facebook.buck.remoteexecution.WorkerRequirementsProvider;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
 import com.facebook.buck.remoteexecution.factory.RemoteExecutionClientsFactory;
 import com.facebook.buck.remoteexecution.interfaces.MetadataProvider;
+import com.facebook.buck.remoteexecution.util.MerkleTreeNodeDataStore;
 import com.facebook.buck.rules.modern.config.HybridLocalBuildStrategyConfig;
 import com.facebook.buck.rules.modern.config.ModernBuildRuleBuildStrategy;
 import com.facebook.buck.rules.modern.config.ModernBuildRuleStrategyConfig;
 import com.facebook.buck.util.hashing.FileHashLoader;
 import com.google.common.util.concurrent.Futures;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Constructs various BuildRuleStrategies for ModernBuildRules based on the
@@ -46,7 +49,12 @@ import java.util.Optional;
 public class ModernBuildRuleBuilderFactory {
   private static final int WORKER_REQUIREMENTS_PROVIDER_DEFAULT_MAX_CACHE_SIZE = 1000;
 
-  /** Creates a BuildRuleStrategy for ModernBuildRules based on the buck configuration. */
+  /**
+   * Creates a BuildRuleStrategy for ModernBuildRules based on the buck configuration.
+   *
+   * @param nodeDataStores the daemon's stores of encoded remote execution input directories, by
+   *     the file they are saved to.
+   */
   public static Optional<BuildRuleStrategy> getBuildStrategy(
       ModernBuildRuleStrategyConfig config,
       RemoteExecutionConfig remoteExecutionConfig,
@@ -56,6 +64,7 @@ public class ModernBuildRuleBuilderFactory {
       FileHashLoader hashLoader,
       BuckEventBus eventBus,
       MetadataProvider metadataProvider,
+      ConcurrentMap<Path, MerkleTreeNodeDataStore> nodeDataStores,
       boolean remoteExecutionAutoEnabled,
       boolean forceDisableRemoteExecution) {
     ModernBuildRuleBuildStrategy strategy;
@@ -87,6 +96,7 @@ public class ModernBuildRuleBuilderFactory {
                   hashLoader,
                   eventBus,
                   metadataProvider,
+                  nodeDataStores,
                   remoteExecutionAutoEnabled,
                   forceDisableRemoteExecution,
                   workerRequirementsProvider));
@@ -100,7 +110,8 @@ public class ModernBuildRuleBuilderFactory {
                   rootCell,
                   hashLoader,
                   metadataProvider,
-                  workerRequirementsProvider));
+                  workerRequirementsProvider,
+                  nodeDataStores));
       }
     } catch (IOException e) {
       throw new BuckUncheckedExecutionException(e, "When creating MBR build strategy.");
@@ -117,6 +128,7 @@ public class ModernBuildRuleBuilderFactory {
       FileHashLoader hashLoader,
       BuckEventBus eventBus,
       MetadataProvider metadataProvider,
+      ConcurrentMap<Path, MerkleTreeNodeDataStore> nodeDataStores,
       boolean remoteExecutionAutoEnabled,
       boolean forceDisableRemoteExecution,
       WorkerRequirementsProvider workerRequirementsProvider) {
@@ -130,6 +142,7 @@ public class ModernBuildRuleBuilderFactory {
                 hashLoader,
                 eventBus,
                 metadataProvider,
+                nodeDataStores,
                 remoteExecutionAutoEnabled,
                 forceDisableRemoteExecution)
             .orElseThrow(
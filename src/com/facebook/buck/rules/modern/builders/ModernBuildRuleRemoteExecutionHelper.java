@@ -24,6 +24,7 @@ import com.facebook.buck.core.exceptions.WrapsException;
 import com.facebook.buck.core.model.CanonicalCellName;
 import com.facebook.buck.core.rulekey.AddsToRuleKey;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
 import com.facebook.buck.core.util.log.Logger;
@@ -31,6 +32,7 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.LeafEvents;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.PathMatcher;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.jvm.java.version.JavaVersion;
 import com.facebook.buck.remoteexecution.UploadDataSupplier;
 import com.facebook.buck.remoteexecution.interfaces.Protocol;
@@ -43,6 +45,7 @@ import com.facebook.buck.remoteexecution.proto.WorkerRequirements;
 import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache;
 import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache.MerkleTreeNode;
 import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache.NodeData;
+import com.facebook.buck.remoteexecution.util.MerkleTreeNodeDataStore;
 import com.facebook.buck.rules.modern.Buildable;
 import com.facebook.buck.rules.modern.ModernBuildRule;
 import com.facebook.buck.rules.modern.Serializer;
@@ -74,6 +77,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -82,6 +86,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
@@ -196,6 +201,21 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
       Cell rootCell,
       FileHashLoader fileHasher,
       ImmutableSet<PathMatcher> ignorePaths) {
+    this(eventBus, protocol, ruleFinder, rootCell, fileHasher, ignorePaths, Optional.empty());
+  }
+
+  /**
+   * @param nodeDataStore if present, the encoded input directories are looked up in and added to
+   *     this store, so that they can be reused across builds.
+   */
+  public ModernBuildRuleRemoteExecutionHelper(
+      BuckEventBus eventBus,
+      Protocol protocol,
+      SourcePathRuleFinder ruleFinder,
+      Cell rootCell,
+      FileHashLoader fileHasher,
+      ImmutableSet<PathMatcher> ignorePaths,
+      Optional<MerkleTreeNodeDataStore> nodeDataStore) {
     this.ignorePaths = ignorePaths;
     ImmutableSet<CanonicalCellName> cellNames = getCellNames(rootCell);
     this.cellResolver = rootCell.getCellPathResolver();
@@ -229,7 +249,7 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
         };
     this.serializer = new Serializer(ruleFinder, cellResolver, delegate);
 
-    this.nodeCache = new MerkleTreeNodeCache(protocol);
+    this.nodeCache = new MerkleTreeNodeCache(protocol, nodeDataStore.orElse(null));
 
     this.classPath = prepareClassPath(BuckClasspath::getClasspath);
     this.bootstrapClassPath = prepareClassPath(BuckClasspath::getBootstrapClasspath);
@@ -457,6 +477,65 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
     }
   }
 
+  @Override
+  public ImmutableList<UploadDataSupplier> getPrefetchableInputs(
+      ModernBuildRule<?> rule, Predicate<Digest> requiredDataPredicate) throws IOException {
+    HashCode hash;
+    try (Scope ignored = LeafEvents.scope(eventBus, "serializing")) {
+      hash =
+          serializer.serialize(new BuildableAndTarget(rule.getBuildable(), rule.getBuildTarget()));
+    }
+
+    ImmutableList.Builder<UploadDataSupplier> requiredDataBuilder = ImmutableList.builder();
+    getSharedFilesData(requiredDataPredicate).forEach(requiredDataBuilder::add);
+    getSerializationTreeAndInputs(hash, requiredDataPredicate, requiredDataBuilder::add);
+    getSourceFileInputs(
+        inputsMapBuilder.getInputs(rule),
+        requiredDataPredicate,
+        requiredDataBuilder::add,
+        new HashSet<>());
+    return requiredDataBuilder.build();
+  }
+
+  /**
+   * Adds the regular files among the source paths of the inputs. Files under buck-out may be
+   * written by other rules during the build, so they are only added when the action is computed.
+   */
+  private void getSourceFileInputs(
+      Data inputs,
+      Predicate<Digest> requiredDataPredicate,
+      Consumer<UploadDataSupplier> dataConsumer,
+      Set<Data> visited)
+      throws IOException {
+    if (!visited.add(inputs)) {
+      return;
+    }
+    for (SourcePath sourcePath : inputs.getPaths()) {
+      if (!(sourcePath instanceof PathSourcePath)) {
+        continue;
+      }
+      PathSourcePath pathSourcePath = (PathSourcePath) sourcePath;
+      ProjectFilesystem filesystem = pathSourcePath.getFilesystem();
+      if (pathSourcePath.getRelativePath().startsWith(filesystem.getBuckPaths().getBuckOut())) {
+        continue;
+      }
+      Path path = filesystem.resolve(pathSourcePath.getRelativePath());
+      if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)
+          || ignorePaths.stream().anyMatch(matcher -> matcher.matches(path))) {
+        continue;
+      }
+      Digest digest = protocol.newDigest(fileHasher.get(path).toString(), (int) Files.size(path));
+      if (requiredDataPredicate.test(digest)) {
+        dataConsumer.accept(
+            UploadDataSupplier.of(
+                path.getFileName().toString(), digest, () -> new FileInputStream(path.toFile())));
+      }
+    }
+    for (Data child : inputs.getChildren()) {
+      getSourceFileInputs(child, requiredDataPredicate, dataConsumer, visited);
+    }
+  }
+
   private void getFileInputs(
       MerkleTreeNode inputsMerkleTree,
       Predicate<Digest> requiredDataPredicate,
@@ -15,9 +15,11 @@
  */
 package com.facebook.buck.rules.modern.builders;
 
+import com.facebook.buck.remoteexecution.UploadDataSupplier;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
 import com.facebook.buck.remoteexecution.proto.WorkerRequirements;
 import com.facebook.buck.rules.modern.ModernBuildRule;
+import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.function.Predicate;
@@ -42,6 +44,13 @@ public interface RemoteExecutionHelper {
       WorkerRequirements workerRequirements)
       throws IOException;
 
+  /**
+   * Gets the inputs of the rule that can be uploaded before its deps are built: those which don't
+   * depend on the outputs of other rules, like the serialized rule and its source files.
+   */
+  ImmutableList<UploadDataSupplier> getPrefetchableInputs(
+      ModernBuildRule<?> rule, Predicate<Digest> requiredDataPredicate) throws IOException;
+
   /**
    * The cell path prefix is the path that all remote execution related paths will be relative to.
    */
@@ -40,11 +40,13 @@ import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionStrategyConfig;
 import com.facebook.buck.remoteexecution.event.RemoteBuildRuleExecutionEvent;
 import com.facebook.buck.remoteexecution.event.RemoteExecutionActionEvent;
+import com.facebook.buck.remoteexecution.event.RemoteExecutionActionEvent.PrefetchState;
 import com.facebook.buck.remoteexecution.event.RemoteExecutionActionEvent.State;
 import com.facebook.buck.remoteexecution.event.RemoteExecutionSessionEvent;
 import com.facebook.buck.remoteexecution.interfaces.MetadataProvider;
 import com.facebook.buck.remoteexecution.interfaces.Protocol;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.util.MerkleTreeNodeDataStore;
 import com.facebook.buck.remoteexecution.util.OutputsMaterializer.FilesystemFileMaterializer;
 import com.facebook.buck.rules.modern.ModernBuildRule;
 import com.facebook.buck.step.AbstractExecutionStep;
@@ -65,6 +67,7 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import io.grpc.Status;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -75,6 +78,9 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 
@@ -89,6 +95,8 @@ import javax.annotation.Nullable;
 public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
   private static final Logger LOG = Logger.get(RemoteExecutionStrategy.class);
 
+  private static final String MERKLE_TREE_CACHE_FILE_NAME = "re_merkle_tree_nodes";
+
   private final BuckEventBus eventBus;
   private final RemoteExecutionClients executionClients;
   private final RemoteExecutionHelper mbrHelper;
@@ -99,6 +107,10 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
   private final JobLimiter pendingUploadsLimiter;
   private final JobLimiter executionLimiter;
   private final JobLimiter handleResultLimiter;
+  private final JobLimiter prefetchLimiter;
+  private final boolean prefetchEnabled;
+  private final ConcurrentHashMap<BuildTarget, ListenableFuture<Unit>> prefetches =
+      new ConcurrentHashMap<>();
   private final OptionalLong maxInputSizeBytes;
   private final WorkerRequirementsProvider requirementsProvider;
   private final MetadataProvider metadataProvider;
@@ -120,6 +132,9 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
     this.pendingUploadsLimiter = new JobLimiter(strategyConfig.getMaxConcurrentPendingUploads());
     this.executionLimiter = new JobLimiter(strategyConfig.getMaxConcurrentExecutions());
     this.handleResultLimiter = new JobLimiter(strategyConfig.getMaxConcurrentResultHandling());
+    this.prefetchEnabled = strategyConfig.getMaxConcurrentPrefetches() > 0;
+    this.prefetchLimiter =
+        new JobLimiter(Math.max(1, strategyConfig.getMaxConcurrentPrefetches()));
     this.maxInputSizeBytes = strategyConfig.maxInputSizeBytes();
     this.eventBus = eventBus;
     this.metadataProvider = metadataProvider;
@@ -143,8 +158,25 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
       Cell rootCell,
       FileHashLoader fileHasher,
       MetadataProvider metadataProvider,
-      WorkerRequirementsProvider workerRequirementsProvider) {
+      WorkerRequirementsProvider workerRequirementsProvider,
+      ConcurrentMap<Path, MerkleTreeNodeDataStore> nodeDataStores) {
     RemoteExecutionStrategyConfig strategyConfig = remoteExecutionConfig.getStrategyConfig();
+    Optional<MerkleTreeNodeDataStore> nodeDataStore = Optional.empty();
+    if (strategyConfig.getMerkleTreeCacheMaxEntries() > 0) {
+      // The store is kept by the daemon, so it is only loaded once and saved when it goes away.
+      nodeDataStore =
+          Optional.of(
+              nodeDataStores.computeIfAbsent(
+                  rootCell
+                      .getFilesystem()
+                      .resolve(rootCell.getFilesystem().getBuckPaths().getDaemonStateDir())
+                      .resolve(MERKLE_TREE_CACHE_FILE_NAME),
+                  storeFile ->
+                      MerkleTreeNodeDataStore.load(
+                          storeFile,
+                          clients.getProtocol(),
+                          strategyConfig.getMerkleTreeCacheMaxEntries())));
+    }
     return new LocalFallbackStrategy(
         new RemoteExecutionStrategy(
             eventBus,
@@ -157,7 +189,8 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
                 ruleFinder,
                 rootCell,
                 fileHasher,
-                strategyConfig.getIgnorePaths()),
+                strategyConfig.getIgnorePaths(),
+                nodeDataStore),
             workerRequirementsProvider,
             MoreExecutors.listeningDecorator(
                 MostExecutors.newMultiThreadExecutor("remote-exec", strategyConfig.getThreads())),
@@ -173,6 +206,62 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
         && mbrHelper.supportsRemoteExecution((ModernBuildRule<?>) instance);
   }
 
+  /**
+   * Uploads the inputs of the rule which don't depend on its deps while they are being built, so
+   * that most of them are already in the CAS when the rule is ready to run. The number of rules
+   * being prefetched at a time is limited, as each holds its serialized form until it is uploaded.
+   */
+  @Override
+  public void prefetch(BuildRule rule) {
+    if (!prefetchEnabled || !(rule instanceof ModernBuildRule)) {
+      return;
+    }
+    SettableFuture<Unit> prefetched = SettableFuture.create();
+    if (prefetches.putIfAbsent(rule.getBuildTarget(), prefetched) != null) {
+      return;
+    }
+    prefetched.setFuture(
+        prefetchLimiter.schedule(
+            service,
+            () -> {
+              // If the rule became ready while this was queued, its inputs are uploaded as usual.
+              if (prefetches.get(rule.getBuildTarget()) != prefetched || !canBuild(rule)) {
+                return Futures.immediateFuture(null);
+              }
+              return executionClients
+                  .getContentAddressedStorage()
+                  .addMissing(
+                      mbrHelper.getPrefetchableInputs(
+                          (ModernBuildRule<?>) rule,
+                          digest ->
+                              !executionClients.getContentAddressedStorage().containsDigest(digest)));
+            }));
+  }
+
+  @Override
+  public void cancelPrefetch(BuildRule rule) {
+    // A queued prefetch is skipped once its entry is gone. One that already started is left to
+    // finish: its uploads are shared with the other actions needing the same files.
+    prefetches.remove(rule.getBuildTarget());
+  }
+
+  private PrefetchState claimPrefetch(BuildRule rule) {
+    ListenableFuture<Unit> prefetched = prefetches.remove(rule.getBuildTarget());
+    if (prefetched == null) {
+      return PrefetchState.NOT_PREFETCHED;
+    }
+    if (!prefetched.isDone()) {
+      return PrefetchState.PREFETCHING;
+    }
+    try {
+      Futures.getDone(prefetched);
+      return PrefetchState.PREFETCHED;
+    } catch (ExecutionException e) {
+      LOG.debug(e, "Failed to prefetch the inputs of %s.", rule.getBuildTarget());
+      return PrefetchState.NOT_PREFETCHED;
+    }
+  }
+
   @Override
   public void close() throws IOException {
     executionClients.close();
@@ -189,6 +278,9 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
     Preconditions.checkState(rule instanceof ModernBuildRule);
 
     RemoteExecutionActionEvent.sendScheduledEvent(eventBus, rule);
+    if (prefetchEnabled) {
+      RemoteExecutionActionEvent.sendPrefetchedEvent(eventBus, rule, claimPrefetch(rule));
+    }
     RemoteRuleContext ruleContext = new RemoteRuleContext(eventBus, rule);
 
     ListenableFuture<RemoteExecutionActionInfo> actionInfoFuture =
@@ -20,11 +20,15 @@ import com.facebook.buck.skylark.io.GlobSpec;
 import com.facebook.buck.skylark.io.GlobSpecWithResult;
 import com.facebook.buck.skylark.io.Globber;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.Set;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
@@ -50,16 +54,25 @@ import javax.annotation.concurrent.NotThreadSafe;
  *     print("D")
  * </pre></code> will always produce either {@code "AC"} or {@code "CD"} and never {@code "AD"} or
  * {@code "BC"}.
+ *
+ * <p>When given a {@link GlobResultCache}, globs not evaluated yet in this parse are first looked
+ * up there, so that reparsing a package whose files were not added or removed doesn't expand its
+ * globs again.
  */
 @NotThreadSafe
 public class CachingGlobber implements Globber {
 
   private final Globber delegate;
   private final Map<GlobSpec, Set<String>> cache;
+  private final Optional<GlobResultCache> globResultCache;
+  private final Path packageRoot;
 
-  private CachingGlobber(Globber delegate) {
+  private CachingGlobber(
+      Globber delegate, Optional<GlobResultCache> globResultCache, Path packageRoot) {
     this.delegate = delegate;
     this.cache = new HashMap<>();
+    this.globResultCache = globResultCache;
+    this.packageRoot = packageRoot;
   }
 
   @Override
@@ -74,12 +87,32 @@ public class CachingGlobber implements Globber {
             .build();
     @Nullable Set<String> expandedPaths = cache.get(key);
     if (expandedPaths == null) {
-      expandedPaths = delegate.run(include, exclude, excludeDirectories);
+      expandedPaths = runUsingGlobResultCache(key, include, exclude, excludeDirectories);
       cache.put(key, expandedPaths);
     }
     return expandedPaths;
   }
 
+  private Set<String> runUsingGlobResultCache(
+      GlobSpec key,
+      Collection<String> include,
+      Collection<String> exclude,
+      boolean excludeDirectories)
+      throws IOException, InterruptedException {
+    if (!globResultCache.isPresent()) {
+      return delegate.run(include, exclude, excludeDirectories);
+    }
+    GlobResultCache resultCache = globResultCache.get();
+    Optional<ImmutableSet<String>> cachedPaths = resultCache.get(packageRoot, key);
+    if (cachedPaths.isPresent()) {
+      return cachedPaths.get();
+    }
+    long generation = resultCache.getGeneration();
+    Set<String> expandedPaths = delegate.run(include, exclude, excludeDirectories);
+    resultCache.put(packageRoot, key, expandedPaths, generation);
+    return expandedPaths;
+  }
+
   /**
    * @return Glob manifest that includes information about expanded paths for each requested {@link
    *     GlobSpec}.
@@ -95,6 +128,15 @@ public class CachingGlobber implements Globber {
   }
 
   public static CachingGlobber of(Globber globber) {
-    return new CachingGlobber(globber);
+    return new CachingGlobber(globber, Optional.empty(), Paths.get(""));
+  }
+
+  /**
+   * @param packageRoot the absolute path of the package directory the globs are evaluated in, which
+   *     results are recorded under in {@code globResultCache}.
+   */
+  public static CachingGlobber of(
+      Globber globber, GlobResultCache globResultCache, Path packageRoot) {
+    return new CachingGlobber(globber, Optional.of(globResultCache), packageRoot);
   }
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Glob results kept across parses, indexed by the directory of the package they were evaluated in
+ * and their {@link GlobSpec}, so that reparsing a package doesn't expand its globs again unless
+ * files were added or removed under it.
+ *
+ * <p>The owner is responsible for calling {@link #invalidateAncestorsOf(Path)} whenever a file is
+ * created or deleted, and {@link #invalidateAll()} when changes may have been missed.
+ */
+public class GlobResultCache {
+
+  private final Map<Path, Map<GlobSpec, ImmutableSet<String>>> resultsByPackage =
+      new ConcurrentHashMap<>();
+
+  /** Incremented on every invalidation, so that results computed before one are not stored. */
+  private final AtomicLong generation = new AtomicLong();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder invalidatedPackages = new LongAdder();
+
+  @GuardedBy("this")
+  private Stats lastReportedStats = new Stats(0, 0, 0);
+
+  /** @return the expanded paths of a glob previously evaluated in {@code packageRoot}. */
+  public Optional<ImmutableSet<String>> get(Path packageRoot, GlobSpec globSpec) {
+    @Nullable Map<GlobSpec, ImmutableSet<String>> results = resultsByPackage.get(packageRoot);
+    @Nullable ImmutableSet<String> paths = results == null ? null : results.get(globSpec);
+    if (paths == null) {
+      misses.increment();
+      return Optional.empty();
+    }
+    hits.increment();
+    return Optional.of(paths);
+  }
+
+  /**
+   * @return a token to pass to {@link #put(Path, GlobSpec, Set, long)}, which must be taken before
+   *     evaluating the glob.
+   */
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * Records the expanded paths of a glob, unless something was invalidated since {@code
+   * generation} was taken, in which case the result may already be stale.
+   */
+  public void put(Path packageRoot, GlobSpec globSpec, Set<String> paths, long generation) {
+    if (generation != this.generation.get()) {
+      return;
+    }
+    resultsByPackage
+        .computeIfAbsent(packageRoot, ignored -> new ConcurrentHashMap<>())
+        .put(globSpec, ImmutableSet.copyOf(paths));
+    // An invalidation racing with the put above may have missed it.
+    if (generation != this.generation.get()) {
+      resultsByPackage.remove(packageRoot);
+    }
+  }
+
+  /**
+   * Drops the results of the packages which could have matched {@code path}, which should be
+   * called when it is created or deleted.
+   */
+  public void invalidateAncestorsOf(Path path) {
+    generation.incrementAndGet();
+    for (Path directory = path; directory != null; directory = directory.getParent()) {
+      if (resultsByPackage.remove(directory) != null) {
+        invalidatedPackages.increment();
+      }
+    }
+  }
+
+  /** Drops the results of all the packages under {@code root}. */
+  public void invalidateUnder(Path root) {
+    generation.incrementAndGet();
+    for (Path packageRoot : resultsByPackage.keySet()) {
+      if (packageRoot.startsWith(root) && resultsByPackage.remove(packageRoot) != null) {
+        invalidatedPackages.increment();
+      }
+    }
+  }
+
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    resultsByPackage.clear();
+  }
+
+  public Stats getStats() {
+    return new Stats(hits.sum(), misses.sum(), invalidatedPackages.sum());
+  }
+
+  /**
+   * @return the counts since the previous call, so that invalidations done between two builds are
+   *     reported with the second one.
+   */
+  public synchronized Stats getStatsSinceLastReport() {
+    Stats stats = getStats();
+    Stats sinceLastReport = stats.since(lastReportedStats);
+    lastReportedStats = stats;
+    return sinceLastReport;
+  }
+
+  /** Counters of a {@link GlobResultCache}, since it was created or between two snapshots. */
+  public static class Stats {
+    private final long hits;
+    private final long misses;
+    private final long invalidatedPackages;
+
+    Stats(long hits, long misses, long invalidatedPackages) {
+      this.hits = hits;
+      this.misses = misses;
+      this.invalidatedPackages = invalidatedPackages;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    /** @return how many packages had their results dropped because files were added or removed. */
+    public long getInvalidatedPackages() {
+      return invalidatedPackages;
+    }
+
+    /** @return the counts between an earlier snapshot and this one. */
+    public Stats since(Stats earlier) {
+      return new Stats(
+          hits - earlier.hits,
+          misses - earlier.misses,
+          invalidatedPackages - earlier.invalidatedPackages);
+    }
+  }
+}
@@ -39,6 +39,7 @@ import com.facebook.buck.skylark.io.GlobSpecWithResult;
 import com.facebook.buck.skylark.io.Globber;
 import com.facebook.buck.skylark.io.GlobberFactory;
 import com.facebook.buck.skylark.io.impl.CachingGlobber;
+import com.facebook.buck.skylark.io.impl.GlobResultCache;
 import com.facebook.buck.skylark.packages.PackageContext;
 import com.facebook.buck.skylark.parser.context.ParseContext;
 import com.google.common.annotations.VisibleForTesting;
@@ -107,6 +108,7 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
   private final EventHandler eventHandler;
   private final BuckGlobals buckGlobals;
   private final GlobberFactory globberFactory;
+  private final Optional<GlobResultCache> globResultCache;
   private final Cache<com.google.devtools.build.lib.vfs.Path, BuildFileAST> astCache;
   private final Cache<com.google.devtools.build.lib.vfs.Path, ExtensionData> extensionDataCache;
   private final LoadingCache<LoadImport, IncludesData> includesDataCache;
@@ -118,13 +120,15 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
       FileSystem fileSystem,
       BuckGlobals buckGlobals,
       EventHandler eventHandler,
-      GlobberFactory globberFactory) {
+      GlobberFactory globberFactory,
+      Optional<GlobResultCache> globResultCache) {
     this.options = options;
     this.buckEventBus = buckEventBus;
     this.fileSystem = fileSystem;
     this.eventHandler = eventHandler;
     this.buckGlobals = buckGlobals;
     this.globberFactory = globberFactory;
+    this.globResultCache = globResultCache;
 
     this.astCache = CacheBuilder.newBuilder().build();
     this.extensionDataCache = CacheBuilder.newBuilder().build();
@@ -152,7 +156,8 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
         other.fileSystem,
         other.buckGlobals,
         other.eventHandler,
-        other.globberFactory);
+        other.globberFactory,
+        other.globResultCache);
   }
 
   /** Create an instance of Skylark project build file parser using provided options. */
@@ -163,8 +168,36 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
       BuckGlobals buckGlobals,
       EventHandler eventHandler,
       GlobberFactory globberFactory) {
+    return using(
+        options,
+        buckEventBus,
+        fileSystem,
+        buckGlobals,
+        eventHandler,
+        globberFactory,
+        Optional.empty());
+  }
+
+  /**
+   * Create an instance of Skylark project build file parser using provided options, which looks up
+   * globs in a {@link GlobResultCache} before evaluating them.
+   */
+  public static SkylarkProjectBuildFileParser using(
+      ProjectBuildFileParserOptions options,
+      BuckEventBus buckEventBus,
+      FileSystem fileSystem,
+      BuckGlobals buckGlobals,
+      EventHandler eventHandler,
+      GlobberFactory globberFactory,
+      Optional<GlobResultCache> globResultCache) {
     return new SkylarkProjectBuildFileParser(
-        options, buckEventBus, fileSystem, buckGlobals, eventHandler, globberFactory);
+        options,
+        buckEventBus,
+        fileSystem,
+        buckGlobals,
+        eventHandler,
+        globberFactory,
+        globResultCache);
   }
 
   @Override
@@ -284,7 +317,7 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
         loadImplicitExtension(buildFile.getFileSystem().getPath(basePath), containingLabel);
 
     BuildFileAST buildFileAst = parseBuildFile(buildFilePath, containingLabel);
-    CachingGlobber globber = newGlobber(buildFile);
+    CachingGlobber globber = newGlobber(buildFile, globResultCache);
     PackageContext packageContext =
         createPackageContext(basePath, globber, implicitLoad.getLoadedSymbols());
     ParseContext parseContext = new ParseContext(packageContext);
@@ -343,9 +376,11 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
   }
 
   /** Creates a globber for the package defined by the provided build file path. */
-  private CachingGlobber newGlobber(Path buildFile) {
-    return CachingGlobber.of(
-        globberFactory.create(fileSystem.getPath(buildFile.getParent().toString())));
+  private CachingGlobber newGlobber(Path buildFile, Optional<GlobResultCache> globResultCache) {
+    Globber globber = globberFactory.create(fileSystem.getPath(buildFile.getParent().toString()));
+    return globResultCache.isPresent()
+        ? CachingGlobber.of(globber, globResultCache.get(), buildFile.getParent())
+        : CachingGlobber.of(globber);
   }
 
   /**
@@ -975,7 +1010,8 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
   public boolean globResultsMatchCurrentState(
       Path buildFile, ImmutableList<GlobSpecWithResult> existingGlobsWithResults)
       throws IOException, InterruptedException {
-    CachingGlobber globber = newGlobber(buildFile);
+    // Compare against the file system, rather than against results cached from earlier parses.
+    CachingGlobber globber = newGlobber(buildFile, Optional.empty());
     for (GlobSpecWithResult globSpecWithResult : existingGlobsWithResults) {
       final GlobSpec globSpec = globSpecWithResult.getGlobSpec();
       Set<String> globResult =
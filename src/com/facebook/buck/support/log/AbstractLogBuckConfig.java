@@ -31,6 +31,8 @@ public abstract class AbstractLogBuckConfig implements ConfigView<BuckConfig> {
 
   private static final String LOG_SECTION = "log";
 
+  private static final int DEFAULT_EVENT_LISTENER_QUEUE_CAPACITY = 64 * 1024;
+
   @Value.Lazy
   public boolean isPublicAnnouncementsEnabled() {
     return getDelegate().getBooleanValue(LOG_SECTION, "public_announcements", true);
@@ -71,6 +73,35 @@ public abstract class AbstractLogBuckConfig implements ConfigView<BuckConfig> {
     return getDelegate().getBooleanValue(LOG_SECTION, "gc_event_logging_enabled", false);
   }
 
+  /**
+   * Whether each event bus listener gets its own queue and consumer, instead of all listeners
+   * being called one after the other by a single thread.
+   */
+  @Value.Lazy
+  public boolean isPerListenerEventQueuesEnabled() {
+    return getDelegate().getBooleanValue(LOG_SECTION, "per_listener_event_queues", false);
+  }
+
+  /** Maximum number of events waiting in the queue of each listener. */
+  @Value.Lazy
+  public int getEventListenerQueueCapacity() {
+    return getDelegate()
+        .getInteger(LOG_SECTION, "event_listener_queue_capacity")
+        .orElse(DEFAULT_EVENT_LISTENER_QUEUE_CAPACITY);
+  }
+
+  /**
+   * Simple class names of the listeners which miss events when their queue is full, instead of
+   * making the threads posting events wait.
+   */
+  @Value.Lazy
+  public ImmutableSet<String> getEventListenersDroppingEvents() {
+    return getDelegate()
+        .getOptionalListWithoutComments(LOG_SECTION, "event_listeners_dropping_events")
+        .map(ImmutableSet::copyOf)
+        .orElse(ImmutableSet.of());
+  }
+
   public boolean isLogBuildIdToConsoleEnabled() {
     return getDelegate().getBooleanValue(LOG_SECTION, "log_build_id_to_console_enabled", false);
   }
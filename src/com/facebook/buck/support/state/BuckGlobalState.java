@@ -16,6 +16,7 @@
 
 package com.facebook.buck.support.state;
 
+import com.facebook.buck.artifact_cache.AdaptiveConcurrencyLimit;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.files.DirectoryListCache;
 import com.facebook.buck.core.files.FileTreeCache;
@@ -26,27 +27,38 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.FileHashCacheEvent;
 import com.facebook.buck.httpserver.WebServer;
+import com.facebook.buck.io.watchman.PersistentWatchedState;
 import com.facebook.buck.io.watchman.Watchman;
 import com.facebook.buck.io.watchman.WatchmanCursor;
 import com.facebook.buck.io.watchman.WatchmanWatcher;
+import com.facebook.buck.jvm.java.ClasspathJarIndexCache;
 import com.facebook.buck.parser.DaemonicParserState;
 import com.facebook.buck.parser.manifest.BuildFileManifestCache;
+import com.facebook.buck.remoteexecution.util.MerkleTreeNodeDataStore;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.impl.WatchedFileHashCache;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.timing.Clock;
 import com.facebook.buck.versions.VersionedTargetGraphCache;
 import com.facebook.buck.worker.WorkerProcessPool;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.common.eventbus.EventBus;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
 
 /**
  * {@link BuckGlobalState} contains all the global state of Buck which is kept between invocations
@@ -63,6 +75,8 @@ import java.util.concurrent.ConcurrentMap;
 public final class BuckGlobalState implements Closeable {
   private static final Logger LOG = Logger.get(BuckGlobalState.class);
 
+  private static final long PERSISTENT_STATES_SAVE_TIMEOUT_SECONDS = 30;
+
   private final Cell rootCell;
   private final TypeCoercerFactory typeCoercerFactory;
   private final DaemonicParserState daemonicParserState;
@@ -73,9 +87,20 @@ public final class BuckGlobalState implements Closeable {
   private final EventBus fileEventBus;
   private final Optional<WebServer> webServer;
   private final ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools;
+  private final ConcurrentMap<Path, MerkleTreeNodeDataStore> merkleTreeNodeDataStores =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, AdaptiveConcurrencyLimit> artifactCacheConcurrencyLimits =
+      new ConcurrentHashMap<>();
   private final VersionedTargetGraphCache versionedTargetGraphCache;
   private final ActionGraphCache actionGraphCache;
   private final RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler;
+  private final ImmutableList<PersistentWatchedState> persistentStates;
+  private final ExecutorService persistentStatesSaver;
+
+  /** The clocks to save persistent states with once the saver gets to it, if a save is pending. */
+  private final AtomicReference<ImmutableMap<Path, String>> pendingSaveClocks =
+      new AtomicReference<>();
+
   private final ImmutableMap<Path, WatchmanCursor> cursor;
   private final KnownRuleTypesProvider knownRuleTypesProvider;
   private final Clock clock;
@@ -96,6 +121,7 @@ public final class BuckGlobalState implements Closeable {
       VersionedTargetGraphCache versionedTargetGraphCache,
       ActionGraphCache actionGraphCache,
       RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler,
+      ImmutableList<PersistentWatchedState> persistentStates,
       ImmutableMap<Path, WatchmanCursor> cursor,
       KnownRuleTypesProvider knownRuleTypesProvider,
       Clock clock,
@@ -113,6 +139,8 @@ public final class BuckGlobalState implements Closeable {
     this.versionedTargetGraphCache = versionedTargetGraphCache;
     this.actionGraphCache = actionGraphCache;
     this.defaultRuleKeyFactoryCacheRecycler = defaultRuleKeyFactoryCacheRecycler;
+    this.persistentStates = persistentStates;
+    this.persistentStatesSaver = MostExecutors.newSingleThreadExecutor("persistent-state-saver");
     this.cursor = cursor;
     this.knownRuleTypesProvider = knownRuleTypesProvider;
     this.clock = clock;
@@ -175,6 +203,19 @@ public final class BuckGlobalState implements Closeable {
     return persistentWorkerPools;
   }
 
+  /**
+   * @return the stores of encoded remote execution input directories, by the file they are saved
+   *     to. They are saved when the state is closed, and after commands which added to them.
+   */
+  public ConcurrentMap<Path, MerkleTreeNodeDataStore> getMerkleTreeNodeDataStores() {
+    return merkleTreeNodeDataStores;
+  }
+
+  /** @return the adaptive concurrency limits learned by the network artifact caches. */
+  public ConcurrentMap<String, AdaptiveConcurrencyLimit> getArtifactCacheConcurrencyLimits() {
+    return artifactCacheConcurrencyLimits;
+  }
+
   public RuleKeyCacheRecycler<RuleKey> getDefaultRuleKeyFactoryCacheRecycler() {
     return defaultRuleKeyFactoryCacheRecycler;
   }
@@ -213,7 +254,25 @@ public final class BuckGlobalState implements Closeable {
       // TODO(sergeyb): replace with one single invalidation event containing all changes
       fileEventBus.post(started);
       try {
-        watchmanWatcher.postEvents(eventBus, watchmanFreshInstanceAction);
+        // Restored snapshots must see a fresh instance as an overflow, as they can't otherwise
+        // know what changed since they were saved.
+        ImmutableList<PersistentWatchedState> unverifiedStates =
+            persistentStates.stream()
+                .filter(PersistentWatchedState::hasUnverifiedSnapshot)
+                .collect(ImmutableList.toImmutableList());
+        try {
+          watchmanWatcher.postEvents(
+              eventBus,
+              unverifiedStates.isEmpty()
+                  ? watchmanFreshInstanceAction
+                  : WatchmanWatcher.FreshInstanceAction.POST_OVERFLOW_EVENT);
+          unverifiedStates.forEach(PersistentWatchedState::markSnapshotVerified);
+        } finally {
+          // If not all changes could be replayed, the snapshots may be stale.
+          unverifiedStates.stream()
+              .filter(PersistentWatchedState::hasUnverifiedSnapshot)
+              .forEach(PersistentWatchedState::dropSnapshot);
+        }
       } finally {
         FileHashCacheEvent.InvalidationFinished finished =
             FileHashCacheEvent.invalidationFinished(started);
@@ -247,6 +306,80 @@ public final class BuckGlobalState implements Closeable {
   public void close() {
     shutdownPersistentWorkerPools();
     shutdownWebServer();
+    persistentStatesSaver.shutdown();
+    try {
+      if (!persistentStatesSaver.awaitTermination(
+          PERSISTENT_STATES_SAVE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LOG.warn("Timed out waiting for daemon state to be saved");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    ImmutableMap<Path, String> clocks = getSaveableWatchmanClocks();
+    if (clocks != null) {
+      savePersistentStates(clocks);
+    }
+    saveMerkleTreeNodeDataStores();
+    // Don't keep the jars read by in-process javac open past the state whose builds read them.
+    ClasspathJarIndexCache.getInstance().invalidateAll();
+  }
+
+  /**
+   * Saves the persistent states on a background thread, so that they survive the daemon being
+   * killed rather than shut down. Meant to be called once a command is done with the state; saves
+   * requested while a previous one is pending are merged into it.
+   */
+  public void savePersistentStatesInBackground() {
+    if (!merkleTreeNodeDataStores.isEmpty()) {
+      persistentStatesSaver.execute(this::saveMerkleTreeNodeDataStores);
+    }
+    ImmutableMap<Path, String> clocks = getSaveableWatchmanClocks();
+    if (clocks != null && pendingSaveClocks.getAndSet(clocks) == null) {
+      persistentStatesSaver.execute(
+          () -> savePersistentStates(Objects.requireNonNull(pendingSaveClocks.getAndSet(null))));
+    }
+  }
+
+  /**
+   * @return the clocks of the last file changes delivered to the persistent states, or null if
+   *     there is nothing that can be saved.
+   */
+  @Nullable
+  private ImmutableMap<Path, String> getSaveableWatchmanClocks() {
+    if (persistentStates.isEmpty()) {
+      return null;
+    }
+    // Saved state can only be restored if we know which changes it has seen, which is only the case
+    // for clock based cursors. The cursors are advanced before the changes are delivered, so read
+    // them under the same lock as `watchFileSystem`. The states may see later changes before they
+    // are saved, which just means some of those get replayed again.
+    synchronized (daemonicParserState) {
+      if (!cursor.values().stream().allMatch(c -> c.get().startsWith("c:"))) {
+        LOG.debug("Not saving daemon state, as cursors aren't clocks: %s", cursor);
+        return null;
+      }
+      return ImmutableMap.copyOf(Maps.transformValues(cursor, WatchmanCursor::get));
+    }
+  }
+
+  private void savePersistentStates(ImmutableMap<Path, String> clocks) {
+    for (PersistentWatchedState state : persistentStates) {
+      try {
+        state.save(clocks);
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to save %s", state);
+      }
+    }
+  }
+
+  private void saveMerkleTreeNodeDataStores() {
+    for (MerkleTreeNodeDataStore store : merkleTreeNodeDataStores.values()) {
+      try {
+        store.save();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to save the merkle tree node cache.");
+      }
+    }
   }
 
   private void shutdownPersistentWorkerPools() {
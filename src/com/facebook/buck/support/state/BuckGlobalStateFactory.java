@@ -32,19 +32,26 @@ import com.facebook.buck.core.rules.knowntypes.provider.KnownRuleTypesProvider;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.httpserver.WebServer;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.watchman.PersistentWatchedState;
 import com.facebook.buck.io.watchman.Watchman;
 import com.facebook.buck.io.watchman.WatchmanCursor;
 import com.facebook.buck.io.watchman.WatchmanFactory;
 import com.facebook.buck.io.watchman.WatchmanWatcher;
 import com.facebook.buck.parser.DaemonicParserState;
+import com.facebook.buck.parser.DaemonicParserStateSnapshotStore;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.parser.manifest.BuildFileManifestCache;
 import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.rules.keys.CompactRuleKeyCache;
 import com.facebook.buck.rules.keys.DefaultRuleKeyCache;
+import com.facebook.buck.rules.keys.PersistentRuleKeyCache;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
+import com.facebook.buck.rules.keys.TrackableRuleKeyCache;
+import com.facebook.buck.rules.keys.config.impl.BuckVersion;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
+import com.facebook.buck.util.cache.impl.FileHashCacheSnapshotStore;
 import com.facebook.buck.util.cache.impl.WatchedFileHashCache;
 import com.facebook.buck.util.stream.RichStream;
 import com.facebook.buck.util.timing.Clock;
@@ -55,18 +62,33 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
 import com.google.common.eventbus.EventBus;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.Comparator;
 import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
 
 /** Factory for {@link BuckGlobalState}. */
 public class BuckGlobalStateFactory {
 
   private static final Logger LOG = Logger.get(BuckGlobalStateFactory.class);
 
+  private static final String RULE_KEY_CACHE_SNAPSHOT_FILE = "rule_key_cache.snapshot";
+  private static final String FILE_HASH_CACHE_SNAPSHOT_FILE = "file_hash_cache.snapshot";
+  private static final String PARSER_STATE_SNAPSHOT_FILE = "parser_state.snapshot";
+
   /** @return a new instance of {@link BuckGlobalState} for execution of buck */
   public static BuckGlobalState create(
       Cell rootCell,
@@ -80,15 +102,31 @@ public class BuckGlobalStateFactory {
 
     ImmutableList<Cell> allCells = rootCell.getAllCells();
     BuildBuckConfig buildBuckConfig = rootCell.getBuckConfig().getView(BuildBuckConfig.class);
+    Path daemonStateDir =
+        rootCell
+            .getFilesystem()
+            .resolve(rootCell.getFilesystem().getBuckPaths().getDaemonStateDir());
+    ImmutableList.Builder<PersistentWatchedState> persistentStates = ImmutableList.builder();
 
     // Setup the stacked file hash cache from all cells.
     ImmutableList.Builder<ProjectFileHashCache> hashCachesBuilder =
         ImmutableList.builderWithExpectedSize(allCells.size() + 1);
+    ImmutableList.Builder<WatchedFileHashCache> watchedCaches = ImmutableList.builder();
     for (Cell subCell : allCells) {
       WatchedFileHashCache watchedCache =
           new WatchedFileHashCache(subCell.getFilesystem(), buildBuckConfig.getFileHashCacheMode());
       fileEventBus.register(watchedCache);
       hashCachesBuilder.add(watchedCache);
+      watchedCaches.add(watchedCache);
+    }
+    if (buildBuckConfig.getFileHashCachePersistence()) {
+      // File hashes only depend on file contents, so unlike rule keys they stay valid when the
+      // configuration changes.
+      persistentStates.add(
+          FileHashCacheSnapshotStore.load(
+              watchedCaches.build(),
+              daemonStateDir.resolve(FILE_HASH_CACHE_SNAPSHOT_FILE),
+              BuckVersion.getVersion()));
     }
     hashCachesBuilder.add(
         DefaultFileHashCache.createBuckOutFileHashCache(
@@ -112,13 +150,45 @@ public class BuckGlobalStateFactory {
     DaemonicParserState daemonicParserState =
         new DaemonicParserState(parserConfig.getNumParsingThreads());
     fileEventBus.register(daemonicParserState);
+    if (parserConfig.getParserStatePersistence()) {
+      persistentStates.add(
+          DaemonicParserStateSnapshotStore.load(
+              daemonicParserState,
+              allCells,
+              daemonStateDir.resolve(PARSER_STATE_SNAPSHOT_FILE),
+              // Restored build files are parsed again if the environment variables they read
+              // changed, so the environment doesn't need to be part of the fingerprint.
+              getConfigurationFingerprint(rootCell, ImmutableSortedSet.of())));
+    }
 
     // Build the the rule key cache recycler.
+    ImmutableSet<ProjectFilesystem> watchedFilesystems =
+        RichStream.from(allCells).map(Cell::getFilesystem).toImmutableSet();
+    TrackableRuleKeyCache<RuleKey> ruleKeyCache =
+        buildBuckConfig.getCompactRuleKeyCache()
+            ? new CompactRuleKeyCache<>()
+            : new DefaultRuleKeyCache<>(ForkJoinPool.commonPool());
+    if (buildBuckConfig.getRuleKeyCaching() && buildBuckConfig.getRuleKeyCachePersistence()) {
+      // Cached rule keys were computed from the build files as parsed with the environment
+      // variables they read. Which ones those are is only known when the parser state is
+      // persisted too, otherwise the whole environment has to match.
+      Supplier<ImmutableSortedSet<String>> environmentVariables =
+          parserConfig.getParserStatePersistence()
+              ? daemonicParserState::getUsedEnvironmentVariables
+              : () -> ImmutableSortedSet.copyOf(rootCell.getBuckConfig().getEnvironment().keySet());
+      PersistentRuleKeyCache cache =
+          PersistentRuleKeyCache.load(
+              watchedFilesystems,
+              daemonStateDir.resolve(RULE_KEY_CACHE_SNAPSHOT_FILE),
+              () -> getConfigurationFingerprint(rootCell, environmentVariables.get()),
+              ForkJoinPool.commonPool(),
+              getBuildDefinitionMatcher(allCells, daemonicParserState));
+      fileEventBus.register(cache);
+      persistentStates.add(cache);
+      ruleKeyCache = cache;
+    }
     RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler =
-        RuleKeyCacheRecycler.createAndRegister(
-            fileEventBus,
-            new DefaultRuleKeyCache<>(),
-            RichStream.from(allCells).map(Cell::getFilesystem).toImmutableSet());
+        RuleKeyCacheRecycler.createAndRegister(fileEventBus, ruleKeyCache, watchedFilesystems);
 
     Optional<WebServer> webServer;
     if (webServerToReuse.isPresent()) {
@@ -147,6 +217,7 @@ public class BuckGlobalStateFactory {
       LOG.debug("Falling back to named cursors: %s", watchman.getProjectWatches());
       cursor = watchman.buildNamedWatchmanCursorMap();
     }
+    cursor = restoreWatchmanCursor(cursor, persistentStates.build());
     LOG.debug("Using Watchman Cursor: %s", cursor);
     ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools = new ConcurrentHashMap<>();
 
@@ -164,12 +235,98 @@ public class BuckGlobalStateFactory {
         versionedTargetGraphCache,
         actionGraphCache,
         defaultRuleKeyFactoryCacheRecycler,
+        persistentStates.build(),
         cursor,
         knownRuleTypesProvider,
         clock,
         watchman != WatchmanFactory.NULL_WATCHMAN);
   }
 
+  /**
+   * Restored snapshots are only consistent with the file system as of the watchman clocks they were
+   * saved with, so start watching from those clocks to have all changes made since then replayed to
+   * them. Snapshots for which that isn't possible, including ones saved with different clocks than
+   * the first one, are dropped.
+   */
+  private static ImmutableMap<Path, WatchmanCursor> restoreWatchmanCursor(
+      ImmutableMap<Path, WatchmanCursor> cursor, ImmutableList<PersistentWatchedState> states) {
+    @Nullable ImmutableMap<Path, String> clocks = null;
+    for (PersistentWatchedState state : states) {
+      if (!state.hasUnverifiedSnapshot()) {
+        continue;
+      }
+      ImmutableMap<Path, String> stateClocks = state.getRestoredWatchmanClocks();
+      if (clocks == null
+          && stateClocks.keySet().equals(cursor.keySet())
+          && cursor.values().stream().allMatch(c -> c.get().startsWith("c:"))) {
+        clocks = stateClocks;
+      } else if (!stateClocks.equals(clocks)) {
+        LOG.debug("Cannot replay changes since %s using %s, dropping snapshot", stateClocks, cursor);
+        state.dropSnapshot();
+      }
+    }
+    return clocks == null
+        ? cursor
+        : ImmutableMap.copyOf(Maps.transformValues(clocks, WatchmanCursor::new));
+  }
+
+  /**
+   * @return a fingerprint of all settings which may affect the value of cached rule keys and parse
+   *     results: the configuration of every cell, and the environment, which toolchains read.
+   */
+  /**
+   * @return whether an absolute path may be a build file, a file included by one or a configuration
+   *     file of one of {@code cells}. Includes which the parser state doesn't know about are only
+   *     recognised by name, as default includes or extension files.
+   */
+  private static Predicate<Path> getBuildDefinitionMatcher(
+      ImmutableList<Cell> cells, DaemonicParserState daemonicParserState) {
+    ImmutableSet.Builder<String> fileNames = ImmutableSet.builder();
+    for (Cell cell : cells) {
+      ParserConfig parserConfig = cell.getBuckConfig().getView(ParserConfig.class);
+      fileNames.add(parserConfig.getBuildFileName());
+      for (String include : parserConfig.getDefaultIncludes()) {
+        fileNames.add(include.substring(include.lastIndexOf('/') + 1));
+      }
+    }
+    ImmutableSet<String> buildDefinitionFileNames = fileNames.build();
+    return path -> {
+      String fileName = path.getFileName().toString();
+      return buildDefinitionFileNames.contains(fileName)
+          || fileName.endsWith(".bzl")
+          || path.toString().contains("buckconfig")
+          || daemonicParserState.isBuildFileDependency(path);
+    };
+  }
+
+  /**
+   * @return a fingerprint of the buck version, the configuration of all cells and the values of the
+   *     given environment variables.
+   */
+  private static String getConfigurationFingerprint(
+      Cell rootCell, ImmutableSortedSet<String> environmentVariables) {
+    Hasher hasher =
+        Hashing.sha1().newHasher().putString(BuckVersion.getVersion(), StandardCharsets.UTF_8);
+    ImmutableList<Cell> cells =
+        ImmutableList.sortedCopyOf(
+            Comparator.comparing(cell -> cell.getRoot().toString()), rootCell.getAllCells());
+    for (Cell cell : cells) {
+      hasher
+          .putString(cell.getRoot().toString(), StandardCharsets.UTF_8)
+          .putBytes(cell.getBuckConfig().getConfig().getOrderIndependentHashCode().asBytes());
+    }
+    ImmutableMap<String, String> environment = rootCell.getBuckConfig().getEnvironment();
+    for (String name : environmentVariables) {
+      hasher.putString(name, StandardCharsets.UTF_8).putByte((byte) 0);
+      String value = environment.get(name);
+      hasher.putBoolean(value != null);
+      if (value != null) {
+        hasher.putString(value, StandardCharsets.UTF_8).putByte((byte) 0);
+      }
+    }
+    return hasher.hash().toString();
+  }
+
   /** Create a number of instances of {@link DirectoryListCache}, one per each cell */
   private static LoadingCache<Path, DirectoryListCache> createDirectoryListCachePerCellMap(
       EventBus fileEventBus) {
@@ -44,6 +44,8 @@ abstract class AbstractCacheStats {
   public abstract Optional<Long> getTotalLoadTime();
   // the time spent total for a cache miss
   public abstract Optional<Long> getTotalMissTime();
+  // the time spent invalidating entries, including their transitive dependents
+  public abstract Optional<Long> getTotalInvalidationTime();
   // the number of entries in cache at time of stat
   public abstract Optional<Long> getNumberEntries();
 
@@ -144,6 +146,9 @@ abstract class AbstractCacheStats {
                 stats1.getLoadExceptionCount(), stats2.getLoadExceptionCount(), addOrMinus))
         .setTotalLoadTime(
             aggregateFields(stats1.getTotalLoadTime(), stats2.getTotalLoadTime(), addOrMinus))
+        .setTotalInvalidationTime(
+            aggregateFields(
+                stats1.getTotalInvalidationTime(), stats2.getTotalInvalidationTime(), addOrMinus))
         .setNumberEntries(
             aggregateFields(stats1.getNumberEntries(), stats2.getNumberEntries(), addOrMinus))
         .build();
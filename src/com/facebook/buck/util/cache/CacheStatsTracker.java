@@ -21,6 +21,12 @@ public interface CacheStatsTracker {
 
   CacheRequest startRequest();
 
+  /**
+   * @return a {@link CacheInvalidation} which records the time it takes to invalidate entries,
+   *     starting at this instant
+   */
+  CacheInvalidation startInvalidation();
+
   long getTotalHitCount();
 
   long getTotalMissCount();
@@ -41,6 +47,8 @@ public interface CacheStatsTracker {
 
   long getTotalMissTime();
 
+  long getTotalInvalidationTime();
+
   long getAverageRetrievalTime();
 
   long getAverageMissTime();
@@ -90,4 +98,18 @@ public interface CacheStatsTracker {
      */
     void recordLoadFail();
   }
+
+  /**
+   * Class that keeps record of the time spent on a single invalidation of cache entries, which
+   * includes invalidating the entries that transitively depend on them. It may be completed on a
+   * different thread than the one which started it.
+   */
+  interface CacheInvalidation {
+
+    /**
+     * Records that the invalidation has completed and adds the time elapsed since it was started
+     * to the total invalidation time of the corresponding CacheStatsTracker
+     */
+    void recordDone();
+  }
 }
@@ -19,6 +19,7 @@ package com.facebook.buck.util.cache;
 import com.facebook.buck.util.timing.Clock;
 import com.facebook.buck.util.timing.DefaultClock;
 import com.google.common.base.Preconditions;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.LongAdder;
 
 /** Class that tracks cache statistics, including timings. */
@@ -36,6 +37,7 @@ public final class InstrumentingCacheStatsTracker implements CacheStatsTracker {
   private final LongAdder totalRetrievalTime = new LongAdder();
   private final LongAdder totalLoadTime = new LongAdder();
   private final LongAdder totalMissTime = new LongAdder();
+  private final LongAdder totalInvalidationTime = new LongAdder();
 
   public InstrumentingCacheStatsTracker() {
     this(new DefaultClock());
@@ -54,6 +56,15 @@ public final class InstrumentingCacheStatsTracker implements CacheStatsTracker {
     return new TrackingCacheRequest();
   }
 
+  /**
+   * @return a CacheInvalidation object that will record the time spent on this invalidation of the
+   *     cache
+   */
+  @Override
+  public CacheInvalidation startInvalidation() {
+    return new TrackingCacheInvalidation();
+  }
+
   @Override
   public long getTotalHitCount() {
     return totalHitCount.longValue();
@@ -104,6 +115,11 @@ public final class InstrumentingCacheStatsTracker implements CacheStatsTracker {
     return totalMissTime.longValue();
   }
 
+  @Override
+  public long getTotalInvalidationTime() {
+    return totalInvalidationTime.longValue();
+  }
+
   /**
    * @return the average retrieval time as defined by total time / total requests, or 0 if no
    *     requests have been made
@@ -247,6 +263,24 @@ public final class InstrumentingCacheStatsTracker implements CacheStatsTracker {
     }
   }
 
+  /** Class that keeps record of the time spent on a single invalidation of the cache */
+  public class TrackingCacheInvalidation implements CacheStatsTracker.CacheInvalidation {
+    private final long startTime = clock.currentTimeMillis();
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    private TrackingCacheInvalidation() {}
+
+    /**
+     * Records that the invalidation has completed, and adds the time it took to the total
+     * invalidation time of the corresponding InstrumentingCacheStatsTracker
+     */
+    @Override
+    public void recordDone() {
+      Preconditions.checkState(done.compareAndSet(false, true));
+      totalInvalidationTime.add(clock.currentTimeMillis() - startTime);
+    }
+  }
+
   private enum State {
     INITIALIZED,
     HIT,
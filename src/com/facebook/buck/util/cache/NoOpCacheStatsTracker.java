@@ -24,6 +24,11 @@ public class NoOpCacheStatsTracker implements CacheStatsTracker {
     return new NoOpCacheRequest();
   }
 
+  @Override
+  public CacheInvalidation startInvalidation() {
+    return new NoOpCacheInvalidation();
+  }
+
   @Override
   public long getTotalHitCount() {
     return 0L;
@@ -74,6 +79,11 @@ public class NoOpCacheStatsTracker implements CacheStatsTracker {
     return 0L;
   }
 
+  @Override
+  public long getTotalInvalidationTime() {
+    return 0L;
+  }
+
   @Override
   public long getAverageRetrievalTime() {
     return 0L;
@@ -119,4 +129,11 @@ public class NoOpCacheStatsTracker implements CacheStatsTracker {
     @Override
     public void recordLoadFail() {}
   }
+
+  /** CacheInvalidation that doesn't track stats */
+  public class NoOpCacheInvalidation implements CacheStatsTracker.CacheInvalidation {
+
+    @Override
+    public void recordDone() {}
+  }
 }
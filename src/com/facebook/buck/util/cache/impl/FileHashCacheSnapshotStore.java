@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.watchman.PersistentWatchedState;
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Saves the hashes cached by {@link WatchedFileHashCache}s to disk, so that a new daemon doesn't
+ * have to read and hash every source file again.
+ *
+ * <p>The snapshot records the watchman clocks it is consistent with. Restored hashes are added to
+ * the caches right away, and the daemon replays the file changes made since those clocks to the
+ * caches, which invalidate the changed paths as usual. If the changes can't be replayed, the
+ * restored hashes are dropped.
+ */
+public class FileHashCacheSnapshotStore implements PersistentWatchedState {
+
+  private static final Logger LOG = Logger.get(FileHashCacheSnapshotStore.class);
+
+  private static final int MAGIC = 0x46484353;
+  private static final int VERSION = 1;
+
+  private final ImmutableMap<Path, WatchedFileHashCache> caches;
+  private final Path snapshotFile;
+  private final String fingerprint;
+
+  private volatile ImmutableMap<Path, String> restoredWatchmanClocks;
+  private volatile boolean snapshotVerified = false;
+
+  private FileHashCacheSnapshotStore(
+      ImmutableMap<Path, WatchedFileHashCache> caches,
+      Path snapshotFile,
+      String fingerprint,
+      ImmutableMap<Path, String> restoredWatchmanClocks) {
+    this.caches = caches;
+    this.snapshotFile = snapshotFile;
+    this.fingerprint = fingerprint;
+    this.restoredWatchmanClocks = restoredWatchmanClocks;
+  }
+
+  /**
+   * Restores the hashes stored in {@code snapshotFile} into the given caches, if the file exists and
+   * was written with the same {@code fingerprint}. Hashes of cells which aren't in {@code caches}
+   * are ignored.
+   */
+  public static FileHashCacheSnapshotStore load(
+      ImmutableList<WatchedFileHashCache> caches, Path snapshotFile, String fingerprint) {
+    ImmutableMap<Path, WatchedFileHashCache> cachesByRoot =
+        caches.stream()
+            .collect(
+                ImmutableMap.toImmutableMap(
+                    cache -> cache.getFilesystem().getRootPath(), Function.identity()));
+    ImmutableMap<Path, String> clocks = ImmutableMap.of();
+    int restored = 0;
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(fingerprint)) {
+        LOG.info("Ignoring file hash cache snapshot %s written by a different buck.", snapshotFile);
+      } else {
+        clocks = readClocks(in);
+        int cellCount = in.readInt();
+        for (int i = 0; i < cellCount; i++) {
+          WatchedFileHashCache cache = cachesByRoot.get(Paths.get(in.readUTF()));
+          int entryCount = in.readInt();
+          for (int j = 0; j < entryCount; j++) {
+            Path path = Paths.get(in.readUTF());
+            byte type = in.readByte();
+            byte[] hash = new byte[in.readUnsignedByte()];
+            in.readFully(hash);
+            if (cache != null && restore(cache, path, type, HashCode.fromBytes(hash))) {
+              restored++;
+            }
+          }
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // Nothing has been saved yet.
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.warn(e, "Failed to load file hash cache snapshot %s.", snapshotFile);
+      caches.forEach(WatchedFileHashCache::invalidateAll);
+      clocks = ImmutableMap.of();
+      restored = 0;
+    }
+    if (clocks.isEmpty()) {
+      // Without clocks nothing can be replayed, so anything restored is unusable.
+      caches.forEach(WatchedFileHashCache::invalidateAll);
+    } else {
+      LOG.info("Restored %d file hashes from %s.", restored, snapshotFile);
+    }
+    return new FileHashCacheSnapshotStore(cachesByRoot, snapshotFile, fingerprint, clocks);
+  }
+
+  private static ImmutableMap<Path, String> readClocks(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    ImmutableMap.Builder<Path, String> clocks = ImmutableMap.builderWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      clocks.put(Paths.get(in.readUTF()), in.readUTF());
+    }
+    return clocks.build();
+  }
+
+  private static boolean restore(
+      WatchedFileHashCache cache, Path path, byte type, HashCode hashCode) {
+    try {
+      cache.restoreFileHash(path, type, hashCode);
+      return true;
+    } catch (RuntimeException e) {
+      // Some engines look at the file when adding an entry, which fails if it has been deleted.
+      LOG.verbose(e, "Not restoring hash of %s", path);
+      return false;
+    }
+  }
+
+  @Override
+  public ImmutableMap<Path, String> getRestoredWatchmanClocks() {
+    return restoredWatchmanClocks;
+  }
+
+  @Override
+  public boolean hasUnverifiedSnapshot() {
+    return !restoredWatchmanClocks.isEmpty() && !snapshotVerified;
+  }
+
+  @Override
+  public void markSnapshotVerified() {
+    snapshotVerified = true;
+  }
+
+  @Override
+  public void dropSnapshot() {
+    if (hasUnverifiedSnapshot()) {
+      LOG.debug("Dropping restored file hashes.");
+      caches.values().forEach(WatchedFileHashCache::invalidateAll);
+      restoredWatchmanClocks = ImmutableMap.of();
+    }
+  }
+
+  @Override
+  public void save(ImmutableMap<Path, String> watchmanClocks) throws IOException {
+    Map<Path, ImmutableMap<Path, HashCodeAndFileType>> hashesByRoot = new HashMap<>();
+    int total = 0;
+    for (Map.Entry<Path, WatchedFileHashCache> entry : caches.entrySet()) {
+      ImmutableMap<Path, HashCodeAndFileType> hashes = entry.getValue().getCachedFileHashes();
+      hashesByRoot.put(entry.getKey(), hashes);
+      total += hashes.size();
+    }
+
+    Files.createDirectories(snapshotFile.getParent());
+    Path tmpFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(fingerprint);
+      out.writeInt(watchmanClocks.size());
+      for (Map.Entry<Path, String> clock : watchmanClocks.entrySet()) {
+        out.writeUTF(clock.getKey().toString());
+        out.writeUTF(clock.getValue());
+      }
+      out.writeInt(hashesByRoot.size());
+      for (Map.Entry<Path, ImmutableMap<Path, HashCodeAndFileType>> cell :
+          hashesByRoot.entrySet()) {
+        out.writeUTF(cell.getKey().toString());
+        out.writeInt(cell.getValue().size());
+        for (Map.Entry<Path, HashCodeAndFileType> hash : cell.getValue().entrySet()) {
+          out.writeUTF(hash.getKey().toString());
+          out.writeByte(hash.getValue().getType());
+          byte[] bytes = hash.getValue().getHashCode().asBytes();
+          out.writeByte(bytes.length);
+          out.write(bytes);
+        }
+      }
+    }
+    Files.move(
+        tmpFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    LOG.info("Saved %d file hashes to %s.", total, snapshotFile);
+  }
+}
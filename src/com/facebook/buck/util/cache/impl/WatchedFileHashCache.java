@@ -21,7 +21,11 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.watchman.WatchmanOverflowEvent;
 import com.facebook.buck.io.watchman.WatchmanPathEvent;
 import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.facebook.buck.util.cache.JarHashCodeAndFileType;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
 import java.nio.file.Path;
 
 public class WatchedFileHashCache extends DefaultFileHashCache {
@@ -53,4 +57,27 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
     LOG.debug("Invalidating all");
     invalidateAll();
   }
+
+  /**
+   * @return the cached hashes of files and archives. Directory hashes are left out, as they are
+   *     cheap to recompute from the hashes of their contents.
+   */
+  ImmutableMap<Path, HashCodeAndFileType> getCachedFileHashes() {
+    return fileHashCacheEngine.asMap().entrySet().stream()
+        .filter(entry -> entry.getValue().getType() != HashCodeAndFileType.TYPE_DIRECTORY)
+        .collect(ImmutableMap.toImmutableMap(entry -> entry.getKey(), entry -> entry.getValue()));
+  }
+
+  /**
+   * Adds the hash of a file or archive which was computed by an earlier daemon. The caller is
+   * responsible for replaying the file changes made since then to this cache.
+   */
+  void restoreFileHash(Path relativePath, byte type, HashCode hashCode) {
+    fileHashCacheEngine.put(
+        relativePath,
+        type == HashCodeAndFileType.TYPE_ARCHIVE
+            ? JarHashCodeAndFileType.ofArchive(
+                hashCode, new DefaultJarContentHasher(getFilesystem(), relativePath))
+            : HashCodeAndFileType.ofFile(hashCode));
+  }
 }
@@ -36,6 +36,7 @@ import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -56,12 +57,16 @@ import javax.annotation.concurrent.GuardedBy;
  * of errors when "using" a resource it is assumed to be defective, will be retired and a new
  * resource will be requested from the supplier. The Future associated with the failed attempt to
  * use the resource will contain the relevant exception.
+ *
+ * <p>Resources for which the optional retirement predicate returns true after they have been used
+ * are retired the same way, so that the next request creates a fresh resource.
  */
 public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
   private static final Logger LOG = Logger.get(ResourcePool.class);
 
   private final int maxResources;
   private final ResourceUsageErrorPolicy resourceUsageErrorPolicy;
+  private final Predicate<R> shouldRetireAfterUse;
 
   @GuardedBy("this")
   private final Supplier<R> resourceSupplier;
@@ -92,10 +97,27 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
       int maxResources,
       ResourceUsageErrorPolicy resourceUsageErrorPolicy,
       Supplier<R> resourceSupplier) {
+    this(maxResources, resourceUsageErrorPolicy, resourceSupplier, resource -> false);
+  }
+
+  /**
+   * @param maxResources maximum number of resources to use concurrently.
+   * @param resourceSupplier function used to create a new resource. It should never block, it may
+   *     be called more than maxResources times if processing resources throws exceptions or
+   *     resources are retired.
+   * @param shouldRetireAfterUse called with a resource after every successful use, outside of the
+   *     pool's lock. If it returns true the resource is closed instead of being parked.
+   */
+  public ResourcePool(
+      int maxResources,
+      ResourceUsageErrorPolicy resourceUsageErrorPolicy,
+      Supplier<R> resourceSupplier,
+      Predicate<R> shouldRetireAfterUse) {
     Preconditions.checkArgument(maxResources > 0);
 
     this.maxResources = maxResources;
     this.resourceUsageErrorPolicy = resourceUsageErrorPolicy;
+    this.shouldRetireAfterUse = shouldRetireAfterUse;
     this.resourceSupplier = resourceSupplier;
     this.createdResources = new ArrayList<>();
     this.parkedResources = new ArrayDeque<>();
@@ -133,7 +155,9 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
                   R resource = resourceRequest.getLeft();
                   boolean resourceIsDefunct = false;
                   try {
-                    return Futures.immediateFuture(withResource.apply(resource));
+                    T result = withResource.apply(resource);
+                    resourceIsDefunct = shouldRetireAfterUse.test(resource);
+                    return Futures.immediateFuture(result);
                   } catch (Exception e) {
                     resourceIsDefunct =
                         (resourceUsageErrorPolicy == ResourceUsageErrorPolicy.RETIRE);
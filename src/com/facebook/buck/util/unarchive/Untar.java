@@ -26,7 +26,9 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteStreams;
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
@@ -40,6 +42,7 @@ import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.CompressorException;
@@ -104,6 +107,69 @@ public class Untar extends Unarchiver {
       boolean writeSymlinksAfterCreatingFiles)
       throws IOException {
 
+    try (TarArchiveInputStream archiveStream =
+        getArchiveInputStream(new BufferedInputStream(Files.newInputStream(archiveFile)))) {
+      return extractArchive(
+          archiveStream,
+          filesystem,
+          filesystemRelativePath,
+          stripPath,
+          existingFileMode,
+          entriesToExclude,
+          writeSymlinksAfterCreatingFiles,
+          path -> {});
+    } catch (CompressorException e) {
+      throw new IOException(
+          String.format("Could not get decompressor for archive at %s", archiveFile), e);
+    }
+  }
+
+  /**
+   * Extracts an archive as it is read from {@code archiveStream}, instead of from a file, into the
+   * root of {@code filesystem}. The stream is not closed.
+   *
+   * @param onPathExtracted called with each file and symlink once it is written, so that a caller
+   *     can remove them if reading the stream fails part way through
+   * @return A list of paths to files that were created (not directories)
+   */
+  public ImmutableSet<Path> extractArchive(
+      InputStream archiveStream,
+      ProjectFilesystem filesystem,
+      ExistingFileMode existingFileMode,
+      Consumer<Path> onPathExtracted)
+      throws IOException {
+    // Closing the decompressor frees its native memory, but the caller may still need the stream.
+    InputStream unclosableStream =
+        new FilterInputStream(archiveStream) {
+          @Override
+          public void close() {}
+        };
+    try (TarArchiveInputStream tarStream =
+        getArchiveInputStream(new BufferedInputStream(unclosableStream))) {
+      return extractArchive(
+          tarStream,
+          filesystem,
+          filesystem.getPath(""),
+          Optional.empty(),
+          existingFileMode,
+          PatternsMatcher.NONE,
+          Platform.detect() == Platform.WINDOWS,
+          onPathExtracted);
+    } catch (CompressorException e) {
+      throw new IOException("Could not get decompressor for archive stream", e);
+    }
+  }
+
+  private ImmutableSet<Path> extractArchive(
+      TarArchiveInputStream archiveStream,
+      ProjectFilesystem filesystem,
+      Path filesystemRelativePath,
+      Optional<Path> stripPath,
+      ExistingFileMode existingFileMode,
+      PatternsMatcher entriesToExclude,
+      boolean writeSymlinksAfterCreatingFiles,
+      Consumer<Path> onPathExtracted)
+      throws IOException {
     ImmutableSet.Builder<Path> paths = ImmutableSet.builder();
     HashSet<Path> dirsToTidy = new HashSet<>();
     TreeMap<Path, Long> dirCreationTimes = new TreeMap<>();
@@ -114,50 +180,47 @@ public class Untar extends Unarchiver {
     // all files are extracted, and /then/ try to do the links
     Map<Path, Path> windowsSymlinkMap = new HashMap<>();
 
-    try (TarArchiveInputStream archiveStream = getArchiveInputStream(archiveFile)) {
-      TarArchiveEntry entry;
-      while ((entry = archiveStream.getNextTarEntry()) != null) {
-        String entryName = entry.getName();
-        if (entriesToExclude.matches(entryName)) {
+    TarArchiveEntry entry;
+    while ((entry = archiveStream.getNextTarEntry()) != null) {
+      String entryName = entry.getName();
+      if (entriesToExclude.matches(entryName)) {
+        continue;
+      }
+      Path destFile = Paths.get(entryName);
+      Path destPath;
+      if (stripPath.isPresent()) {
+        if (!destFile.startsWith(stripPath.get())) {
           continue;
         }
-        Path destFile = Paths.get(entryName);
-        Path destPath;
-        if (stripPath.isPresent()) {
-          if (!destFile.startsWith(stripPath.get())) {
-            continue;
-          }
-          destPath =
-              filesystemRelativePath.resolve(stripPath.get().relativize(destFile)).normalize();
-        } else {
-          destPath = filesystemRelativePath.resolve(destFile).normalize();
-        }
+        destPath =
+            filesystemRelativePath.resolve(stripPath.get().relativize(destFile)).normalize();
+      } else {
+        destPath = filesystemRelativePath.resolve(destFile).normalize();
+      }
 
-        if (entry.isDirectory()) {
-          dirsToTidy.add(destPath);
-          mkdirs(creator, destPath);
-          dirCreationTimes.put(destPath, entry.getModTime().getTime());
-        } else if (entry.isSymbolicLink()) {
-          if (writeSymlinksAfterCreatingFiles) {
-            recordSymbolicLinkForWindows(creator, destPath, entry, windowsSymlinkMap);
-          } else {
-            writeSymbolicLink(creator, destPath, entry);
-          }
-          paths.add(destPath);
-          setAttributes(filesystem, destPath, entry);
-        } else if (entry.isFile()) {
-          writeFile(creator, archiveStream, destPath);
-          paths.add(destPath);
-          setAttributes(filesystem, destPath, entry);
+      if (entry.isDirectory()) {
+        dirsToTidy.add(destPath);
+        mkdirs(creator, destPath);
+        dirCreationTimes.put(destPath, entry.getModTime().getTime());
+      } else if (entry.isSymbolicLink()) {
+        if (writeSymlinksAfterCreatingFiles) {
+          recordSymbolicLinkForWindows(creator, destPath, entry, windowsSymlinkMap);
+        } else {
+          writeSymbolicLink(creator, destPath, entry);
         }
+        paths.add(destPath);
+        onPathExtracted.accept(destPath);
+        setAttributes(filesystem, destPath, entry);
+      } else if (entry.isFile()) {
+        writeFile(creator, archiveStream, destPath);
+        paths.add(destPath);
+        onPathExtracted.accept(destPath);
+        setAttributes(filesystem, destPath, entry);
       }
-
-      writeWindowsSymlinks(creator, windowsSymlinkMap);
-    } catch (CompressorException e) {
-      throw new IOException(
-          String.format("Could not get decompressor for archive at %s", archiveFile), e);
     }
 
+    writeWindowsSymlinks(creator, windowsSymlinkMap);
+
     setDirectoryModificationTimes(filesystem, dirCreationTimes);
 
     ImmutableSet<Path> filePaths = paths.build();
@@ -168,9 +231,8 @@ public class Untar extends Unarchiver {
     return filePaths;
   }
 
-  private TarArchiveInputStream getArchiveInputStream(Path tarFile)
-      throws IOException, CompressorException {
-    BufferedInputStream inputStream = new BufferedInputStream(Files.newInputStream(tarFile));
+  private TarArchiveInputStream getArchiveInputStream(InputStream inputStream)
+      throws CompressorException {
     if (compressorType.isPresent()) {
       return new TarArchiveInputStream(
           new CompressorStreamFactory()
@@ -31,6 +31,7 @@ import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.testutil.MoreAsserts;
 import com.facebook.buck.util.concurrent.ExplicitRunExecutorService;
 import com.facebook.buck.util.stream.RichStream;
+import com.facebook.buck.util.timing.SettableFakeClock;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -216,6 +217,93 @@ public class AbstractAsynchronousCacheTest {
     }
   }
 
+  @Test
+  public void testFetchesWaitForTheAdaptiveLimit() throws Exception {
+    ExplicitRunExecutorService service = new ExplicitRunExecutorService();
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    AdaptiveConcurrencyLimit fetchLimit =
+        new AdaptiveConcurrencyLimit(new SettableFakeClock(1000, 0), 1, 1, 1);
+
+    List<ImmutableList<RuleKey>> requestedRuleKeys = new ArrayList<>();
+    List<ImmutableSet<RuleKey>> checkedRuleKeys = new ArrayList<>();
+
+    try (AbstractAsynchronousCache cache =
+        new RequestedKeyRecordingAsynchronousCache(
+            service,
+            filesystem,
+            requestedRuleKeys,
+            checkedRuleKeys,
+            10,
+            1,
+            false,
+            Optional.of(fetchLimit))) {
+      AdaptiveConcurrencyLimit.Permit heldPermit = fetchLimit.tryAcquire();
+
+      List<ListenableFuture<CacheResult>> results = new ArrayList<>();
+      for (int i = 0; i < 5; i++) {
+        results.add(
+            cache.fetchAsync(
+                null,
+                new RuleKey(HashCode.fromInt(i)),
+                LazyPath.ofInstance(filesystem.getPath("path" + i))));
+      }
+      service.run();
+      assertEquals(0, requestedRuleKeys.size());
+
+      heldPermit.releaseUnused();
+      results.add(
+          cache.fetchAsync(
+              null,
+              new RuleKey(HashCode.fromInt(5)),
+              LazyPath.ofInstance(filesystem.getPath("path5"))));
+      service.run();
+
+      for (ListenableFuture<CacheResult> future : results) {
+        assertTrue(future.isDone());
+        assertTrue(future.get().getType().isSuccess());
+      }
+      // The fetches that waited are made together.
+      assertEquals(6, requestedRuleKeys.get(0).size());
+      assertEquals(0, fetchLimit.getInFlight());
+    }
+  }
+
+  @Test
+  public void testMultiContainsCallsAreCoalescedWithAnAdaptiveLimit() throws Exception {
+    ExplicitRunExecutorService service = new ExplicitRunExecutorService();
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    AdaptiveConcurrencyLimit fetchLimit =
+        new AdaptiveConcurrencyLimit(new SettableFakeClock(1000, 0), 1, 1, 1);
+
+    List<ImmutableList<RuleKey>> requestedRuleKeys = new ArrayList<>();
+    List<ImmutableSet<RuleKey>> checkedRuleKeys = new ArrayList<>();
+
+    try (AbstractAsynchronousCache cache =
+        new RequestedKeyRecordingAsynchronousCache(
+            service,
+            filesystem,
+            requestedRuleKeys,
+            checkedRuleKeys,
+            0,
+            1,
+            false,
+            Optional.of(fetchLimit))) {
+      RuleKey present = new RuleKey(HashCode.fromInt(1));
+      RuleKey absent = new RuleKey(HashCode.fromInt(9));
+      ListenableFuture<ImmutableMap<RuleKey, CacheResult>> first =
+          cache.multiContainsAsync(ImmutableSet.of(present));
+      ListenableFuture<ImmutableMap<RuleKey, CacheResult>> second =
+          cache.multiContainsAsync(ImmutableSet.of(absent));
+      service.run();
+
+      assertEquals(ImmutableList.of(ImmutableSet.of(present, absent)), checkedRuleKeys);
+      assertEquals(ImmutableSet.of(present), first.get().keySet());
+      assertTrue(first.get().get(present).getType().isSuccess());
+      assertEquals(ImmutableSet.of(absent), second.get().keySet());
+      assertFalse(second.get().get(absent).getType().isSuccess());
+    }
+  }
+
   private static class NoOpEventListener implements AbstractAsynchronousCache.CacheEventListener {
     @Override
     public AbstractAsynchronousCache.StoreEvents storeScheduled(
@@ -261,6 +349,10 @@ public class AbstractAsynchronousCacheTest {
         public void close() {}
       };
     }
+
+    @Override
+    public void concurrencyLimitChanged(
+        ArtifactCacheEvent.Operation operation, int limit, int inFlight, int queued) {}
   }
 
   private static class RequestedKeyRecordingAsynchronousCache extends AbstractAsynchronousCache {
@@ -282,6 +374,26 @@ public class AbstractAsynchronousCacheTest {
         int multiFetchLimit,
         int concurrency,
         boolean isMultiCheckEnabled) {
+      this(
+          service,
+          filesystem,
+          requestedRuleKeys,
+          checkedRuleKeys,
+          multiFetchLimit,
+          concurrency,
+          isMultiCheckEnabled,
+          Optional.empty());
+    }
+
+    public RequestedKeyRecordingAsynchronousCache(
+        ExplicitRunExecutorService service,
+        ProjectFilesystem filesystem,
+        List<ImmutableList<RuleKey>> requestedRuleKeys,
+        List<ImmutableSet<RuleKey>> checkedRuleKeys,
+        int multiFetchLimit,
+        int concurrency,
+        boolean isMultiCheckEnabled,
+        Optional<AdaptiveConcurrencyLimit> fetchConcurrencyLimit) {
       super(
           "fake",
           ArtifactCacheMode.dir,
@@ -290,7 +402,9 @@ public class AbstractAsynchronousCacheTest {
           service,
           new NoOpEventListener(),
           Optional.empty(),
-          filesystem);
+          filesystem,
+          fetchConcurrencyLimit,
+          Optional.empty());
       this.requestedRuleKeys = requestedRuleKeys;
       this.checkedRuleKeys = checkedRuleKeys;
       this.multiFetchLimit = multiFetchLimit;
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.util.timing.SettableFakeClock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimitTest {
+
+  private final SettableFakeClock clock = new SettableFakeClock(1000, 0);
+
+  @Test
+  public void limitsRequestsInFlight() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(clock, 1, 2, 4);
+    AdaptiveConcurrencyLimit.Permit first = limit.tryAcquire();
+    assertNotNull(first);
+    assertNotNull(limit.tryAcquire());
+    assertNull(limit.tryAcquire());
+    assertEquals(0, limit.getAvailable());
+
+    first.releaseUnused();
+    assertEquals(2, limit.getLimit());
+    assertEquals(1, limit.getInFlight());
+    assertNotNull(limit.tryAcquire());
+  }
+
+  @Test
+  public void acquireWaitsForARequestToComplete() throws Exception {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(clock, 1, 1, 4);
+    AdaptiveConcurrencyLimit.Permit first = limit.acquire();
+    CountDownLatch acquired = new CountDownLatch(1);
+    Thread waiter =
+        new Thread(
+            () -> {
+              try {
+                limit.acquire();
+                acquired.countDown();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    waiter.start();
+    assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+
+    first.releaseUnused();
+    assertTrue(acquired.await(10, TimeUnit.SECONDS));
+    waiter.join();
+    assertEquals(1, limit.getInFlight());
+    assertEquals(0, limit.getWaiting());
+  }
+
+  @Test
+  public void growsWhileFastRequestsUseTheLimit() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(clock, 1, 1, 8);
+    assertTrue(complete(limit, 1, true, 10));
+    assertEquals(2, limit.getLimit());
+
+    for (int i = 0; i < 20; i++) {
+      complete(limit, limit.getLimit(), true, 10);
+    }
+    assertEquals(8, limit.getLimit());
+  }
+
+  @Test
+  public void doesNotGrowWhileMostlyUnused() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(clock, 1, 4, 8);
+    for (int i = 0; i < 10; i++) {
+      assertFalse(complete(limit, 1, true, 10));
+    }
+    assertEquals(4, limit.getLimit());
+  }
+
+  @Test
+  public void halvesOnceForAllTheRequestsInFlightWhenTheyFail() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(clock, 1, 8, 8);
+    assertTrue(complete(limit, 8, false, 10));
+    assertEquals(4, limit.getLimit());
+
+    complete(limit, 1, false, 10);
+    assertEquals(2, limit.getLimit());
+    complete(limit, 1, false, 10);
+    complete(limit, 1, false, 10);
+    assertEquals(1, limit.getLimit());
+  }
+
+  @Test
+  public void halvesWhenRequestsSlowDown() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(clock, 1, 4, 8);
+    complete(limit, 1, true, 10);
+    assertEquals(4, limit.getLimit());
+
+    complete(limit, 1, true, 15);
+    assertEquals(4, limit.getLimit());
+
+    complete(limit, 1, true, 30);
+    assertEquals(2, limit.getLimit());
+  }
+
+  @Test
+  public void latencyIsPerRequestedKey() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(clock, 1, 4, 8);
+    complete(limit, 1, true, 10);
+
+    AdaptiveConcurrencyLimit.Permit permit = limit.tryAcquire();
+    clock.advanceTimeNanos(TimeUnit.MILLISECONDS.toNanos(50));
+    permit.release(true, 10, 0);
+    assertEquals(4, limit.getLimit());
+  }
+
+  @Test
+  public void comparesLatenciesOfRequestsOfSimilarSizes() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(clock, 1, 8, 8);
+    for (int i = 0; i < 10; i++) {
+      complete(limit, 1, true, 5, 0);
+      complete(limit, 1, true, 10, 1024);
+      complete(limit, 1, true, 300, 60 * 1024 * 1024);
+      complete(limit, 1, true, 12, 1500);
+    }
+    assertEquals(8, limit.getLimit());
+
+    complete(limit, 1, true, 900, 40 * 1024 * 1024);
+    assertEquals(4, limit.getLimit());
+  }
+
+  private boolean complete(
+      AdaptiveConcurrencyLimit limit, int count, boolean succeeded, long latencyMillis) {
+    return complete(limit, count, succeeded, latencyMillis, 0);
+  }
+
+  /**
+   * Completes {@code count} requests started together, each taking {@code latencyMillis} and moving
+   * {@code sizeBytes}.
+   */
+  private boolean complete(
+      AdaptiveConcurrencyLimit limit,
+      int count,
+      boolean succeeded,
+      long latencyMillis,
+      long sizeBytes) {
+    List<AdaptiveConcurrencyLimit.Permit> permits = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      AdaptiveConcurrencyLimit.Permit permit = limit.tryAcquire();
+      assertNotNull(permit);
+      permits.add(permit);
+    }
+    clock.advanceTimeNanos(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+    boolean changed = false;
+    for (AdaptiveConcurrencyLimit.Permit permit : permits) {
+      changed |= permit.release(succeeded, 1, sizeBytes);
+    }
+    return changed;
+  }
+}
@@ -37,6 +37,7 @@ import com.facebook.buck.testutil.TemporaryPaths;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import org.hamcrest.Matchers;
 import org.junit.After;
@@ -263,6 +264,10 @@ public class ArtifactCachesTest {
           (TwoLevelArtifactCacheDecorator) artifactCache;
       return stripDecorators(cacheDecorator.getDelegate());
     }
+    if (artifactCache instanceof ChunkedArtifactCacheDecorator) {
+      ChunkedArtifactCacheDecorator cacheDecorator = (ChunkedArtifactCacheDecorator) artifactCache;
+      return stripDecorators(cacheDecorator.getDelegate());
+    }
     if (artifactCache instanceof RetryingCacheDecorator) {
       RetryingCacheDecorator cacheDecorator = (RetryingCacheDecorator) artifactCache;
       return stripDecorators(cacheDecorator.getDelegate());
@@ -289,6 +294,7 @@ public class ArtifactCachesTest {
         managerScope,
         "test://",
         "hostname",
-        ClientCertificateHandler.fromConfiguration(cacheConfig));
+        ClientCertificateHandler.fromConfiguration(cacheConfig),
+        new ConcurrentHashMap<>());
   }
 }
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ChunkedArtifactCacheDecoratorTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final RuleKey dummyRuleKey =
+      new RuleKey("76b1c1beae69428db2d1befb31cf743ac8ce90df");
+  private static final RuleKey dummyRuleKey2 =
+      new RuleKey("1111111111111111111111111111111111111111");
+
+  @Test
+  public void testStoredChunksAreFetchedBackAsTheArtifact() throws IOException {
+    byte[] contents = randomBytes(256 * 1024, 0);
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+        ChunkedArtifactCacheDecorator chunkedCache =
+            newChunkedCache(inMemoryArtifactCache, /* minimumChunkedStoredArtifactSize */ 0L)) {
+      chunkedCache.store(
+          ArtifactInfo.builder()
+              .addRuleKeys(dummyRuleKey)
+              .setMetadata(ImmutableMap.of("key", "value"))
+              .build(),
+          BorrowablePath.notBorrowablePath(writeCompressed(contents)));
+      assertThat(inMemoryArtifactCache.getArtifactCount(), Matchers.greaterThan(10));
+
+      LazyPath output = LazyPath.ofInstance(tmp.newFile());
+      CacheResult cacheResult =
+          Futures.getUnchecked(chunkedCache.fetchAsync(null, dummyRuleKey, output));
+      assertEquals(CacheResultType.HIT, cacheResult.getType());
+      assertEquals(ImmutableMap.of("key", "value"), cacheResult.getMetadata());
+      assertArrayEquals(contents, readCompressed(output.get()));
+    }
+  }
+
+  @Test
+  public void testOnlyChunksWhichAreNotStoredYetAreStored() throws IOException {
+    byte[] contents = randomBytes(256 * 1024, 0);
+    byte[] modified = contents.clone();
+    System.arraycopy(randomBytes(100, 1), 0, modified, modified.length / 2, 100);
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+        ChunkedArtifactCacheDecorator chunkedCache =
+            newChunkedCache(inMemoryArtifactCache, /* minimumChunkedStoredArtifactSize */ 0L)) {
+      chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+          BorrowablePath.notBorrowablePath(writeCompressed(contents)));
+      int artifactCount = inMemoryArtifactCache.getArtifactCount();
+
+      chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey2).build(),
+          BorrowablePath.notBorrowablePath(writeCompressed(modified)));
+      // The new rule key, and the chunks around the modified bytes.
+      assertThat(
+          inMemoryArtifactCache.getArtifactCount() - artifactCount,
+          Matchers.allOf(Matchers.greaterThan(1), Matchers.lessThan(5)));
+
+      LazyPath output = LazyPath.ofInstance(tmp.newFile());
+      assertEquals(
+          CacheResultType.HIT,
+          Futures.getUnchecked(chunkedCache.fetchAsync(null, dummyRuleKey2, output)).getType());
+      assertArrayEquals(modified, readCompressed(output.get()));
+    }
+  }
+
+  @Test
+  public void testSmallAndUncompressedArtifactsAreStoredDirectly() throws IOException {
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+        ChunkedArtifactCacheDecorator chunkedCache =
+            newChunkedCache(
+                inMemoryArtifactCache, /* minimumChunkedStoredArtifactSize */ 64 * 1024L)) {
+      chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+          BorrowablePath.notBorrowablePath(writeCompressed(randomBytes(16 * 1024, 0))));
+      assertEquals(1, inMemoryArtifactCache.getArtifactCount());
+
+      Path uncompressed = tmp.newFile();
+      Files.write(uncompressed, randomBytes(256 * 1024, 0));
+      chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey2).build(),
+          BorrowablePath.notBorrowablePath(uncompressed));
+      assertEquals(2, inMemoryArtifactCache.getArtifactCount());
+    }
+  }
+
+  @Test
+  public void testMissingChunkIsAMiss() throws IOException {
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+        ChunkedArtifactCacheDecorator chunkedCache =
+            newChunkedCache(inMemoryArtifactCache, /* minimumChunkedStoredArtifactSize */ 0L)) {
+      chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+          BorrowablePath.notBorrowablePath(writeCompressed(randomBytes(256 * 1024, 0))));
+
+      LazyPath manifest = LazyPath.ofInstance(tmp.newFile());
+      String chunkKeys =
+          Futures.getUnchecked(inMemoryArtifactCache.fetchAsync(null, dummyRuleKey, manifest))
+              .getMetadata()
+              .get(ChunkedArtifactCacheDecorator.METADATA_KEY);
+      RuleKey lastChunkKey = new RuleKey(Iterables.getLast(Splitter.on(',').split(chunkKeys)));
+      Futures.getUnchecked(inMemoryArtifactCache.deleteAsync(ImmutableList.of(lastChunkKey)));
+
+      assertEquals(
+          CacheResultType.MISS,
+          Futures.getUnchecked(
+                  chunkedCache.fetchAsync(null, dummyRuleKey, LazyPath.ofInstance(tmp.newFile())))
+              .getType());
+    }
+  }
+
+  @Test
+  public void testChunksAreStoredInTheCachesWhichDoNotHaveThemYet() throws IOException {
+    byte[] contents = randomBytes(256 * 1024, 0);
+    try (InMemoryArtifactCache first = new InMemoryArtifactCache();
+        InMemoryArtifactCache second = new InMemoryArtifactCache()) {
+      try (ChunkedArtifactCacheDecorator chunkedCache =
+          newChunkedCache(first, /* minimumChunkedStoredArtifactSize */ 0L)) {
+        chunkedCache.store(
+            ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+            BorrowablePath.notBorrowablePath(writeCompressed(contents)));
+      }
+      int chunkCount = first.getArtifactCount() - 1;
+
+      try (ChunkedArtifactCacheDecorator chunkedCache =
+          newChunkedCache(
+              new MultiArtifactCache(ImmutableList.of(first, second)),
+              ImmutableList.of(first, second),
+              /* minimumChunkedStoredArtifactSize */ 0L)) {
+        chunkedCache.store(
+            ArtifactInfo.builder().addRuleKeys(dummyRuleKey2).build(),
+            BorrowablePath.notBorrowablePath(writeCompressed(contents)));
+      }
+      assertEquals(chunkCount + 1, second.getArtifactCount());
+
+      try (ChunkedArtifactCacheDecorator chunkedCache =
+          newChunkedCache(second, /* minimumChunkedStoredArtifactSize */ 0L)) {
+        LazyPath output = LazyPath.ofInstance(tmp.newFile());
+        assertEquals(
+            CacheResultType.HIT,
+            Futures.getUnchecked(chunkedCache.fetchAsync(null, dummyRuleKey2, output)).getType());
+        assertArrayEquals(contents, readCompressed(output.get()));
+      }
+    }
+  }
+
+  private ChunkedArtifactCacheDecorator newChunkedCache(
+      InMemoryArtifactCache inMemoryArtifactCache, long minimumChunkedStoredArtifactSize) {
+    return newChunkedCache(
+        inMemoryArtifactCache,
+        ImmutableList.of(inMemoryArtifactCache),
+        minimumChunkedStoredArtifactSize);
+  }
+
+  private ChunkedArtifactCacheDecorator newChunkedCache(
+      ArtifactCache delegate,
+      ImmutableList<ArtifactCache> chunkIndexes,
+      long minimumChunkedStoredArtifactSize) {
+    return new ChunkedArtifactCacheDecorator(
+        delegate,
+        chunkIndexes,
+        TestProjectFilesystems.createProjectFilesystem(tmp.getRoot()),
+        BuckEventBusForTests.newInstance(),
+        MoreExecutors.newDirectExecutorService(),
+        /* performChunkedStores */ true,
+        minimumChunkedStoredArtifactSize,
+        /* averageChunkSize */ 4096);
+  }
+
+  private Path writeCompressed(byte[] contents) throws IOException {
+    Path path = tmp.newFile();
+    try (OutputStream outputStream =
+        new ZstdCompressorOutputStream(Files.newOutputStream(path))) {
+      outputStream.write(contents);
+    }
+    return path;
+  }
+
+  private static byte[] readCompressed(Path path) throws IOException {
+    try (InputStream inputStream = new ZstdCompressorInputStream(Files.newInputStream(path))) {
+      return ByteStreams.toByteArray(inputStream);
+    }
+  }
+
+  private static byte[] randomBytes(int length, long seed) {
+    byte[] bytes = new byte[length];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.artifact_cache.ContentDefinedChunker.Chunk;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class ContentDefinedChunkerTest {
+
+  private static final int AVERAGE_CHUNK_SIZE = 4096;
+
+  private final ContentDefinedChunker chunker = new ContentDefinedChunker(AVERAGE_CHUNK_SIZE);
+
+  @Test
+  public void chunksCoverTheWholeStream() throws IOException {
+    byte[] contents = randomBytes(1024 * 1024, 0);
+    ImmutableList<Chunk> chunks = chunker.split(new ByteArrayInputStream(contents));
+
+    int offset = 0;
+    for (int i = 0; i < chunks.size(); i++) {
+      Chunk chunk = chunks.get(i);
+      assertThat(chunk.getLength(), Matchers.lessThanOrEqualTo(4 * AVERAGE_CHUNK_SIZE));
+      if (i < chunks.size() - 1) {
+        assertThat(chunk.getLength(), Matchers.greaterThanOrEqualTo(AVERAGE_CHUNK_SIZE / 4));
+      }
+      assertEquals(
+          Hashing.sha1().hashBytes(contents, offset, chunk.getLength()), chunk.getHash());
+      offset += chunk.getLength();
+    }
+    assertEquals(contents.length, offset);
+    assertThat(
+        chunks.size(),
+        Matchers.allOf(
+            Matchers.greaterThan(contents.length / AVERAGE_CHUNK_SIZE / 2),
+            Matchers.lessThan(contents.length / AVERAGE_CHUNK_SIZE * 2)));
+  }
+
+  @Test
+  public void insertionOnlyChangesTheChunksAroundIt() throws IOException {
+    byte[] contents = randomBytes(1024 * 1024, 0);
+    byte[] inserted = randomBytes(100, 1);
+    byte[] modified = new byte[contents.length + inserted.length];
+    int insertionOffset = contents.length / 2;
+    System.arraycopy(contents, 0, modified, 0, insertionOffset);
+    System.arraycopy(inserted, 0, modified, insertionOffset, inserted.length);
+    System.arraycopy(
+        contents,
+        insertionOffset,
+        modified,
+        insertionOffset + inserted.length,
+        contents.length - insertionOffset);
+
+    Set<HashCode> originalHashes = hashes(chunker.split(new ByteArrayInputStream(contents)));
+    Set<HashCode> modifiedHashes = hashes(chunker.split(new ByteArrayInputStream(modified)));
+    assertThat(Sets.difference(modifiedHashes, originalHashes).size(), Matchers.lessThan(4));
+  }
+
+  @Test
+  public void boundariesDoNotDependOnHowTheStreamIsRead() throws IOException {
+    byte[] contents = randomBytes(256 * 1024, 0);
+    ImmutableList<Chunk> chunks = chunker.split(new ByteArrayInputStream(contents));
+    ImmutableList<Chunk> chunksReadByteByByte =
+        chunker.split(
+            new ByteArrayInputStream(contents) {
+              @Override
+              public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+              }
+            });
+    assertEquals(hashList(chunks), hashList(chunksReadByteByByte));
+  }
+
+  private static byte[] randomBytes(int length, long seed) {
+    byte[] bytes = new byte[length];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+
+  private static Set<HashCode> hashes(ImmutableList<Chunk> chunks) {
+    return chunks.stream().map(Chunk::getHash).collect(Collectors.toSet());
+  }
+
+  private static ImmutableList<HashCode> hashList(ImmutableList<Chunk> chunks) {
+    return chunks.stream().map(Chunk::getHash).collect(ImmutableList.toImmutableList());
+  }
+}
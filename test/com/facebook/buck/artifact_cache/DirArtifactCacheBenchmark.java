@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Compares the cost of the {@link DirArtifactCache} operations with and without an index, on a
+ * cache which already holds {@code entryCount} entries.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DirArtifactCacheBenchmark {
+  @Param({"10000", "1000000"})
+  public int entryCount;
+
+  @Param({"false", "true"})
+  public boolean indexed;
+
+  private static final int KEYS_PER_OPERATION = 100;
+
+  private final TemporaryPaths temporaryPaths = new TemporaryPaths();
+  private final Random random = new Random(12345);
+  private ProjectFilesystem filesystem;
+  private Path cacheDir;
+  private Path artifact;
+  private List<RuleKey> storedKeys;
+  private DirArtifactCache cache;
+
+  @Setup(Level.Trial)
+  public void setUpCache() throws Exception {
+    temporaryPaths.before();
+    filesystem = TestProjectFilesystems.createProjectFilesystem(temporaryPaths.getRoot());
+    cacheDir = temporaryPaths.newFolder("cache");
+    artifact = temporaryPaths.newFile("artifact");
+    Files.write(artifact, new byte[1024]);
+
+    // An indexed cache rebuilds its index from the populated cache directory when it is opened.
+    DirArtifactCache populatingCache = newCache(false, Optional.empty());
+    storedKeys = new ArrayList<>(entryCount);
+    for (int i = 0; i < entryCount; i++) {
+      RuleKey ruleKey = randomRuleKey();
+      storedKeys.add(ruleKey);
+      populatingCache.store(
+          ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+          BorrowablePath.notBorrowablePath(artifact));
+    }
+    populatingCache.close();
+
+    cache = newCache(indexed, Optional.of(Long.MAX_VALUE));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    cache.close();
+    temporaryPaths.after();
+  }
+
+  private DirArtifactCache newCache(boolean indexed, Optional<Long> maxCacheSizeBytes)
+      throws IOException {
+    return new DirArtifactCache(
+        "dir",
+        filesystem,
+        cacheDir,
+        CacheReadMode.READWRITE,
+        maxCacheSizeBytes,
+        MoreExecutors.newDirectExecutorService(),
+        indexed);
+  }
+
+  private RuleKey randomRuleKey() {
+    byte[] bytes = new byte[20];
+    random.nextBytes(bytes);
+    return new RuleKey(HashCode.fromBytes(bytes));
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public ImmutableMap<RuleKey, CacheResult> multiContains() {
+    ImmutableSet.Builder<RuleKey> keys = ImmutableSet.builder();
+    for (int i = 0; i < KEYS_PER_OPERATION; i++) {
+      keys.add(i % 2 == 0 ? storedKeys.get(random.nextInt(storedKeys.size())) : randomRuleKey());
+    }
+    return Futures.getUnchecked(cache.multiContainsAsync(keys.build()));
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public CacheResult fetch() {
+    RuleKey ruleKey = storedKeys.get(random.nextInt(storedKeys.size()));
+    LazyPath output = LazyPath.ofInstance(temporaryPaths.getRoot().resolve("out"));
+    return Futures.getUnchecked(cache.fetchAsync(null, ruleKey, output));
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public void store() {
+    Futures.getUnchecked(
+        cache.store(
+            ArtifactInfo.builder().addRuleKeys(randomRuleKey()).build(),
+            BorrowablePath.notBorrowablePath(artifact)));
+  }
+
+  /** Runs a cleanup which finds that the cache is within its size limit. */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public void cleanup() {
+    cache.deleteOldFiles();
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+}
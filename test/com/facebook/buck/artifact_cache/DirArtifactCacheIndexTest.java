@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DirArtifactCacheIndexTest {
+  @Rule public TemporaryPaths tmpDir = new TemporaryPaths();
+
+  private static final RuleKey RULE_KEY_A = new RuleKey("aaaaaaaaaaaaaaaa");
+  private static final RuleKey RULE_KEY_B = new RuleKey("bbbbbbbbbbbbbbbb");
+  private static final RuleKey RULE_KEY_C = new RuleKey("cccccccccccccccc");
+
+  private Path indexFile;
+
+  @Before
+  public void setUp() {
+    indexFile = tmpDir.getRoot().resolve("entries.log");
+  }
+
+  private DirArtifactCacheIndex open() {
+    return DirArtifactCacheIndex.open(
+        indexFile,
+        () -> {
+          throw new AssertionError("index should not be rebuilt");
+        });
+  }
+
+  @Test
+  public void recordsAreReplayed() {
+    try (DirArtifactCacheIndex index = DirArtifactCacheIndex.open(indexFile, ImmutableMap::of)) {
+      index.recordStore(RULE_KEY_A, 10);
+      index.recordStore(RULE_KEY_B, 20);
+      index.recordStore(RULE_KEY_C, 30);
+      index.recordRemove(RULE_KEY_B);
+    }
+
+    try (DirArtifactCacheIndex index = open()) {
+      assertTrue(index.contains(RULE_KEY_A));
+      assertFalse(index.contains(RULE_KEY_B));
+      assertTrue(index.contains(RULE_KEY_C));
+      assertEquals(40, index.getTotalSizeBytes());
+    }
+  }
+
+  @Test
+  public void partiallyWrittenRecordIsDropped() throws IOException {
+    try (DirArtifactCacheIndex index = DirArtifactCacheIndex.open(indexFile, ImmutableMap::of)) {
+      index.recordStore(RULE_KEY_A, 10);
+    }
+    Files.write(indexFile, new byte[] {1, 0, 8, 'b'}, StandardOpenOption.APPEND);
+
+    try (DirArtifactCacheIndex index = open()) {
+      assertEquals(1, index.size());
+      index.recordStore(RULE_KEY_B, 20);
+    }
+
+    try (DirArtifactCacheIndex index = open()) {
+      assertTrue(index.contains(RULE_KEY_A));
+      assertTrue(index.contains(RULE_KEY_B));
+      assertEquals(30, index.getTotalSizeBytes());
+    }
+  }
+
+  @Test
+  public void unreadableIndexIsRebuilt() throws IOException {
+    Files.write(indexFile, new byte[] {'n', 'o', 'p', 'e'});
+
+    try (DirArtifactCacheIndex index =
+        DirArtifactCacheIndex.open(
+            indexFile,
+            () -> ImmutableMap.of(RULE_KEY_A, new DirArtifactCacheIndex.Entry(10, 0)))) {
+      assertTrue(index.contains(RULE_KEY_A));
+      assertEquals(10, index.getTotalSizeBytes());
+    }
+
+    try (DirArtifactCacheIndex index = open()) {
+      assertTrue(index.contains(RULE_KEY_A));
+    }
+  }
+
+  @Test
+  public void indexIsStaleWhileAnotherIndexIsOpen() {
+    try (DirArtifactCacheIndex index = DirArtifactCacheIndex.open(indexFile, ImmutableMap::of)) {
+      assertFalse(index.isStale());
+      try (DirArtifactCacheIndex other =
+          DirArtifactCacheIndex.open(
+              indexFile,
+              () -> {
+                throw new AssertionError("index should not be loaded");
+              })) {
+        assertTrue(other.isStale());
+      }
+      assertFalse(index.isStale());
+    }
+
+    try (DirArtifactCacheIndex index = open()) {
+      assertFalse(index.isStale());
+    }
+  }
+
+  @Test
+  public void markedIndexIsStaleAndRebuilt() throws IOException {
+    try (DirArtifactCacheIndex index = DirArtifactCacheIndex.open(indexFile, ImmutableMap::of)) {
+      index.recordStore(RULE_KEY_A, 10);
+      DirArtifactCacheIndex.markStale(indexFile);
+      assertTrue(index.isStale());
+    }
+
+    try (DirArtifactCacheIndex index =
+        DirArtifactCacheIndex.open(
+            indexFile,
+            () -> ImmutableMap.of(RULE_KEY_B, new DirArtifactCacheIndex.Entry(20, 0)))) {
+      assertFalse(index.isStale());
+      assertFalse(index.contains(RULE_KEY_A));
+      assertTrue(index.contains(RULE_KEY_B));
+    }
+
+    try (DirArtifactCacheIndex index = open()) {
+      assertTrue(index.contains(RULE_KEY_B));
+    }
+  }
+
+  @Test
+  public void leastRecentlyAccessedEntriesAreEvictedFirst() {
+    try (DirArtifactCacheIndex index =
+        DirArtifactCacheIndex.open(
+            indexFile,
+            () ->
+                ImmutableMap.of(
+                    RULE_KEY_A, new DirArtifactCacheIndex.Entry(10, 3000),
+                    RULE_KEY_B, new DirArtifactCacheIndex.Entry(10, 1000),
+                    RULE_KEY_C, new DirArtifactCacheIndex.Entry(10, 2000)))) {
+      assertEquals(ImmutableList.of(), index.getLeastRecentlyAccessed(0));
+      assertEquals(ImmutableList.of(RULE_KEY_B), index.getLeastRecentlyAccessed(10));
+      assertEquals(ImmutableList.of(RULE_KEY_B, RULE_KEY_C), index.getLeastRecentlyAccessed(11));
+
+      index.recordAccess(RULE_KEY_B);
+      assertEquals(ImmutableList.of(RULE_KEY_C, RULE_KEY_A), index.getLeastRecentlyAccessed(20));
+    }
+  }
+}
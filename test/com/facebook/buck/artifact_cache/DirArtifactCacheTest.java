@@ -897,6 +897,148 @@ public class DirArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testIndexedCacheStoreAndContainsHit() throws IOException {
+    Path fileX = tmpDir.newFile("x");
+    Files.write(fileX, "x".getBytes(UTF_8));
+    RuleKey ruleKeyX = new RuleKey("aaaaaaaaaaaaaaaa");
+    RuleKey ruleKeyY = new RuleKey("bbbbbbbbbbbbbbbb");
+
+    dirArtifactCache = newIndexedDirArtifactCache(Optional.empty());
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyX).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+
+    ImmutableMap<RuleKey, CacheResult> results =
+        Futures.getUnchecked(
+            dirArtifactCache.multiContainsAsync(ImmutableSet.of(ruleKeyX, ruleKeyY)));
+    assertEquals(CacheResultType.CONTAINS, results.get(ruleKeyX).getType());
+    assertEquals(CacheResultType.MISS, results.get(ruleKeyY).getType());
+
+    // The index is persisted, and does not count as a cache entry.
+    dirArtifactCache.close();
+    dirArtifactCache = newIndexedDirArtifactCache(Optional.empty());
+    assertEquals(
+        CacheResultType.CONTAINS,
+        Futures.getUnchecked(dirArtifactCache.multiContainsAsync(ImmutableSet.of(ruleKeyX)))
+            .get(ruleKeyX)
+            .getType());
+    assertThat(dirArtifactCache.getAllFilesInCache(), Matchers.hasSize(2));
+  }
+
+  @Test
+  public void testIndexIsRebuiltFromCacheDirectory() throws IOException {
+    Path fileX = tmpDir.newFile("x");
+    Files.write(fileX, "x".getBytes(UTF_8));
+    RuleKey ruleKeyX = new RuleKey("aaaaaaaaaaaaaaaa");
+
+    dirArtifactCache = newIndexedDirArtifactCache(Optional.empty());
+    dirArtifactCache.close();
+
+    // Entries stored while the index is disabled are found once it is enabled again.
+    dirArtifactCache = newDirArtifactCache(Optional.empty(), CacheReadMode.READWRITE);
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyX).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+    dirArtifactCache.close();
+
+    dirArtifactCache = newIndexedDirArtifactCache(Optional.empty());
+    assertEquals(
+        CacheResultType.CONTAINS,
+        Futures.getUnchecked(dirArtifactCache.multiContainsAsync(ImmutableSet.of(ruleKeyX)))
+            .get(ruleKeyX)
+            .getType());
+  }
+
+  @Test
+  public void testIndexIsNotUsedAfterOtherWritersChangedTheCache() throws IOException {
+    Path fileX = tmpDir.newFile("x");
+    Path fileY = tmpDir.newFile("y");
+    Files.write(fileX, "x".getBytes(UTF_8));
+    Files.write(fileY, "y".getBytes(UTF_8));
+    RuleKey ruleKeyX = new RuleKey("aaaaaaaaaaaaaaaa");
+    RuleKey ruleKeyY = new RuleKey("bbbbbbbbbbbbbbbb");
+
+    dirArtifactCache = newIndexedDirArtifactCache(Optional.empty());
+
+    // Another cache using the same directory, either without an index or while the index is
+    // already in use, doesn't update the index of the first one.
+    try (DirArtifactCache unindexedCache =
+            newDirArtifactCache(Optional.empty(), CacheReadMode.READWRITE);
+        DirArtifactCache otherIndexedCache = newIndexedDirArtifactCache(Optional.empty())) {
+      unindexedCache.store(
+          ArtifactInfo.builder().addRuleKeys(ruleKeyX).build(),
+          BorrowablePath.notBorrowablePath(fileX));
+      otherIndexedCache.store(
+          ArtifactInfo.builder().addRuleKeys(ruleKeyY).build(),
+          BorrowablePath.notBorrowablePath(fileY));
+    }
+
+    ImmutableMap<RuleKey, CacheResult> results =
+        Futures.getUnchecked(
+            dirArtifactCache.multiContainsAsync(ImmutableSet.of(ruleKeyX, ruleKeyY)));
+    assertEquals(CacheResultType.CONTAINS, results.get(ruleKeyX).getType());
+    assertEquals(CacheResultType.CONTAINS, results.get(ruleKeyY).getType());
+
+    // The index is rebuilt the next time it is opened.
+    dirArtifactCache.close();
+    dirArtifactCache = newIndexedDirArtifactCache(Optional.empty());
+    results =
+        Futures.getUnchecked(
+            dirArtifactCache.multiContainsAsync(ImmutableSet.of(ruleKeyX, ruleKeyY)));
+    assertEquals(CacheResultType.CONTAINS, results.get(ruleKeyX).getType());
+    assertEquals(CacheResultType.CONTAINS, results.get(ruleKeyY).getType());
+  }
+
+  @Test
+  public void testIndexedCacheEvictsLeastRecentlyAccessed() throws Exception {
+    Path fileW = tmpDir.newFile("w");
+    Path fileX = tmpDir.newFile("x");
+    Path fileY = tmpDir.newFile("y");
+    Path fileZ = tmpDir.newFile("z");
+    Files.write(fileW, "w".getBytes(UTF_8));
+    Files.write(fileX, "x".getBytes(UTF_8));
+    Files.write(fileY, "y".getBytes(UTF_8));
+    Files.write(fileZ, "z".getBytes(UTF_8));
+    RuleKey ruleKeyW = new RuleKey("aaaaaaaaaaaaaaaa");
+    RuleKey ruleKeyX = new RuleKey("bbbbbbbbbbbbbbbb");
+    RuleKey ruleKeyY = new RuleKey("cccccccccccccccc");
+    RuleKey ruleKeyZ = new RuleKey("dddddddddddddddd");
+
+    // A 1-byte entry takes 6 bytes to store, so three entries fit in the cache, and two entries
+    // have to be evicted when a fourth one is stored, to trim the cache down to 2/3 of its size.
+    dirArtifactCache = newIndexedDirArtifactCache(Optional.of(18L));
+    for (Pair<RuleKey, Path> entry :
+        ImmutableList.of(
+            new Pair<>(ruleKeyX, fileX), new Pair<>(ruleKeyY, fileY), new Pair<>(ruleKeyZ, fileZ))) {
+      dirArtifactCache.store(
+          ArtifactInfo.builder().addRuleKeys(entry.getFirst()).build(),
+          BorrowablePath.notBorrowablePath(entry.getSecond()));
+      Thread.sleep(5);
+    }
+    assertEquals(
+        CacheResultType.HIT,
+        Futures.getUnchecked(
+                dirArtifactCache.fetchAsync(null, ruleKeyX, LazyPath.ofInstance(fileX)))
+            .getType());
+    Thread.sleep(5);
+
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyW).build(),
+        BorrowablePath.notBorrowablePath(fileW));
+
+    ImmutableMap<RuleKey, CacheResult> results =
+        Futures.getUnchecked(
+            dirArtifactCache.multiContainsAsync(
+                ImmutableSet.of(ruleKeyW, ruleKeyX, ruleKeyY, ruleKeyZ)));
+    assertEquals(CacheResultType.CONTAINS, results.get(ruleKeyW).getType());
+    assertEquals(CacheResultType.CONTAINS, results.get(ruleKeyX).getType());
+    assertEquals(CacheResultType.MISS, results.get(ruleKeyY).getType());
+    assertEquals(CacheResultType.MISS, results.get(ruleKeyZ).getType());
+    assertFalse(Files.exists(dirArtifactCache.getPathForRuleKey(ruleKeyY, Optional.empty())));
+    assertFalse(Files.exists(dirArtifactCache.getPathForRuleKey(ruleKeyZ, Optional.empty())));
+  }
+
   private static class BuildRuleForTest extends FakeBuildRule {
 
     @SuppressWarnings("PMD.UnusedPrivateField")
@@ -920,4 +1062,16 @@ public class DirArtifactCacheTest {
         maxCacheSizeBytes,
         MoreExecutors.newDirectExecutorService());
   }
+
+  private DirArtifactCache newIndexedDirArtifactCache(Optional<Long> maxCacheSizeBytes)
+      throws IOException {
+    return new DirArtifactCache(
+        "dir",
+        projectFilesystem,
+        cacheDir,
+        CacheReadMode.READWRITE,
+        maxCacheSizeBytes,
+        MoreExecutors.newDirectExecutorService(),
+        /* indexed */ true);
+  }
 }
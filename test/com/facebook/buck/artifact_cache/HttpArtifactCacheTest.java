@@ -49,6 +49,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -57,6 +58,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -66,6 +68,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.Protocol;
@@ -230,6 +233,72 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testFetchUnpacksTheArtifactWhileDownloadingIt() throws Exception {
+    Path output = Paths.get("output/file");
+    String data = "test";
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    ImmutableMap<String, String> metadata = ImmutableMap.of("key", "value");
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    argsBuilder.setProjectFilesystem(filesystem);
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) ->
+                new OkHttpResponseWrapper(
+                    new Response.Builder()
+                        .request(requestBuilder.url(SERVER + path).build())
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(HttpURLConnection.HTTP_OK)
+                        .body(
+                            createResponseBody(
+                                ImmutableSet.of(ruleKey),
+                                metadata,
+                                ByteSource.wrap(data.getBytes(Charsets.UTF_8)),
+                                data))
+                        .message("")
+                        .build())));
+
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    RecordingUnpackingLazyPath unpackingOutput = new RecordingUnpackingLazyPath(output, 2);
+    CacheResult result = Futures.getUnchecked(cache.fetchAsync(null, ruleKey, unpackingOutput));
+    assertEquals(result.cacheError().orElse(""), CacheResultType.HIT, result.getType());
+    assertEquals(metadata, unpackingOutput.unpackedMetadata);
+    assertEquals("te", unpackingOutput.unpackedContents);
+    assertEquals(0, unpackingOutput.rollbacks);
+    // The rest of the artifact is still downloaded, so that it can be stored in other caches.
+    assertEquals(Optional.of(data), filesystem.readFileIfItExists(output));
+    cache.close();
+  }
+
+  @Test
+  public void testFetchBadChecksumRollsBackUnpacking() throws Exception {
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) ->
+                new OkHttpResponseWrapper(
+                    new Response.Builder()
+                        .request(requestBuilder.url(SERVER + path).build())
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(HttpURLConnection.HTTP_OK)
+                        .body(
+                            createResponseBody(
+                                ImmutableSet.of(ruleKey),
+                                ImmutableMap.of(),
+                                ByteSource.wrap(new byte[0]),
+                                "data"))
+                        .message("")
+                        .build())));
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    RecordingUnpackingLazyPath unpackingOutput =
+        new RecordingUnpackingLazyPath(Paths.get("output/file"), Integer.MAX_VALUE);
+    CacheResult result = Futures.getUnchecked(cache.fetchAsync(null, ruleKey, unpackingOutput));
+    assertEquals(CacheResultType.ERROR, result.getType());
+    assertEquals("data", unpackingOutput.unpackedContents);
+    assertEquals(1, unpackingOutput.rollbacks);
+    cache.close();
+  }
+
   @Test
   public void testFetchUrl() {
     RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
@@ -668,6 +737,39 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  /** Records what it is given to unpack, reading at most {@code bytesToRead} of it. */
+  private static class RecordingUnpackingLazyPath extends UnpackingLazyPath {
+    private final Path path;
+    private final int bytesToRead;
+    @Nullable private ImmutableMap<String, String> unpackedMetadata;
+    @Nullable private String unpackedContents;
+    private int rollbacks;
+
+    RecordingUnpackingLazyPath(Path path, int bytesToRead) {
+      this.path = path;
+      this.bytesToRead = bytesToRead;
+    }
+
+    @Override
+    protected Path create() {
+      return path;
+    }
+
+    @Override
+    protected void unpack(ImmutableMap<String, String> metadata, InputStream contents)
+        throws IOException {
+      unpackedMetadata = metadata;
+      unpackedContents =
+          new String(
+              ByteStreams.toByteArray(ByteStreams.limit(contents, bytesToRead)), Charsets.UTF_8);
+    }
+
+    @Override
+    protected void rollback() {
+      rollbacks++;
+    }
+  }
+
   private static ResponseBody createDummyBody() {
     return ResponseBody.create(MediaType.parse("text/plain"), "SUCCESS");
   }
@@ -25,12 +25,14 @@ import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.types.Unit;
 import com.google.caliper.AfterExperiment;
 import com.google.caliper.BeforeExperiment;
 import com.google.caliper.Benchmark;
 import com.google.caliper.Param;
 import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
@@ -57,6 +59,9 @@ public class SQLiteArtifactCacheBenchmark {
   @Param({"5", "10"})
   private int threadCount = 2;
 
+  @Param({"0", "4"})
+  private int readerConnections = 4;
+
   private static final Random random = new Random(12345);
   private static final long MAX_INLINED_BYTES = 1024;
 
@@ -137,7 +142,8 @@ public class SQLiteArtifactCacheBenchmark {
         BuckEventBusForTests.newInstance(),
         maxCacheSizeBytes,
         Optional.of(MAX_INLINED_BYTES),
-        CacheReadMode.READWRITE);
+        CacheReadMode.READWRITE,
+        readerConnections);
   }
 
   @Ignore
@@ -154,6 +160,13 @@ public class SQLiteArtifactCacheBenchmark {
     runAllBenchmarks();
   }
 
+  @Ignore
+  @Test
+  public void testMultiThreadedMixedWorkload() {
+    executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount));
+    benchConcurrentFetchAndStore();
+  }
+
   private void runAllBenchmarks() {
     benchMetadataStore();
     benchMetadataFetch();
@@ -192,4 +205,39 @@ public class SQLiteArtifactCacheBenchmark {
       Futures.getUnchecked(artifactCache.fetchAsync(null, key, output));
     }
   }
+
+  /**
+   * Fetches and stores artifacts from {@code threadCount} threads at once, similar to a build with
+   * a high number of jobs. Every artifact is fetched first, and stored after the fetch misses.
+   */
+  @Benchmark
+  private void benchConcurrentFetchAndStore() {
+    List<ListenableFuture<Unit>> futures = new ArrayList<>(opCount);
+    for (int i = 0; i < opCount; i++) {
+      RuleKey ruleKey = ruleKeys.get(i);
+      ArtifactInfo metadata = metadataInfo.get(i);
+      RuleKey contentHash = contentHashes.get(i);
+      ArtifactInfo content = contentInfo.get(i);
+      Path artifact = i % 2 == 0 ? inlinedFile : largeFile;
+      LazyPath fetchOutput = LazyPath.ofInstance(cacheDir.resolve(".output" + i));
+      futures.add(
+          executor.submit(
+              () -> {
+                if (!Futures.getUnchecked(artifactCache.fetchAsync(null, ruleKey, fetchOutput))
+                    .getType()
+                    .isSuccess()) {
+                  Futures.getUnchecked(
+                      artifactCache.store(metadata, BorrowablePath.notBorrowablePath(emptyFile)));
+                }
+                if (!Futures.getUnchecked(artifactCache.fetchAsync(null, contentHash, fetchOutput))
+                    .getType()
+                    .isSuccess()) {
+                  Futures.getUnchecked(
+                      artifactCache.store(content, BorrowablePath.notBorrowablePath(artifact)));
+                }
+                return null;
+              }));
+    }
+    Futures.getUnchecked(Futures.allAsList(futures));
+  }
 }
@@ -25,6 +25,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
@@ -35,18 +36,29 @@ import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.types.Unit;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import org.hamcrest.Matchers;
 import org.junit.After;
 import org.junit.Before;
@@ -102,6 +114,11 @@ public class SQLiteArtifactCacheTest {
 
   private SQLiteArtifactCache cache(Optional<Long> maxCacheSizeBytes)
       throws IOException, SQLException {
+    return cache(maxCacheSizeBytes, 0);
+  }
+
+  private SQLiteArtifactCache cache(Optional<Long> maxCacheSizeBytes, int readerConnections)
+      throws IOException, SQLException {
     return new SQLiteArtifactCache(
         "sqlite",
         filesystem,
@@ -109,7 +126,8 @@ public class SQLiteArtifactCacheTest {
         BuckEventBusForTests.newInstance(),
         maxCacheSizeBytes,
         Optional.of(MAX_INLINED_BYTES),
-        CacheReadMode.READWRITE);
+        CacheReadMode.READWRITE,
+        readerConnections);
   }
 
   /**
@@ -434,6 +452,145 @@ public class SQLiteArtifactCacheTest {
     assertArrayEquals(Files.readAllBytes(output.get()), Files.readAllBytes(fileA));
   }
 
+  @Test
+  public void testConcurrentModeStoreAndFetchHit() throws IOException, SQLException {
+    artifactCache = cache(Optional.empty(), 2);
+    writeInlinedArtifact(fileA);
+    writeFileArtifact(fileB);
+
+    Futures.getUnchecked(
+        Futures.allAsList(
+            artifactCache.store(
+                ArtifactInfo.builder()
+                    .addRuleKeys(ruleKeyA)
+                    .putMetadata(METADATA_KEY, contentHashA.toString())
+                    .build(),
+                BorrowablePath.notBorrowablePath(emptyFile)),
+            artifactCache.store(artifactInfoA, BorrowablePath.notBorrowablePath(fileA)),
+            artifactCache.store(artifactInfoB, BorrowablePath.notBorrowablePath(fileB))));
+
+    CacheResult metadataResult =
+        Futures.getUnchecked(artifactCache.fetchAsync(null, ruleKeyA, output));
+    assertEquals(CacheResultType.HIT, metadataResult.getType());
+    assertEquals(contentHashA.toString(), metadataResult.getMetadata().get(METADATA_KEY));
+
+    CacheResult inlinedResult =
+        Futures.getUnchecked(artifactCache.fetchAsync(null, contentHashA, output));
+    assertEquals(CacheResultType.HIT, inlinedResult.getType());
+    assertArrayEquals(Files.readAllBytes(fileA), Files.readAllBytes(output.get()));
+
+    CacheResult fileResult =
+        Futures.getUnchecked(artifactCache.fetchAsync(null, contentHashB, output));
+    assertEquals(CacheResultType.HIT, fileResult.getType());
+    assertArrayEquals(Files.readAllBytes(fileB), Files.readAllBytes(output.get()));
+  }
+
+  @Test
+  public void testConcurrentModeParallelStoresAndFetches() throws Exception {
+    artifactCache = cache(Optional.empty(), 4);
+    writeInlinedArtifact(fileA);
+
+    List<RuleKey> contentHashes = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      contentHashes.add(new RuleKey(String.format("%016x", i)));
+    }
+
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(8));
+    try {
+      List<ListenableFuture<?>> stores = new ArrayList<>();
+      for (RuleKey contentHash : contentHashes) {
+        stores.add(
+            executor.submit(
+                () ->
+                    artifactCache
+                        .store(
+                            ArtifactInfo.builder().addRuleKeys(contentHash).build(),
+                            BorrowablePath.notBorrowablePath(fileA))
+                        .get()));
+      }
+      Futures.allAsList(stores).get();
+
+      List<ListenableFuture<CacheResult>> fetches = new ArrayList<>();
+      for (RuleKey contentHash : contentHashes) {
+        LazyPath fetchOutput = LazyPath.ofInstance(cacheDir.resolve(contentHash + ".out"));
+        fetches.add(
+            executor.submit(() -> artifactCache.fetchAsync(null, contentHash, fetchOutput).get()));
+      }
+      for (CacheResult result : Futures.allAsList(fetches).get()) {
+        assertEquals(CacheResultType.HIT, result.getType());
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(artifactCache.inlinedArtifactContentHashes(), Matchers.hasSize(100));
+  }
+
+  @Test
+  public void testConcurrentModeEvictsIncrementally() throws Exception {
+    writeFileArtifact(fileA);
+    writeFileArtifact(fileB);
+    writeFileArtifact(fileC);
+
+    artifactCache = cache(Optional.empty());
+    artifactCache.insertContent(
+        contentHashB,
+        BorrowablePath.notBorrowablePath(fileB),
+        Timestamp.from(Instant.now().minus(Duration.ofDays(3))));
+    artifactCache.insertContent(
+        contentHashC,
+        BorrowablePath.notBorrowablePath(fileC),
+        Timestamp.from(Instant.now().minus(Duration.ofDays(2))));
+    artifactCache.close();
+
+    // storing fileA exceeds the max size, so the least recently accessed content is evicted by
+    // the background writer without waiting for the cache to be closed
+    artifactCache = cache(Optional.of(2 * MAX_INLINED_BYTES), 2);
+    Futures.getUnchecked(
+        artifactCache.store(artifactInfoA, BorrowablePath.notBorrowablePath(fileA)));
+
+    artifactCache.flushWrites().get();
+    assertThat(artifactCache.directoryFileContentHashes(), Matchers.contains(contentHashA));
+    assertFalse(Files.exists(fileB));
+    assertFalse(Files.exists(fileC));
+  }
+
+  @Test
+  public void testConcurrentModeFailedWriteFailsItsStoreOnly() throws Exception {
+    writeInlinedArtifact(fileA);
+    writeInlinedArtifact(fileB);
+    cache(Optional.empty()).close();
+    try (Connection connection =
+            DriverManager.getConnection("jdbc:sqlite:" + cacheDir.resolve("dircache.db"));
+        Statement statement = connection.createStatement()) {
+      statement.execute(
+          "CREATE TRIGGER fail_metadata BEFORE INSERT ON metadata "
+              + "BEGIN SELECT RAISE(ABORT, 'metadata write failed'); END");
+    }
+    artifactCache = cache(Optional.empty(), 2);
+
+    ListenableFuture<Unit> failedStore =
+        artifactCache.store(
+            ArtifactInfo.builder()
+                .addRuleKeys(ruleKeyA)
+                .putMetadata(METADATA_KEY, contentHashA.toString())
+                .build(),
+            BorrowablePath.notBorrowablePath(fileA));
+    ListenableFuture<Unit> store =
+        artifactCache.store(artifactInfoB, BorrowablePath.notBorrowablePath(fileB));
+
+    try {
+      failedStore.get();
+      fail("Store with a failed write should fail");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), Matchers.instanceOf(SQLException.class));
+    }
+    store.get();
+    assertThat(artifactCache.metadataRuleKeys(), Matchers.empty());
+    assertThat(artifactCache.inlinedArtifactContentHashes(), Matchers.contains(contentHashB));
+  }
+
   @Test
   public void testMarshalMetadata() throws IOException {
     byte[] expected = new byte[4];
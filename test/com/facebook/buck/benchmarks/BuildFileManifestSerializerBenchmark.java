@@ -0,0 +1,187 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.benchmarks;
+
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.ImmutableBuildFileManifest;
+import com.facebook.buck.parser.cache.json.BuildFileManifestSerializer;
+import com.facebook.buck.parser.syntax.ImmutableListWithSelects;
+import com.facebook.buck.parser.syntax.ImmutableSelectorValue;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the binary encoding written by {@link BuildFileManifestSerializer} with the JSON
+ * encoding it used to write, on manifests shaped like large packages.
+ *
+ * <p>Each target has the attributes of a typical library: sources, dependencies, visibility,
+ * labels, compiler flags and a {@code select}. The size of the encoded manifest of each format is
+ * printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BuildFileManifestSerializerBenchmark {
+
+  /** The encoding being measured. */
+  public enum Format {
+    JSON,
+    BINARY,
+  }
+
+  private static final int SRCS_PER_TARGET = 20;
+  private static final int DEPS_PER_TARGET = 10;
+
+  @Param({"100", "2000"})
+  public int targetCount;
+
+  @Param({"JSON", "BINARY"})
+  public Format format;
+
+  private BuildFileManifest manifest;
+  private byte[] serialized;
+
+  @Setup
+  public void setUp() throws IOException {
+    manifest = createManifest(targetCount);
+    serialized = serialize();
+    System.out.printf(
+        "%n%s manifest of %d targets: %d bytes%n", format, targetCount, serialized.length);
+  }
+
+  private static BuildFileManifest createManifest(int targetCount) {
+    String basePath = "java/com/example/some/large/package";
+    ImmutableMap.Builder<String, ImmutableMap<String, Object>> targets =
+        ImmutableMap.builderWithExpectedSize(targetCount);
+    ImmutableSet.Builder<String> globResult = ImmutableSet.builder();
+    for (int i = 0; i < targetCount; i++) {
+      String name = "library" + i;
+      ImmutableList.Builder<String> srcs = ImmutableList.builder();
+      for (int j = 0; j < SRCS_PER_TARGET; j++) {
+        String src = name + "/Source" + j + ".java";
+        srcs.add(src);
+        globResult.add(src);
+      }
+      ImmutableList.Builder<String> deps = ImmutableList.builder();
+      for (int j = 0; j < DEPS_PER_TARGET; j++) {
+        // Most dependencies are shared by many targets of the package.
+        deps.add(j % 2 == 0 ? "//third-party/java/lib" + j + ":lib" + j : ":library" + (i + j));
+      }
+      targets.put(
+          name,
+          ImmutableMap.<String, Object>builder()
+              .put("name", name)
+              .put("buck.type", "java_library")
+              .put("buck.base_path", basePath)
+              .put("srcs", srcs.build())
+              .put("deps", deps.build())
+              .put("exported_deps", ImmutableList.of("//java/com/example/common:common"))
+              .put("visibility", ImmutableList.of("PUBLIC"))
+              .put("labels", ImmutableList.of("team:example", "oncall:example"))
+              .put("source", "8")
+              .put("target", "8")
+              .put("extra_arguments", ImmutableList.of("-Xlint:all", "-Werror"))
+              .put("resources_root", Optional.empty())
+              .put("autodeps", false)
+              .put("priority", i % 10)
+              .put(
+                  "platform_deps",
+                  ImmutableListWithSelects.of(
+                      ImmutableList.of(
+                          ImmutableList.of("//java/com/example/base:base"),
+                          ImmutableSelectorValue.of(
+                              ImmutableMap.of(
+                                  "//config:android",
+                                  ImmutableList.of("//java/com/example/android:android"),
+                                  "DEFAULT",
+                                  ImmutableList.of()),
+                              "")),
+                      ImmutableList.class))
+              .build());
+    }
+    return ImmutableBuildFileManifest.of(
+        targets.build(),
+        ImmutableSortedSet.of(
+            basePath + "/BUCK", "tools/build_defs/java.bzl", "tools/build_defs/common.bzl"),
+        ImmutableMap.of("java", ImmutableMap.of("source_level", Optional.of("8"))),
+        Optional.of(ImmutableMap.of("USER", Optional.of("example"))),
+        ImmutableList.of(
+            GlobSpecWithResult.of(
+                GlobSpec.builder()
+                    .setInclude(ImmutableList.of("**/*.java"))
+                    .setExclude(ImmutableList.of())
+                    .setExcludeDirectories(true)
+                    .build(),
+                globResult.build())),
+        ImmutableList.of());
+  }
+
+  @Benchmark
+  public byte[] serialize() throws IOException {
+    switch (format) {
+      case JSON:
+        return ObjectMappers.WRITER_WITH_TYPE.writeValueAsBytes(manifest);
+      case BINARY:
+        return BuildFileManifestSerializer.serialize(manifest);
+    }
+    throw new IllegalStateException("Unknown format " + format);
+  }
+
+  /** Both formats are read by {@link BuildFileManifestSerializer#deserialize}. */
+  @Benchmark
+  public BuildFileManifest deserialize() throws IOException {
+    return BuildFileManifestSerializer.deserialize(serialized);
+  }
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(BuildFileManifestSerializerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+        .run();
+  }
+}
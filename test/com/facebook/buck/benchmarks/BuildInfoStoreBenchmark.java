@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.benchmarks;
+
+import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
+import com.facebook.buck.core.build.engine.buildinfo.SQLiteBuildInfoStore;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures {@link SQLiteBuildInfoStore} under the access pattern of a build with many threads.
+ *
+ * <p>{@link #readMetadata} reads a key of a random rule, like the checks done for every rule of a
+ * no-op build. {@link #updateMetadata} writes the metadata of a random rule, like a finished rule
+ * does. Run with {@code -t} to change the number of threads sharing the store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BuildInfoStoreBenchmark {
+
+  private static final int TARGET_COUNT = 5000;
+
+  private Path root;
+  private SQLiteBuildInfoStore store;
+  private BuildTarget[] targets;
+  private ImmutableMap<String, String> metadata;
+
+  @Setup
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("build-info-store-benchmark");
+    store = new SQLiteBuildInfoStore(TestProjectFilesystems.createProjectFilesystem(root));
+    metadata =
+        ImmutableMap.of(
+            BuildInfo.MetadataKey.RULE_KEY,
+            "0123456789abcdef0123456789abcdef01234567",
+            BuildInfo.MetadataKey.INPUT_BASED_RULE_KEY,
+            "76543210fedcba9876543210fedcba9876543210",
+            BuildInfo.MetadataKey.ORIGIN_BUILD_ID,
+            "d1b2c3d4-e5f6-7890-abcd-ef0123456789",
+            BuildInfo.MetadataKey.TARGET,
+            "//some/package:target");
+    targets = new BuildTarget[TARGET_COUNT];
+    for (int i = 0; i < TARGET_COUNT; i++) {
+      targets[i] = BuildTargetFactory.newInstance("//some/package" + i % 100 + ":target" + i);
+      store.updateMetadata(targets[i], metadata);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    store.close();
+    MostFiles.deleteRecursivelyIfExists(root);
+  }
+
+  private BuildTarget randomTarget() {
+    return targets[ThreadLocalRandom.current().nextInt(TARGET_COUNT)];
+  }
+
+  @Benchmark
+  public Optional<String> readMetadata() {
+    return store.readMetadata(randomTarget(), BuildInfo.MetadataKey.RULE_KEY);
+  }
+
+  @Benchmark
+  public void updateMetadata() throws IOException {
+    store.updateMetadata(randomTarget(), metadata);
+  }
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(BuildInfoStoreBenchmark.class.getSimpleName())
+                .build())
+        .run();
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.benchmarks;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.TestBuildRuleParams;
+import com.facebook.buck.core.rules.impl.FakeDepFileBuildRule;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.rules.keys.DefaultDependencyFileRuleKeyFactory;
+import com.facebook.buck.rules.keys.DefaultRuleKeyFactory;
+import com.facebook.buck.rules.keys.DependencyFileEntry;
+import com.facebook.buck.rules.keys.InputBasedRuleKeyFactory;
+import com.facebook.buck.rules.keys.RuleKeyFieldLoader;
+import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the throughput of the rule key factories on a synthetic action graph.
+ *
+ * <p>The graph is made of modules of {@link #MODULE_SIZE} rules, where each rule has its own
+ * sources, depends on the outputs of earlier rules of its module and of a few rules of the previous
+ * module, and carries the kinds of fields real rules add to their keys (strings, flags, numbers,
+ * optionals, maps and nested {@link AddsToRuleKey} objects). Every invocation computes the keys of
+ * the whole graph with a fresh factory, so that no key is served from a cache, and scores are
+ * reported per rule.
+ *
+ * <p>{@link #main} runs with the GC profiler enabled, so that the allocation rate per rule key is
+ * reported next to the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class RuleKeyFactoryBenchmark {
+
+  private static final int NODE_COUNT = 5000;
+  private static final int MODULE_SIZE = 100;
+  private static final int DEPS_PER_NODE = 4;
+  private static final int SRCS_PER_NODE = 10;
+
+  private final ProjectFilesystem filesystem = new FakeProjectFilesystem();
+  private final Random random = new Random(12345);
+
+  private ActionGraphBuilder graphBuilder;
+  private RuleKeyFieldLoader fieldLoader;
+  private FakeFileHashCache hashCache;
+  private BenchmarkRule[] rules;
+  private ImmutableList<DependencyFileEntry>[] depFileEntries;
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    graphBuilder = new TestActionGraphBuilder();
+    fieldLoader = new RuleKeyFieldLoader(TestRuleKeyConfigurationFactory.create());
+    Map<Path, HashCode> hashes = new HashMap<>();
+    rules = new BenchmarkRule[NODE_COUNT];
+    depFileEntries = new ImmutableList[NODE_COUNT];
+
+    for (int i = 0; i < NODE_COUNT; i++) {
+      int module = i / MODULE_SIZE;
+      int moduleStart = module * MODULE_SIZE;
+      ImmutableSortedSet.Builder<BuildRule> deps = ImmutableSortedSet.naturalOrder();
+      ImmutableList.Builder<SourcePath> depOutputs = ImmutableList.builder();
+      for (int j = 0; j < DEPS_PER_NODE; j++) {
+        // Most deps are within the module, some point to the previous module.
+        int start = j == 0 && module > 0 ? moduleStart - MODULE_SIZE : moduleStart;
+        if (i == start) {
+          continue;
+        }
+        BenchmarkRule dep = rules[start + random.nextInt(i - start)];
+        deps.add(dep);
+        depOutputs.add(dep.getSourcePathToOutput());
+      }
+
+      ImmutableSortedSet.Builder<SourcePath> srcs = ImmutableSortedSet.naturalOrder();
+      ImmutableList.Builder<DependencyFileEntry> entries = ImmutableList.builder();
+      for (int j = 0; j < SRCS_PER_NODE; j++) {
+        Path path = Paths.get("module" + module, "rule" + i, "Source" + j + ".java");
+        srcs.add(PathSourcePath.of(filesystem, path));
+        hashes.put(filesystem.resolve(path), hash(path.toString()));
+        // Dep files usually only list a subset of the sources.
+        if (j % 2 == 0) {
+          entries.add(DependencyFileEntry.of(path, Optional.empty()));
+        }
+      }
+
+      Path output = Paths.get("buck-out", "gen", "module" + module, "rule" + i + ".jar");
+      hashes.put(filesystem.resolve(output), hash(output.toString()));
+
+      BenchmarkRule rule =
+          new BenchmarkRule(filesystem, i, deps.build(), srcs.build(), depOutputs.build());
+      rule.setOutputPath(output);
+      graphBuilder.addToIndex(rule);
+      rules[i] = rule;
+      depFileEntries[i] = entries.build();
+    }
+
+    hashCache = new FakeFileHashCache(hashes);
+  }
+
+  private static HashCode hash(String value) {
+    return Hashing.sha1().hashString(value, StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NODE_COUNT)
+  public void defaultRuleKeys(Blackhole blackhole) {
+    DefaultRuleKeyFactory factory =
+        new DefaultRuleKeyFactory(fieldLoader, hashCache, graphBuilder);
+    for (BenchmarkRule rule : rules) {
+      blackhole.consume(factory.build(rule));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NODE_COUNT)
+  public void inputBasedRuleKeys(Blackhole blackhole) {
+    InputBasedRuleKeyFactory factory =
+        new InputBasedRuleKeyFactory(
+            fieldLoader, hashCache, graphBuilder, Long.MAX_VALUE, Optional.empty());
+    for (BenchmarkRule rule : rules) {
+      blackhole.consume(factory.build(rule));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NODE_COUNT)
+  public void depFileRuleKeys(Blackhole blackhole) throws IOException {
+    DefaultDependencyFileRuleKeyFactory factory =
+        new DefaultDependencyFileRuleKeyFactory(fieldLoader, hashCache, graphBuilder);
+    for (int i = 0; i < NODE_COUNT; i++) {
+      blackhole.consume(factory.build(rules[i], depFileEntries[i]));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NODE_COUNT)
+  public void manifestRuleKeys(Blackhole blackhole) throws IOException {
+    DefaultDependencyFileRuleKeyFactory factory =
+        new DefaultDependencyFileRuleKeyFactory(fieldLoader, hashCache, graphBuilder);
+    for (BenchmarkRule rule : rules) {
+      blackhole.consume(factory.buildManifestKey(rule));
+    }
+  }
+
+  /** The compiler options of a {@link BenchmarkRule}, added to its key as a nested object. */
+  private static class Options implements AddsToRuleKey {
+    @AddToRuleKey private final String sourceLevel = "8";
+    @AddToRuleKey private final String targetLevel = "8";
+    @AddToRuleKey private final boolean debug;
+    @AddToRuleKey private final ImmutableList<String> extraArguments;
+    @AddToRuleKey private final ImmutableSortedMap<String, String> annotationProcessorParams;
+
+    private Options(int index) {
+      this.debug = index % 2 == 0;
+      this.extraArguments = ImmutableList.of("-Xlint:all", "-Werror", "-g");
+      this.annotationProcessorParams =
+          ImmutableSortedMap.of("module", "module" + index / MODULE_SIZE, "index", "" + index);
+    }
+  }
+
+  /** A rule shaped like a typical library rule. */
+  private static class BenchmarkRule extends FakeDepFileBuildRule {
+    @AddToRuleKey private final String name;
+    @AddToRuleKey private final int index;
+    @AddToRuleKey private final Optional<String> resourcesRoot;
+    @AddToRuleKey private final ImmutableSortedSet<SourcePath> srcs;
+    @AddToRuleKey private final ImmutableList<SourcePath> depOutputs;
+    @AddToRuleKey private final Options options;
+
+    private BenchmarkRule(
+        ProjectFilesystem filesystem,
+        int index,
+        ImmutableSortedSet<BuildRule> deps,
+        ImmutableSortedSet<SourcePath> srcs,
+        ImmutableList<SourcePath> depOutputs) {
+      super(
+          BuildTargetFactory.newInstance("//module" + index / MODULE_SIZE + ":rule" + index),
+          filesystem,
+          TestBuildRuleParams.create().withDeclaredDeps(deps));
+      this.name = "rule" + index;
+      this.index = index;
+      this.resourcesRoot = index % 3 == 0 ? Optional.of("res") : Optional.empty();
+      this.srcs = srcs;
+      this.depOutputs = depOutputs;
+      this.options = new Options(index);
+    }
+  }
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(RuleKeyFactoryBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+        .run();
+  }
+}
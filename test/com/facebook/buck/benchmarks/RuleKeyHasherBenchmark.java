@@ -0,0 +1,227 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.benchmarks;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.sourcepath.BuildTargetSourcePath;
+import com.facebook.buck.core.sourcepath.DefaultBuildTargetSourcePath;
+import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
+import com.facebook.buck.rules.keys.hasher.CountingRuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.GuavaRuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.RuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.RuleKeyHasher.Container;
+import com.facebook.buck.rules.keys.hasher.StringRuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.ThriftRuleKeyHasher;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the cost of each kind of field in the {@link RuleKeyHasher} implementations.
+ *
+ * <p>Every benchmark hashes {@link #FIELD_COUNT} key/value pairs of a single type into a new hasher,
+ * the way {@code AbstractRuleKeyBuilder} feeds them. {@link #empty} only creates and finishes a
+ * hasher, so the cost of one field is the difference with it, divided by {@link #FIELD_COUNT}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class RuleKeyHasherBenchmark {
+
+  /** The hasher implementation being measured. */
+  public enum HasherType {
+    GUAVA,
+    STRING,
+    THRIFT,
+    COUNTING,
+  }
+
+  private static final int FIELD_COUNT = 16;
+
+  @Param({"GUAVA", "STRING", "THRIFT", "COUNTING"})
+  public HasherType hasherType;
+
+  private final String[] keys = new String[FIELD_COUNT];
+  private final String[] strings = new String[FIELD_COUNT];
+  private final Path[] paths = new Path[FIELD_COUNT];
+  private final HashCode[] hashes = new HashCode[FIELD_COUNT];
+  private final BuildTarget[] targets = new BuildTarget[FIELD_COUNT];
+  private final BuildTargetSourcePath[] targetSourcePaths = new BuildTargetSourcePath[FIELD_COUNT];
+  private final RuleKey[] ruleKeys = new RuleKey[FIELD_COUNT];
+  private final byte[][] bytes = new byte[FIELD_COUNT][];
+
+  private ThriftRuleKeyLogger thriftLogger;
+
+  @Setup
+  public void setUp() {
+    thriftLogger = new ThriftRuleKeyLogger(ByteStreams.nullOutputStream());
+    for (int i = 0; i < FIELD_COUNT; i++) {
+      keys[i] = "field" + i;
+      strings[i] = "-Dproperty" + i + "=value" + i;
+      paths[i] = Paths.get("some", "package", "Source" + i + ".java");
+      hashes[i] = Hashing.sha1().hashInt(i);
+      targets[i] = BuildTargetFactory.newInstance("//some/package:rule" + i + "#flavor");
+      targetSourcePaths[i] = DefaultBuildTargetSourcePath.of(targets[i]);
+      ruleKeys[i] = new RuleKey(Hashing.sha1().hashInt(-i));
+      bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    thriftLogger.close();
+  }
+
+  private RuleKeyHasher<?> newHasher() {
+    switch (hasherType) {
+      case GUAVA:
+        return new GuavaRuleKeyHasher(Hashing.sha1().newHasher());
+      case STRING:
+        return new StringRuleKeyHasher();
+      case THRIFT:
+        return new ThriftRuleKeyHasher(thriftLogger);
+      case COUNTING:
+        return new CountingRuleKeyHasher<>(new GuavaRuleKeyHasher(Hashing.sha1().newHasher()));
+    }
+    throw new IllegalStateException("Unknown hasher type " + hasherType);
+  }
+
+  @Benchmark
+  public Object empty() {
+    return newHasher().hash();
+  }
+
+  @Benchmark
+  public Object putString() {
+    RuleKeyHasher<?> hasher = newHasher();
+    for (int i = 0; i < FIELD_COUNT; i++) {
+      hasher.putString(strings[i]).putKey(keys[i]);
+    }
+    return hasher.hash();
+  }
+
+  @Benchmark
+  public Object putNumber() {
+    RuleKeyHasher<?> hasher = newHasher();
+    for (int i = 0; i < FIELD_COUNT; i++) {
+      hasher.putNumber(i).putKey(keys[i]);
+    }
+    return hasher.hash();
+  }
+
+  @Benchmark
+  public Object putBoolean() {
+    RuleKeyHasher<?> hasher = newHasher();
+    for (int i = 0; i < FIELD_COUNT; i++) {
+      hasher.putBoolean(i % 2 == 0).putKey(keys[i]);
+    }
+    return hasher.hash();
+  }
+
+  @Benchmark
+  public Object putBytes() {
+    RuleKeyHasher<?> hasher = newHasher();
+    for (int i = 0; i < FIELD_COUNT; i++) {
+      hasher.putBytes(bytes[i]).putKey(keys[i]);
+    }
+    return hasher.hash();
+  }
+
+  @Benchmark
+  public Object putPath() {
+    RuleKeyHasher<?> hasher = newHasher();
+    for (int i = 0; i < FIELD_COUNT; i++) {
+      hasher.putPath(paths[i], hashes[i]).putKey(keys[i]);
+    }
+    return hasher.hash();
+  }
+
+  @Benchmark
+  public Object putBuildTarget() {
+    RuleKeyHasher<?> hasher = newHasher();
+    for (int i = 0; i < FIELD_COUNT; i++) {
+      hasher.putBuildTarget(targets[i]).putKey(keys[i]);
+    }
+    return hasher.hash();
+  }
+
+  @Benchmark
+  public Object putBuildTargetSourcePath() {
+    RuleKeyHasher<?> hasher = newHasher();
+    for (int i = 0; i < FIELD_COUNT; i++) {
+      hasher.putBuildTargetSourcePath(targetSourcePaths[i]).putKey(keys[i]);
+    }
+    return hasher.hash();
+  }
+
+  @Benchmark
+  public Object putRuleKey() {
+    RuleKeyHasher<?> hasher = newHasher();
+    for (int i = 0; i < FIELD_COUNT; i++) {
+      hasher.putRuleKey(ruleKeys[i]).putKey(keys[i]);
+    }
+    return hasher.hash();
+  }
+
+  /** A single list field holding {@link #FIELD_COUNT} strings. */
+  @Benchmark
+  public Object putContainer() {
+    RuleKeyHasher<?> hasher = newHasher();
+    for (int i = 0; i < FIELD_COUNT; i++) {
+      hasher.putString(strings[i]);
+    }
+    hasher.putContainer(Container.LIST, FIELD_COUNT).putKey(keys[0]);
+    return hasher.hash();
+  }
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(RuleKeyHasherBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+        .run();
+  }
+}
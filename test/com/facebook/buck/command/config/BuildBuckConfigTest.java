@@ -16,6 +16,7 @@
 package com.facebook.buck.command.config;
 
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import com.facebook.buck.core.config.FakeBuckConfig;
 import com.facebook.buck.core.exceptions.HumanReadableException;
@@ -164,4 +165,27 @@ public class BuildBuckConfigTest {
             .getView(BuildBuckConfig.class);
     assertThat(buckConfig.getDefaultMaximumNumberOfThreads(10), Matchers.equalTo(6));
   }
+
+  @Test
+  public void testCompactRuleKeyCacheWithPersistence() {
+    BuildBuckConfig buckConfig =
+        FakeBuckConfig.builder()
+            .setSections(
+                ImmutableMap.of(
+                    "build",
+                    ImmutableMap.of(
+                        "rule_key_caching", "true",
+                        "rule_key_cache_persistence", "true",
+                        "compact_rule_key_cache", "true")))
+            .build()
+            .getView(BuildBuckConfig.class);
+    try {
+      buckConfig.getCompactRuleKeyCache();
+      fail("expected an exception");
+    } catch (HumanReadableException e) {
+      assertThat(
+          e.getHumanReadableErrorMessage(),
+          Matchers.startsWith("compact_rule_key_cache can't be used"));
+    }
+  }
 }
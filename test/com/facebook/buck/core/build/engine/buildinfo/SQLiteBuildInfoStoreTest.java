@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.buildinfo;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class SQLiteBuildInfoStoreTest {
+  private final BuildTarget target = BuildTargetFactory.newInstance("//foo/bar:baz");
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+  }
+
+  @Test
+  public void readsSeeEarlierWrites() throws Exception {
+    SQLiteBuildInfoStore store = new SQLiteBuildInfoStore(filesystem);
+    assertEquals(ImmutableMap.of(), store.getAllMetadata(target));
+
+    store.updateMetadata(target, ImmutableMap.of("a", "1", "b", "2"));
+    assertEquals(Optional.of("1"), store.readMetadata(target, "a"));
+    store.updateMetadata(target, ImmutableMap.of("b", "3"));
+    assertEquals(ImmutableMap.of("a", "1", "b", "3"), store.getAllMetadata(target));
+
+    store.deleteMetadata(target);
+    assertEquals(Optional.empty(), store.readMetadata(target, "a"));
+    store.updateMetadata(target, ImmutableMap.of("c", "4"));
+    assertEquals(ImmutableMap.of("c", "4"), store.getAllMetadata(target));
+    store.close();
+  }
+
+  @Test
+  public void writesArePersistedOnClose() throws Exception {
+    BuildTarget otherTarget = BuildTargetFactory.newInstance("//foo/bar:other");
+    SQLiteBuildInfoStore store = new SQLiteBuildInfoStore(filesystem);
+    store.updateMetadata(target, ImmutableMap.of("a", "1", "b", "2"));
+    store.deleteMetadata(target);
+    store.updateMetadata(target, ImmutableMap.of("c", "3"));
+    store.updateMetadata(otherTarget, ImmutableMap.of("a", "4"));
+    store.close();
+
+    SQLiteBuildInfoStore reopened = new SQLiteBuildInfoStore(filesystem);
+    assertEquals(ImmutableMap.of("c", "3"), reopened.getAllMetadata(target));
+    assertEquals(ImmutableMap.of("a", "4"), reopened.getAllMetadata(otherTarget));
+    reopened.close();
+  }
+
+  @Test
+  public void concurrentReadsAndWritesOfDifferentTargets() throws Exception {
+    int threadCount = 8;
+    int targetsPerThread = 200;
+    SQLiteBuildInfoStore store = new SQLiteBuildInfoStore(filesystem);
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int thread = 0; thread < threadCount; thread++) {
+        int threadIndex = thread;
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < targetsPerThread; i++) {
+                    BuildTarget buildTarget =
+                        BuildTargetFactory.newInstance("//foo:t" + threadIndex + "_" + i);
+                    store.updateMetadata(buildTarget, ImmutableMap.of("key", "v" + i));
+                    assertEquals(Optional.of("v" + i), store.readMetadata(buildTarget, "key"));
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    store.close();
+
+    SQLiteBuildInfoStore reopened = new SQLiteBuildInfoStore(filesystem);
+    for (int thread = 0; thread < threadCount; thread++) {
+      for (int i = 0; i < targetsPerThread; i++) {
+        assertEquals(
+            Optional.of("v" + i),
+            reopened.readMetadata(
+                BuildTargetFactory.newInstance("//foo:t" + thread + "_" + i), "key"));
+      }
+    }
+    reopened.close();
+  }
+}
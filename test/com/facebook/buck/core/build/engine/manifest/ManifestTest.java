@@ -37,10 +37,13 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Optional;
 import org.hamcrest.Matchers;
@@ -327,4 +330,117 @@ public class ManifestTest {
         Matchers.equalTo(
             ManifestStats.builder().setNumDepFiles(2).setNumInputs(2).setNumHashes(1).build()));
   }
+
+  @Test
+  public void lookupInDeserializedManifest() throws IOException {
+    RuleKey key1 = new RuleKey("aa");
+    RuleKey key2 = new RuleKey("bb");
+    SourcePath input = FakeSourcePath.of("input.h");
+    SourcePath other = FakeSourcePath.of("a/other.h");
+    SourcePath unrelated = FakeSourcePath.of("unrelated.h");
+    Manifest manifest =
+        roundTrip(
+            ManifestUtil.fromMap(
+                new RuleKey("cc"),
+                ImmutableMap.of(
+                    key1,
+                    ImmutableMap.of(
+                        RESOLVER.getRelativePath(input).toString(), HashCode.fromInt(1)),
+                    key2,
+                    ImmutableMap.of(
+                        RESOLVER.getRelativePath(input).toString(),
+                        HashCode.fromInt(2),
+                        RESOLVER.getRelativePath(other).toString(),
+                        HashCode.fromInt(3)))));
+    FileHashLoader fileHashLoader =
+        new FakeFileHashCache(
+            ImmutableMap.of(
+                RESOLVER.getAbsolutePath(input),
+                HashCode.fromInt(2),
+                RESOLVER.getAbsolutePath(other),
+                HashCode.fromInt(3),
+                RESOLVER.getAbsolutePath(unrelated),
+                HashCode.fromInt(4)));
+    assertThat(
+        manifest.lookup(fileHashLoader, RESOLVER, ImmutableSet.of(unrelated, other, input)),
+        Matchers.equalTo(Optional.of(key2)));
+    assertThat(
+        manifest.lookup(fileHashLoader, RESOLVER, ImmutableSet.of(input)),
+        Matchers.equalTo(Optional.empty()));
+  }
+
+  @Test
+  public void addEntryToDeserializedManifest() throws IOException {
+    ImmutableMap<RuleKey, ImmutableMap<String, HashCode>> entries =
+        ImmutableMap.of(
+            new RuleKey("aa"),
+            ImmutableMap.of("foo/bar.h", HashCode.fromInt(20), "foo/baz.h", HashCode.fromInt(21)));
+    Manifest manifest = roundTrip(ManifestUtil.fromMap(new RuleKey("cc"), entries));
+    assertThat(
+        manifest.getStats(),
+        Matchers.equalTo(
+            ManifestStats.builder().setNumDepFiles(1).setNumInputs(2).setNumHashes(2).build()));
+    // Unmodified manifests are written back as they were read.
+    assertThat(ManifestUtil.toMap(roundTrip(manifest)), Matchers.equalTo(entries));
+
+    manifest.addEntry(
+        new RuleKey("bb"),
+        new int[] {
+          manifest.addHash("foo/baz.h", HashCode.fromInt(21)),
+          manifest.addHash("abc.h", HashCode.fromInt(22))
+        });
+    assertThat(
+        ManifestUtil.toMap(roundTrip(manifest)),
+        Matchers.equalTo(
+            ImmutableMap.builder()
+                .putAll(entries)
+                .put(
+                    new RuleKey("bb"),
+                    ImmutableMap.of(
+                        "foo/baz.h", HashCode.fromInt(21), "abc.h", HashCode.fromInt(22)))
+                .build()));
+  }
+
+  @Test
+  public void deserializeLegacyFormat() throws IOException {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(byteArrayOutputStream);
+    output.writeInt(0);
+    output.writeUTF("cc");
+    output.writeInt(1);
+    output.writeUTF("foo/bar.h");
+    output.writeInt(1);
+    output.writeInt(0);
+    output.writeUTF(HashCode.fromInt(20).toString());
+    output.writeInt(1);
+    output.writeInt(1);
+    output.writeInt(0);
+    output.writeUTF("aa");
+
+    Manifest manifest =
+        new Manifest(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    assertThat(manifest.getKey(), Matchers.equalTo(new RuleKey("cc")));
+    assertThat(
+        ManifestUtil.toMap(manifest),
+        Matchers.equalTo(
+            ImmutableMap.of(
+                new RuleKey("aa"), ImmutableMap.of("foo/bar.h", HashCode.fromInt(20)))));
+  }
+
+  @Test(expected = IOException.class)
+  public void deserializeTruncatedManifest() throws IOException {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ManifestUtil.fromMap(
+            new RuleKey("cc"),
+            ImmutableMap.of(new RuleKey("aa"), ImmutableMap.of("foo.h", HashCode.fromInt(0))))
+        .serialize(byteArrayOutputStream);
+    byte[] bytes = byteArrayOutputStream.toByteArray();
+    new Manifest(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 1)));
+  }
+
+  private static Manifest roundTrip(Manifest manifest) throws IOException {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    manifest.serialize(byteArrayOutputStream);
+    return new Manifest(ByteBuffer.wrap(byteArrayOutputStream.toByteArray()));
+  }
 }
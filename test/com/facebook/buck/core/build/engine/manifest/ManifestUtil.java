@@ -17,7 +17,6 @@
 package com.facebook.buck.core.build.engine.manifest;
 
 import com.facebook.buck.core.rulekey.RuleKey;
-import com.facebook.buck.util.types.Pair;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMap.Builder;
 import com.google.common.hash.HashCode;
@@ -30,15 +29,14 @@ public class ManifestUtil {
 
   public static ImmutableMap<RuleKey, ImmutableMap<String, HashCode>> toMap(Manifest manifest) {
     Builder<RuleKey, ImmutableMap<String, HashCode>> builder = ImmutableMap.builder();
-    for (Pair<RuleKey, int[]> entry : manifest.entries) {
+    for (int entryIndex = 0; entryIndex < manifest.size(); entryIndex++) {
       Builder<String, HashCode> entryBuilder = ImmutableMap.builder();
-      for (int hashIndex : entry.getSecond()) {
-        Pair<Integer, HashCode> hashEntry = manifest.hashes.get(hashIndex);
-        String input = manifest.inputs.get(hashEntry.getFirst());
-        HashCode inputHash = hashEntry.getSecond();
+      for (int hashIndex : manifest.getEntryHashIndices(entryIndex)) {
+        String input = manifest.getInput(manifest.getHashInput(hashIndex));
+        HashCode inputHash = manifest.getHash(hashIndex);
         entryBuilder.put(input, inputHash);
       }
-      builder.put(entry.getFirst(), entryBuilder.build());
+      builder.put(manifest.getEntryKey(entryIndex), entryBuilder.build());
     }
     return builder.build();
   }
@@ -53,7 +51,7 @@ public class ManifestUtil {
         entryHashIndices[entryHashIndex++] =
             manifest.addHash(innerEntry.getKey(), innerEntry.getValue());
       }
-      manifest.entries.add(new Pair<RuleKey, int[]>(entry.getKey(), entryHashIndices));
+      manifest.addEntry(entry.getKey(), entryHashIndices);
     }
     return manifest;
   }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.executor.impl;
+
+import com.facebook.buck.core.graph.transformation.executor.DepsAwareExecutor;
+import com.facebook.buck.core.graph.transformation.executor.DepsAwareTask;
+import com.facebook.buck.core.graph.transformation.executor.factory.DepsAwareExecutorFactory;
+import com.facebook.buck.core.graph.transformation.executor.factory.DepsAwareExecutorType;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Compares the {@link DepsAwareExecutor} implementations on synthetic graphs of many tiny tasks,
+ * which is what the graph transformation engine hands them.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DepsAwareExecutorBenchmark {
+
+  /** The shape of the task graph that is computed. */
+  public enum GraphShape {
+    /** A single root that depends on all the other tasks. */
+    WIDE,
+    /** A chain of tasks that each depend on the next one. */
+    DEEP,
+    /**
+     * Layers of 100 tasks, where each task depends on two tasks of the next layer, and the tasks of
+     * the first layer are submitted together.
+     */
+    LAYERED,
+  }
+
+  @Param({"DEFAULT", "DEFAULT_WITH_LS", "JAVA_BASED", "TOPOSORT_BASED", "FORK_JOIN"})
+  public DepsAwareExecutorType executorType;
+
+  @Param({"WIDE", "DEEP", "LAYERED"})
+  public GraphShape shape;
+
+  /**
+   * The executors that requeue tasks whose dependencies aren't done get very slow on large DEEP
+   * graphs, pass e.g. {@code -p taskCount=10000} to compare the others on larger graphs.
+   */
+  @Param({"1000"})
+  public int taskCount;
+
+  @Param({"4"})
+  public int threads;
+
+  private static final int LAYER_WIDTH = 100;
+
+  private DepsAwareExecutor<Integer, ?> executor;
+  private Runnable computeGraph;
+
+  @Setup(Level.Trial)
+  public void setUpExecutor() {
+    executor = DepsAwareExecutorFactory.create(executorType, threads);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDownExecutor() {
+    executor.close();
+  }
+
+  /** Tasks can only be run once, so a new graph is created for every invocation. */
+  @Setup(Level.Invocation)
+  public void setUpGraph() {
+    computeGraph = createGraph(executor);
+  }
+
+  private <TaskType extends DepsAwareTask<Integer, TaskType>> Runnable createGraph(
+      DepsAwareExecutor<Integer, TaskType> depsAwareExecutor) {
+    List<TaskType> tasks = new ArrayList<>(taskCount);
+    for (int i = taskCount - 1; i >= 0; i--) {
+      ImmutableSet<TaskType> deps = getDeps(i, tasks);
+      tasks.add(
+          depsAwareExecutor.createThrowingTask(
+              () -> {
+                int result = 1;
+                for (TaskType dep : deps) {
+                  result += dep.getResultFuture().get();
+                }
+                return result;
+              },
+              ImmutableSet::of,
+              () -> deps));
+    }
+    // Task 0 reaches all tasks, except in LAYERED graphs, where the first layer does.
+    int rootCount = shape == GraphShape.LAYERED ? Math.min(LAYER_WIDTH, taskCount) : 1;
+    List<TaskType> roots = tasks.subList(taskCount - rootCount, taskCount);
+    return () -> {
+      try {
+        for (Future<Integer> result : depsAwareExecutor.submitAll(roots)) {
+          result.get();
+        }
+      } catch (InterruptedException | ExecutionException e) {
+        throw new IllegalStateException(e);
+      }
+    };
+  }
+
+  /**
+   * Returns the dependencies of task {@code index}. {@code created} holds the tasks with higher
+   * indices, with task {@code taskCount - 1} first.
+   */
+  private <TaskType> ImmutableSet<TaskType> getDeps(int index, List<TaskType> created) {
+    switch (shape) {
+      case WIDE:
+        return index == 0 ? ImmutableSet.copyOf(created) : ImmutableSet.of();
+      case DEEP:
+        return created.isEmpty()
+            ? ImmutableSet.of()
+            : ImmutableSet.of(created.get(created.size() - 1));
+      case LAYERED:
+        int nextLayerStart = (index / LAYER_WIDTH + 1) * LAYER_WIDTH;
+        if (nextLayerStart >= taskCount) {
+          return ImmutableSet.of();
+        }
+        int nextLayerEnd = Math.min(nextLayerStart + LAYER_WIDTH, taskCount);
+        int first = nextLayerStart + index % LAYER_WIDTH % (nextLayerEnd - nextLayerStart);
+        int second = nextLayerStart + (index * 7 + 3) % (nextLayerEnd - nextLayerStart);
+        return ImmutableSet.of(
+            created.get(taskCount - 1 - first), created.get(taskCount - 1 - second));
+      default:
+        throw new IllegalStateException("Unknown shape " + shape);
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public void computeGraph() {
+    computeGraph.run();
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+}
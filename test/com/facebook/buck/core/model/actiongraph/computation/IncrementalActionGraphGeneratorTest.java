@@ -47,11 +47,13 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventBusForTests;
 import com.facebook.buck.util.timing.IncrementingFakeClock;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -65,9 +67,11 @@ public class IncrementalActionGraphGeneratorTest {
   private IncrementalActionGraphGenerator generator;
   private TargetGraph targetGraph;
   private ActionGraphBuilder graphBuilder;
+  private ListeningExecutorService executorService;
 
   @Before
   public void setUp() {
+    executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
     eventBus =
         BuckEventBusForTests.newInstance(new IncrementingFakeClock(TimeUnit.SECONDS.toNanos(1)));
     trackedEvents = new LinkedBlockingQueue<>();
@@ -81,18 +85,25 @@ public class IncrementalActionGraphGeneratorTest {
     generator = new IncrementalActionGraphGenerator();
   }
 
+  @After
+  public void tearDown() {
+    executorService.shutdownNow();
+  }
+
   @Test
   public void cacheableRuleCached() {
     TargetNode<?> node = createTargetNode("test1");
     setUpTargetGraphAndResolver(node);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     BuildRule buildRule = graphBuilder.requireRule(node.getBuildTarget());
 
     assertTrue(graphBuilder.getRuleOptional(node.getBuildTarget()).isPresent());
 
     ActionGraphBuilder newGraphBuilder = createActionGraphBuilder(targetGraph);
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, newGraphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, newGraphBuilder, executorService);
     newGraphBuilder.requireRule(node.getBuildTarget());
 
     assertTrue(newGraphBuilder.getRuleOptional(node.getBuildTarget()).isPresent());
@@ -104,13 +115,15 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> node = createUncacheableTargetNode("test1");
     setUpTargetGraphAndResolver(node);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     BuildRule buildRule = graphBuilder.requireRule(node.getBuildTarget());
 
     assertTrue(graphBuilder.getRuleOptional(node.getBuildTarget()).isPresent());
 
     ActionGraphBuilder newGraphBuilder = createActionGraphBuilder(targetGraph);
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, newGraphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, newGraphBuilder, executorService);
     newGraphBuilder.requireRule(node.getBuildTarget());
 
     assertTrue(newGraphBuilder.getRuleOptional(node.getBuildTarget()).isPresent());
@@ -123,7 +136,8 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> parentNode = createTargetNode("parent", childNode);
     setUpTargetGraphAndResolver(parentNode, childNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     BuildRule childBuildRule = graphBuilder.requireRule(childNode.getBuildTarget());
     BuildRule parentBuildRule = graphBuilder.requireRule(parentNode.getBuildTarget());
 
@@ -131,7 +145,8 @@ public class IncrementalActionGraphGeneratorTest {
     assertTrue(graphBuilder.getRuleOptional(parentNode.getBuildTarget()).isPresent());
 
     ActionGraphBuilder newGraphBuilder = createActionGraphBuilder(targetGraph);
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, newGraphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, newGraphBuilder, executorService);
     newGraphBuilder.requireRule(childNode.getBuildTarget());
     newGraphBuilder.requireRule(parentNode.getBuildTarget());
 
@@ -148,14 +163,16 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> originalNode = createTargetNode("test1");
     setUpTargetGraphAndResolver(originalNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     BuildRule originalBuildRule = graphBuilder.requireRule(originalNode.getBuildTarget());
 
     TargetNode<?> newNode = createTargetNode("test1");
     assertEquals(originalNode, newNode);
     setUpTargetGraphAndResolver(newNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     BuildRule newBuildRule = graphBuilder.requireRule(newNode.getBuildTarget());
 
     assertSame(originalBuildRule, newBuildRule);
@@ -168,14 +185,16 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> originalNode = createTargetNode("test1");
     setUpTargetGraphAndResolver(originalNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     BuildRule originalBuildRule = graphBuilder.requireRule(originalNode.getBuildTarget());
 
     TargetNode<?> depNode = createTargetNode("test2");
     TargetNode<?> newNode = createTargetNode("test1", depNode);
     setUpTargetGraphAndResolver(newNode, depNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     BuildRule newBuildRule = graphBuilder.requireRule(newNode.getBuildTarget());
 
     assertNotSame(originalBuildRule, newBuildRule);
@@ -189,14 +208,16 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> parentNode = createTargetNode("test", "label1", depNode);
     setUpTargetGraphAndResolver(parentNode, depNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(depNode.getBuildTarget());
     BuildRule originalParentRule = graphBuilder.requireRule(parentNode.getBuildTarget());
 
     TargetNode<?> newParentNode = createTargetNode("test", "label2", depNode);
     setUpTargetGraphAndResolver(newParentNode, depNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(depNode.getBuildTarget());
     BuildRule newParentRule = graphBuilder.requireRule(newParentNode.getBuildTarget());
 
@@ -208,13 +229,15 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> originalNode = createTargetNode("test");
     setUpTargetGraphAndResolver(originalNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(originalNode.getBuildTarget());
 
     TargetNode<?> newNode = createTargetNode("test#flavor");
     setUpTargetGraphAndResolver(newNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(newNode.getBuildTarget());
 
     assertFalse(graphBuilder.getRuleOptional(originalNode.getBuildTarget()).isPresent());
@@ -227,7 +250,8 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> parentNode2 = createTargetNode("parent2", childNode);
     setUpTargetGraphAndResolver(parentNode, parentNode2, childNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(childNode.getBuildTarget());
     BuildRule originalParentRule = graphBuilder.requireRule(parentNode.getBuildTarget());
     BuildRule originalParentRule2 = graphBuilder.requireRule(parentNode2.getBuildTarget());
@@ -238,7 +262,8 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> addedNode = createTargetNode("child#added");
     setUpTargetGraphAndResolver(newParentNode, newParentNode2, newChildNode, addedNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(newChildNode.getBuildTarget());
     BuildRule newParentRule = graphBuilder.requireRule(newParentNode.getBuildTarget());
     BuildRule newParentRule2 = graphBuilder.requireRule(newParentNode2.getBuildTarget());
@@ -255,7 +280,8 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> parentNode = createTargetNode("parent1", childNode);
     setUpTargetGraphAndResolver(parentNode, childNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(childNode.getBuildTarget());
     graphBuilder.requireRule(parentNode.getBuildTarget());
 
@@ -263,7 +289,8 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> newParentNode = createTargetNode("parent2", newChildNode);
     setUpTargetGraphAndResolver(newParentNode, newChildNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(newChildNode.getBuildTarget());
     graphBuilder.requireRule(newParentNode.getBuildTarget());
 
@@ -277,7 +304,8 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> originalParentNode2 = createTargetNode("parent2", originalChildNode);
     setUpTargetGraphAndResolver(originalParentNode1, originalParentNode2, originalChildNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(originalChildNode.getBuildTarget());
     BuildRule originalParentBuildRule1 =
         graphBuilder.requireRule(originalParentNode1.getBuildTarget());
@@ -290,7 +318,8 @@ public class IncrementalActionGraphGeneratorTest {
     setUpTargetGraphAndResolver(newParentNode1, newParentNode2, newChildNode);
 
     ActionGraphBuilder newGraphBuilder = createActionGraphBuilder(targetGraph);
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, newGraphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, newGraphBuilder, executorService);
     newGraphBuilder.requireRule(newChildNode.getBuildTarget());
     newGraphBuilder.requireRule(newParentNode1.getBuildTarget());
     newGraphBuilder.requireRule(newParentNode2.getBuildTarget());
@@ -332,11 +361,13 @@ public class IncrementalActionGraphGeneratorTest {
             .build();
     setUpTargetGraphAndResolver(node);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(node.getBuildTarget());
 
     ActionGraphBuilder newGraphBuilder = createActionGraphBuilder(targetGraph);
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, newGraphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, newGraphBuilder, executorService);
     newGraphBuilder.requireRule(node.getBuildTarget());
 
     assertTrue(newGraphBuilder.getRuleOptional(parentTarget).isPresent());
@@ -352,7 +383,8 @@ public class IncrementalActionGraphGeneratorTest {
         createTargetNode("parent", originalChildNode1, originalChildNode2);
     setUpTargetGraphAndResolver(originalParentNode, originalChildNode1, originalChildNode2);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     BuildRule originalChildRule1 = graphBuilder.requireRule(originalChildNode1.getBuildTarget());
     BuildRule originalChildRule2 = graphBuilder.requireRule(originalChildNode2.getBuildTarget());
     BuildRule originalParentRule = graphBuilder.requireRule(originalParentNode.getBuildTarget());
@@ -362,7 +394,8 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> newParentNode = createTargetNode("parent", newChildNode1, newChildNode2);
     setUpTargetGraphAndResolver(newParentNode, newChildNode1, newChildNode2);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(newChildNode1.getBuildTarget());
     graphBuilder.requireRule(newChildNode2.getBuildTarget());
     graphBuilder.requireRule(newParentNode.getBuildTarget());
@@ -385,7 +418,8 @@ public class IncrementalActionGraphGeneratorTest {
         createTargetNode("parent", originalChildNode1, originalChildNode2);
     setUpTargetGraphAndResolver(originalParentNode, originalChildNode1, originalChildNode2);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     BuildRule originalChildRule1 = graphBuilder.requireRule(originalChildNode1.getBuildTarget());
     BuildRule originalChildRule2 = graphBuilder.requireRule(originalChildNode2.getBuildTarget());
     BuildRule originalParentRule = graphBuilder.requireRule(originalParentNode.getBuildTarget());
@@ -395,7 +429,8 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> newParentNode = createTargetNode("parent", newChildNode1, newChildNode2);
     setUpTargetGraphAndResolver(newParentNode, newChildNode1, newChildNode2);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(newChildNode1.getBuildTarget());
     graphBuilder.requireRule(newChildNode2.getBuildTarget());
     graphBuilder.requireRule(newParentNode.getBuildTarget());
@@ -424,7 +459,8 @@ public class IncrementalActionGraphGeneratorTest {
     setUpTargetGraphAndResolver(
         parentNode, declaredChildNode, extraChildNode, targetGraphOnlyChildNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(declaredChildNode.getBuildTarget());
     graphBuilder.requireRule(extraChildNode.getBuildTarget());
     graphBuilder.requireRule(targetGraphOnlyChildNode.getBuildTarget());
@@ -433,7 +469,8 @@ public class IncrementalActionGraphGeneratorTest {
     setUpTargetGraphAndResolver(
         parentNode, declaredChildNode, extraChildNode, targetGraphOnlyChildNode);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(parentNode.getBuildTarget());
 
     assertTrue(graphBuilder.getRuleOptional(declaredChildNode.getBuildTarget()).isPresent());
@@ -466,13 +503,15 @@ public class IncrementalActionGraphGeneratorTest {
             .build();
     setUpTargetGraphAndResolver(node);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     BuildRule originalParentBuildRule = graphBuilder.requireRule(node.getBuildTarget());
     BuildRule originalChildBuildRule = graphBuilder.getRule(childTarget);
 
     setUpTargetGraphAndResolver(node);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(node.getBuildTarget());
 
     assertTrue(graphBuilder.getRuleOptional(parentTarget).isPresent());
@@ -511,13 +550,15 @@ public class IncrementalActionGraphGeneratorTest {
             .build();
     setUpTargetGraphAndResolver(node);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     FakeBuildRule parentBuildRule = (FakeBuildRule) graphBuilder.requireRule(node.getBuildTarget());
     FakeBuildRule childBuildRule1 = (FakeBuildRule) graphBuilder.getRule(childTarget1);
     FakeBuildRule childBuildRule2 = (FakeBuildRule) graphBuilder.getRule(childTarget2);
 
     ActionGraphBuilder newGraphBuilder = createActionGraphBuilder(targetGraph);
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, newGraphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, newGraphBuilder, executorService);
     newGraphBuilder.requireRule(node.getBuildTarget());
 
     assertSame(newGraphBuilder, parentBuildRule.getRuleResolver());
@@ -556,14 +597,16 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> node2 = FakeTargetNodeBuilder.newBuilder(rootTarget2).build();
     setUpTargetGraphAndResolver(node1, node2);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     FakeBuildRule rootBuildRule1 = (FakeBuildRule) graphBuilder.requireRule(node1.getBuildTarget());
     FakeBuildRule childBuildRule1 = (FakeBuildRule) graphBuilder.getRule(childTarget1);
     FakeBuildRule childBuildRule2 = (FakeBuildRule) graphBuilder.getRule(childTarget2);
     graphBuilder.requireRule(node2.getBuildTarget());
 
     ActionGraphBuilder newGraphBuilder = createActionGraphBuilder(targetGraph);
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, newGraphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, newGraphBuilder, executorService);
     newGraphBuilder.requireRule(node2.getBuildTarget());
 
     assertSame(newGraphBuilder, rootBuildRule1.getRuleResolver());
@@ -578,13 +621,15 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> node = createTargetNode("node");
     setUpTargetGraphAndResolver(node);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(node.getBuildTarget());
 
     BuildRuleResolver oldRuleResolver = graphBuilder;
     setUpTargetGraphAndResolver(node);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(node.getBuildTarget());
 
     oldRuleResolver.getRuleOptional(node.getBuildTarget());
@@ -595,7 +640,8 @@ public class IncrementalActionGraphGeneratorTest {
     TargetNode<?> node = createTargetNode("test1");
     setUpTargetGraphAndResolver(node);
 
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
     graphBuilder.requireRule(node.getBuildTarget());
 
     assertEquals(1, trackedEvents.size());
@@ -604,13 +650,65 @@ public class IncrementalActionGraphGeneratorTest {
     assertEquals(0, ((ActionGraphEvent.IncrementalLoad) event).getReusedNodeCount());
 
     ActionGraphBuilder newGraphBuilder = createActionGraphBuilder(targetGraph);
-    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, newGraphBuilder);
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, newGraphBuilder, executorService);
     newGraphBuilder.requireRule(node.getBuildTarget());
 
     assertEquals(1, trackedEvents.size());
     event = trackedEvents.take();
     assertTrue(event instanceof ActionGraphEvent.IncrementalLoad);
     assertEquals(1, ((ActionGraphEvent.IncrementalLoad) event).getReusedNodeCount());
+    assertEquals(1, ((ActionGraphEvent.IncrementalLoad) event).getPreviousNodeCount());
+    assertEquals(1.0, ((ActionGraphEvent.IncrementalLoad) event).getReuseRatio(), 0);
+  }
+
+  @Test
+  public void changeDeepInLargeGraphInvalidatesOnlyDependents() {
+    // A chain of nodes with a wide layer of independent leaves, so that the parallel walk splits
+    // the nodes between several tasks.
+    int leafCount = 5000;
+    TargetNode<?>[] leaves = new TargetNode<?>[leafCount];
+    for (int i = 0; i < leafCount; i++) {
+      leaves[i] = createTargetNode("leaf" + i);
+    }
+    TargetNode<?> changingNode = createTargetNode("changing");
+    TargetNode<?> middle = createTargetNode("middle", changingNode);
+    TargetNode<?> root = createTargetNode("root", middle);
+    TargetNode<?>[] allNodes = new TargetNode<?>[leafCount + 3];
+    System.arraycopy(leaves, 0, allNodes, 0, leafCount);
+    allNodes[leafCount] = changingNode;
+    allNodes[leafCount + 1] = middle;
+    allNodes[leafCount + 2] = root;
+    setUpTargetGraphAndResolver(allNodes);
+
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
+    for (TargetNode<?> node : allNodes) {
+      graphBuilder.requireRule(node.getBuildTarget());
+    }
+
+    TargetNode<?> changedNode = createTargetNode("changing", "new_label");
+    TargetNode<?> newMiddle = createTargetNode("middle", changedNode);
+    TargetNode<?> newRoot = createTargetNode("root", newMiddle);
+    allNodes[leafCount] = changedNode;
+    allNodes[leafCount + 1] = newMiddle;
+    allNodes[leafCount + 2] = newRoot;
+    ActionGraphBuilder oldGraphBuilder = graphBuilder;
+    BuildRule leafRule = oldGraphBuilder.requireRule(leaves[0].getBuildTarget());
+    setUpTargetGraphAndResolver(allNodes);
+
+    trackedEvents.clear();
+    generator.populateActionGraphBuilderWithCachedRules(
+        eventBus, targetGraph, graphBuilder, executorService);
+
+    assertSame(leafRule, graphBuilder.getRuleOptional(leaves[0].getBuildTarget()).get());
+    assertFalse(graphBuilder.getRuleOptional(changedNode.getBuildTarget()).isPresent());
+    assertFalse(graphBuilder.getRuleOptional(newMiddle.getBuildTarget()).isPresent());
+    assertFalse(graphBuilder.getRuleOptional(newRoot.getBuildTarget()).isPresent());
+    ActionGraphEvent.IncrementalLoad event =
+        (ActionGraphEvent.IncrementalLoad) trackedEvents.poll();
+    assertEquals(leafCount, event.getReusedNodeCount());
+    assertEquals(leafCount + 3, event.getPreviousNodeCount());
   }
 
   private FakeTargetNodeBuilder createTargetNodeBuilder(String name) {
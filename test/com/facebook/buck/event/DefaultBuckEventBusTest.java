@@ -17,6 +17,8 @@
 package com.facebook.buck.event;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
@@ -28,6 +30,10 @@ import com.facebook.buck.util.concurrent.MostExecutors.NamedThreadFactory;
 import com.facebook.buck.util.timing.DefaultClock;
 import com.facebook.buck.util.timing.SettableFakeClock;
 import com.google.common.eventbus.Subscribe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 
@@ -145,6 +151,77 @@ public class DefaultBuckEventBusTest {
     assertTrue(threadFactory.caught);
   }
 
+  @Test
+  public void slowListenerDoesNotDelayOthersWithPerListenerQueues() throws InterruptedException {
+    DefaultBuckEventBus eb =
+        DefaultBuckEventBus.withPerListenerQueues(
+            new DefaultClock(),
+            BuckEventBusForTests.BUILD_ID_FOR_TEST,
+            100,
+            listener -> DefaultBuckEventBus.OverflowPolicy.BLOCK);
+    CountDownLatch slowListenerReleased = new CountDownLatch(1);
+    RecordingSubscriber slow = new RecordingSubscriber(slowListenerReleased);
+    RecordingSubscriber fast = new RecordingSubscriber(new CountDownLatch(0));
+    eb.register(slow);
+    eb.register(fast);
+
+    List<TestEvent> events = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      TestEvent event = new TestEvent();
+      events.add(event);
+      eb.post(event);
+    }
+    assertTrue(fast.waitForEvents(10));
+    assertThat(fast.events, equalTo(events));
+
+    slowListenerReleased.countDown();
+    assertTrue(eb.waitEvents(timeoutMillis));
+    assertThat(slow.events, equalTo(events));
+    eb.close();
+  }
+
+  @Test
+  public void fullQueueDropsEventsWhenRequested() {
+    DefaultBuckEventBus eb =
+        DefaultBuckEventBus.withPerListenerQueues(
+            new DefaultClock(),
+            BuckEventBusForTests.BUILD_ID_FOR_TEST,
+            2,
+            listener -> DefaultBuckEventBus.OverflowPolicy.DROP);
+    CountDownLatch listenerReleased = new CountDownLatch(1);
+    RecordingSubscriber listener = new RecordingSubscriber(listenerReleased);
+    eb.register(listener);
+
+    for (int i = 0; i < 10; i++) {
+      eb.post(new TestEvent());
+    }
+    listenerReleased.countDown();
+    assertTrue(eb.waitEvents(timeoutMillis));
+
+    EventListenerQueue queue = eb.getListenerQueue(listener).get();
+    assertEquals(10, listener.events.size() + queue.getDroppedEventCount());
+    assertThat(queue.getDroppedEventCount(), greaterThanOrEqualTo(7L));
+    eb.close();
+  }
+
+  @Test
+  public void eventsWithoutSubscriberAreNotQueued() {
+    DefaultBuckEventBus eb =
+        DefaultBuckEventBus.withPerListenerQueues(
+            new DefaultClock(),
+            BuckEventBusForTests.BUILD_ID_FOR_TEST,
+            100,
+            listener -> DefaultBuckEventBus.OverflowPolicy.BLOCK);
+    SleepSubscriber listener = new SleepSubscriber();
+    eb.register(listener);
+
+    eb.post(new TestEvent());
+    assertTrue(eb.waitEvents(timeoutMillis));
+
+    assertEquals(0, eb.getListenerQueue(listener).get().getMaxDepth());
+    eb.close();
+  }
+
   static class TestError extends Error {}
 
   static class SingleErrorCatchingThreadFactory extends NamedThreadFactory {
@@ -194,6 +271,32 @@ public class DefaultBuckEventBusTest {
     }
   }
 
+  private static class RecordingSubscriber {
+    private final CountDownLatch released;
+    private final List<TestEvent> events = Collections.synchronizedList(new ArrayList<>());
+
+    private RecordingSubscriber(CountDownLatch released) {
+      this.released = released;
+    }
+
+    @Subscribe
+    public void record(TestEvent event) throws InterruptedException {
+      released.await();
+      events.add(event);
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+
+    private synchronized boolean waitForEvents(int count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      while (events.size() < count && System.currentTimeMillis() < deadline) {
+        wait(timeoutMillis);
+      }
+      return events.size() >= count;
+    }
+  }
+
   private static class TestEvent extends AbstractBuckEvent {
 
     public TestEvent() {
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class BinaryChromeTraceWriterTest {
+
+  private static final ChromeTraceEvent BEGIN =
+      new ChromeTraceEvent(
+          "buck",
+          "//foo:bar",
+          Phase.BEGIN,
+          0,
+          12,
+          1_000_000,
+          500,
+          ImmutableMap.of(
+              "string",
+              "value",
+              "long",
+              -42L,
+              "double",
+              1.5,
+              "boolean",
+              true,
+              "list",
+              ImmutableList.of("a", "b")));
+  private static final ChromeTraceEvent END =
+      new ChromeTraceEvent(
+          "buck",
+          "//foo:bar",
+          Phase.END,
+          0,
+          12,
+          999_000,
+          700,
+          ImmutableMap.of("string", "value", "int", 7));
+
+  private static byte[] write(ChromeTraceEvent... events) throws IOException {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    BinaryChromeTraceWriter writer = new BinaryChromeTraceWriter(stream);
+    writer.writeStart();
+    for (ChromeTraceEvent event : events) {
+      writer.writeEvent(event);
+    }
+    writer.writeEnd();
+    writer.close();
+    return stream.toByteArray();
+  }
+
+  private static String toJson(Object value) throws IOException {
+    return ObjectMappers.WRITER.writeValueAsString(value);
+  }
+
+  @Test
+  public void eventsRoundTrip() throws IOException {
+    BinaryChromeTraceReader reader =
+        new BinaryChromeTraceReader(new ByteArrayInputStream(write(BEGIN, END)));
+
+    ChromeTraceEvent begin = reader.readEvent();
+    ChromeTraceEvent end = reader.readEvent();
+    assertNull(reader.readEvent());
+    assertEquals(toJson(BEGIN), toJson(begin));
+    assertEquals(toJson(END), toJson(end));
+    assertEquals(-42L, begin.getArgs().get("long"));
+    assertEquals(7L, end.getArgs().get("int"));
+  }
+
+  @Test
+  public void repeatedStringsAreWrittenOnce() throws IOException {
+    byte[] once = write(BEGIN);
+    byte[] twice = write(BEGIN, BEGIN);
+
+    assertTrue(twice.length - once.length < once.length / 2);
+  }
+
+  @Test
+  public void convertsToJson() throws IOException {
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    assertTrue(
+        BinaryChromeTraceConverter.convert(new ByteArrayInputStream(write(BEGIN, END)), json));
+
+    List<Map<String, Object>> events =
+        ObjectMappers.READER
+            .forType(new TypeReference<List<Map<String, Object>>>() {})
+            .readValue(json.toByteArray());
+    assertEquals(2, events.size());
+    assertEquals("//foo:bar", events.get(0).get("name"));
+    assertEquals("B", events.get(0).get("ph"));
+    assertEquals("E", events.get(1).get("ph"));
+  }
+
+  @Test
+  public void truncatedTraceKeepsCompleteEvents() throws IOException {
+    byte[] trace = write(BEGIN, END);
+    byte[] truncated = Arrays.copyOf(trace, trace.length - 3);
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+
+    assertFalse(BinaryChromeTraceConverter.convert(new ByteArrayInputStream(truncated), json));
+    List<Object> events =
+        ObjectMappers.READER
+            .forType(new TypeReference<List<Object>>() {})
+            .readValue(json.toByteArray());
+    assertEquals(1, events.size());
+  }
+}
@@ -51,6 +51,7 @@ import com.facebook.buck.event.EventKey;
 import com.facebook.buck.event.LeafEvents;
 import com.facebook.buck.event.PerfEventId;
 import com.facebook.buck.event.SimplePerfEvent;
+import com.facebook.buck.event.chrome_trace.BinaryChromeTraceReader;
 import com.facebook.buck.event.chrome_trace.ChromeTraceBuckConfig;
 import com.facebook.buck.event.chrome_trace.ChromeTraceEvent;
 import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
@@ -904,6 +905,80 @@ public class ChromeTraceBuildListenerTest {
     assertThat(elements, not(empty()));
   }
 
+  @Test
+  public void canWriteBinaryTraces() throws IOException {
+    ProjectFilesystem projectFilesystem =
+        TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot().toPath());
+
+    ChromeTraceBuildListener listener =
+        new ChromeTraceBuildListener(
+            projectFilesystem,
+            invocationInfo,
+            FAKE_CLOCK,
+            Locale.US,
+            TimeZone.getTimeZone("America/Los_Angeles"),
+            ManagementFactory.getThreadMXBean(),
+            ChromeTraceBuckConfig.of(
+                FakeBuckConfig.builder()
+                    .setSections(ImmutableMap.of("log", ImmutableMap.of("trace_format", "binary")))
+                    .build()),
+            managerScope,
+            Optional.empty(),
+            criticalPathEventListener);
+    FakeBuckEvent event = new FakeBuckEvent();
+    eventBus.post(event);
+    listener.writeChromeTraceEvent(
+        "test", event.getEventName(), ChromeTraceEvent.Phase.BEGIN, ImmutableMap.of(), event);
+    listener.close();
+    managerScope.close();
+
+    assertTrue(
+        projectFilesystem.exists(
+            Paths.get(EXPECTED_DIR + "build.2014-09-02.16-55-51.BUILD_ID.btrace")));
+    List<ChromeTraceEvent> events = new ArrayList<>();
+    try (BinaryChromeTraceReader reader =
+        new BinaryChromeTraceReader(
+            projectFilesystem.newFileInputStream(Paths.get("buck-out/log/build.btrace")))) {
+      for (ChromeTraceEvent traceEvent = reader.readEvent();
+          traceEvent != null;
+          traceEvent = reader.readEvent()) {
+        events.add(traceEvent);
+      }
+    }
+    assertThat(events, Matchers.hasSize(6));
+    assertThat(events.get(0).getName(), Matchers.equalTo("process_name"));
+    assertThat(events.get(3).getName(), Matchers.equalTo(event.getEventName()));
+  }
+
+  @Test(timeout = 30000)
+  public void eventsWrittenAfterCloseAreDropped() throws IOException {
+    ProjectFilesystem projectFilesystem =
+        TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot().toPath());
+
+    ChromeTraceBuildListener listener =
+        new ChromeTraceBuildListener(
+            projectFilesystem,
+            invocationInfo,
+            FAKE_CLOCK,
+            Locale.US,
+            TimeZone.getTimeZone("America/Los_Angeles"),
+            ManagementFactory.getThreadMXBean(),
+            chromeTraceConfig(42, false),
+            managerScope,
+            Optional.empty(),
+            criticalPathEventListener);
+    listener.close();
+    managerScope.close();
+
+    // More events than the pending queue holds: this blocks forever if rejected drains keep them.
+    FakeBuckEvent event = new FakeBuckEvent();
+    eventBus.post(event);
+    for (int i = 0; i < 100 * 1024; i++) {
+      listener.writeChromeTraceEvent(
+          "test", event.getEventName(), ChromeTraceEvent.Phase.BEGIN, ImmutableMap.of(), event);
+    }
+  }
+
   private static ChromeTraceBuckConfig chromeTraceConfig(int tracesToKeep, boolean compressTraces) {
     return ChromeTraceBuckConfig.of(
         FakeBuckConfig.builder()
@@ -66,6 +66,7 @@ import java.io.StringReader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import org.hamcrest.Matchers;
@@ -570,7 +571,8 @@ public class ServedCacheIntegrationTest {
             managerScope,
             "test://",
             "hostname",
-            ClientCertificateHandler.fromConfiguration(buckConfig))
+            ClientCertificateHandler.fromConfiguration(buckConfig),
+            new ConcurrentHashMap<>())
         .newInstance();
   }
 }
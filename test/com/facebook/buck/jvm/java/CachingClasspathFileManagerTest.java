@@ -0,0 +1,248 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests {@link CachingClasspathFileManager} */
+public class CachingClasspathFileManagerTest {
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+  private ClasspathJarIndexCache cache;
+  private Path classesDir;
+  private Path jar;
+
+  @Before
+  public void setUp() throws IOException {
+    cache = new ClasspathJarIndexCache(10);
+    classesDir = temp.newFolder("classes").toPath();
+    jar = temp.getRoot().toPath().resolve("lib.jar");
+    compileToClassesDir("lib.Dep", "package lib; public class Dep { public static int ONE = 1; }");
+    compileToClassesDir("lib.sub.Other", "package lib.sub; public class Other {}");
+    writeJar();
+  }
+
+  @Test
+  public void listsTheSameFilesAsTheDelegate() throws IOException {
+    try (StandardJavaFileManager plain = newStandardFileManager(jar);
+        StandardJavaFileManager caching = newCachingFileManager(jar)) {
+      for (boolean recurse : new boolean[] {false, true}) {
+        for (String packageName : new String[] {"", "lib", "lib.sub", "missing"}) {
+          assertEquals(
+              listBinaryNamesAndUris(plain, packageName, recurse),
+              listBinaryNamesAndUris(caching, packageName, recurse));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void compilationsShareTheIndexOfAJar() throws IOException {
+    for (int i = 0; i < 2; i++) {
+      try (StandardJavaFileManager fileManager = newCachingFileManager(jar)) {
+        assertTrue(compile(fileManager, "class Main { int one = lib.Dep.ONE; }"));
+      }
+    }
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  public void rebuiltJarsAreIndexedAgain() throws IOException {
+    try (StandardJavaFileManager fileManager = newCachingFileManager(jar)) {
+      assertEquals(
+          ImmutableSet.of("lib.Dep"), listBinaryNames(fileManager, "lib", /* recurse */ false));
+    }
+
+    compileToClassesDir("lib.Added", "package lib; public class Added {}");
+    writeJar();
+    try (StandardJavaFileManager fileManager = newCachingFileManager(jar)) {
+      assertEquals(
+          ImmutableSet.of("lib.Dep", "lib.Added"),
+          listBinaryNames(fileManager, "lib", /* recurse */ false));
+    }
+    assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void invalidatedJarsAreIndexedAgain() throws IOException {
+    try (StandardJavaFileManager fileManager = newCachingFileManager(jar)) {
+      assertTrue(compile(fileManager, "class Main { int one = lib.Dep.ONE; }"));
+    }
+
+    cache.invalidateAll();
+    try (StandardJavaFileManager fileManager = newCachingFileManager(jar)) {
+      assertTrue(compile(fileManager, "class Main { int one = lib.Dep.ONE; }"));
+    }
+    assertEquals(1, cache.getMissCount());
+    assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  public void jarsWhichCantBeIndexedAreOnlyReadOnce() throws IOException {
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, "other.jar");
+    try (JarOutputStream jarStream = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+      jarStream.putNextEntry(new JarEntry("lib/Dep.class"));
+      jarStream.closeEntry();
+    }
+
+    assertFalse(cache.acquire(jar).isPresent());
+    assertFalse(cache.acquire(jar).isPresent());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  public void defersToTheDelegateWhenTheClasspathHasDirectories() throws IOException {
+    try (StandardJavaFileManager fileManager = newCachingFileManager(jar, classesDir)) {
+      Iterable<JavaFileObject> files =
+          fileManager.list(
+              StandardLocation.CLASS_PATH, "lib", EnumSet.of(JavaFileObject.Kind.CLASS), false);
+      assertFalse(
+          StreamSupport.stream(files.spliterator(), false)
+              .anyMatch(file -> file instanceof ClasspathJarEntryFileObject));
+      assertTrue(compile(fileManager, "class Main { int one = lib.Dep.ONE; }"));
+    }
+  }
+
+  private StandardJavaFileManager newStandardFileManager(Path... classpath) throws IOException {
+    StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+    fileManager.setLocation(
+        StandardLocation.CLASS_PATH,
+        Stream.of(classpath).map(Path::toFile).collect(ImmutableList.toImmutableList()));
+    return fileManager;
+  }
+
+  private StandardJavaFileManager newCachingFileManager(Path... classpath) throws IOException {
+    StandardJavaFileManager fileManager =
+        new CachingClasspathFileManager(compiler.getStandardFileManager(null, null, null), cache);
+    fileManager.setLocation(
+        StandardLocation.CLASS_PATH,
+        Stream.of(classpath).map(Path::toFile).collect(ImmutableList.toImmutableList()));
+    return fileManager;
+  }
+
+  private boolean compile(StandardJavaFileManager fileManager, String source) throws IOException {
+    Path sourceFile = temp.newFolder().toPath().resolve("Main.java");
+    Files.write(sourceFile, source.getBytes(StandardCharsets.UTF_8));
+    fileManager.setLocation(StandardLocation.CLASS_OUTPUT, ImmutableList.of(temp.newFolder()));
+    return compiler
+        .getTask(
+            null,
+            fileManager,
+            null,
+            null,
+            null,
+            fileManager.getJavaFileObjects(sourceFile.toFile()))
+        .call();
+  }
+
+  private void compileToClassesDir(String className, String source) throws IOException {
+    String simpleName = className.substring(className.lastIndexOf('.') + 1);
+    Path sourceFile = temp.newFolder().toPath().resolve(simpleName + ".java");
+    Files.write(sourceFile, source.getBytes(StandardCharsets.UTF_8));
+    try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+      fileManager.setLocation(StandardLocation.CLASS_OUTPUT, ImmutableList.of(classesDir.toFile()));
+      assertTrue(
+          compiler
+              .getTask(
+                  null,
+                  fileManager,
+                  null,
+                  null,
+                  null,
+                  fileManager.getJavaFileObjects(sourceFile.toFile()))
+              .call());
+    }
+  }
+
+  private void writeJar() throws IOException {
+    try (JarOutputStream jarStream = new JarOutputStream(Files.newOutputStream(jar));
+        Stream<Path> classFiles = Files.walk(classesDir)) {
+      for (Path classFile : (Iterable<Path>) classFiles.sorted()::iterator) {
+        if (Files.isDirectory(classFile)) {
+          continue;
+        }
+        String entryName =
+            classesDir.relativize(classFile).toString().replace(File.separatorChar, '/');
+        jarStream.putNextEntry(new JarEntry(entryName));
+        Files.copy(classFile, jarStream);
+        jarStream.closeEntry();
+      }
+    }
+  }
+
+  private static ImmutableSet<String> listBinaryNames(
+      StandardJavaFileManager fileManager, String packageName, boolean recurse)
+      throws IOException {
+    Iterable<JavaFileObject> files =
+        fileManager.list(
+            StandardLocation.CLASS_PATH,
+            packageName,
+            EnumSet.of(JavaFileObject.Kind.CLASS),
+            recurse);
+    return StreamSupport.stream(files.spliterator(), false)
+        .map(file -> fileManager.inferBinaryName(StandardLocation.CLASS_PATH, file))
+        .collect(ImmutableSet.toImmutableSet());
+  }
+
+  private static ImmutableSet<String> listBinaryNamesAndUris(
+      StandardJavaFileManager fileManager, String packageName, boolean recurse)
+      throws IOException {
+    Iterable<JavaFileObject> files =
+        fileManager.list(
+            StandardLocation.CLASS_PATH,
+            packageName,
+            EnumSet.of(JavaFileObject.Kind.CLASS),
+            recurse);
+    return StreamSupport.stream(files.spliterator(), false)
+        .map(
+            file ->
+                fileManager.inferBinaryName(StandardLocation.CLASS_PATH, file) + " " + file.toUri())
+        .collect(ImmutableSet.toImmutableSet());
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.syntax.ImmutableSelectorValue;
+import com.facebook.buck.parser.syntax.ListWithSelects;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Test;
+
+public class BuildFilePythonManifestDecoderTest {
+
+  private static JsonParser parser(String json) throws IOException {
+    return ObjectMappers.createParser(new StringReader(json.replace('\'', '"')));
+  }
+
+  @Test
+  public void emptyResponseDecodesToEmptyManifest() throws IOException {
+    BuildFilePythonManifestDecoder.Result result =
+        BuildFilePythonManifestDecoder.decode(parser("{'values':[]}"));
+
+    assertEquals(ImmutableMap.of(), result.getManifest().getTargets());
+    assertEquals(Optional.empty(), result.getManifest().getEnv());
+    assertEquals(0, result.getRuleCount());
+  }
+
+  @Test
+  public void rulesAndMetaRulesAreDecoded() throws IOException {
+    BuildFilePythonManifestDecoder.Result result =
+        BuildFilePythonManifestDecoder.decode(
+            parser(
+                "{'values':["
+                    + "{'name':'a','buck.type':'java_library','deps':[':b'],'count':1},"
+                    + "{'buck.type':'java_library','name':'b','nested':{'key':null}},"
+                    + "{'__includes':['/foo/BUCK','/foo/defs.bzl']},"
+                    + "{'__configs':{'section':{'key':'value'}}},"
+                    + "{'__env':{'SET':'value','UNSET':null}}"
+                    + "],'profile':'profile'}"));
+    BuildFileManifest manifest = result.getManifest();
+
+    assertEquals(ImmutableList.of("a", "b"), manifest.getTargets().keySet().asList());
+    assertEquals(
+        ImmutableMap.of(
+            "name", "a", "buck.type", "java_library", "deps", ImmutableList.of(":b"), "count", 1),
+        manifest.getTargets().get("a"));
+    assertEquals(ImmutableSortedSet.of("/foo/BUCK", "/foo/defs.bzl"), manifest.getIncludes());
+    assertEquals(
+        ImmutableMap.of("section", ImmutableMap.of("key", "value")), manifest.getConfigs());
+    assertEquals(
+        Optional.of(ImmutableMap.of("SET", Optional.of("value"), "UNSET", Optional.empty())),
+        manifest.getEnv());
+    assertEquals(5, result.getRuleCount());
+    assertEquals(Optional.of("profile"), result.getProfile());
+  }
+
+  @Test
+  public void selectableAttributesAreConverted() throws IOException {
+    BuildFileManifest manifest =
+        BuildFilePythonManifestDecoder.decode(
+                parser(
+                    "{'values':[{'name':'a','deps':{'@type':'SelectorList','items':["
+                        + "[':b'],"
+                        + "{'@type':'SelectorValue','conditions':{'DEFAULT':[':c']}}"
+                        + "]}}]}"))
+            .getManifest();
+
+    ListWithSelects deps = (ListWithSelects) manifest.getTargets().get("a").get("deps");
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of(":b"),
+            ImmutableSelectorValue.of(ImmutableMap.of("DEFAULT", ImmutableList.of(":c")), "")),
+        deps.getElements());
+    assertTrue(List.class.isAssignableFrom(deps.getType()));
+  }
+
+  @Test
+  public void listsMayContainNulls() throws IOException {
+    BuildFileManifest manifest =
+        BuildFilePythonManifestDecoder.decode(
+                parser("{'values':[{'name':'a','args':['x',null,'y']}]}"))
+            .getManifest();
+
+    assertEquals(Arrays.asList("x", null, "y"), manifest.getTargets().get("a").get("args"));
+  }
+
+  @Test
+  public void stringValuesAreShared() throws IOException {
+    BuildFileManifest manifest =
+        BuildFilePythonManifestDecoder.decode(
+                parser("{'values':[{'name':'a','dep':'//x:y'},{'name':'b','dep':'//x:y'}]}"))
+            .getManifest();
+
+    assertSame(
+        manifest.getTargets().get("a").get("dep"), manifest.getTargets().get("b").get("dep"));
+  }
+
+  @Test
+  public void diagnosticsAreDecoded() throws IOException {
+    BuildFilePythonManifestDecoder.Result result =
+        BuildFilePythonManifestDecoder.decode(
+            parser(
+                "{'values':[],"
+                    + "'diagnostics':[{'level':'warning','message':'m','source':null}]}"));
+
+    assertEquals(1, result.getDiagnostics().size());
+    assertEquals("warning", result.getDiagnostics().get(0).get("level"));
+  }
+
+  @Test
+  public void consecutiveResponsesCanBeReadFromTheSameParser() throws IOException {
+    JsonParser parser =
+        parser("{'values':[{'name':'a'}]}\n{'values':[],'profile':'p'}\n{'values':[{'name':'b'}]}");
+
+    assertEquals(
+        ImmutableList.of("a"),
+        BuildFilePythonManifestDecoder.decode(parser)
+            .getManifest()
+            .getTargets()
+            .keySet()
+            .asList());
+    assertEquals(Optional.of("p"), BuildFilePythonManifestDecoder.decode(parser).getProfile());
+    assertEquals(
+        ImmutableList.of("b"),
+        BuildFilePythonManifestDecoder.decode(parser)
+            .getManifest()
+            .getTargets()
+            .keySet()
+            .asList());
+  }
+
+  @Test
+  public void numbersHaveTheTypesObjectMapperDecodesThemTo() throws IOException {
+    String attributes = "{'int':1,'long':12345678901,'big':123456789012345678901,'double':1.5}";
+    BuildFileManifest manifest =
+        BuildFilePythonManifestDecoder.decode(
+                parser("{'values':[{'name':'a','attributes':" + attributes + "}]}"))
+            .getManifest();
+
+    Map<?, ?> expected = parser(attributes).readValueAs(Map.class);
+    Map<?, ?> actual = (Map<?, ?>) manifest.getTargets().get("a").get("attributes");
+    assertEquals(expected, actual);
+    for (Object key : expected.keySet()) {
+      assertSame(expected.get(key).getClass(), actual.get(key).getClass());
+    }
+  }
+
+  @Test(expected = JsonParseException.class)
+  public void ruleWithoutNameThrows() throws IOException {
+    BuildFilePythonManifestDecoder.decode(parser("{'values':[{'buck.type':'java_library'}]}"));
+  }
+}
@@ -17,6 +17,8 @@
 package com.facebook.buck.parser;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.cell.TestCellBuilder;
@@ -165,4 +167,20 @@ public class DaemonicCellStateTest {
         Optional.empty(),
         cache.lookupComputedNode(target.getUnconfiguredBuildTargetView()));
   }
+
+  @Test
+  public void testTracksBuildFileDependenciesAndEnvironment() {
+    Path buildFile = rootCell.getRoot().resolve("path/to/BUCK");
+    Path include = rootCell.getRoot().resolve("defs.bzl");
+    state.putBuildFileManifestIfNotPresent(
+        buildFile,
+        BuildFileManifestFactory.create(ImmutableMap.of()),
+        ImmutableSet.of(buildFile, include),
+        ImmutableMap.of("HOME", Optional.of("/home"), "UNSET", Optional.empty()));
+
+    assertTrue(state.isBuildFileDependency(buildFile));
+    assertTrue(state.isBuildFileDependency(include));
+    assertFalse(state.isBuildFileDependency(rootCell.getRoot().resolve("path/to/Foo.java")));
+    assertEquals(ImmutableSet.of("HOME", "UNSET"), state.getUsedEnvironmentVariables());
+  }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.cell.Cell;
+import com.facebook.buck.core.cell.TestCellBuilder;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.io.watchman.ImmutableWatchmanPathEvent;
+import com.facebook.buck.io.watchman.WatchmanEvent.Kind;
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.ImmutableBuildFileManifest;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DaemonicParserStateSnapshotStoreTest {
+  private static final String FINGERPRINT = "fingerprint";
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private final BuckEventBus eventBus = BuckEventBusForTests.newInstance();
+
+  private Cell cell;
+  private Path snapshotFile;
+  private Path buildFile;
+  private ImmutableMap<Path, String> clocks;
+
+  @Before
+  public void setUp() throws IOException {
+    ProjectFilesystem filesystem =
+        TestProjectFilesystems.createProjectFilesystem(tmp.newFolder("cell"));
+    cell = new TestCellBuilder().setFilesystem(filesystem).build();
+    snapshotFile = tmp.getRoot().resolve("snapshot");
+    buildFile = cell.getRoot().resolve("foo/BUCK");
+    clocks = ImmutableMap.of(cell.getRoot(), "c:0:1");
+  }
+
+  @Test
+  public void savedManifestsAreRestoredOnceVerified() throws IOException {
+    BuildFileManifest manifest = saveSnapshotWithManifest();
+
+    DaemonicParserState state = new DaemonicParserState(1);
+    DaemonicParserStateSnapshotStore store = load(state, FINGERPRINT);
+
+    assertTrue(store.hasUnverifiedSnapshot());
+    assertEquals(clocks, store.getRestoredWatchmanClocks());
+    // Restored manifests can't be used before the changes since the snapshot are replayed.
+    assertEquals(Optional.empty(), lookup(state));
+
+    store.markSnapshotVerified();
+    assertFalse(store.hasUnverifiedSnapshot());
+    assertEquals(Optional.of(manifest.getTargets()), lookupTargets(state));
+  }
+
+  @Test
+  public void replayedChangesToIncludesInvalidateRestoredManifests() throws IOException {
+    saveSnapshotWithManifest();
+
+    DaemonicParserState state = new DaemonicParserState(1);
+    DaemonicParserStateSnapshotStore store = load(state, FINGERPRINT);
+    state.invalidateBasedOn(
+        ImmutableWatchmanPathEvent.of(cell.getRoot(), Kind.MODIFY, Paths.get("defs.bzl")));
+    store.markSnapshotVerified();
+
+    assertEquals(Optional.empty(), lookup(state));
+  }
+
+  @Test
+  public void restoredStateIsSavedAgainWithoutDecoding() throws IOException {
+    BuildFileManifest manifest = saveSnapshotWithManifest();
+
+    DaemonicParserState state = new DaemonicParserState(1);
+    load(state, FINGERPRINT).save(clocks);
+
+    DaemonicParserState newState = new DaemonicParserState(1);
+    load(newState, FINGERPRINT).markSnapshotVerified();
+    assertEquals(Optional.of(manifest.getTargets()), lookupTargets(newState));
+  }
+
+  @Test
+  public void changedEnvironmentInvalidatesRestoredManifests() throws IOException {
+    // The variable used to be set when the build file was parsed, but isn't anymore.
+    saveSnapshotWithManifest(Optional.of("value"));
+
+    DaemonicParserState state = new DaemonicParserState(1);
+    load(state, FINGERPRINT).markSnapshotVerified();
+
+    assertEquals(Optional.empty(), lookup(state));
+  }
+
+  @Test
+  public void snapshotWithDifferentFingerprintIsIgnored() throws IOException {
+    saveSnapshotWithManifest();
+
+    DaemonicParserState state = new DaemonicParserState(1);
+    DaemonicParserStateSnapshotStore store = load(state, "other");
+    store.markSnapshotVerified();
+
+    assertEquals(ImmutableMap.of(), store.getRestoredWatchmanClocks());
+    assertEquals(Optional.empty(), lookup(state));
+  }
+
+  @Test
+  public void droppingSnapshotClearsRestoredState() throws IOException {
+    saveSnapshotWithManifest();
+
+    DaemonicParserState state = new DaemonicParserState(1);
+    DaemonicParserStateSnapshotStore store = load(state, FINGERPRINT);
+    store.dropSnapshot();
+    state.markRestoredStateVerified();
+
+    assertFalse(store.hasUnverifiedSnapshot());
+    assertEquals(ImmutableMap.of(), store.getRestoredWatchmanClocks());
+    assertEquals(Optional.empty(), lookup(state));
+  }
+
+  private BuildFileManifest saveSnapshotWithManifest() throws IOException {
+    return saveSnapshotWithManifest(Optional.empty());
+  }
+
+  private BuildFileManifest saveSnapshotWithManifest(Optional<String> variable)
+      throws IOException {
+    BuildFileManifest manifest =
+        ImmutableBuildFileManifest.of(
+            ImmutableMap.of(
+                "bar",
+                ImmutableMap.of(
+                    "name", "bar", "buck.base_path", "foo", "buck.type", "java_library")),
+            ImmutableSortedSet.of("defs.bzl"),
+            ImmutableMap.of(),
+            Optional.of(ImmutableMap.of("SOME_UNSET_VARIABLE", variable)),
+            ImmutableList.of(),
+            ImmutableList.of());
+    DaemonicParserState state = new DaemonicParserState(1);
+    lookup(state);
+    state.getRawNodeCache().putComputedNodeIfNotPresent(cell, buildFile, manifest, false, eventBus);
+    load(state, FINGERPRINT).save(clocks);
+    return manifest;
+  }
+
+  private DaemonicParserStateSnapshotStore load(DaemonicParserState state, String fingerprint) {
+    return DaemonicParserStateSnapshotStore.load(
+        state, ImmutableList.of(cell), snapshotFile, fingerprint);
+  }
+
+  private Optional<BuildFileManifest> lookup(DaemonicParserState state) {
+    return state.getRawNodeCache().lookupComputedNode(cell, buildFile, eventBus);
+  }
+
+  private Optional<ImmutableMap<String, ImmutableMap<String, Object>>> lookupTargets(
+      DaemonicParserState state) {
+    return lookup(state).map(BuildFileManifest::getTargets);
+  }
+}
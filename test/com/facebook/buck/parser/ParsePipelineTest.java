@@ -400,7 +400,8 @@ public class ParsePipelineTest {
                 }
                 return buildFileParser;
               },
-              false);
+              false,
+              /* maxParserMemoryBytes */ Optional.empty());
       TargetNodeListener<TargetNode<?>> nodeListener = (buildFile, node) -> {};
       LoadingCache<Cell, BuildFileTree> buildFileTrees =
           CacheBuilder.newBuilder()
@@ -44,6 +44,7 @@ import java.nio.file.Paths;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
@@ -69,7 +70,8 @@ public class ProjectBuildFileParserPoolTest {
 
   private ProjectBuildFileParserPool createParserPool(
       int maxParsersPerCell, ProjectBuildFileParserFactory parserFactory) {
-    return new ProjectBuildFileParserPool(maxParsersPerCell, parserFactory, false);
+    return new ProjectBuildFileParserPool(
+        maxParsersPerCell, parserFactory, false, /* maxParserMemoryBytes */ Optional.empty());
   }
 
   private void assertHowManyParserInstancesAreCreated(
@@ -344,6 +346,62 @@ public class ProjectBuildFileParserPoolTest {
     }
   }
 
+  @Test
+  public void parsersUsingTooMuchMemoryAreRecycled() throws Exception {
+    Cell cell = new TestCellBuilder().build();
+    AtomicInteger createCount = new AtomicInteger(0);
+    long maxParserMemoryBytes = 1000;
+
+    try (ProjectBuildFileParserPool parserPool =
+        new ProjectBuildFileParserPool(
+            /* maxParsersPerCell */ 1,
+            (eventBus, input, watchman, threadSafe) -> {
+              // The first parser grows beyond the limit, the second one stays below it.
+              long memoryBytes =
+                  createCount.getAndIncrement() == 0
+                      ? maxParserMemoryBytes + 1
+                      : maxParserMemoryBytes;
+              ProjectBuildFileParser parser = EasyMock.createMock(ProjectBuildFileParser.class);
+              try {
+                EasyMock.expect(parser.getManifest(EasyMock.anyObject(Path.class)))
+                    .andReturn(EMPTY_BUILD_FILE_MANIFEST)
+                    .anyTimes();
+                EasyMock.expect(parser.getProcessMemoryBytes())
+                    .andReturn(OptionalLong.of(memoryBytes))
+                    .anyTimes();
+                parser.close();
+                EasyMock.expectLastCall().andVoid().once();
+              } catch (Exception e) {
+                Throwables.throwIfUnchecked(e);
+                throw new RuntimeException(e);
+              }
+              EasyMock.replay(parser);
+              return parser;
+            },
+            false,
+            Optional.of(maxParserMemoryBytes))) {
+
+      Futures.allAsList(
+              scheduleWork(cell, parserPool, MoreExecutors.newDirectExecutorService(), 3))
+          .get();
+      assertThat(createCount.get(), Matchers.equalTo(2));
+    }
+  }
+
+  @Test
+  public void numberOfParsersIsLimitedByMemory() {
+    long gigabyte = 1024L * 1024 * 1024;
+    assertThat(
+        ProjectBuildFileParserPool.getMaxParsersPerCellForMemory(8, gigabyte, 64 * gigabyte),
+        Matchers.equalTo(8));
+    assertThat(
+        ProjectBuildFileParserPool.getMaxParsersPerCellForMemory(8, gigabyte, 8 * gigabyte),
+        Matchers.equalTo(4));
+    assertThat(
+        ProjectBuildFileParserPool.getMaxParsersPerCellForMemory(8, 4 * gigabyte, gigabyte),
+        Matchers.equalTo(1));
+  }
+
   private static ImmutableSet<ListenableFuture<?>> scheduleWork(
       Cell cell,
       ProjectBuildFileParserPool pool,
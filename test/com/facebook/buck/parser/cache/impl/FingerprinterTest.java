@@ -25,6 +25,7 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.api.ImmutableBuildFileManifest;
+import com.facebook.buck.parser.cache.json.BuildFileManifestSerializer;
 import com.facebook.buck.testutil.FakeFileHashCache;
 import com.facebook.buck.util.config.Config;
 import com.facebook.buck.util.environment.Architecture;
@@ -85,6 +86,7 @@ public class FingerprinterTest {
             .putBytes(config.getOrderIndependentHashCode().asBytes())
             .putString(Platform.detect().name(), StandardCharsets.UTF_8)
             .putString(Architecture.detect().name(), StandardCharsets.UTF_8)
+            .putInt(BuildFileManifestSerializer.FORMAT_VERSION)
             .hash();
     assertEquals(expectedFingerprint, weakFingerprintHash);
   }
@@ -16,6 +16,8 @@
 
 package com.facebook.buck.parser.cache.json;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeThat;
 
@@ -23,14 +25,20 @@ import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.api.ImmutableBuildFileManifest;
 import com.facebook.buck.parser.exceptions.ImmutableParsingError;
 import com.facebook.buck.parser.exceptions.ParsingError;
+import com.facebook.buck.parser.syntax.ImmutableListWithSelects;
+import com.facebook.buck.parser.syntax.ImmutableSelectorValue;
 import com.facebook.buck.skylark.io.GlobSpec;
 import com.facebook.buck.skylark.io.GlobSpecWithResult;
 import com.facebook.buck.util.environment.Platform;
+import com.facebook.buck.util.json.ObjectMappers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Optional;
 import org.hamcrest.Matchers;
 import org.junit.Before;
@@ -132,4 +140,108 @@ public class BuildFileManifestSerializerTest {
     assertTrue(resultString.contains("confKey1"));
     assertTrue(resultString.contains("confVal1"));
   }
+
+  @Test
+  public void buildFileManifestRoundTrips() throws Exception {
+    BuildFileManifest manifest =
+        createFakeManifest(
+            ImmutableMap.of("envKey", Optional.of("envVal"), "unsetKey", Optional.empty()));
+
+    assertEquals(
+        manifest,
+        BuildFileManifestSerializer.deserialize(BuildFileManifestSerializer.serialize(manifest)));
+  }
+
+  @Test
+  public void attributeValuesKeepTheirTypes() throws Exception {
+    ImmutableMap<String, Object> target =
+        ImmutableMap.<String, Object>builder()
+            .put("name", "tar")
+            .put("int", -42)
+            .put("long", Long.MAX_VALUE)
+            .put("double", 1.5)
+            .put("bool", true)
+            .put("list", ImmutableList.of("a", 1, ImmutableList.of()))
+            .put("set", ImmutableSet.of("b", "a"))
+            .put("sortedSet", ImmutableSortedSet.of("b", "a"))
+            .put("map", ImmutableMap.of("k", ImmutableMap.of(1, false)))
+            .put("sortedMap", ImmutableSortedMap.of("b", 1, "a", 2))
+            .put("optional", Optional.of("value"))
+            .put("emptyOptional", Optional.empty())
+            .put("listWithNull", Arrays.asList("a", null))
+            .put(
+                "select",
+                ImmutableListWithSelects.of(
+                    ImmutableList.of(
+                        ImmutableList.of("//a:a"),
+                        ImmutableSelectorValue.of(
+                            ImmutableMap.of("//config:c", ImmutableList.of("//b:b")), "error")),
+                    ImmutableList.class))
+            .build();
+    BuildFileManifest manifest =
+        ImmutableBuildFileManifest.of(
+            ImmutableMap.of("tar", target),
+            ImmutableSortedSet.of(),
+            ImmutableMap.of("section", ImmutableMap.of("key", "value")),
+            Optional.empty(),
+            ImmutableList.of(),
+            ImmutableList.of());
+
+    BuildFileManifest deserialized =
+        BuildFileManifestSerializer.deserialize(BuildFileManifestSerializer.serialize(manifest));
+
+    assertEquals(manifest, deserialized);
+    ImmutableMap<String, Object> attributes = deserialized.getTargets().get("tar");
+    assertEquals(Integer.class, attributes.get("int").getClass());
+    assertEquals(Long.class, attributes.get("long").getClass());
+    assertThat(attributes.get("sortedSet"), Matchers.instanceOf(ImmutableSortedSet.class));
+    assertThat(attributes.get("sortedMap"), Matchers.instanceOf(ImmutableSortedMap.class));
+  }
+
+  @Test
+  public void repeatedStringsAreWrittenOnce() throws Exception {
+    ImmutableMap.Builder<String, ImmutableMap<String, Object>> targets = ImmutableMap.builder();
+    for (int i = 0; i < 100; i++) {
+      targets.put(
+          "target" + i,
+          ImmutableMap.of(
+              "name",
+              "target" + i,
+              "visibility",
+              ImmutableList.of("//some/very/long/package/path/to/make/repetition/obvious/...")));
+    }
+    BuildFileManifest manifest =
+        ImmutableBuildFileManifest.of(
+            targets.build(),
+            ImmutableSortedSet.of(),
+            ImmutableMap.of(),
+            Optional.empty(),
+            ImmutableList.of(),
+            ImmutableList.of());
+
+    String serialized =
+        new String(BuildFileManifestSerializer.serialize(manifest), StandardCharsets.ISO_8859_1);
+
+    assertEquals(serialized.indexOf("visibility"), serialized.lastIndexOf("visibility"));
+    assertEquals(
+        serialized.indexOf("//some/very/long/package"),
+        serialized.lastIndexOf("//some/very/long/package"));
+  }
+
+  @Test
+  public void manifestSerializedAsJsonCanBeRead() throws Exception {
+    BuildFileManifest manifest = createFakeManifest();
+
+    byte[] json = ObjectMappers.WRITER_WITH_TYPE.writeValueAsBytes(manifest);
+
+    assertEquals(manifest, BuildFileManifestSerializer.deserialize(json));
+  }
+
+  @Test
+  public void truncatedManifestThrows() throws Exception {
+    byte[] serialized = BuildFileManifestSerializer.serialize(createFakeManifest());
+
+    expectedException.expect(IOException.class);
+    BuildFileManifestSerializer.deserialize(Arrays.copyOf(serialized, serialized.length / 2));
+  }
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.remoteexecution.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Directory;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.DirectoryNode;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.FileNode;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.SymlinkNode;
+import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache.MerkleTreeNode;
+import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache.NodeData;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MerkleTreeNodeDataStoreTest {
+  @Rule public TemporaryPaths tmpRoot = new TemporaryPaths();
+
+  private final AtomicInteger directoriesCreated = new AtomicInteger();
+  private final GrpcProtocol protocol =
+      new GrpcProtocol() {
+        @Override
+        public Directory newDirectory(
+            List<DirectoryNode> directories,
+            Collection<FileNode> files,
+            Collection<SymlinkNode> symlinks) {
+          directoriesCreated.incrementAndGet();
+          return super.newDirectory(directories, files, symlinks);
+        }
+      };
+
+  private Path storeFile;
+
+  @Before
+  public void setUp() {
+    storeFile = tmpRoot.getRoot().resolve("store");
+  }
+
+  @Test
+  public void storedDataIsReusedAfterReload() throws IOException {
+    MerkleTreeNodeDataStore store = MerkleTreeNodeDataStore.load(storeFile, protocol, 100);
+    List<NodeData> expectedData = getAllData(new MerkleTreeNodeCache(protocol, store));
+    assertEquals(4, directoriesCreated.get());
+    assertEquals(4, store.size());
+    store.save();
+
+    directoriesCreated.set(0);
+    MerkleTreeNodeDataStore reloaded = MerkleTreeNodeDataStore.load(storeFile, protocol, 100);
+    assertEquals(4, reloaded.size());
+    List<NodeData> actualData = getAllData(new MerkleTreeNodeCache(protocol, reloaded));
+    assertEquals(0, directoriesCreated.get());
+
+    assertEquals(expectedData.size(), actualData.size());
+    for (int i = 0; i < expectedData.size(); i++) {
+      NodeData expected = expectedData.get(i);
+      NodeData actual = actualData.get(i);
+      assertEquals(expected.getDigest(), actual.getDigest());
+      assertEquals(expected.getTotalSize(), actual.getTotalSize());
+      assertArrayEquals(
+          protocol.toByteArray(expected.getDirectory()),
+          protocol.toByteArray(actual.getDirectory()));
+    }
+  }
+
+  @Test
+  public void storedDataMatchesUnstoredData() {
+    List<NodeData> expectedData = getAllData(new MerkleTreeNodeCache(protocol));
+    List<NodeData> actualData =
+        getAllData(
+            new MerkleTreeNodeCache(
+                protocol, MerkleTreeNodeDataStore.load(storeFile, protocol, 100)));
+    for (int i = 0; i < expectedData.size(); i++) {
+      assertEquals(expectedData.get(i).getDigest(), actualData.get(i).getDigest());
+    }
+  }
+
+  @Test
+  public void unreadableStoreIsIgnored() throws IOException {
+    Files.write(storeFile, new byte[] {1, 2, 3});
+    assertEquals(0, MerkleTreeNodeDataStore.load(storeFile, protocol, 100).size());
+  }
+
+  @Test
+  public void saveKeepsUsedEntriesWhenFull() throws IOException {
+    MerkleTreeNodeDataStore store = MerkleTreeNodeDataStore.load(storeFile, protocol, 100);
+    getAllData(new MerkleTreeNodeCache(protocol, store));
+    store.save();
+
+    MerkleTreeNodeDataStore reloaded = MerkleTreeNodeDataStore.load(storeFile, protocol, 2);
+    MerkleTreeNodeCache nodeCache = new MerkleTreeNodeCache(protocol, reloaded);
+    NodeData usedData =
+        nodeCache.getData(
+            nodeCache.createNode(
+                ImmutableMap.of(Paths.get("file"), fileNode("file")),
+                ImmutableMap.of(),
+                ImmutableMap.of()));
+    reloaded.save();
+
+    directoriesCreated.set(0);
+    MerkleTreeNodeDataStore truncated = MerkleTreeNodeDataStore.load(storeFile, protocol, 2);
+    assertEquals(2, truncated.size());
+    nodeCache = new MerkleTreeNodeCache(protocol, truncated);
+    assertEquals(
+        usedData.getDigest(),
+        nodeCache
+            .getData(
+                nodeCache.createNode(
+                    ImmutableMap.of(Paths.get("file"), fileNode("file")),
+                    ImmutableMap.of(),
+                    ImmutableMap.of()))
+            .getDigest());
+    assertEquals(0, directoriesCreated.get());
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesAreDroppedWhenFull() throws IOException {
+    MerkleTreeNodeDataStore store = MerkleTreeNodeDataStore.load(storeFile, protocol, 2);
+    getAllData(new MerkleTreeNodeCache(protocol, store));
+    assertEquals(2, store.size());
+    store.save();
+
+    assertEquals(2, MerkleTreeNodeDataStore.load(storeFile, protocol, 100).size());
+  }
+
+  @Test
+  public void unchangedStoreIsNotSaved() throws IOException {
+    MerkleTreeNodeDataStore store = MerkleTreeNodeDataStore.load(storeFile, protocol, 100);
+    store.save();
+    assertFalse(Files.exists(storeFile));
+
+    getAllData(new MerkleTreeNodeCache(protocol, store));
+    store.save();
+    assertTrue(Files.exists(storeFile));
+  }
+
+  private FileNode fileNode(String name) {
+    Digest digest = protocol.computeDigest(name.getBytes(Charsets.UTF_8));
+    return protocol.newFileNode(digest, name, false);
+  }
+
+  /** Computes the data for a tree of four directories: the root, a, a/b and c. */
+  private List<NodeData> getAllData(MerkleTreeNodeCache nodeCache) {
+    MerkleTreeNode node =
+        nodeCache.createNode(
+            ImmutableMap.of(
+                Paths.get("a/one"), fileNode("one"),
+                Paths.get("a/b/two"), fileNode("two"),
+                Paths.get("c/three"), fileNode("three")),
+            ImmutableMap.of(
+                Paths.get("c/link"), protocol.newSymlinkNode("link", Paths.get("../a/one"))),
+            ImmutableMap.of());
+    List<NodeData> data = new ArrayList<>();
+    nodeCache.forAllData(node, data::add);
+    return data;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.TestBuildRuleParams;
+import com.facebook.buck.core.rules.impl.NoopBuildRuleWithDeclaredAndExtraDeps;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.util.cache.InstrumentingCacheStatsTracker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class CompactRuleKeyCacheTest {
+
+  private static final ProjectFilesystem FILESYSTEM = new FakeProjectFilesystem();
+
+  private final CompactRuleKeyCache<String> internalCache = new CompactRuleKeyCache<>();
+  private final TrackedRuleKeyCache<String> cache =
+      new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+
+  @Test
+  public void testCacheRule() {
+    TestRule rule = new TestRule();
+    assertEquals(
+        "result",
+        cache.get(
+            rule, r -> new RuleKeyResult<>("result", ImmutableList.of(), ImmutableList.of())));
+    assertTrue(internalCache.isCached(rule));
+    assertEquals(
+        "result",
+        cache.get(
+            rule,
+            r -> {
+              throw new IllegalStateException();
+            }));
+  }
+
+  @Test
+  public void testInvalidateTransitiveInputToCachedRule() {
+    RuleKeyInput input = input("input");
+    TestRule dep = new TestRule();
+    cache.get(dep, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input)));
+    TestRule rule = new TestRule();
+    cache.get(rule, r -> new RuleKeyResult<>("", ImmutableList.of(dep), ImmutableList.of()));
+
+    cache.invalidateInputs(ImmutableList.of(input));
+    assertFalse(internalCache.isCached(rule));
+    assertFalse(internalCache.isCached(dep));
+  }
+
+  @Test
+  public void testInvalidateInputToCachedRuleDoesNotInvalidateDependency() {
+    RuleKeyInput input = input("input");
+    TestRule dep = new TestRule();
+    cache.get(dep, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of()));
+    TestRule rule = new TestRule();
+    cache.get(rule, r -> new RuleKeyResult<>("", ImmutableList.of(dep), ImmutableList.of(input)));
+
+    cache.invalidateInputs(ImmutableList.of(input));
+    assertFalse(internalCache.isCached(rule));
+    assertTrue(internalCache.isCached(dep));
+  }
+
+  @Test
+  public void invalidatingDiamondDependencyWorksCorrectly() {
+    RuleKeyInput input = input("input");
+    TestRule ruleA = new TestRule();
+    TestRule ruleB = new TestRule();
+    TestRule ruleC = new TestRule();
+    TestRule ruleD = new TestRule();
+    cache.get(ruleA, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input)));
+    cache.get(ruleB, r -> new RuleKeyResult<>("", ImmutableList.of(ruleA), ImmutableList.of()));
+    cache.get(ruleC, r -> new RuleKeyResult<>("", ImmutableList.of(ruleA), ImmutableList.of()));
+    cache.get(
+        ruleD, r -> new RuleKeyResult<>("", ImmutableList.of(ruleB, ruleC), ImmutableList.of()));
+
+    cache.invalidateInputs(ImmutableList.of(input));
+    assertFalse(internalCache.isCached(ruleD));
+    assertThat(cache.getStats().getEvictionCount().get(), Matchers.equalTo(4L));
+  }
+
+  @Test
+  public void invalidateFilesystemOnlyInvalidatesItsInputs() {
+    ProjectFilesystem otherFilesystem =
+        new FakeProjectFilesystem(FILESYSTEM.getRootPath().resolve("other"));
+    TestRule rule = new TestRule();
+    TestRule otherRule = new TestRule();
+    cache.get(
+        rule, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input("input"))));
+    cache.get(
+        otherRule,
+        r ->
+            new RuleKeyResult<>(
+                "",
+                ImmutableList.of(),
+                ImmutableList.of(
+                    new ImmutableRuleKeyInput(otherFilesystem, otherFilesystem.getPath("input")))));
+
+    cache.invalidateAllExceptFilesystems(ImmutableSet.of(FILESYSTEM));
+    assertTrue(internalCache.isCached(rule));
+    assertFalse(internalCache.isCached(otherRule));
+
+    cache.invalidateFilesystem(FILESYSTEM);
+    assertFalse(internalCache.isCached(rule));
+  }
+
+  @Test
+  public void getCachedBuildRulesOnlyReturnsComputedRules() {
+    TestRule dep = new TestRule();
+    TestRule rule = new TestRule();
+    cache.get(rule, r -> new RuleKeyResult<>("rule", ImmutableList.of(dep), ImmutableList.of()));
+
+    ImmutableList<Map.Entry<BuildRule, String>> cachedRules = internalCache.getCachedBuildRules();
+    assertEquals(1, cachedRules.size());
+    assertEquals(rule, cachedRules.get(0).getKey());
+    assertEquals("rule", cachedRules.get(0).getValue());
+  }
+
+  @Test
+  public void manyNodesSurviveIdReuseAndEdgeCompaction() {
+    // A chain of nodes which each have their own input, and depend on the previous node.
+    int count = 20000;
+    List<Node> chain = new ArrayList<>(count);
+    for (int round = 0; round < 3; round++) {
+      chain.clear();
+      for (int i = 0; i < count; i++) {
+        Node node = new Node();
+        ImmutableList<Object> deps =
+            chain.isEmpty() ? ImmutableList.of() : ImmutableList.of(chain.get(i - 1));
+        String value = "value" + i;
+        RuleKeyInput input = input("input" + i);
+        cache.get(node, n -> new RuleKeyResult<>(value, deps, ImmutableList.of(input)));
+        chain.add(node);
+      }
+      // Invalidates the second half of the chain.
+      cache.invalidateInputs(ImmutableList.of(input("input" + count / 2)));
+      for (int i = 0; i < count; i++) {
+        assertEquals(i < count / 2, internalCache.isCached(chain.get(i)));
+      }
+      for (int i = 0; i < count / 2; i++) {
+        assertEquals("value" + i, cache.get(chain.get(i), n -> null));
+      }
+    }
+
+    cache.invalidateAll();
+    for (Node node : chain) {
+      assertFalse(internalCache.isCached(node));
+    }
+  }
+
+  private static RuleKeyInput input(String path) {
+    return new ImmutableRuleKeyInput(FILESYSTEM, FILESYSTEM.getPath(path));
+  }
+
+  private static class Node implements AddsToRuleKey {}
+
+  private static class TestRule extends NoopBuildRuleWithDeclaredAndExtraDeps {
+
+    private TestRule() {
+      super(
+          BuildTargetFactory.newInstance("//:rule"),
+          new FakeProjectFilesystem(),
+          TestBuildRuleParams.create());
+    }
+  }
+}
@@ -28,13 +28,20 @@ import com.facebook.buck.core.rules.actions.ImmutableActionExecutionSuccess;
 import com.facebook.buck.core.rules.impl.NoopBuildRuleWithDeclaredAndExtraDeps;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.util.cache.CacheStatsTracker;
 import com.facebook.buck.util.cache.InstrumentingCacheStatsTracker;
 import com.facebook.buck.util.timing.Clock;
 import com.facebook.buck.util.timing.IncrementingFakeClock;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 
@@ -202,6 +209,116 @@ public class DefaultRuleKeyCacheTest {
     assertThat(cache.getStats().getTotalLoadTime().get(), Matchers.equalTo(1L));
   }
 
+  @Test
+  public void testInvalidationTime() {
+    Clock clock = new IncrementingFakeClock(TimeUnit.MILLISECONDS.toNanos(1));
+    TrackedRuleKeyCache<String> cache =
+        new TrackedRuleKeyCache<>(
+            new DefaultRuleKeyCache<>(), new InstrumentingCacheStatsTracker(clock));
+    TestRule rule = new TestRule();
+    RuleKeyInput input = new ImmutableRuleKeyInput(FILESYSTEM, FILESYSTEM.getPath("input"));
+    cache.get(rule, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input)));
+    cache.invalidateInputs(ImmutableList.of(input));
+    assertThat(cache.getStats().getTotalInvalidationTime().get(), Matchers.equalTo(1L));
+    cache.invalidateAll();
+    assertThat(cache.getStats().getTotalInvalidationTime().get(), Matchers.equalTo(2L));
+  }
+
+  @Test
+  public void invalidatingOnExecutorIsAppliedBeforeLookups() {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      DefaultRuleKeyCache<String> internalCache = new DefaultRuleKeyCache<>(executor);
+      TrackedRuleKeyCache<String> cache =
+          new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+
+      // A root with enough dependents to be invalidated in parallel, which each have a dependent.
+      RuleKeyInput input = new ImmutableRuleKeyInput(FILESYSTEM, FILESYSTEM.getPath("input"));
+      RuleKeyInput otherInput = new ImmutableRuleKeyInput(FILESYSTEM, FILESYSTEM.getPath("other"));
+      TestRule root = new TestRule();
+      cache.get(root, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input)));
+      List<TestRule> rules = new ArrayList<>();
+      for (int i = 0; i < 5000; i++) {
+        TestRule middle = new TestRule();
+        cache.get(
+            middle, r -> new RuleKeyResult<>("", ImmutableList.of(root), ImmutableList.of()));
+        TestRule top = new TestRule();
+        cache.get(
+            top, r -> new RuleKeyResult<>("", ImmutableList.of(middle), ImmutableList.of()));
+        rules.add(middle);
+        rules.add(top);
+      }
+      TestRule unrelated = new TestRule();
+      cache.get(
+          unrelated,
+          r -> new RuleKeyResult<>("unrelated", ImmutableList.of(), ImmutableList.of(otherInput)));
+
+      cache.invalidateInputs(ImmutableList.of(input));
+      assertThat(
+          cache.get(
+              unrelated,
+              r -> {
+                throw new IllegalStateException();
+              }),
+          Matchers.equalTo("unrelated"));
+      assertFalse(internalCache.isCached(root));
+      for (TestRule rule : rules) {
+        assertFalse(internalCache.isCached(rule));
+      }
+      assertThat(cache.getStats().getEvictionCount().get(), Matchers.equalTo(10001L));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void failedInvalidationInvalidatesEverythingAndDoesNotBlockLaterOnes() {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      DefaultRuleKeyCache<String> internalCache = new DefaultRuleKeyCache<>(executor);
+      CacheStatsTracker statsTracker = new InstrumentingCacheStatsTracker();
+      // Fails the first invalidation, after it removed the invalidated nodes.
+      AtomicBoolean failed = new AtomicBoolean();
+      CacheStatsTracker failingStatsTracker =
+          (CacheStatsTracker)
+              Proxy.newProxyInstance(
+                  CacheStatsTracker.class.getClassLoader(),
+                  new Class<?>[] {CacheStatsTracker.class},
+                  (proxy, method, args) -> {
+                    if (method.getName().equals("recordEviction") && !failed.getAndSet(true)) {
+                      throw new IllegalStateException("invalidation failed");
+                    }
+                    return method.invoke(statsTracker, args);
+                  });
+
+      RuleKeyInput input = new ImmutableRuleKeyInput(FILESYSTEM, FILESYSTEM.getPath("input"));
+      RuleKeyInput otherInput = new ImmutableRuleKeyInput(FILESYSTEM, FILESYSTEM.getPath("other"));
+      TestRule rule = new TestRule();
+      TestRule unrelated = new TestRule();
+      internalCache.get(
+          rule,
+          r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input)),
+          statsTracker);
+      internalCache.get(
+          unrelated,
+          r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(otherInput)),
+          statsTracker);
+
+      internalCache.invalidateInputs(ImmutableList.of(input), failingStatsTracker);
+      assertFalse(internalCache.isCached(rule));
+      assertFalse(internalCache.isCached(unrelated));
+
+      internalCache.get(
+          unrelated,
+          r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(otherInput)),
+          statsTracker);
+      internalCache.invalidateInputs(ImmutableList.of(otherInput), failingStatsTracker);
+      assertFalse(internalCache.isCached(unrelated));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   private static class TestRule extends NoopBuildRuleWithDeclaredAndExtraDeps {
 
     private TestRule() {
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.TestBuildRuleParams;
+import com.facebook.buck.core.rules.impl.NoopBuildRuleWithDeclaredAndExtraDeps;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.io.watchman.ImmutableWatchmanOverflowEvent;
+import com.facebook.buck.io.watchman.ImmutableWatchmanPathEvent;
+import com.facebook.buck.io.watchman.WatchmanEvent.Kind;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.cache.NoOpCacheStatsTracker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PersistentRuleKeyCacheTest {
+
+  private static final ProjectFilesystem FILESYSTEM = new FakeProjectFilesystem();
+  private static final String FINGERPRINT = "fingerprint";
+  private static final ImmutableMap<Path, String> CLOCKS =
+      ImmutableMap.of(FILESYSTEM.getRootPath(), "c:1:2");
+
+  private static final RuleKey DEP_KEY = new RuleKey("aaaa");
+  private static final RuleKey RULE_KEY = new RuleKey("bbbb");
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path snapshotFile;
+
+  @Before
+  public void setUp() {
+    snapshotFile = tmp.getRoot().resolve("snapshot");
+  }
+
+  @Test
+  public void restoresRuleKeysByBuildTarget() throws IOException {
+    saveSnapshot();
+
+    PersistentRuleKeyCache cache = loadVerified();
+    BuildRule dep = new TestRule("//:dep");
+    BuildRule rule = new TestRule("//:rule", dep);
+    assertEquals(DEP_KEY, cache.get(dep, this::fail, new NoOpCacheStatsTracker()));
+    assertEquals(RULE_KEY, cache.get(rule, this::fail, new NoOpCacheStatsTracker()));
+  }
+
+  @Test
+  public void restoredWatchmanClocks() throws IOException {
+    saveSnapshot();
+    assertEquals(CLOCKS, load().getRestoredWatchmanClocks());
+  }
+
+  @Test
+  public void ignoresSnapshotWithDifferentFingerprint() throws IOException {
+    saveSnapshot();
+    PersistentRuleKeyCache cache =
+        PersistentRuleKeyCache.load(
+            ImmutableSet.of(FILESYSTEM),
+            snapshotFile,
+            () -> "other",
+            MoreExecutors.directExecutor(),
+            PersistentRuleKeyCacheTest::isBuildFile);
+    assertFalse(cache.hasUnverifiedSnapshot());
+    assertEquals(ImmutableMap.of(), cache.getRestoredWatchmanClocks());
+  }
+
+  @Test
+  public void unverifiedSnapshotIsNotUsed() throws IOException {
+    saveSnapshot();
+    PersistentRuleKeyCache cache = load();
+    assertTrue(cache.hasUnverifiedSnapshot());
+    assertEquals(
+        new RuleKey("cccc"),
+        cache.get(
+            new TestRule("//:dep"),
+            r -> new RuleKeyResult<>(new RuleKey("cccc"), ImmutableList.of(), ImmutableList.of()),
+            new NoOpCacheStatsTracker()));
+  }
+
+  @Test
+  public void modifiedInputInvalidatesTransitiveDependents() throws IOException {
+    saveSnapshot();
+
+    PersistentRuleKeyCache cache = load();
+    RuleKeyCacheRecycler<RuleKey> recycler =
+        RuleKeyCacheRecycler.createAndRegister(new EventBus(), cache, ImmutableSet.of(FILESYSTEM));
+    ImmutableWatchmanPathEvent event =
+        ImmutableWatchmanPathEvent.of(
+            FILESYSTEM.getRootPath(), Kind.MODIFY, FILESYSTEM.getPath("dep.txt"));
+    cache.onFilesystemChange(event);
+    recycler.onFilesystemChange(event);
+    cache.markSnapshotVerified();
+
+    RuleKey newKey = new RuleKey("cccc");
+    BuildRule dep = new TestRule("//:dep");
+    BuildRule rule = new TestRule("//:rule", dep);
+    assertEquals(
+        newKey,
+        cache.get(
+            rule,
+            r -> new RuleKeyResult<>(newKey, ImmutableList.of(dep), ImmutableList.of()),
+            new NoOpCacheStatsTracker()));
+  }
+
+  @Test
+  public void modifiedBuildFileDropsSnapshot() throws IOException {
+    saveSnapshot();
+
+    PersistentRuleKeyCache cache = load();
+    cache.onFilesystemChange(
+        ImmutableWatchmanPathEvent.of(
+            FILESYSTEM.getRootPath(), Kind.MODIFY, FILESYSTEM.getPath("BUCK")));
+    assertFalse(cache.hasUnverifiedSnapshot());
+  }
+
+  @Test
+  public void modifiedUnrelatedFileKeepsSnapshot() throws IOException {
+    saveSnapshot();
+
+    PersistentRuleKeyCache cache = load();
+    cache.onFilesystemChange(
+        ImmutableWatchmanPathEvent.of(
+            FILESYSTEM.getRootPath(), Kind.MODIFY, FILESYSTEM.getPath("README")));
+    assertTrue(cache.hasUnverifiedSnapshot());
+  }
+
+  @Test
+  public void createdInputDropsSnapshot() throws IOException {
+    saveSnapshot();
+
+    PersistentRuleKeyCache cache = load();
+    cache.onFilesystemChange(
+        ImmutableWatchmanPathEvent.of(
+            FILESYSTEM.getRootPath(), Kind.CREATE, FILESYSTEM.getPath("dep.txt")));
+    assertFalse(cache.hasUnverifiedSnapshot());
+  }
+
+  @Test
+  public void overflowDropsSnapshot() throws IOException {
+    saveSnapshot();
+
+    PersistentRuleKeyCache cache = load();
+    cache.onFilesystemChange(ImmutableWatchmanOverflowEvent.of(FILESYSTEM.getRootPath(), ""));
+    assertFalse(cache.hasUnverifiedSnapshot());
+  }
+
+  @Test
+  public void snapshotEntryWithMissingDependencyIsNotUsed() throws IOException {
+    saveSnapshot();
+
+    PersistentRuleKeyCache cache = loadVerified();
+    RuleKey newKey = new RuleKey("cccc");
+    BuildRule rule = new TestRule("//:rule", new TestRule("//:other"));
+    assertEquals(
+        newKey,
+        cache.get(
+            rule,
+            r -> new RuleKeyResult<>(newKey, ImmutableList.of(), ImmutableList.of()),
+            new NoOpCacheStatsTracker()));
+  }
+
+  @Test
+  public void savingIsSkippedWhileTheCacheIsInUse() throws IOException {
+    PersistentRuleKeyCache cache = load();
+    cache.get(
+        new TestRule("//:dep"),
+        r -> {
+          try {
+            cache.save(CLOCKS);
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+          return new RuleKeyResult<>(DEP_KEY, ImmutableList.of(), ImmutableList.of());
+        },
+        new NoOpCacheStatsTracker());
+    assertFalse(Files.exists(snapshotFile));
+
+    cache.save(CLOCKS);
+    assertTrue(Files.exists(snapshotFile));
+  }
+
+  private void saveSnapshot() throws IOException {
+    PersistentRuleKeyCache cache = load();
+    BuildRule dep = new TestRule("//:dep");
+    BuildRule rule = new TestRule("//:rule", dep);
+    RuleKeyInput depInput = new ImmutableRuleKeyInput(FILESYSTEM, FILESYSTEM.getPath("dep.txt"));
+    RuleKeyInput ruleInput = new ImmutableRuleKeyInput(FILESYSTEM, FILESYSTEM.getPath("rule.txt"));
+    cache.get(
+        dep,
+        r -> new RuleKeyResult<>(DEP_KEY, ImmutableList.of(), ImmutableList.of(depInput)),
+        new NoOpCacheStatsTracker());
+    cache.get(
+        rule,
+        r -> new RuleKeyResult<>(RULE_KEY, ImmutableList.of(dep), ImmutableList.of(ruleInput)),
+        new NoOpCacheStatsTracker());
+    cache.save(CLOCKS);
+  }
+
+  private PersistentRuleKeyCache load() {
+    return PersistentRuleKeyCache.load(
+        ImmutableSet.of(FILESYSTEM),
+        snapshotFile,
+        () -> FINGERPRINT,
+        MoreExecutors.directExecutor(),
+        PersistentRuleKeyCacheTest::isBuildFile);
+  }
+
+  private static boolean isBuildFile(Path path) {
+    return path.getFileName().toString().equals("BUCK");
+  }
+
+  private PersistentRuleKeyCache loadVerified() {
+    PersistentRuleKeyCache cache = load();
+    assertTrue(cache.hasUnverifiedSnapshot());
+    cache.markSnapshotVerified();
+    return cache;
+  }
+
+  private RuleKeyResult<RuleKey> fail(Object object) {
+    throw new IllegalStateException("unexpected rule key computation for " + object);
+  }
+
+  private static class TestRule extends NoopBuildRuleWithDeclaredAndExtraDeps {
+
+    private TestRule(String target, BuildRule... deps) {
+      super(
+          BuildTargetFactory.newInstance(target),
+          FILESYSTEM,
+          TestBuildRuleParams.create().withDeclaredDeps(ImmutableSortedSet.copyOf(deps)));
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.util.cache.NoOpCacheStatsTracker;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Compares the {@link TrackableRuleKeyCache} implementations used by the daemon on a large
+ * synthetic graph: the time to populate an empty cache, the time to invalidate some inputs, and
+ * (printed during setup) the heap retained by a populated cache.
+ *
+ * <p>The graph is made of modules of {@link #MODULE_SIZE} nodes, where each node has its own
+ * inputs and depends on nodes of the same module.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class RuleKeyCacheBenchmark {
+
+  /** The cache implementation being measured. */
+  public enum CacheType {
+    DEFAULT,
+    COMPACT,
+  }
+
+  @Param({"DEFAULT", "COMPACT"})
+  public CacheType cacheType;
+
+  @Param({"1000000"})
+  public int nodeCount;
+
+  @Param({"3"})
+  public int depsPerNode;
+
+  @Param({"2"})
+  public int inputsPerNode;
+
+  /** The number of inputs invalidated at once. */
+  @Param({"100"})
+  public int changedInputCount;
+
+  private static final int MODULE_SIZE = 1000;
+
+  private final ProjectFilesystem filesystem = new FakeProjectFilesystem();
+  private final Random random = new Random(12345);
+  private final NoOpCacheStatsTracker statsTracker = new NoOpCacheStatsTracker();
+
+  private Node[] nodes;
+  private List<RuleKeyInput> allInputs;
+  private List<RuleKeyInput> changedInputs;
+
+  private TrackableRuleKeyCache<Integer> emptyCache;
+  private TrackableRuleKeyCache<Integer> populatedCache;
+
+  @Setup(Level.Trial)
+  public void setUpGraph() {
+    nodes = new Node[nodeCount];
+    allInputs = new ArrayList<>(nodeCount * inputsPerNode);
+    for (int i = 0; i < nodeCount; i++) {
+      int moduleStart = i - i % MODULE_SIZE;
+      ImmutableList.Builder<Node> deps = ImmutableList.builder();
+      for (int j = 0; j < depsPerNode && i > moduleStart; j++) {
+        deps.add(nodes[moduleStart + random.nextInt(i - moduleStart)]);
+      }
+      ImmutableList.Builder<RuleKeyInput> inputs = ImmutableList.builder();
+      for (int j = 0; j < inputsPerNode; j++) {
+        RuleKeyInput input =
+            new ImmutableRuleKeyInput(
+                filesystem, filesystem.getPath("module" + i / MODULE_SIZE, i + "_" + j + ".java"));
+        inputs.add(input);
+        allInputs.add(input);
+      }
+      nodes[i] = new Node(i, deps.build(), inputs.build());
+    }
+
+    long heapBefore = getUsedHeap();
+    populatedCache = newCache();
+    populate(populatedCache);
+    long retained = getUsedHeap() - heapBefore;
+    System.out.printf(
+        "%n%s retains %d MB for %d nodes%n", cacheType, retained / (1024 * 1024), nodeCount);
+  }
+
+  @Setup(Level.Iteration)
+  public void setUpCaches() {
+    // Release the previous caches before allocating new ones.
+    emptyCache = null;
+    populatedCache = null;
+    emptyCache = newCache();
+    populatedCache = newCache();
+    populate(populatedCache);
+    changedInputs = new ArrayList<>(changedInputCount);
+    for (int i = 0; i < changedInputCount; i++) {
+      changedInputs.add(allInputs.get(random.nextInt(allInputs.size())));
+    }
+  }
+
+  private TrackableRuleKeyCache<Integer> newCache() {
+    switch (cacheType) {
+      case DEFAULT:
+        return new DefaultRuleKeyCache<>();
+      case COMPACT:
+        return new CompactRuleKeyCache<>();
+    }
+    throw new IllegalStateException("Unknown cache type " + cacheType);
+  }
+
+  private static long getUsedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private void populate(TrackableRuleKeyCache<Integer> cache) {
+    for (Node node : nodes) {
+      get(cache, node);
+    }
+  }
+
+  /** Mimics a rule key factory, which gets the keys of dependencies through the cache. */
+  private int get(TrackableRuleKeyCache<Integer> cache, Node node) {
+    return cache.get(
+        node,
+        appendable -> {
+          int key = node.index;
+          for (Node dep : node.deps) {
+            key = key * 31 + get(cache, dep);
+          }
+          return new RuleKeyResult<>(key, node.deps, node.inputs);
+        },
+        statsTracker);
+  }
+
+  @Benchmark
+  public TrackableRuleKeyCache<Integer> populate() {
+    populate(emptyCache);
+    return emptyCache;
+  }
+
+  @Benchmark
+  public TrackableRuleKeyCache<Integer> invalidateInputs() {
+    populatedCache.invalidateInputs(changedInputs, statsTracker);
+    return populatedCache;
+  }
+
+  private static final class Node implements AddsToRuleKey {
+    private final int index;
+    private final ImmutableList<Node> deps;
+    private final ImmutableList<RuleKeyInput> inputs;
+
+    private Node(int index, ImmutableList<Node> deps, ImmutableList<RuleKeyInput> inputs) {
+      this.index = index;
+      this.deps = deps;
+      this.inputs = inputs;
+    }
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+}
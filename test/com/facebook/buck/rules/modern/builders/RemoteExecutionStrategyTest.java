@@ -15,6 +15,7 @@
  */
 package com.facebook.buck.rules.modern.builders;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -26,6 +27,7 @@ import com.facebook.buck.core.model.BuildTargetFactory;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
 import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy.StrategyBuildResult;
 import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventBusForTests;
 import com.facebook.buck.io.filesystem.PathMatcher;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
@@ -40,6 +42,8 @@ import com.facebook.buck.remoteexecution.RemoteExecutionServiceClient.ExecutionR
 import com.facebook.buck.remoteexecution.UploadDataSupplier;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionStrategyConfig;
+import com.facebook.buck.remoteexecution.event.RemoteExecutionActionEvent;
+import com.facebook.buck.remoteexecution.event.RemoteExecutionActionEvent.PrefetchState;
 import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
 import com.facebook.buck.remoteexecution.interfaces.Protocol;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
@@ -54,6 +58,7 @@ import com.facebook.buck.util.types.Unit;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -64,10 +69,12 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.OptionalLong;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -85,9 +92,18 @@ public class RemoteExecutionStrategyTest {
   private final byte[] missingData = "data".getBytes(Charsets.UTF_8);
   private final Digest missingDigest = protocol.computeDigest(missingData);
 
+  private final byte[] prefetchedData = "prefetched".getBytes(Charsets.UTF_8);
+  private final Digest prefetchedDigest = protocol.computeDigest(prefetchedData);
+  private final ImmutableList<UploadDataSupplier> prefetchableInputs =
+      ImmutableList.of(
+          UploadDataSupplier.of(
+              "prefetched", prefetchedDigest, () -> new ByteArrayInputStream(prefetchedData)));
+
   private RemoteExecutionClients clients;
   private ListeningExecutorService service;
   private RemoteExecutionStrategy strategy;
+  private BuckEventBus eventBus;
+  private ModernBuildRule rule;
 
   @After
   public void tearDown() throws Exception {
@@ -97,6 +113,13 @@ public class RemoteExecutionStrategyTest {
   }
 
   public StrategyBuildResult beginBuild() {
+    createStrategy();
+    BuildStrategyContext strategyContext = new SimpleBuildStrategyContext(rule, service);
+    return strategy.build(rule, strategyContext);
+  }
+
+  private void createStrategy() {
+    this.eventBus = BuckEventBusForTests.newInstance();
     this.service = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
 
     RemoteExecutionStrategyConfig strategyConfig = new TestRemoteExecutionConfig();
@@ -127,6 +150,12 @@ public class RemoteExecutionStrategyTest {
             return actionInfo;
           }
 
+          @Override
+          public ImmutableList<UploadDataSupplier> getPrefetchableInputs(
+              ModernBuildRule<?> rule, Predicate<Digest> requiredDataPredicate) {
+            return prefetchableInputs;
+          }
+
           @Override
           public Path getCellPathPrefix() {
             return cellPathPrefix;
@@ -135,7 +164,7 @@ public class RemoteExecutionStrategyTest {
 
     this.strategy =
         new RemoteExecutionStrategy(
-            BuckEventBusForTests.newInstance(),
+            eventBus,
             strategyConfig,
             clients,
             MetadataProviderFactory.emptyMetadataProvider(),
@@ -147,10 +176,7 @@ public class RemoteExecutionStrategyTest {
     ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
     SourcePathRuleFinder ruleFinder = new TestActionGraphBuilder();
     BuildTarget target = BuildTargetFactory.newInstance("//some:target");
-    ModernBuildRule rule = new NoOpModernBuildRule(target, filesystem, ruleFinder);
-
-    BuildStrategyContext strategyContext = new SimpleBuildStrategyContext(rule, service);
-    return strategy.build(rule, strategyContext);
+    this.rule = new NoOpModernBuildRule(target, filesystem, ruleFinder);
   }
 
   @Test
@@ -243,6 +269,109 @@ public class RemoteExecutionStrategyTest {
     strategyBuildResult.getBuildResult().get(2, TimeUnit.SECONDS);
   }
 
+  @Test
+  public void testPrefetchUploadsInputsBeforeTheRuleIsReady() throws Exception {
+    SettableFuture<Collection<UploadDataSupplier>> prefetchUpload = SettableFuture.create();
+    clients =
+        new SimpleRemoteExecutionClients() {
+          @Override
+          public ListenableFuture<Unit> addMissing(Collection<UploadDataSupplier> data) {
+            if (!prefetchUpload.isDone()) {
+              prefetchUpload.set(data);
+            }
+            return super.addMissing(data);
+          }
+        };
+    createStrategy();
+    List<PrefetchState> prefetchStates = new ArrayList<>();
+    eventBus.register(
+        new Object() {
+          @Subscribe
+          public void onPrefetched(RemoteExecutionActionEvent.Prefetched event) {
+            prefetchStates.add(event.getPrefetchState());
+          }
+        });
+
+    strategy.prefetch(rule);
+    assertEquals(
+        ImmutableList.of(prefetchedDigest),
+        prefetchUpload.get(2, TimeUnit.SECONDS).stream()
+            .map(UploadDataSupplier::getDigest)
+            .collect(ImmutableList.toImmutableList()));
+    // Wait for the prefetch to be done with the strategy's executor.
+    service.submit(() -> {}).get(2, TimeUnit.SECONDS);
+
+    strategy.build(rule, new SimpleBuildStrategyContext(rule, service))
+        .getBuildResult()
+        .get(2, TimeUnit.SECONDS);
+    assertEquals(ImmutableList.of(PrefetchState.PREFETCHED), prefetchStates);
+  }
+
+  @Test
+  public void testCancelledPrefetchIsNotUploaded() throws Exception {
+    List<Digest> uploadedDigests = new ArrayList<>();
+    clients =
+        new SimpleRemoteExecutionClients() {
+          @Override
+          public ListenableFuture<Unit> addMissing(Collection<UploadDataSupplier> data) {
+            synchronized (uploadedDigests) {
+              data.forEach(supplier -> uploadedDigests.add(supplier.getDigest()));
+            }
+            return super.addMissing(data);
+          }
+        };
+    createStrategy();
+    List<PrefetchState> prefetchStates = new ArrayList<>();
+    eventBus.register(
+        new Object() {
+          @Subscribe
+          public void onPrefetched(RemoteExecutionActionEvent.Prefetched event) {
+            prefetchStates.add(event.getPrefetchState());
+          }
+        });
+
+    // Keep the prefetch queued until the rule is done, as if it were fetched from a cache.
+    CountDownLatch ruleDone = new CountDownLatch(1);
+    service.submit(
+        () -> {
+          ruleDone.await();
+          return null;
+        });
+    strategy.prefetch(rule);
+    strategy.cancelPrefetch(rule);
+    ruleDone.countDown();
+    service.submit(() -> {}).get(2, TimeUnit.SECONDS);
+
+    strategy.build(rule, new SimpleBuildStrategyContext(rule, service))
+        .getBuildResult()
+        .get(2, TimeUnit.SECONDS);
+    assertEquals(ImmutableList.of(PrefetchState.NOT_PREFETCHED), prefetchStates);
+    synchronized (uploadedDigests) {
+      assertFalse(uploadedDigests.contains(prefetchedDigest));
+    }
+  }
+
+  @Test
+  public void testStartedPrefetchUploadIsNotCancelled() throws Exception {
+    SettableFuture<Unit> prefetchUpload = SettableFuture.create();
+    clients =
+        new SimpleRemoteExecutionClients() {
+          @Override
+          public ListenableFuture<Unit> addMissing(Collection<UploadDataSupplier> data) {
+            return prefetchUpload;
+          }
+        };
+    createStrategy();
+
+    strategy.prefetch(rule);
+    // Wait for the prefetch to be started with the strategy's executor.
+    service.submit(() -> {}).get(2, TimeUnit.SECONDS);
+    strategy.cancelPrefetch(rule);
+    // Other actions may be waiting on the same uploads.
+    assertFalse(prefetchUpload.isCancelled());
+    prefetchUpload.set(null);
+  }
+
   private static class TestRemoteExecutionConfig implements RemoteExecutionStrategyConfig {
 
     @Override
@@ -275,6 +404,11 @@ public class RemoteExecutionStrategyTest {
       return 1;
     }
 
+    @Override
+    public int getMaxConcurrentPrefetches() {
+      return 1;
+    }
+
     @Override
     public boolean isLocalFallbackEnabled() {
       return false;
@@ -304,6 +438,11 @@ public class RemoteExecutionStrategyTest {
     public ImmutableSet<PathMatcher> getIgnorePaths() {
       return ImmutableSet.of();
     }
+
+    @Override
+    public int getMerkleTreeCacheMaxEntries() {
+      return 0;
+    }
   }
 
   private class SimpleRemoteExecutionClients implements RemoteExecutionClients {
@@ -370,6 +509,11 @@ public class RemoteExecutionStrategyTest {
       return Futures.immediateFuture(Unit.UNIT);
     }
 
+    public ListenableFuture<Unit> addMissing(
+        @SuppressWarnings("unused") Collection<UploadDataSupplier> data) {
+      return addMissing();
+    }
+
     public ListenableFuture<Unit> materializeOutputs() {
       return Futures.immediateFuture(null);
     }
@@ -389,7 +533,7 @@ public class RemoteExecutionStrategyTest {
       return new ContentAddressedStorageClient() {
         @Override
         public ListenableFuture<Unit> addMissing(Collection<UploadDataSupplier> data) {
-          return SimpleRemoteExecutionClients.this.addMissing();
+          return SimpleRemoteExecutionClients.this.addMissing(data);
         }
 
         @Override
@@ -24,6 +24,7 @@ import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.core.cell.CellPathResolver;
@@ -49,9 +50,11 @@ import com.facebook.buck.cxx.RelativeLinkArg;
 import com.facebook.buck.rules.modern.CustomClassSerialization;
 import com.facebook.buck.rules.modern.CustomFieldSerialization;
 import com.facebook.buck.rules.modern.EmptyMemoizerDeserialization;
+import com.facebook.buck.rules.modern.OutputPath;
 import com.facebook.buck.rules.modern.PathSerialization;
 import com.facebook.buck.rules.modern.RemoteExecutionEnabled;
 import com.facebook.buck.rules.modern.SerializationTestHelper;
+import com.facebook.buck.rules.modern.Serializer;
 import com.facebook.buck.rules.modern.SourcePathResolverSerialization;
 import com.facebook.buck.rules.modern.ValueCreator;
 import com.facebook.buck.rules.modern.ValueVisitor;
@@ -70,6 +73,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Test;
@@ -414,6 +418,39 @@ public class BuildableSerializerTest extends AbstractValueVisitorTest {
     }
   }
 
+  @Test
+  public void repeatedStringsAndPaths() throws Exception {
+    WithRepeatedStrings instance = new WithRepeatedStrings();
+    test(instance);
+
+    // Each distinct string is written once, later occurrences are only a reference to it. Writing
+    // every occurrence in full would take over 40KB.
+    byte[] serialized =
+        new Serializer(
+                ruleFinder,
+                cellResolver,
+                (value, data, children) -> {
+                  throw new IllegalStateException();
+                })
+            .reserialize(instance);
+    assertThat(serialized.length, Matchers.lessThan(15 * 1000));
+  }
+
+  private static class WithRepeatedStrings implements FakeBuildable {
+    // More than 128 distinct strings and elements, so that indices and sizes take several bytes.
+    @AddToRuleKey
+    private final ImmutableList<String> strings =
+        IntStream.range(0, 1000)
+            .mapToObj(i -> "some fairly long string " + (i % 200))
+            .collect(ImmutableList.toImmutableList());
+
+    @AddToRuleKey
+    private final ImmutableList<OutputPath> outputs =
+        IntStream.range(0, 400)
+            .mapToObj(i -> new OutputPath(Paths.get("some", "output", "directory", i % 3 + ".o")))
+            .collect(ImmutableList.toImmutableList());
+  }
+
   @Test
   public void customClassBehavior() throws Exception {
     test(new WithCustomClassBehavior());
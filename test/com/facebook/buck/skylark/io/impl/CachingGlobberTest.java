@@ -25,6 +25,8 @@ import com.facebook.buck.skylark.io.GlobSpecWithResult;
 import com.facebook.buck.skylark.io.Globber;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.Set;
 import javax.annotation.Nullable;
@@ -99,6 +101,29 @@ public class CachingGlobberTest {
                     ImmutableSet.of("path")))));
   }
 
+  @Test
+  public void reusesResultsOfPreviousParsesOfThePackage() throws Exception {
+    GlobResultCache globResultCache = new GlobResultCache();
+    Path packageRoot = Paths.get("/repo/foo");
+    ImmutableSet<String> expectedExpandedPaths = ImmutableSet.of("path");
+    fakeGlobber.returnResultOnNextInvocations(expectedExpandedPaths);
+    CachingGlobber.of(fakeGlobber, globResultCache, packageRoot)
+        .run(ImmutableList.of("path"), ImmutableList.of(), false);
+
+    fakeGlobber.returnResultOnNextInvocations(ImmutableSet.of());
+    CachingGlobber reparse = CachingGlobber.of(fakeGlobber, globResultCache, packageRoot);
+    assertThat(
+        reparse.run(ImmutableList.of("path"), ImmutableList.of(), false),
+        is(expectedExpandedPaths));
+    assertThat(reparse.createGlobManifest().size(), is(1));
+
+    globResultCache.invalidateAncestorsOf(packageRoot.resolve("path"));
+    assertThat(
+        CachingGlobber.of(fakeGlobber, globResultCache, packageRoot)
+            .run(ImmutableList.of("path"), ImmutableList.of(), false),
+        is(ImmutableSet.of()));
+  }
+
   private static class FakeGlobber implements Globber {
     @Nullable private Set<String> result;
 
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import org.junit.Test;
+
+public class GlobResultCacheTest {
+
+  private static final Path PACKAGE = Paths.get("/repo/foo");
+  private static final Path OTHER_PACKAGE = Paths.get("/repo/bar");
+  private static final GlobSpec SPEC =
+      GlobSpec.builder()
+          .setInclude(ImmutableList.of("**/*.java"))
+          .setExclude(ImmutableList.of())
+          .setExcludeDirectories(true)
+          .build();
+
+  private final GlobResultCache cache = new GlobResultCache();
+
+  @Test
+  public void returnsStoredResults() {
+    assertFalse(cache.get(PACKAGE, SPEC).isPresent());
+    cache.put(PACKAGE, SPEC, ImmutableSet.of("A.java"), cache.getGeneration());
+    assertEquals(Optional.of(ImmutableSet.of("A.java")), cache.get(PACKAGE, SPEC));
+    assertFalse(cache.get(OTHER_PACKAGE, SPEC).isPresent());
+  }
+
+  @Test
+  public void creatingAFileInvalidatesTheEnclosingPackages() {
+    cache.put(Paths.get("/repo"), SPEC, ImmutableSet.of(), cache.getGeneration());
+    cache.put(PACKAGE, SPEC, ImmutableSet.of("A.java"), cache.getGeneration());
+    cache.put(OTHER_PACKAGE, SPEC, ImmutableSet.of("B.java"), cache.getGeneration());
+
+    cache.invalidateAncestorsOf(PACKAGE.resolve("sub/C.java"));
+
+    assertFalse(cache.get(Paths.get("/repo"), SPEC).isPresent());
+    assertFalse(cache.get(PACKAGE, SPEC).isPresent());
+    assertEquals(Optional.of(ImmutableSet.of("B.java")), cache.get(OTHER_PACKAGE, SPEC));
+    assertEquals(2, cache.getStats().getInvalidatedPackages());
+  }
+
+  @Test
+  public void resultsComputedBeforeAnInvalidationAreNotStored() {
+    long generation = cache.getGeneration();
+    cache.invalidateAncestorsOf(PACKAGE.resolve("A.java"));
+    cache.put(PACKAGE, SPEC, ImmutableSet.of(), generation);
+    assertFalse(cache.get(PACKAGE, SPEC).isPresent());
+  }
+
+  @Test
+  public void invalidatingACellOnlyDropsItsPackages() {
+    cache.put(PACKAGE, SPEC, ImmutableSet.of("A.java"), cache.getGeneration());
+    cache.put(Paths.get("/other/baz"), SPEC, ImmutableSet.of(), cache.getGeneration());
+
+    cache.invalidateUnder(Paths.get("/repo"));
+
+    assertFalse(cache.get(PACKAGE, SPEC).isPresent());
+    assertEquals(Optional.of(ImmutableSet.of()), cache.get(Paths.get("/other/baz"), SPEC));
+    assertEquals(1, cache.getStats().getInvalidatedPackages());
+  }
+
+  @Test
+  public void statsAreReportedOnce() {
+    cache.get(PACKAGE, SPEC);
+    cache.put(PACKAGE, SPEC, ImmutableSet.of(), cache.getGeneration());
+    cache.get(PACKAGE, SPEC);
+    cache.get(PACKAGE, SPEC);
+
+    GlobResultCache.Stats stats = cache.getStatsSinceLastReport();
+    assertEquals(2, stats.getHits());
+    assertEquals(1, stats.getMisses());
+
+    cache.get(OTHER_PACKAGE, SPEC);
+    stats = cache.getStatsSinceLastReport();
+    assertEquals(0, stats.getHits());
+    assertEquals(1, stats.getMisses());
+  }
+}
@@ -104,4 +104,20 @@ public class CacheStatsTest {
     assertEquals(Optional.empty(), minusStats.getTotalMissTime());
     assertEquals(Optional.of(400L), minusStats.getNumberEntries());
   }
+
+  @Test
+  public void testAggregateInvalidationTime() {
+    CacheStats stats1 = CacheStats.builder().setTotalInvalidationTime(30L).build();
+    CacheStats stats2 = CacheStats.builder().setTotalInvalidationTime(10L).build();
+
+    assertEquals(Optional.of(40L), stats1.add(stats2).getTotalInvalidationTime());
+    assertEquals(Optional.of(20L), stats1.subtract(stats2).getTotalInvalidationTime());
+    assertEquals(
+        Optional.empty(),
+        CacheStats.builder()
+            .setHitCount(1L)
+            .build()
+            .add(CacheStats.builder().build())
+            .getTotalInvalidationTime());
+  }
 }
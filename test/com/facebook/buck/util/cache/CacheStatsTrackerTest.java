@@ -329,4 +329,21 @@ public class CacheStatsTrackerTest {
     CacheStatsTracker.CacheRequest request = tracker.startRequest();
     request.recordLoadFail();
   }
+
+  @Test
+  public void testRecordInvalidation() {
+    clock.setCurrentTimeMillis(2);
+    CacheStatsTracker.CacheInvalidation first = tracker.startInvalidation();
+    clock.setCurrentTimeMillis(4);
+    CacheStatsTracker.CacheInvalidation second = tracker.startInvalidation();
+    clock.setCurrentTimeMillis(7);
+    first.recordDone();
+    assertEquals(5L, tracker.getTotalInvalidationTime());
+    clock.setCurrentTimeMillis(10);
+    second.recordDone();
+    assertEquals(11L, tracker.getTotalInvalidationTime());
+    assertEquals(0L, tracker.getTotalHitCount());
+    assertEquals(0L, tracker.getTotalMissCount());
+    assertEquals(0L, tracker.getTotalEvictionCount());
+  }
 }
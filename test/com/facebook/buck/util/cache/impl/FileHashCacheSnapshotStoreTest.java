@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.io.watchman.ImmutableWatchmanPathEvent;
+import com.facebook.buck.io.watchman.WatchmanEvent.Kind;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.EnumSet;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class FileHashCacheSnapshotStoreTest {
+  private static final String FINGERPRINT = "fingerprint";
+
+  private final FileHashCacheMode fileHashCacheMode;
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private Path snapshotFile;
+  private ImmutableMap<Path, String> clocks;
+
+  @Parameterized.Parameters(name = "{0}")
+  public static Collection<Object[]> data() {
+    return EnumSet.allOf(FileHashCacheMode.class).stream()
+        .map(v -> new Object[] {v})
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  public FileHashCacheSnapshotStoreTest(FileHashCacheMode fileHashCacheMode) {
+    this.fileHashCacheMode = fileHashCacheMode;
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.newFolder("cell"));
+    snapshotFile = tmp.getRoot().resolve("snapshot");
+    clocks = ImmutableMap.of(filesystem.getRootPath(), "c:0:1");
+  }
+
+  @Test
+  public void savedHashesAreRestoredWithoutRehashing() throws IOException {
+    Path path = Paths.get("SomeClass.java");
+    writeFile(path, "original");
+    HashCode originalHash = saveSnapshotWithHashOf(path);
+
+    // Changes which aren't replayed to the cache are not seen by restored entries.
+    writeFile(path, "changed");
+    WatchedFileHashCache cache = newCache();
+    FileHashCacheSnapshotStore store = load(cache, FINGERPRINT);
+
+    assertTrue(store.hasUnverifiedSnapshot());
+    assertEquals(clocks, store.getRestoredWatchmanClocks());
+    assertEquals(originalHash, cache.get(path));
+  }
+
+  @Test
+  public void replayedChangesInvalidateRestoredHashes() throws IOException {
+    Path path = Paths.get("SomeClass.java");
+    writeFile(path, "original");
+    HashCode originalHash = saveSnapshotWithHashOf(path);
+
+    writeFile(path, "changed");
+    WatchedFileHashCache cache = newCache();
+    FileHashCacheSnapshotStore store = load(cache, FINGERPRINT);
+    cache.onFileSystemChange(
+        ImmutableWatchmanPathEvent.of(filesystem.getRootPath(), Kind.MODIFY, path));
+    store.markSnapshotVerified();
+
+    assertFalse(store.hasUnverifiedSnapshot());
+    assertNotEquals(originalHash, cache.get(path));
+  }
+
+  @Test
+  public void droppingSnapshotClearsRestoredHashes() throws IOException {
+    Path path = Paths.get("SomeClass.java");
+    writeFile(path, "original");
+    saveSnapshotWithHashOf(path);
+
+    WatchedFileHashCache cache = newCache();
+    FileHashCacheSnapshotStore store = load(cache, FINGERPRINT);
+    store.dropSnapshot();
+
+    assertFalse(store.hasUnverifiedSnapshot());
+    assertEquals(ImmutableMap.of(), store.getRestoredWatchmanClocks());
+    assertEquals(ImmutableMap.of(), cache.getCachedFileHashes());
+  }
+
+  @Test
+  public void snapshotWithDifferentFingerprintIsIgnored() throws IOException {
+    Path path = Paths.get("SomeClass.java");
+    writeFile(path, "original");
+    saveSnapshotWithHashOf(path);
+
+    WatchedFileHashCache cache = newCache();
+    FileHashCacheSnapshotStore store = load(cache, "other");
+
+    assertFalse(store.hasUnverifiedSnapshot());
+    assertEquals(ImmutableMap.of(), cache.getCachedFileHashes());
+  }
+
+  @Test
+  public void unreadableSnapshotIsIgnored() throws IOException {
+    Files.write(snapshotFile, new byte[] {1, 2, 3});
+
+    WatchedFileHashCache cache = newCache();
+    FileHashCacheSnapshotStore store = load(cache, FINGERPRINT);
+
+    assertFalse(store.hasUnverifiedSnapshot());
+    assertEquals(ImmutableMap.of(), cache.getCachedFileHashes());
+  }
+
+  private WatchedFileHashCache newCache() {
+    return new WatchedFileHashCache(filesystem, fileHashCacheMode);
+  }
+
+  private FileHashCacheSnapshotStore load(WatchedFileHashCache cache, String fingerprint) {
+    return FileHashCacheSnapshotStore.load(ImmutableList.of(cache), snapshotFile, fingerprint);
+  }
+
+  private HashCode saveSnapshotWithHashOf(Path path) throws IOException {
+    WatchedFileHashCache cache = newCache();
+    FileHashCacheSnapshotStore store = load(cache, FINGERPRINT);
+    HashCode hashCode = cache.get(path);
+    store.save(clocks);
+    return hashCode;
+  }
+
+  private void writeFile(Path path, String contents) throws IOException {
+    filesystem.writeContentsToPath(contents, path);
+  }
+}
@@ -33,6 +33,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.hamcrest.Matchers;
@@ -153,6 +154,30 @@ public class ResourcePoolTest {
     }
   }
 
+  @Test
+  public void resourcesAreRetiredAfterUseWhenRequested() throws Exception {
+    try (Fixture f =
+        new Fixture(
+            /* maxResources */ 1,
+            (id) -> {},
+            ResourcePool.ResourceUsageErrorPolicy.RECYCLE,
+            r -> r.getTestResourceId() == 0)) {
+      ListeningExecutorService executorService = MoreExecutors.newDirectExecutorService();
+      List<ListenableFuture<TestResource>> results =
+          Stream.of(0, 1, 2)
+              .map(i -> f.getPool().scheduleOperationWithResource(r -> r, executorService))
+              .collect(Collectors.toList());
+
+      Futures.allAsList(results).get();
+
+      // The first resource is retired after its first use, the second one is kept.
+      assertThat(f.getCreatedResources().get(), equalTo(2));
+      assertThat(results.get(0).get().getTestResourceId(), equalTo(0));
+      assertThat(results.get(1).get().getTestResourceId(), equalTo(1));
+      assertThat(results.get(2).get().getTestResourceId(), equalTo(1));
+    }
+  }
+
   private static class TestResource implements AutoCloseable {
     private final int id;
 
@@ -194,6 +219,14 @@ public class ResourcePoolTest {
         int maxResources,
         Consumer<Integer> beforeResourceCreatedFunction,
         ResourcePool.ResourceUsageErrorPolicy errorPolicy) {
+      this(maxResources, beforeResourceCreatedFunction, errorPolicy, r -> false);
+    }
+
+    public Fixture(
+        int maxResources,
+        Consumer<Integer> beforeResourceCreatedFunction,
+        ResourcePool.ResourceUsageErrorPolicy errorPolicy,
+        Predicate<TestResource> shouldRetireAfterUse) {
       this.maxResources = maxResources;
       this.createdResources = new AtomicInteger(0);
       this.createdResourcesSet = new HashSet<>();
@@ -218,7 +251,8 @@ public class ResourcePoolTest {
                   createdResourcesSet.add(testResource);
                 }
                 return testResource;
-              });
+              },
+              shouldRetireAfterUse);
       executorService =
           MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(maxResources));
     }
@@ -27,15 +27,18 @@ import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
@@ -322,6 +325,40 @@ public class UntarTest {
     assertExecutable(expectedPaths.subList(1, expectedPaths.size()), false);
   }
 
+  @Test
+  public void extractsArchivesAsTheyAreRead() throws IOException {
+    ImmutableList<Path> expectedPaths =
+        ImmutableList.of(
+            Paths.get("root", "echo.sh"),
+            Paths.get("root", "alternative", "Main.java"),
+            Paths.get("root", "alternative", "Link.java"),
+            Paths.get("root", "src", "com", "facebook", "buck", "Main.java"),
+            Paths.get("root_sibling", "Other.java"));
+
+    List<Path> extractedPaths = new ArrayList<>();
+    ImmutableSet<Path> unarchivedFiles;
+    try (InputStream archiveStream =
+        Files.newInputStream(getTestFilePath(ArchiveFormat.TAR_GZ.getExtension()))) {
+      unarchivedFiles =
+          Untar.gzipUnarchiver()
+              .extractArchive(
+                  archiveStream,
+                  filesystem,
+                  ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES,
+                  extractedPaths::add);
+      // The rest of the stream is left to the caller.
+      ByteStreams.exhaust(archiveStream);
+    }
+
+    Assert.assertThat(unarchivedFiles, Matchers.containsInAnyOrder(expectedPaths.toArray()));
+    Assert.assertThat(extractedPaths, Matchers.containsInAnyOrder(expectedPaths.toArray()));
+    assertOutputFileExists(expectedPaths.get(0), echoDotSh);
+    assertOutputSymlinkExists(expectedPaths.get(1), Paths.get("Link.java"), mainDotJava);
+    assertOutputFileExists(expectedPaths.get(3), mainDotJava);
+    assertOutputFileExists(expectedPaths.get(4), otherDotJava);
+    assertExecutable(expectedPaths.get(0), true);
+  }
+
   @Test
   public void extractsFilesWithStrippedPrefix() throws IOException {
     ArchiveFormat format = ArchiveFormat.TAR;